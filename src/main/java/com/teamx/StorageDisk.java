@@ -1,7 +1,7 @@
 package com.teamx;
 
 public enum StorageDisk {
-    LOCAL("local"), AWS_S3("aws-s3");
+    LOCAL("local"), AWS_S3("aws-s3"), TIERED("tiered"), DEDUP("dedup"), PACKED("packed");
 
     private final String value;
 
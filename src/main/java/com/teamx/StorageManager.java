@@ -1,78 +1,412 @@
 package com.teamx;
 
+import com.teamx.config.DiskConfig;
 import com.teamx.config.StorageConfig;
+import com.teamx.disks.AsyncStorage;
+import com.teamx.disks.CachingStorage;
+import com.teamx.disks.CompressedStorage;
+import com.teamx.disks.DedupStorage;
+import com.teamx.disks.InstrumentedStorage;
 import com.teamx.disks.LocalStorage;
+import com.teamx.disks.PackedStorage;
+import com.teamx.disks.RateLimitedStorage;
+import com.teamx.disks.ResilientStorage;
 import com.teamx.disks.S3Storage;
 import com.teamx.disks.Storage;
+import com.teamx.disks.TieredStorage;
+import com.teamx.metrics.StorageMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 //import com.teamx.disks.FtpStorage;
 
+import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * Factory class to manage and provide access to storage implementations
+ * <p>
+ * Configured disks are built lazily on their first use, so startup does not
+ * wait for any disk and a slow or broken disk only fails the calls that use it.
+ * {@link #warmUp()} builds all disks in parallel in the background instead.
+ * <p>
+ * Disks are kept in an immutable registry that is replaced atomically, so
+ * {@link #disk(String)} never locks once a disk is built. {@link #reload(StorageConfig)}
+ * rebuilds only the disks whose configuration changed; disks that are replaced
+ * or removed stay open for a grace period so operations already running on them
+ * can finish, and are closed afterwards. Disks that keep exclusive local state,
+ * like the segments of a packed disk or the index of a dedup disk, are handed
+ * over earlier when their replacement opens the same state: the old disk stays
+ * in use until the new one is first used, which closes it before opening.
  */
-public class StorageManager {
-    private final Map<String, Storage> disks = new HashMap<>();
-    private String defaultDisk;
+public class StorageManager implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StorageManager.class);
+    private static final int WARM_UP_THREADS = 8;
+
+    private final AtomicReference<Registry> registry = new AtomicReference<>();
+    private final StorageMetrics metrics = new StorageMetrics();
+    private final Object writeLock = new Object();
+    private volatile CompletableFuture<Void> ready = CompletableFuture.completedFuture(null);
+    private ScheduledExecutorService closer;
+    private final Set<DiskHolder> retiring = ConcurrentHashMap.newKeySet();
+    private long closeGracePeriod = new StorageConfig().getCloseGracePeriod();
+    private boolean closed;
 
     /**
      * Initialize StorageManager with default configuration
      */
     public StorageManager() {
-        defaultDisk = "local";
+        registry.set(new Registry(Map.of(), "local"));
     }
 
     /**
-     * Initialize StorageManager with configuration
+     * Initialize StorageManager with configuration. Disks are built on first use,
+     * or in the background when warm-up is enabled in the configuration.
      *
      * @param config Storage configuration
      */
     public StorageManager(StorageConfig config) {
-        this.defaultDisk = config.getDefaultDisk();
+        registry.set(new Registry(Map.of(), config.getDefaultDisk()));
+        reload(config);
+    }
 
-        // Setup configured disks
-        config.getDisks().forEach((diskName, diskConfig) -> {
-            String driver = diskConfig.getDriver();
-            StorageDisk disk = StorageDisk.resolveDisk(driver);
+    /**
+     * Replace the configured disks with those of a new configuration.
+     * <p>
+     * Disks whose driver, options and referenced disks are unchanged are kept as
+     * they are. The configuration is checked before anything is swapped, so an
+     * invalid configuration leaves the current disks in place. Disks that are no
+     * longer used are closed once the close grace period of the new
+     * configuration has passed. Disks added with {@link #addDisk} are kept unless
+     * the configuration defines a disk of the same name.
+     *
+     * @param config New storage configuration
+     */
+    public void reload(StorageConfig config) {
+        synchronized (writeLock) {
+            if (closed) {
+                throw new IllegalStateException("Storage manager is closed");
+            }
+
+            Registry current = registry.get();
+            Map<String, List<String>> references = validate(config);
+            Map<String, DiskHolder> holders = new HashMap<>();
+            config.getDisks().keySet().forEach(name -> holderFor(name, config, references, current, holders));
+
+            Map<String, DiskHolder> disks = new HashMap<>();
+            current.disks.forEach((name, holder) -> {
+                if (!holder.owned) {
+                    disks.put(name, holder);
+                }
+            });
+            disks.putAll(holders);
+
+            Set<DiskHolder> existing = Collections.newSetFromMap(new IdentityHashMap<>());
+            existing.addAll(current.disks.values());
+            List<DiskHolder> retired = current.disks.values().stream()
+                    .filter(holder -> holder.owned && !holders.containsValue(holder))
+                    .collect(Collectors.toList());
+            // A new disk that opens the local state of a retired one closes it on first use
+            Map<String, DiskHolder> retiredStates = new HashMap<>();
+            retired.stream().filter(holder -> holder.exclusiveState() != null)
+                    .forEach(holder -> retiredStates.put(holder.exclusiveState(), holder));
+            holders.values().stream().filter(holder -> !existing.contains(holder) && holder.exclusiveState() != null)
+                    .forEach(holder -> holder.predecessor = retiredStates.get(holder.exclusiveState()));
+
+            registry.set(new Registry(disks, config.getDefaultDisk()));
+            closeGracePeriod = config.getCloseGracePeriod();
+            retire(retired);
+
+            if (config.isWarmUp()) {
+                warmUp();
+            }
+        }
+    }
+
+    /**
+     * Check the drivers and disk references of a configuration without building anything
+     *
+     * @param config Storage configuration
+     * @return Names of the disks each disk refers to
+     */
+    private static Map<String, List<String>> validate(StorageConfig config) {
+        Map<String, List<String>> references = new HashMap<>();
+        config.getDisks().forEach((name, diskConfig) -> references.put(name, references(diskConfig)));
+
+        Set<String> checked = new HashSet<>();
+        for (String name : references.keySet()) {
+            checkReferences(name, references, checked, new HashSet<>());
+        }
+        return references;
+    }
 
-            switch (disk) {
-                case LOCAL:
-                    disks.put(diskName, new LocalStorage(diskConfig));
-                    break;
-                case AWS_S3:
-                    disks.put(diskName, new S3Storage(diskConfig));
-                    break;
-                /*case "ftp":
-                    disks.put(diskName, new FtpStorage(diskConfig));
-                    break;*/
-                default:
-                    throw new IllegalArgumentException("Unsupported driver: " + driver);
+    private static void checkReferences(String name, Map<String, List<String>> references,
+                                        Set<String> checked, Set<String> path) {
+        if (checked.contains(name)) {
+            return;
+        }
+        if (!path.add(name)) {
+            throw new IllegalArgumentException("Circular disk reference: " + name);
+        }
+        for (String ref : references.get(name)) {
+            if (!references.containsKey(ref)) {
+                throw new IllegalArgumentException("Disk not found: " + ref);
             }
-        });
+            checkReferences(ref, references, checked, path);
+        }
+        path.remove(name);
+        checked.add(name);
+    }
+
+    /**
+     * Get the names of the disks a disk is built on
+     *
+     * @param diskConfig Disk configuration
+     * @return Referenced disk names
+     */
+    private static List<String> references(DiskConfig diskConfig) {
+        StorageDisk disk = StorageDisk.resolveDisk(diskConfig.getDriver());
+        if (disk == null) {
+            throw new IllegalArgumentException("Unsupported driver: " + diskConfig.getDriver());
+        }
+
+        if (disk == StorageDisk.TIERED) {
+            return List.of(requireOption(diskConfig, "remote"));
+        }
+        if (disk == StorageDisk.DEDUP || disk == StorageDisk.PACKED) {
+            return List.of(requireOption(diskConfig, "backend"));
+        }
+        return List.of();
+    }
+
+    /**
+     * Get the holder of a configured disk, creating the holders of the disks it
+     * refers to first. A holder with the same configuration and the same
+     * referenced holders is reused.
+     */
+    private DiskHolder holderFor(String name, StorageConfig config, Map<String, List<String>> references,
+                                 Registry current, Map<String, DiskHolder> holders) {
+        DiskHolder existing = holders.get(name);
+        if (existing != null) {
+            return existing;
+        }
+
+        List<String> refs = references.get(name);
+        refs.forEach(ref -> holderFor(ref, config, references, current, holders));
+
+        DiskHolder previous = current.disks.get(name);
+        DiskConfig diskConfig = config.getDisks().get(name);
+        DiskHolder holder;
+        if (previous != null && previous.owned && previous.sameConfig(diskConfig)
+                && refs.stream().allMatch(ref -> holders.get(ref) == current.disks.get(ref))) {
+            holder = previous;
+        } else {
+            DiskConfig snapshot = new DiskConfig(diskConfig.getDriver()).setOptions(new HashMap<>(diskConfig.getOptions()));
+            holder = new DiskHolder(name, snapshot, refs, () ->
+                    decorate(name, createDisk(snapshot, ref -> holders.get(ref).get()), snapshot));
+        }
+
+        holders.put(name, holder);
+        return holder;
+    }
+
+    /**
+     * Create the storage implementation for a disk configuration
+     *
+     * @param diskConfig   Disk configuration
+     * @param diskResolver Resolves other disks by name, for drivers that wrap another disk
+     * @return Storage implementation
+     */
+    private Storage createDisk(DiskConfig diskConfig, Function<String, Storage> diskResolver) {
+        String driver = diskConfig.getDriver();
+        StorageDisk disk = StorageDisk.resolveDisk(driver);
+
+        if (disk == null) {
+            throw new IllegalArgumentException("Unsupported driver: " + driver);
+        }
+
+        switch (disk) {
+            case LOCAL:
+                return new LocalStorage(diskConfig);
+            case AWS_S3:
+                return new S3Storage(diskConfig);
+            case TIERED:
+                return new TieredStorage(diskResolver.apply(requireOption(diskConfig, "remote")), diskConfig);
+            case DEDUP:
+                return new DedupStorage(diskResolver.apply(requireOption(diskConfig, "backend")), diskConfig);
+            case PACKED:
+                return new PackedStorage(diskResolver.apply(requireOption(diskConfig, "backend")), diskConfig);
+            /*case "ftp":
+                return new FtpStorage(diskConfig);*/
+            default:
+                throw new IllegalArgumentException("Unsupported driver: " + driver);
+        }
+    }
+
+    private static String requireOption(DiskConfig diskConfig, String key) {
+        String value = diskConfig.getOption(key);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Option " + key + " is required for driver: " + diskConfig.getDriver());
+        }
+        return value;
+    }
+
+    /**
+     * Apply the decorators enabled in the disk configuration. Metrics wrap the
+     * driver directly, so they count the calls that reach the disk, including
+     * every retry and hedged request, rather than those answered by a cache.
+     * Rate limits sit inside the retries so that retries are limited as well.
+     * Compression sits inside the retries too, so a retried put compresses the
+     * replayed content again rather than needing a replayable compressed stream.
+     *
+     * @param name       Disk name
+     * @param storage    Storage implementation
+     * @param diskConfig Disk configuration
+     * @return Decorated storage
+     */
+    private Storage decorate(String name, Storage storage, DiskConfig diskConfig) {
+        if (Boolean.parseBoolean(diskConfig.getOption("metrics", "true"))) {
+            storage = new InstrumentedStorage(storage,
+                    metrics.disk(name, diskConfig.getIntOption("metrics_hot_keys", 0)));
+        }
+        if (diskConfig.getOption("rate_limit") != null || diskConfig.getOption("prefix_rate_limit") != null
+                || diskConfig.getOption("max_in_flight") != null) {
+            storage = new RateLimitedStorage(storage, diskConfig);
+        }
+        if (diskConfig.getOption("compression") != null) {
+            storage = new CompressedStorage(storage, diskConfig);
+        }
+        if (Boolean.parseBoolean(diskConfig.getOption("resilient", "false"))) {
+            storage = new ResilientStorage(storage, diskConfig);
+        }
+        if (Boolean.parseBoolean(diskConfig.getOption("metadata_cache", "false"))) {
+            storage = new CachingStorage(storage, diskConfig);
+        }
+        return storage;
     }
 
     /**
-     * Add a disk to the manager
+     * Build every disk that is not built yet, in parallel and in the background.
+     * A disk that fails to build does not hold up the others; it is built
+     * again on its next use.
+     *
+     * @return Future completing when all disks are built, exceptionally if any of them failed
+     */
+    public CompletableFuture<Void> warmUp() {
+        List<DiskHolder> pending = registry.get().disks.values().stream()
+                .filter(holder -> !holder.isBuilt())
+                .collect(Collectors.toList());
+        if (pending.isEmpty()) {
+            return ready;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(pending.size(), WARM_UP_THREADS),
+                daemonThreads("storage-warm-up"));
+        CompletableFuture<?>[] builds = pending.stream()
+                .map(holder -> CompletableFuture.runAsync(holder::get, executor))
+                .toArray(CompletableFuture[]::new);
+
+        CompletableFuture<Void> all = CompletableFuture.allOf(builds);
+        all.whenComplete((result, error) -> executor.shutdown());
+        ready = all;
+        return all;
+    }
+
+    /**
+     * Get the future of the latest warm-up
+     *
+     * @return Future completing when the disks of the latest warm-up are built,
+     * already complete if no warm-up was started
+     */
+    public CompletableFuture<Void> ready() {
+        return ready;
+    }
+
+    /**
+     * Close disks once the grace period has passed
+     */
+    private void retire(List<DiskHolder> holders) {
+        if (holders.isEmpty()) {
+            return;
+        }
+
+        long gracePeriod = closeGracePeriod;
+        if (gracePeriod == 0) {
+            holders.forEach(DiskHolder::close);
+            return;
+        }
+
+        // Whoever removes a holder from the set closes it: the closer or close()
+        retiring.addAll(holders);
+        if (closer == null) {
+            closer = Executors.newSingleThreadScheduledExecutor(daemonThreads("storage-manager-closer"));
+        }
+        closer.schedule(() -> holders.stream().filter(retiring::remove).forEach(DiskHolder::close),
+                gracePeriod, TimeUnit.MILLISECONDS);
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Add a disk to the manager. The disk stays owned by the caller and is not
+     * closed by the manager. A configured disk it replaces is closed after the
+     * grace period, unless another disk still refers to it.
      *
      * @param name    Disk name
      * @param storage Storage implementation
      */
     public void addDisk(String name, Storage storage) {
-        disks.put(name, storage);
+        synchronized (writeLock) {
+            Registry current = registry.get();
+            Map<String, DiskHolder> disks = new HashMap<>(current.disks);
+            DiskHolder replaced = disks.put(name, new DiskHolder(name, storage));
+            registry.set(new Registry(disks, current.defaultDisk));
+
+            if (replaced != null && replaced.owned && disks.values().stream()
+                    .noneMatch(holder -> holder.references.contains(name))) {
+                retire(List.of(replaced));
+            }
+        }
     }
 
     /**
-     * Get a specific disk
+     * Get a specific disk, building it on first use
      *
      * @param name Disk name
      * @return Storage implementation
+     * @throws StorageException if the disk cannot be built
      */
     public Storage disk(String name) {
-        if (!disks.containsKey(name)) {
+        DiskHolder holder = registry.get().disks.get(name);
+        if (holder == null) {
             throw new IllegalArgumentException("Disk not found: " + name);
         }
-        return disks.get(name);
+        return holder.get();
     }
 
     /**
@@ -81,7 +415,83 @@ public class StorageManager {
      * @return Default storage implementation
      */
     public Storage disk() {
-        return disk(defaultDisk);
+        return disk(registry.get().defaultDisk);
+    }
+
+    /**
+     * Get a non-blocking view of a specific disk
+     *
+     * @param name Disk name
+     * @return Async storage view
+     */
+    public AsyncStorage async(String name) {
+        return disk(name).async();
+    }
+
+    /**
+     * Get a non-blocking view of the default disk
+     *
+     * @return Async storage view
+     */
+    public AsyncStorage async() {
+        return disk().async();
+    }
+
+    /**
+     * Copy a file, also between two disks. Between S3 disks the copy runs on the
+     * server side; otherwise the content is streamed from one disk to the other
+     * without being held in memory.
+     *
+     * @param sourceDisk      Disk to copy from
+     * @param sourcePath      Path on the source disk
+     * @param destinationDisk Disk to copy to
+     * @param destinationPath Path on the destination disk
+     * @return true if successful
+     */
+    public boolean copy(String sourceDisk, String sourcePath, String destinationDisk, String destinationPath) {
+        Storage source = disk(sourceDisk);
+        Storage destination = disk(destinationDisk);
+        if (source == destination) {
+            return source.copy(sourcePath, destinationPath);
+        }
+        return destination.copyFrom(source, sourcePath, destinationPath);
+    }
+
+    /**
+     * Move a file, also between two disks. Between disks the file is copied and
+     * then deleted from the source; if the delete fails, the file exists on both
+     * disks and the error says so.
+     *
+     * @param sourceDisk      Disk to move from
+     * @param sourcePath      Path on the source disk
+     * @param destinationDisk Disk to move to
+     * @param destinationPath Path on the destination disk
+     * @return true if successful
+     */
+    public boolean move(String sourceDisk, String sourcePath, String destinationDisk, String destinationPath) {
+        Storage source = disk(sourceDisk);
+        Storage destination = disk(destinationDisk);
+        if (source == destination) {
+            return source.move(sourcePath, destinationPath);
+        }
+
+        destination.copyFrom(source, sourcePath, destinationPath);
+        try {
+            source.delete(sourcePath);
+        } catch (StorageException e) {
+            throw new StorageException("Copied " + sourceDisk + ":" + sourcePath + " to " + destinationDisk + ":"
+                    + destinationPath + " but could not delete the source: " + e.getMessage(), e);
+        }
+        return true;
+    }
+
+    /**
+     * Get the metrics of the disks built by this manager
+     *
+     * @return Metrics registry
+     */
+    public StorageMetrics getMetrics() {
+        return metrics;
     }
 
     /**
@@ -90,10 +500,13 @@ public class StorageManager {
      * @param name Disk name
      */
     public void setDefaultDisk(String name) {
-        if (!disks.containsKey(name)) {
-            throw new IllegalArgumentException("Cannot set default disk. Disk not found: " + name);
+        synchronized (writeLock) {
+            Registry current = registry.get();
+            if (!current.disks.containsKey(name)) {
+                throw new IllegalArgumentException("Cannot set default disk. Disk not found: " + name);
+            }
+            registry.set(new Registry(current.disks, name));
         }
-        this.defaultDisk = name;
     }
 
     /**
@@ -102,6 +515,151 @@ public class StorageManager {
      * @return Default disk name
      */
     public String getDefaultDiskName() {
-        return defaultDisk;
+        return registry.get().defaultDisk;
+    }
+
+    /**
+     * Close every disk built by this manager, including disks still waiting
+     * for their grace period. Disks added with {@link #addDisk} are left open.
+     */
+    @Override
+    public void close() {
+        synchronized (writeLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            if (closer != null) {
+                closer.shutdownNow();
+            }
+            for (DiskHolder holder : List.copyOf(retiring)) {
+                if (retiring.remove(holder)) {
+                    holder.close();
+                }
+            }
+            registry.get().disks.values().stream()
+                    .filter(holder -> holder.owned)
+                    .forEach(DiskHolder::close);
+            metrics.unregisterMBeans();
+        }
+    }
+
+    /**
+     * Immutable view of the disks. Replaced as a whole on every change.
+     */
+    private static final class Registry {
+        final Map<String, DiskHolder> disks;
+        final String defaultDisk;
+
+        Registry(Map<String, DiskHolder> disks, String defaultDisk) {
+            this.disks = Map.copyOf(disks);
+            this.defaultDisk = defaultDisk;
+        }
+    }
+
+    /**
+     * A disk that is built on first use. Disks built from configuration are
+     * owned by the manager and closed by it; disks added by the caller are not.
+     */
+    private static final class DiskHolder {
+        final String name;
+        final String driver;
+        final Map<String, String> options;
+        final List<String> references;
+        final boolean owned;
+        private final Supplier<Storage> factory;
+        private volatile Storage storage;
+        private boolean closed;
+        // Retired disk holding the local state this one opens, closed before building
+        private DiskHolder predecessor;
+
+        DiskHolder(String name, DiskConfig config, List<String> references, Supplier<Storage> factory) {
+            this.name = name;
+            this.driver = config.getDriver();
+            this.options = config.getOptions();
+            this.references = references;
+            this.owned = true;
+            this.factory = factory;
+        }
+
+        DiskHolder(String name, Storage storage) {
+            this.name = name;
+            this.driver = null;
+            this.options = Map.of();
+            this.references = List.of();
+            this.owned = false;
+            this.factory = null;
+            this.storage = storage;
+        }
+
+        Storage get() {
+            Storage built = storage;
+            if (built != null) {
+                return built;
+            }
+
+            synchronized (this) {
+                if (closed) {
+                    throw new IllegalStateException("Disk is closed: " + name);
+                }
+                if (storage == null) {
+                    if (predecessor != null) {
+                        predecessor.close();
+                        predecessor = null;
+                    }
+                    storage = factory.get();
+                }
+                return storage;
+            }
+        }
+
+        boolean isBuilt() {
+            return storage != null;
+        }
+
+        /**
+         * Get the local state, such as a segment directory, that a second disk
+         * cannot open while this one is open
+         *
+         * @return Absolute path of the state, null if the disk keeps none
+         */
+        String exclusiveState() {
+            StorageDisk disk = StorageDisk.resolveDisk(driver);
+            String state = disk == StorageDisk.PACKED ? options.get("segment_dir")
+                    : disk == StorageDisk.DEDUP ? options.get("index_file") : null;
+            return state == null ? null : Paths.get(state).toAbsolutePath().normalize().toString();
+        }
+
+        boolean sameConfig(DiskConfig config) {
+            return Objects.equals(driver, config.getDriver()) && options.equals(config.getOptions());
+        }
+
+        void close() {
+            Storage built;
+            DiskHolder handedOver;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                built = storage;
+                handedOver = predecessor;
+                predecessor = null;
+            }
+            // Never built, so the state it was to take over is still open
+            if (handedOver != null) {
+                handedOver.close();
+            }
+            if (built == null) {
+                return;
+            }
+
+            try {
+                built.close();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Could not close disk {}", name, e);
+            }
+        }
     }
 }
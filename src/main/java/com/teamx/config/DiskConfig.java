@@ -40,4 +40,62 @@ public class DiskConfig {
     public String getOption(String key, String defaultValue) {
         return options.getOrDefault(key, defaultValue);
     }
+
+    public int getIntOption(String key, int defaultValue) {
+        String value = options.get(key);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid integer value for option " + key + ": " + value);
+        }
+    }
+
+    public long getLongOption(String key, long defaultValue) {
+        String value = options.get(key);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid long value for option " + key + ": " + value);
+        }
+    }
+
+    /**
+     * Get a byte size option. Accepts plain byte counts or values with a
+     * KB, MB or GB suffix (binary units), e.g. "8MB".
+     */
+    public long getSizeOption(String key, long defaultValue) {
+        String value = options.get(key);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+
+        String normalized = value.trim().toUpperCase();
+        long multiplier = 1;
+        if (normalized.endsWith("KB")) {
+            multiplier = 1024L;
+        } else if (normalized.endsWith("MB")) {
+            multiplier = 1024L * 1024;
+        } else if (normalized.endsWith("GB")) {
+            multiplier = 1024L * 1024 * 1024;
+        }
+        if (multiplier != 1) {
+            normalized = normalized.substring(0, normalized.length() - 2).trim();
+        } else if (normalized.endsWith("B")) {
+            normalized = normalized.substring(0, normalized.length() - 1).trim();
+        }
+
+        try {
+            return Long.parseLong(normalized) * multiplier;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid size value for option " + key + ": " + value);
+        }
+    }
 }
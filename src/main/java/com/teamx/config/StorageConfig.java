@@ -5,6 +5,8 @@ import java.util.Map;
 
 public class StorageConfig {
     private String defaultDisk = "local";
+    private long closeGracePeriod = 30_000;
+    private boolean warmUp;
     private final Map<String, DiskConfig> disks = new HashMap<>();
 
     public StorageConfig() {
@@ -51,4 +53,48 @@ public class StorageConfig {
         disks.put(name, config);
         return this;
     }
+
+    /**
+     * Get the time a disk removed by a reload stays open for in-flight operations
+     *
+     * @return Grace period in milliseconds
+     */
+    public long getCloseGracePeriod() {
+        return closeGracePeriod;
+    }
+
+    /**
+     * Set the time a disk removed by a reload stays open for in-flight operations
+     *
+     * @param closeGracePeriod Grace period in milliseconds, 0 to close at once
+     * @return This instance for chaining
+     */
+    public StorageConfig setCloseGracePeriod(long closeGracePeriod) {
+        if (closeGracePeriod < 0) {
+            throw new IllegalArgumentException("Close grace period must not be negative");
+        }
+        this.closeGracePeriod = closeGracePeriod;
+        return this;
+    }
+
+    /**
+     * Check whether disks are built in the background as soon as they are configured
+     *
+     * @return true if disks are warmed up in the background
+     */
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    /**
+     * Build disks in the background as soon as they are configured instead of on
+     * their first use
+     *
+     * @param warmUp true to warm disks up in the background
+     * @return This instance for chaining
+     */
+    public StorageConfig setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+        return this;
+    }
 }
@@ -0,0 +1,88 @@
+package com.teamx.disks;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking counterpart of {@link Storage}.
+ * Every operation returns immediately; failures complete the future
+ * exceptionally with a {@link com.teamx.StorageException}.
+ */
+public interface AsyncStorage {
+    /**
+     * Retrieves a file from storage
+     *
+     * @param path Path to the file
+     * @return Future with an InputStream containing the file content
+     */
+    CompletableFuture<InputStream> get(String path);
+
+    /**
+     * Stores a file in the storage
+     *
+     * @param path     Path where to store the file
+     * @param content  InputStream containing the file content
+     * @param metadata Optional metadata for the file
+     * @return Future completed with true if successful
+     */
+    CompletableFuture<Boolean> put(String path, InputStream content, Map<String, String> metadata);
+
+    /**
+     * Overloaded method to put file without metadata
+     */
+    default CompletableFuture<Boolean> put(String path, InputStream content) {
+        return put(path, content, null);
+    }
+
+    /**
+     * Checks if a file exists
+     *
+     * @param path Path to check
+     * @return Future completed with true if file exists
+     */
+    CompletableFuture<Boolean> exists(String path);
+
+    /**
+     * Deletes a file from storage
+     *
+     * @param path Path to the file
+     * @return Future completed with true if successfully deleted
+     */
+    CompletableFuture<Boolean> delete(String path);
+
+    /**
+     * Gets the size of a file in bytes
+     *
+     * @param path Path to the file
+     * @return Future with the size in bytes
+     */
+    CompletableFuture<Long> size(String path);
+
+    /**
+     * Copies a file from one location to another
+     *
+     * @param source      Source path
+     * @param destination Destination path
+     * @return Future completed with true if successful
+     */
+    CompletableFuture<Boolean> copy(String source, String destination);
+
+    /**
+     * Moves a file from one location to another
+     *
+     * @param source      Source path
+     * @param destination Destination path
+     * @return Future completed with true if successful
+     */
+    CompletableFuture<Boolean> move(String source, String destination);
+
+    /**
+     * Lists files in a directory
+     *
+     * @param directory Directory path
+     * @return Future with the list of file paths
+     */
+    CompletableFuture<List<String>> listContents(String directory);
+}
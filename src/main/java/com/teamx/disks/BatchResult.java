@@ -0,0 +1,57 @@
+package com.teamx.disks;
+
+import com.teamx.StorageException;
+
+/**
+ * Outcome of one key in a batch operation.
+ * Holds either the value of the operation or the error it failed with.
+ *
+ * @param <T> Result type of the operation
+ */
+public final class BatchResult<T> {
+    private final T value;
+    private final StorageException error;
+
+    private BatchResult(T value, StorageException error) {
+        this.value = value;
+        this.error = error;
+    }
+
+    public static <T> BatchResult<T> success(T value) {
+        return new BatchResult<>(value, null);
+    }
+
+    public static <T> BatchResult<T> failure(StorageException error) {
+        return new BatchResult<>(null, error);
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    public T getValue() {
+        return value;
+    }
+
+    public StorageException getError() {
+        return error;
+    }
+
+    /**
+     * Get the value or rethrow the error of a failed key
+     *
+     * @return Operation value
+     * @throws StorageException if the operation failed for this key
+     */
+    public T getOrThrow() throws StorageException {
+        if (error != null) {
+            throw error;
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return isSuccess() ? "Success[" + value + "]" : "Failure[" + error.getMessage() + "]";
+    }
+}
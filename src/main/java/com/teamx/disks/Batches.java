@@ -0,0 +1,87 @@
+package com.teamx.disks;
+
+import com.teamx.StorageException;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * Helpers for running an operation over many keys and collecting a per-key result
+ */
+final class Batches {
+
+    private Batches() {
+    }
+
+    /**
+     * Run the operation for every key on the calling thread
+     */
+    static <K, T> Map<K, BatchResult<T>> sequential(Collection<K> keys, Function<K, T> operation) {
+        Map<K, BatchResult<T>> results = new LinkedHashMap<>();
+        for (K key : keys) {
+            results.put(key, call(operation, key));
+        }
+        return results;
+    }
+
+    /**
+     * Run the operation for every key on the executor with at most {@code parallelism}
+     * keys in flight. Results keep the iteration order of the keys.
+     */
+    static <K, T> Map<K, BatchResult<T>> parallel(Collection<K> keys, Function<K, T> operation,
+                                                   Executor executor, int parallelism) {
+        if (keys.size() <= 1 || parallelism <= 1) {
+            return sequential(keys, operation);
+        }
+
+        Map<K, BatchResult<T>> completed = new ConcurrentHashMap<>();
+        Semaphore permits = new Semaphore(parallelism);
+        CountDownLatch done = new CountDownLatch(keys.size());
+
+        try {
+            for (K key : keys) {
+                permits.acquire();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            completed.put(key, call(operation, key));
+                        } finally {
+                            permits.release();
+                            done.countDown();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    permits.release();
+                    done.countDown();
+                    completed.put(key, BatchResult.failure(new StorageException("Could not schedule: " + key, e)));
+                }
+            }
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while running batch operation", e);
+        }
+
+        Map<K, BatchResult<T>> results = new LinkedHashMap<>();
+        for (K key : keys) {
+            results.put(key, completed.get(key));
+        }
+        return results;
+    }
+
+    private static <K, T> BatchResult<T> call(Function<K, T> operation, K key) {
+        try {
+            return BatchResult.success(operation.apply(key));
+        } catch (StorageException e) {
+            return BatchResult.failure(e);
+        } catch (RuntimeException e) {
+            return BatchResult.failure(new StorageException("Operation failed for " + key + ": " + e.getMessage(), e));
+        }
+    }
+}
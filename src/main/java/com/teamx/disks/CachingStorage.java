@@ -0,0 +1,307 @@
+package com.teamx.disks;
+
+import com.teamx.StorageException;
+import com.teamx.config.DiskConfig;
+
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/**
+ * Storage decorator that caches file metadata for exists, size and lastModified.
+ * <p>
+ * Each lookup on a miss costs a single {@link Storage#stat(String)} call (one HEAD
+ * on S3) and answers all three questions until the entry expires. Missing paths
+ * are cached too. The cache is bounded with LRU eviction, and entries are dropped
+ * for every write made through this decorator. Writes made by other clients are
+ * only seen once the TTL expires.
+ * <p>
+ * Options: cache_size (max entries, default 10000), cache_ttl (milliseconds, default 60000).
+ */
+public class CachingStorage extends ForwardingStorage {
+    private static final int DEFAULT_CACHE_SIZE = 10_000;
+    private static final long DEFAULT_CACHE_TTL = 60_000;
+
+    private final long ttlNanos;
+    private final Map<String, Cached> entries;
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a caching decorator with configuration
+     *
+     * @param delegate Storage to cache metadata for
+     * @param config   Disk configuration
+     */
+    public CachingStorage(Storage delegate, DiskConfig config) {
+        this(delegate, config.getIntOption("cache_size", DEFAULT_CACHE_SIZE),
+                config.getLongOption("cache_ttl", DEFAULT_CACHE_TTL));
+    }
+
+    /**
+     * Create a caching decorator
+     *
+     * @param delegate   Storage to cache metadata for
+     * @param maxEntries Maximum number of cached paths
+     * @param ttlMillis  Time to live of a cached entry in milliseconds
+     */
+    public CachingStorage(Storage delegate, int maxEntries, long ttlMillis) {
+        super(delegate);
+        if (maxEntries <= 0 || ttlMillis <= 0) {
+            throw new IllegalArgumentException("Cache size and TTL must be positive");
+        }
+
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.entries = new LinkedHashMap<>(Math.min(maxEntries, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                if (size() > maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public StorageEntry stat(String path) throws StorageException {
+        return lookup(path);
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return lookup(path) != null;
+    }
+
+    @Override
+    public long size(String path) throws StorageException {
+        StorageEntry entry = lookup(path);
+        if (entry == null) {
+            throw new StorageException("File not found: " + path);
+        }
+        if (entry.isDirectory()) {
+            // Let the disk report its own error for directories
+            return delegate.size(path);
+        }
+        return entry.getSize();
+    }
+
+    @Override
+    public long lastModified(String path) {
+        StorageEntry entry = lookup(path);
+        if (entry == null) {
+            throw new StorageException("File not found: " + path);
+        }
+        return entry.getLastModified();
+    }
+
+    @Override
+    public boolean put(String path, InputStream content, Map<String, String> metadata) throws StorageException {
+        try {
+            return delegate.put(path, content, metadata);
+        } finally {
+            invalidate(path);
+        }
+    }
+
+    @Override
+    public boolean put(String path, ReadableByteChannel content, long size) throws StorageException {
+        try {
+            return delegate.put(path, content, size);
+        } finally {
+            invalidate(path);
+        }
+    }
+
+    @Override
+    public boolean delete(String path) throws StorageException {
+        try {
+            return delegate.delete(path);
+        } finally {
+            invalidate(path);
+        }
+    }
+
+    @Override
+    public boolean makeDirectory(String path) {
+        try {
+            return delegate.makeDirectory(path);
+        } finally {
+            invalidate(path);
+        }
+    }
+
+    @Override
+    public boolean deleteDirectory(String path) {
+        try {
+            return delegate.deleteDirectory(path);
+        } finally {
+            invalidateDirectory(path);
+        }
+    }
+
+    @Override
+    public DeleteReport deleteDirectory(String path, LongConsumer progress) {
+        try {
+            return delegate.deleteDirectory(path, progress);
+        } finally {
+            invalidateDirectory(path);
+        }
+    }
+
+    @Override
+    public boolean copy(String source, String destination) {
+        try {
+            return delegate.copy(source, destination);
+        } finally {
+            invalidate(destination);
+        }
+    }
+
+    @Override
+    public boolean copyFrom(Storage source, String sourcePath, String destination) throws StorageException {
+        try {
+            return delegate.copyFrom(source, sourcePath, destination);
+        } finally {
+            invalidate(destination);
+        }
+    }
+
+    @Override
+    public boolean move(String source, String destination) {
+        try {
+            return delegate.move(source, destination);
+        } finally {
+            invalidate(source);
+            invalidate(destination);
+        }
+    }
+
+    @Override
+    public Map<String, BatchResult<Boolean>> deleteMany(Collection<String> paths) {
+        try {
+            return delegate.deleteMany(paths);
+        } finally {
+            paths.forEach(this::invalidate);
+        }
+    }
+
+    @Override
+    public Map<String, BatchResult<Boolean>> copyMany(Map<String, String> copies) {
+        try {
+            return delegate.copyMany(copies);
+        } finally {
+            copies.values().forEach(this::invalidate);
+        }
+    }
+
+    /**
+     * Drop the cached metadata of a path
+     *
+     * @param path Path to forget
+     */
+    public void invalidate(String path) {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.remove(path);
+        }
+    }
+
+    /**
+     * Drop all cached entries
+     */
+    public void clear() {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Get the number of paths currently cached
+     *
+     * @return Cached entry count
+     */
+    public int getEntryCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private StorageEntry lookup(String path) {
+        long now = System.nanoTime();
+        synchronized (entries) {
+            Cached cached = entries.get(path);
+            if (cached != null) {
+                if (now - cached.expiresAt < 0) {
+                    hits.increment();
+                    return cached.entry;
+                }
+                entries.remove(path);
+            }
+        }
+
+        misses.increment();
+        long observed = generation.get();
+        StorageEntry entry = delegate.stat(path);
+
+        synchronized (entries) {
+            // An invalidation while loading may mean the loaded value is already stale
+            if (generation.get() == observed) {
+                entries.put(path, new Cached(entry, System.nanoTime() + ttlNanos));
+            }
+        }
+        return entry;
+    }
+
+    private void invalidateDirectory(String path) {
+        if (path.isEmpty()) {
+            clear();
+            return;
+        }
+
+        String prefix = path.endsWith("/") ? path : path + "/";
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.remove(path);
+            Iterator<String> keys = entries.keySet().iterator();
+            while (keys.hasNext()) {
+                if (keys.next().startsWith(prefix)) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    private static final class Cached {
+        final StorageEntry entry;
+        final long expiresAt;
+
+        Cached(StorageEntry entry, long expiresAt) {
+            this.entry = entry;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.teamx.disks;
+
+import com.teamx.StorageException;
+import com.teamx.config.DiskConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Storage decorator that compresses files on put and decompresses them on get,
+ * streaming in both directions.
+ * <p>
+ * A compressed file starts with a five byte header naming its codec, so reads do
+ * not depend on the disk keeping metadata (local disks do not) and files written
+ * with another codec, or before compression was enabled, stay readable. Files
+ * are stored as they are when a sample from their start is already compressed:
+ * either it begins with the signature of a compressed format, or compressing it
+ * saves less than compression_min_saving. Such files get no header, unless
+ * their first bytes happen to look like one. The codec is also recorded in the
+ * "compression" metadata entry for disks that keep metadata, like S3.
+ * <p>
+ * size(), stat() and the listings report the bytes stored, not the length of the
+ * content read back, since that would take a full decompression to find out.
+ * readRange() offsets count content bytes and decompress from the start of the
+ * file. Copies within the disk copy the stored bytes; other disks copying from
+ * this one read the decompressed content rather than the stored bytes.
+ * <p>
+ * Options: compression (zstd, gzip or none; zstd needs the optional zstd-jni
+ * library and falls back to gzip), compression_level (default 3 for zstd, 6 for
+ * gzip), compression_sample (size, default 64KB), compression_min_saving
+ * (fraction of the sample, default 0.1).
+ */
+public class CompressedStorage extends ForwardingStorage {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompressedStorage.class);
+    private static final byte[] MAGIC = {(byte) 0x89, 'C', 'Z', 0x1A};
+    private static final int HEADER_LENGTH = MAGIC.length + 1;
+    private static final int DEFAULT_SAMPLE_SIZE = 64 * 1024;
+    private static final double DEFAULT_MIN_SAVING = 0.1;
+    private static final String METADATA_KEY = "compression";
+
+    private static final byte[][] COMPRESSED_SIGNATURES = {
+            {0x1F, (byte) 0x8B},                                    // gzip
+            {0x28, (byte) 0xB5, 0x2F, (byte) 0xFD},                 // zstd
+            {0x04, 0x22, 0x4D, 0x18},                               // lz4 frame
+            {(byte) 0xFD, '7', 'z', 'X', 'Z', 0x00},                // xz
+            {'B', 'Z', 'h'},                                        // bzip2
+            {'7', 'z', (byte) 0xBC, (byte) 0xAF, 0x27, 0x1C},       // 7z
+            {'P', 'K', 0x03, 0x04},                                 // zip, docx, xlsx, jar
+            {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF},                // jpeg
+            {(byte) 0x89, 'P', 'N', 'G'},                           // png
+            {'G', 'I', 'F', '8'},                                   // gif
+            {'R', 'I', 'F', 'F'},                                   // webp, avi, wav
+            {'O', 'g', 'g', 'S'},                                   // ogg
+            {'I', 'D', '3'},                                        // mp3
+    };
+
+    private final CompressionCodec codec;
+    private final int level;
+    private final int sampleSize;
+    private final double minSaving;
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    /**
+     * Create a compression decorator with configuration
+     *
+     * @param delegate Storage holding the compressed files
+     * @param config   Disk configuration
+     */
+    public CompressedStorage(Storage delegate, DiskConfig config) {
+        this(delegate, available(CompressionCodec.fromLabel(config.getOption("compression", "zstd"))),
+                config.getIntOption("compression_level", -1),
+                (int) config.getSizeOption("compression_sample", DEFAULT_SAMPLE_SIZE),
+                Double.parseDouble(config.getOption("compression_min_saving", String.valueOf(DEFAULT_MIN_SAVING))));
+    }
+
+    private CompressedStorage(Storage delegate, CompressionCodec codec, int level, int sampleSize,
+                              double minSaving) {
+        super(delegate);
+        this.codec = codec;
+        this.level = level < 0 ? codec.defaultLevel : level;
+        this.sampleSize = sampleSize;
+        this.minSaving = minSaving;
+    }
+
+    /**
+     * Create a compression decorator with the default level and sampling
+     *
+     * @param delegate Storage holding the compressed files
+     * @param codec    Codec name: zstd, gzip or none to only decompress
+     */
+    public CompressedStorage(Storage delegate, String codec) {
+        this(delegate, available(CompressionCodec.fromLabel(codec)), -1, DEFAULT_SAMPLE_SIZE, DEFAULT_MIN_SAVING);
+    }
+
+    @Override
+    public InputStream get(String path) throws StorageException {
+        return decode(path, delegate.get(path));
+    }
+
+    @Override
+    public InputStream get(String path, ReadOptions options) throws StorageException {
+        return decode(path, delegate.get(path, options));
+    }
+
+    @Override
+    public ReadableByteChannel getChannel(String path) throws StorageException {
+        return Channels.newChannel(get(path));
+    }
+
+    @Override
+    public long writeTo(String path, WritableByteChannel target) throws StorageException {
+        try (InputStream content = get(path)) {
+            return content.transferTo(Channels.newOutputStream(target));
+        } catch (IOException e) {
+            throw new StorageException("Could not transfer file: " + path, e);
+        }
+    }
+
+    @Override
+    public ByteBuffer readRange(String path, long offset, int length) throws StorageException {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Offset and length must not be negative");
+        }
+        try (InputStream content = get(path)) {
+            content.skipNBytes(offset);
+            return ByteBuffer.wrap(content.readNBytes(length)).asReadOnlyBuffer();
+        } catch (EOFException e) {
+            return ByteBuffer.allocate(0).asReadOnlyBuffer();
+        } catch (IOException e) {
+            throw new StorageException("Could not read range of file: " + path, e);
+        }
+    }
+
+    @Override
+    public boolean put(String path, ReadableByteChannel content, long size) throws StorageException {
+        return put(path, Channels.newInputStream(content), null);
+    }
+
+    @Override
+    public boolean put(String path, InputStream content, Map<String, String> metadata) throws StorageException {
+        // The content belongs to the caller, who may rewind it and put it again
+        content = new UnclosedInputStream(content);
+        try {
+            byte[] sample = content.readNBytes(sampleSize);
+            CompressionCodec chosen = worthCompressing(sample) ? codec : CompressionCodec.NONE;
+            Map<String, String> stored = metadata == null ? new HashMap<>() : new HashMap<>(metadata);
+            stored.put(METADATA_KEY, chosen.label);
+
+            InputStream encoded;
+            if (chosen != CompressionCodec.NONE) {
+                compressed.increment();
+                encoded = new CompressingInputStream(header(chosen), sample, content, chosen, level);
+            } else {
+                skipped.increment();
+                // A stored file must not be mistaken for a compressed one
+                byte[] prefix = startsWithMagic(sample) ? header(CompressionCodec.NONE) : new byte[0];
+                encoded = new SequenceInputStream(new ByteArrayInputStream(concat(prefix, sample)), content);
+            }
+
+            try (InputStream in = encoded) {
+                return delegate.put(path, in, stored);
+            }
+        } catch (IOException e) {
+            throw new StorageException("Could not compress file: " + path, e);
+        }
+    }
+
+    @Override
+    public boolean copyFrom(Storage source, String sourcePath, String destination) throws StorageException {
+        if (ForwardingStorage.unwrap(source) == this) {
+            return copy(sourcePath, destination);
+        }
+        try (InputStream content = source.get(sourcePath)) {
+            return put(destination, content, null);
+        } catch (IOException e) {
+            throw new StorageException("Could not close source file: " + sourcePath, e);
+        }
+    }
+
+    /**
+     * The stored bytes differ from the content, so they must not be copied raw
+     * to another disk
+     */
+    @Override
+    protected boolean isTransparent() {
+        return false;
+    }
+
+    /**
+     * Get the number of puts stored compressed
+     */
+    public long getCompressed() {
+        return compressed.sum();
+    }
+
+    /**
+     * Get the number of puts stored as they were because compressing them did not pay off
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    /**
+     * Decide from a sample of the content whether compressing the whole is worth it
+     */
+    private boolean worthCompressing(byte[] sample) throws IOException {
+        if (codec == CompressionCodec.NONE || sample.length == 0) {
+            return false;
+        }
+        for (byte[] signature : COMPRESSED_SIGNATURES) {
+            if (startsWith(sample, signature)) {
+                return false;
+            }
+        }
+
+        CountingOutputStream counter = new CountingOutputStream();
+        try (OutputStream trial = codec.compress(counter, level)) {
+            trial.write(sample);
+        }
+        return counter.count <= sample.length * (1 - minSaving) - HEADER_LENGTH;
+    }
+
+    private InputStream decode(String path, InputStream raw) {
+        try {
+            byte[] head = raw.readNBytes(HEADER_LENGTH);
+            if (head.length == HEADER_LENGTH && startsWithMagic(head)) {
+                CompressionCodec stored = CompressionCodec.fromId(head[MAGIC.length]);
+                if (stored == null) {
+                    throw new StorageException("Unknown compression codec " + head[MAGIC.length] + ": " + path);
+                }
+                if (!stored.isAvailable()) {
+                    throw new StorageException("File is compressed with " + stored.label
+                            + ", which is not available: " + path);
+                }
+                return stored.decompress(raw);
+            }
+            return new SequenceInputStream(new ByteArrayInputStream(head), raw);
+        } catch (IOException | RuntimeException e) {
+            try {
+                raw.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            if (e instanceof StorageException) {
+                throw (StorageException) e;
+            }
+            throw new StorageException("Could not decompress file: " + path, e);
+        }
+    }
+
+    private static CompressionCodec available(CompressionCodec codec) {
+        if (codec.isAvailable()) {
+            return codec;
+        }
+        LOGGER.warn("{} compression is not available, add zstd-jni to the classpath; using gzip", codec.label);
+        return CompressionCodec.GZIP;
+    }
+
+    private static byte[] header(CompressionCodec codec) {
+        byte[] header = new byte[HEADER_LENGTH];
+        System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+        header[MAGIC.length] = codec.id;
+        return header;
+    }
+
+    private static boolean startsWithMagic(byte[] bytes) {
+        return startsWith(bytes, MAGIC);
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        if (bytes.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        if (first.length == 0) {
+            return second;
+        }
+        byte[] joined = new byte[first.length + second.length];
+        System.arraycopy(first, 0, joined, 0, first.length);
+        System.arraycopy(second, 0, joined, first.length, second.length);
+        return joined;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    /**
+     * Stream that leaves its source open when closed
+     */
+    private static final class UnclosedInputStream extends FilterInputStream {
+        UnclosedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+            // Closed by the caller
+        }
+    }
+}
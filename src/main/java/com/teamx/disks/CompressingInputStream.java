@@ -0,0 +1,115 @@
+package com.teamx.disks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Input stream that reads another stream and hands out its content compressed.
+ * <p>
+ * Codecs compress by writing to an OutputStream, while disks store by reading an
+ * InputStream. Rather than running the encoder on a second thread behind a pipe,
+ * each read pulls the next chunk from the source through the encoder into a
+ * reusable buffer and serves the buffer, so at most a chunk and the encoder's
+ * own buffers are held in memory.
+ * <p>
+ * Closing the stream releases the encoder but leaves the source open; the
+ * source belongs to the caller, who may rewind it and compress it again.
+ */
+class CompressingInputStream extends InputStream {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final InputStream source;
+    private final Sink sink = new Sink();
+    private final OutputStream encoder;
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private int position;
+    private int limit;
+    private boolean finished;
+    private boolean closed;
+
+    /**
+     * @param prefix Bytes handed out before the compressed content, uncompressed
+     * @param head   Content already read from the source, compressed first
+     * @param source Rest of the content
+     * @param codec  Codec to compress with
+     * @param level  Compression level
+     */
+    CompressingInputStream(byte[] prefix, byte[] head, InputStream source, CompressionCodec codec, int level)
+            throws IOException {
+        this.source = source;
+        sink.write(prefix);
+        this.encoder = codec.compress(sink, level);
+        encoder.write(head);
+        limit = sink.size();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int read = read(one, 0, 1);
+        return read < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (position == limit) {
+            if (finished) {
+                return -1;
+            }
+            fill();
+        }
+
+        int count = Math.min(len, limit - position);
+        System.arraycopy(sink.buffer(), position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (!finished) {
+            // Releases the native context of codecs such as zstd
+            encoder.close();
+        }
+    }
+
+    private void fill() throws IOException {
+        sink.reset();
+        position = 0;
+        int read = source.read(chunk);
+        if (read < 0) {
+            encoder.close();
+            finished = true;
+        } else {
+            encoder.write(chunk, 0, read);
+        }
+        limit = sink.size();
+    }
+
+    /**
+     * Buffer the encoder writes to, read in place
+     */
+    private static final class Sink extends ByteArrayOutputStream {
+        Sink() {
+            super(CHUNK_SIZE);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+
+        @Override
+        public void close() {
+            // The encoder closes its target when it finishes; keep the buffer readable
+        }
+    }
+}
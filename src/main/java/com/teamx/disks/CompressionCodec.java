@@ -0,0 +1,111 @@
+package com.teamx.disks;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stream codecs of {@link CompressedStorage}. The id is written into the header
+ * of every compressed object, so ids must never change or be reused.
+ * <p>
+ * Zstandard comes from the optional zstd-jni dependency; gzip is part of the JDK
+ * and is used when zstd is configured but not available.
+ */
+enum CompressionCodec {
+    NONE(0, "none", 0) {
+        @Override
+        OutputStream compress(OutputStream out, int level) {
+            return out;
+        }
+
+        @Override
+        InputStream decompress(InputStream in) {
+            return in;
+        }
+    },
+    GZIP(1, "gzip", 6) {
+        @Override
+        OutputStream compress(OutputStream out, int level) throws IOException {
+            return new GZIPOutputStream(out, BUFFER_SIZE) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+
+        @Override
+        InputStream decompress(InputStream in) throws IOException {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+    },
+    ZSTD(2, "zstd", 3) {
+        @Override
+        OutputStream compress(OutputStream out, int level) throws IOException {
+            return ZstdStreams.compress(out, level);
+        }
+
+        @Override
+        InputStream decompress(InputStream in) throws IOException {
+            return ZstdStreams.decompress(new BufferedInputStream(in, BUFFER_SIZE));
+        }
+    };
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    final byte id;
+    final String label;
+    final int defaultLevel;
+
+    CompressionCodec(int id, String label, int defaultLevel) {
+        this.id = (byte) id;
+        this.label = label;
+        this.defaultLevel = defaultLevel;
+    }
+
+    /**
+     * Wrap a stream so that what is written to it arrives compressed
+     */
+    abstract OutputStream compress(OutputStream out, int level) throws IOException;
+
+    /**
+     * Wrap a stream of compressed bytes
+     */
+    abstract InputStream decompress(InputStream in) throws IOException;
+
+    /**
+     * Check whether the codec can be used in this JVM
+     */
+    boolean isAvailable() {
+        if (this != ZSTD) {
+            return true;
+        }
+        try {
+            return ZstdStreams.load();
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    static CompressionCodec fromLabel(String label) {
+        String normalized = label.trim().toLowerCase(Locale.ROOT);
+        for (CompressionCodec codec : values()) {
+            if (codec.label.equals(normalized)) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown compression codec, expected zstd, gzip or none: " + label);
+    }
+
+    static CompressionCodec fromId(byte id) {
+        for (CompressionCodec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        return null;
+    }
+}
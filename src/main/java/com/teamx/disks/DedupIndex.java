@@ -0,0 +1,380 @@
+package com.teamx.disks;
+
+import com.teamx.StorageException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Path to blob index of a {@link DedupStorage} with reference counts per blob.
+ * <p>
+ * Paths are kept sorted so listings come out in lexicographic order, and every
+ * path of the same content points at one shared Blob, so a digest is held in
+ * memory once however many paths use it. Changes are appended to a journal file
+ * and flushed to the operating system before they are acknowledged; the journal
+ * is replayed and rewritten as a snapshot on startup, and rewritten again when
+ * it has grown to several times the live entries. A record torn by a crash is
+ * dropped on replay.
+ * <p>
+ * Reference counts include writes in progress: a put reserves its blob before
+ * uploading it, so the garbage collector never deletes a blob that is about to be
+ * used, and a put for a blob that is being deleted waits and uploads it again.
+ * All methods are synchronized on the index. The journal is locked for as long
+ * as the index is open, so a second index cannot rewrite it underneath.
+ */
+class DedupIndex implements AutoCloseable {
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int MIN_COMPACT_RECORDS = 10_000;
+
+    private final Path file;
+    private final ExclusiveFileLock journalLock;
+    private final NavigableMap<String, Ref> paths = new TreeMap<>();
+    private final Map<String, Blob> blobs = new HashMap<>();
+    private DataOutputStream journal;
+    private long records;
+
+    /**
+     * Load the index from its journal, creating the file if it does not exist
+     *
+     * @param file Journal file
+     */
+    DedupIndex(Path file) {
+        this.file = file.toAbsolutePath().normalize();
+        this.journalLock = ExclusiveFileLock.acquire(this.file.resolveSibling(this.file.getFileName() + ".lock"),
+                "Dedup index");
+        try {
+            Files.createDirectories(this.file.getParent());
+            replay();
+            compact();
+        } catch (IOException | RuntimeException e) {
+            closeJournalQuietly();
+            journalLock.close();
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new StorageException("Could not load dedup index: " + file, e);
+        }
+    }
+
+    /**
+     * Take a reference on a blob for a write, waiting while the blob is being deleted
+     *
+     * @return The blob; upload it unless it is already stored
+     */
+    synchronized Blob reserve(String digest, long size) {
+        Blob blob = blobs.computeIfAbsent(digest, key -> new Blob(key, size));
+        while (blob.deleting) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new StorageException("Interrupted while waiting for blob: " + digest, e);
+            }
+            blob = blobs.computeIfAbsent(digest, key -> new Blob(key, size));
+        }
+        blob.refs++;
+        return blob;
+    }
+
+    synchronized void stored(Blob blob) {
+        blob.stored = true;
+    }
+
+    /**
+     * Give back a reference taken by {@link #reserve(String, long)} that is not bound to a path
+     */
+    synchronized void release(Blob blob) {
+        unref(blob);
+    }
+
+    /**
+     * Point a path at a reserved blob, releasing the blob it pointed at before
+     */
+    synchronized void bind(String path, Blob blob, long lastModified) {
+        record(path, blob, lastModified);
+        compactIfGrown();
+    }
+
+    /**
+     * Remove a path
+     *
+     * @return false if the path did not exist
+     */
+    synchronized boolean unbind(String path) {
+        if (!paths.containsKey(path)) {
+            return false;
+        }
+        append(DELETE, path, null, 0);
+        unref(paths.remove(path).blob);
+        compactIfGrown();
+        return true;
+    }
+
+    /**
+     * Point a second path at the blob of an existing one
+     *
+     * @return false if the source does not exist
+     */
+    synchronized boolean link(String source, String destination, long lastModified) {
+        Ref ref = paths.get(source);
+        if (ref == null) {
+            return false;
+        }
+        ref.blob.refs++;
+        try {
+            record(destination, ref.blob, lastModified);
+        } catch (RuntimeException e) {
+            unref(ref.blob);
+            throw e;
+        }
+        compactIfGrown();
+        return true;
+    }
+
+    synchronized Ref get(String path) {
+        return paths.get(path);
+    }
+
+    /**
+     * Check whether any path lies below a directory prefix
+     */
+    synchronized boolean hasPathsBelow(String prefix) {
+        String next = paths.ceilingKey(prefix);
+        return next != null && next.startsWith(prefix);
+    }
+
+    /**
+     * Copy the entries below a directory prefix, in path order
+     */
+    synchronized List<Map.Entry<String, Ref>> below(String prefix) {
+        return PathListings.below(paths, prefix);
+    }
+
+    synchronized boolean isEmpty() {
+        return paths.isEmpty();
+    }
+
+    synchronized boolean knows(String digest) {
+        return blobs.containsKey(digest);
+    }
+
+    /**
+     * Pick the stored blobs no path refers to and mark them as being deleted.
+     * Report each with {@link #deleted(Blob, boolean)}.
+     */
+    synchronized List<Blob> garbage() {
+        List<Blob> garbage = new ArrayList<>();
+        for (Blob blob : blobs.values()) {
+            if (blob.refs == 0 && blob.stored && !blob.deleting) {
+                blob.deleting = true;
+                garbage.add(blob);
+            }
+        }
+        return garbage;
+    }
+
+    /**
+     * Finish the deletion of a blob picked by {@link #garbage()}
+     */
+    synchronized void deleted(Blob blob, boolean success) {
+        blob.deleting = false;
+        if (success) {
+            blob.stored = false;
+            if (blob.refs == 0) {
+                blobs.remove(blob.digest, blob);
+            }
+        }
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            closeJournal();
+        } catch (IOException e) {
+            throw new StorageException("Could not close dedup index: " + file, e);
+        } finally {
+            journalLock.close();
+        }
+    }
+
+    private void closeJournal() throws IOException {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        } finally {
+            journal = null;
+        }
+    }
+
+    private void closeJournalQuietly() {
+        try {
+            closeJournal();
+        } catch (IOException ignored) {
+            // Loading failed already
+        }
+    }
+
+    private void unref(Blob blob) {
+        blob.refs--;
+        if (blob.refs == 0 && !blob.stored && !blob.deleting) {
+            blobs.remove(blob.digest, blob);
+        }
+    }
+
+    private void record(String path, Blob blob, long lastModified) {
+        append(PUT, path, blob, lastModified);
+        Ref previous = paths.put(path, new Ref(blob, lastModified));
+        if (previous != null) {
+            unref(previous.blob);
+        }
+    }
+
+    private void append(byte op, String path, Blob blob, long lastModified) {
+        if (journal == null) {
+            throw new StorageException("Dedup index is closed: " + file);
+        }
+        try {
+            write(journal, op, path, blob, lastModified);
+            journal.flush();
+            records++;
+        } catch (IOException e) {
+            throw new StorageException("Could not write dedup index: " + file, e);
+        }
+    }
+
+    /**
+     * Compact after a change has been recorded. A failed compaction keeps the journal
+     * it had and is tried again on the next change, so the change is not reported as
+     * failed after it took effect.
+     */
+    private void compactIfGrown() {
+        if (records > MIN_COMPACT_RECORDS && records > 4L * paths.size()) {
+            try {
+                compact();
+            } catch (IOException ignored) {
+                // The journal is still complete
+            }
+        }
+    }
+
+    private static void write(DataOutputStream out, byte op, String path, Blob blob, long lastModified)
+            throws IOException {
+        out.writeByte(op);
+        out.writeUTF(path);
+        if (op == PUT) {
+            out.writeUTF(blob.digest);
+            out.writeLong(blob.size);
+            out.writeLong(lastModified);
+        }
+    }
+
+    private void replay() throws IOException {
+        try (InputStream raw = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(raw))) {
+            while (true) {
+                int op = in.read();
+                if (op < 0) {
+                    return;
+                }
+                String path = in.readUTF();
+                if (op == PUT) {
+                    String digest = in.readUTF();
+                    long size = in.readLong();
+                    long lastModified = in.readLong();
+                    Blob blob = blobs.computeIfAbsent(digest, key -> new Blob(key, size));
+                    blob.stored = true;
+                    blob.refs++;
+                    Ref previous = paths.put(path, new Ref(blob, lastModified));
+                    if (previous != null) {
+                        previous.blob.refs--;
+                    }
+                } else if (op == DELETE) {
+                    Ref previous = paths.remove(path);
+                    if (previous != null) {
+                        previous.blob.refs--;
+                    }
+                } else {
+                    throw new IOException("Corrupt dedup index record: " + op);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // New index
+        } catch (EOFException e) {
+            // Torn last record
+        }
+        // Blobs without paths stay known so the garbage collector removes them
+    }
+
+    /**
+     * Rewrite the journal as one PUT record per path and reopen it for appending
+     */
+    private void compact() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            for (Map.Entry<String, Ref> entry : paths.entrySet()) {
+                write(out, PUT, entry.getKey(), entry.getValue().blob, entry.getValue().lastModified);
+            }
+        }
+        closeJournal();
+        try {
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            records = paths.size();
+        } finally {
+            // Appends go on to the old journal if the snapshot could not replace it
+            journal = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(file, StandardOpenOption.APPEND)));
+        }
+    }
+
+    /**
+     * Unique content, stored once under its digest
+     */
+    static final class Blob {
+        final String digest;
+        final long size;
+        int refs;
+        volatile boolean stored;
+        boolean deleting;
+
+        Blob(String digest, long size) {
+            this.digest = digest;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Entry of a path
+     */
+    static final class Ref {
+        final Blob blob;
+        final long lastModified;
+
+        Ref(Blob blob, long lastModified) {
+            this.blob = blob;
+            this.lastModified = lastModified;
+        }
+    }
+}
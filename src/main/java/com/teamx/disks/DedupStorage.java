@@ -0,0 +1,492 @@
+package com.teamx.disks;
+
+import com.teamx.StorageException;
+import com.teamx.config.DiskConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed disk that stores each distinct content once on a backend disk.
+ * <p>
+ * A put hashes the content with SHA-256 while spooling it, in memory up to
+ * spool_memory and in a local temporary file beyond, and uploads it to
+ * {@code <blob_prefix>/<first two digits>/<digest>} on the backend only when no
+ * blob with that digest is stored yet. Paths live in a {@link DedupIndex} kept in
+ * the local index_file, so copy and move only touch the index and listings,
+ * metadata and existence checks never reach the backend. The digest is reported
+ * as the ETag of an entry. Directories are implied by the paths below them.
+ * <p>
+ * Blobs no path refers to any more are deleted by a background collector every
+ * gc_interval. Its first run also removes blobs on the backend the index does not
+ * know, such as uploads of a process that stopped before recording the path,
+ * once they are older than gc_grace. That run is skipped with a warning when the
+ * index holds no paths but the backend holds blobs, as a lost or replaced index
+ * file would otherwise have all the content deleted. The index belongs to one
+ * process; disks in several processes must not share a blob prefix.
+ * <p>
+ * Options: backend (required, name of the disk holding the blobs), index_file
+ * (required), blob_prefix (default "blobs"), spool_memory (size, default 1MB),
+ * spool_dir (default the system temporary directory), gc_interval (ms, default
+ * 60000, 0 to collect only on {@link #collectGarbage()}), gc_grace (ms, default
+ * one hour).
+ */
+public class DedupStorage implements Storage {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DedupStorage.class);
+    private static final Pattern DIGEST = Pattern.compile("[0-9a-f]{64}");
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+    private static final long DEFAULT_SPOOL_MEMORY = 1024L * 1024;
+    private static final long DEFAULT_GC_INTERVAL = 60_000;
+    private static final long DEFAULT_GC_GRACE = 60L * 60 * 1000;
+
+    private final Storage backend;
+    private final DedupIndex index;
+    private final String blobPrefix;
+    private final long spoolMemory;
+    private final Path spoolDirectory;
+    private final long gcGrace;
+    private final ScheduledExecutorService collector;
+    private final LongAdder dedupedBytes = new LongAdder();
+    private final Object collecting = new Object();
+    private volatile boolean swept;
+    private volatile boolean closed;
+
+    /**
+     * Create a deduplicating storage with configuration
+     *
+     * @param backend Disk holding the blobs
+     * @param config  Disk configuration
+     */
+    public DedupStorage(Storage backend, DiskConfig config) {
+        this(backend, Paths.get(requireIndexFile(config)), config.getOption("blob_prefix", "blobs"),
+                config.getSizeOption("spool_memory", DEFAULT_SPOOL_MEMORY),
+                Paths.get(config.getOption("spool_dir", System.getProperty("java.io.tmpdir"))),
+                config.getLongOption("gc_interval", DEFAULT_GC_INTERVAL),
+                config.getLongOption("gc_grace", DEFAULT_GC_GRACE));
+    }
+
+    /**
+     * Create a deduplicating storage
+     *
+     * @param backend        Disk holding the blobs
+     * @param indexFile      Local file of the path index
+     * @param blobPrefix     Directory of the blobs on the backend
+     * @param spoolMemory    Bytes of a put held in memory before spooling to a file
+     * @param spoolDirectory Directory for spool files
+     * @param gcInterval     Milliseconds between background collections, 0 for none
+     * @param gcGrace        Age in milliseconds before an unknown blob is removed
+     */
+    public DedupStorage(Storage backend, Path indexFile, String blobPrefix, long spoolMemory,
+                        Path spoolDirectory, long gcInterval, long gcGrace) {
+        this.backend = backend;
+        this.index = new DedupIndex(indexFile);
+        this.blobPrefix = PathListings.trimSlashes(blobPrefix);
+        this.spoolMemory = spoolMemory;
+        this.spoolDirectory = spoolDirectory;
+        this.gcGrace = gcGrace;
+
+        if (gcInterval > 0) {
+            collector = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("dedup-gc"));
+            collector.scheduleWithFixedDelay(this::collectQuietly, gcInterval, gcInterval, TimeUnit.MILLISECONDS);
+        } else {
+            collector = null;
+        }
+    }
+
+    @Override
+    public InputStream get(String path) throws StorageException {
+        return backend.get(blobKey(require(path)));
+    }
+
+    @Override
+    public ReadableByteChannel getChannel(String path) throws StorageException {
+        return backend.getChannel(blobKey(require(path)));
+    }
+
+    @Override
+    public long writeTo(String path, WritableByteChannel target) throws StorageException {
+        return backend.writeTo(blobKey(require(path)), target);
+    }
+
+    @Override
+    public ByteBuffer readRange(String path, long offset, int length) throws StorageException {
+        return backend.readRange(blobKey(require(path)), offset, length);
+    }
+
+    /**
+     * Stores the content under its digest unless that blob exists already.
+     * Metadata is not kept, as blobs are shared between paths.
+     */
+    @Override
+    public boolean put(String path, InputStream content, Map<String, String> metadata) throws StorageException {
+        String key = PathListings.trimSlashes(path);
+
+        try (Spool spool = spool(path, content)) {
+            DedupIndex.Blob blob = index.reserve(spool.digest, spool.size);
+            boolean bound = false;
+            try {
+                if (blob.stored) {
+                    dedupedBytes.add(spool.size);
+                } else {
+                    try (ReadableByteChannel channel = spool.open()) {
+                        backend.put(blobKey(blob.digest), channel, spool.size);
+                    }
+                    index.stored(blob);
+                }
+                index.bind(key, blob, System.currentTimeMillis());
+                bound = true;
+            } finally {
+                if (!bound) {
+                    index.release(blob);
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            throw new StorageException("Could not write file: " + path, e);
+        }
+    }
+
+    @Override
+    public boolean exists(String path) {
+        String key = PathListings.trimSlashes(path);
+        return index.get(key) != null || index.hasPathsBelow(key.isEmpty() ? "" : key + "/");
+    }
+
+    @Override
+    public StorageEntry stat(String path) throws StorageException {
+        String key = PathListings.trimSlashes(path);
+        DedupIndex.Ref ref = index.get(key);
+        if (ref != null) {
+            return toEntry(key, ref);
+        }
+        return exists(key) ? StorageEntry.directory(key, 0) : null;
+    }
+
+    @Override
+    public boolean delete(String path) throws StorageException {
+        return index.unbind(PathListings.trimSlashes(path));
+    }
+
+    @Override
+    public String url(String path) {
+        return backend.url(blobKey(require(path)));
+    }
+
+    @Override
+    public List<String> listContents(String directory) {
+        try (Stream<StorageEntry> entries = list(directory)) {
+            return entries.map(StorageEntry::getPath).collect(Collectors.toList());
+        }
+    }
+
+    @Override
+    public Stream<StorageEntry> list(String directory) {
+        String prefix = PathListings.directoryPrefix(directory);
+        return PathListings.children(prefix, index.below(prefix), DedupStorage::toEntry).stream();
+    }
+
+    /**
+     * Lists from a snapshot of the index. Each directory comes right before the
+     * first path below it, and files come in lexicographic path order.
+     */
+    @Override
+    public Stream<StorageEntry> listAll(String directory) {
+        String prefix = PathListings.directoryPrefix(directory);
+        return PathListings.tree(prefix, index.below(prefix), DedupStorage::toEntry).stream();
+    }
+
+    @Override
+    public long size(String path) throws StorageException {
+        return requireRef(path).blob.size;
+    }
+
+    /**
+     * Directories exist as long as a path lies below them, so there is nothing to create
+     */
+    @Override
+    public boolean makeDirectory(String path) {
+        return true;
+    }
+
+    @Override
+    public boolean deleteDirectory(String path) {
+        for (Map.Entry<String, DedupIndex.Ref> entry : index.below(PathListings.directoryPrefix(path))) {
+            index.unbind(entry.getKey());
+        }
+        return true;
+    }
+
+    @Override
+    public long lastModified(String path) {
+        return requireRef(path).lastModified;
+    }
+
+    /**
+     * Points the destination at the blob of the source; no content is copied
+     */
+    @Override
+    public boolean copy(String source, String destination) {
+        String from = PathListings.trimSlashes(source);
+        if (!index.link(from, PathListings.trimSlashes(destination), System.currentTimeMillis())) {
+            throw new StorageException("Source file not found: " + source);
+        }
+        return true;
+    }
+
+    /**
+     * Renames in the index. A crash between the two journal records leaves both paths.
+     */
+    @Override
+    public boolean move(String source, String destination) {
+        String from = PathListings.trimSlashes(source);
+        String to = PathListings.trimSlashes(destination);
+        DedupIndex.Ref ref = index.get(from);
+        if (ref == null) {
+            throw new StorageException("Source file not found: " + source);
+        }
+        if (from.equals(to)) {
+            return true;
+        }
+        if (!index.link(from, to, ref.lastModified)) {
+            throw new StorageException("Source file not found: " + source);
+        }
+        index.unbind(from);
+        return true;
+    }
+
+    /**
+     * Delete the blobs no path refers to. Runs in the background every gc_interval.
+     *
+     * @return Number of blobs deleted
+     */
+    public int collectGarbage() {
+        synchronized (collecting) {
+            int deleted = 0;
+            for (DedupIndex.Blob blob : index.garbage()) {
+                boolean success = false;
+                try {
+                    // A closed disk may already have a replacement that uses the blob again
+                    if (!closed) {
+                        backend.delete(blobKey(blob.digest));
+                        success = true;
+                        deleted++;
+                    }
+                } catch (StorageException e) {
+                    LOGGER.warn("Could not delete unreferenced blob {}", blob.digest, e);
+                } finally {
+                    index.deleted(blob, success);
+                }
+            }
+
+            if (!swept && !closed) {
+                deleted += sweep();
+                swept = true;
+            }
+            return deleted;
+        }
+    }
+
+    /**
+     * Get the number of bytes puts did not have to store because the content existed
+     *
+     * @return Bytes saved
+     */
+    public long getDedupedBytes() {
+        return dedupedBytes.sum();
+    }
+
+    /**
+     * Stops the collector, waits for a collection in progress to stop deleting
+     * and closes the index. The backend is usually a disk of its own and is left
+     * open for its owner to close.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (collector != null) {
+            collector.shutdownNow();
+        }
+        synchronized (collecting) {
+            index.close();
+        }
+    }
+
+    /**
+     * Remove blobs on the backend that the index does not know, unless the index is empty
+     */
+    private int sweep() {
+        long cutoff = System.currentTimeMillis() - gcGrace;
+        List<String> orphans = new ArrayList<>();
+        try (Stream<StorageEntry> entries = backend.listAll(blobPrefix)) {
+            entries.filter(entry -> !entry.isDirectory() && entry.getLastModified() < cutoff)
+                    .map(StorageEntry::getPath)
+                    .filter(path -> {
+                        String name = path.substring(path.lastIndexOf('/') + 1);
+                        return DIGEST.matcher(name).matches() && !index.knows(name);
+                    })
+                    .forEach(orphans::add);
+        }
+        if (!orphans.isEmpty() && index.isEmpty()) {
+            LOGGER.warn("Dedup index is empty but {} blobs are stored below {}; not deleting them",
+                    orphans.size(), blobPrefix);
+            return 0;
+        }
+
+        int deleted = 0;
+        for (Map.Entry<String, BatchResult<Boolean>> result : backend.deleteMany(orphans).entrySet()) {
+            if (result.getValue().isSuccess()) {
+                deleted++;
+            } else {
+                LOGGER.warn("Could not delete orphaned blob {}", result.getKey(), result.getValue().getError());
+            }
+        }
+        return deleted;
+    }
+
+    private void collectQuietly() {
+        try {
+            collectGarbage();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Blob garbage collection failed", e);
+        }
+    }
+
+    /**
+     * Read the content once, hashing it and keeping it for the upload
+     */
+    private Spool spool(String path, InputStream content) {
+        MessageDigest digest = sha256();
+        ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        Path file = null;
+        OutputStream out = memory;
+        long size = 0;
+
+        try {
+            try {
+                byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+                int read;
+                while ((read = content.read(buffer)) >= 0) {
+                    digest.update(buffer, 0, read);
+                    if (file == null && size + read > spoolMemory) {
+                        file = Files.createTempFile(spoolDirectory, "dedup-", ".spool");
+                        out = Files.newOutputStream(file);
+                        memory.writeTo(out);
+                        memory = null;
+                    }
+                    out.write(buffer, 0, read);
+                    size += read;
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            deleteQuietly(file);
+            throw new StorageException("Could not read content for: " + path, e);
+        }
+
+        return new Spool(HexFormat.of().formatHex(digest.digest()), size,
+                memory == null ? null : memory.toByteArray(), file);
+    }
+
+    private String blobKey(String digest) {
+        String key = digest.substring(0, 2) + "/" + digest;
+        return blobPrefix.isEmpty() ? key : blobPrefix + "/" + key;
+    }
+
+    private String require(String path) {
+        return requireRef(path).blob.digest;
+    }
+
+    private DedupIndex.Ref requireRef(String path) {
+        DedupIndex.Ref ref = index.get(PathListings.trimSlashes(path));
+        if (ref == null) {
+            throw new StorageException("File not found: " + path);
+        }
+        return ref;
+    }
+
+    private static StorageEntry toEntry(String path, DedupIndex.Ref ref) {
+        return new StorageEntry(path, ref.blob.size, ref.lastModified, false, ref.blob.digest);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            // Left in the temporary directory
+        }
+    }
+
+    private static String requireIndexFile(DiskConfig config) {
+        String file = config.getOption("index_file");
+        if (file == null || file.isEmpty()) {
+            throw new IllegalArgumentException("Dedup storage index_file is required");
+        }
+        return file;
+    }
+
+    /**
+     * Content of a put, held in memory or in a spool file until it is uploaded
+     */
+    private static final class Spool implements AutoCloseable {
+        final String digest;
+        final long size;
+        final byte[] bytes;
+        final Path file;
+
+        Spool(String digest, long size, byte[] bytes, Path file) {
+            this.digest = digest;
+            this.size = size;
+            this.bytes = bytes;
+            this.file = file;
+        }
+
+        ReadableByteChannel open() throws IOException {
+            return file != null
+                    ? FileChannel.open(file)
+                    : Channels.newChannel(new ByteArrayInputStream(bytes));
+        }
+
+        @Override
+        public void close() {
+            deleteQuietly(file);
+        }
+    }
+}
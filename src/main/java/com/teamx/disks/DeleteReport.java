@@ -0,0 +1,56 @@
+package com.teamx.disks;
+
+import com.teamx.StorageException;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Outcome of deleting a directory tree: how many entries were deleted and the
+ * paths that could not be, with the error of each.
+ */
+public final class DeleteReport {
+    private final long deleted;
+    private final Map<String, StorageException> failures;
+
+    DeleteReport(long deleted, Map<String, StorageException> failures) {
+        this.deleted = deleted;
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * Get the number of files and directories deleted
+     */
+    public long getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * Get the paths that could not be deleted
+     */
+    public Map<String, StorageException> getFailures() {
+        return failures;
+    }
+
+    public boolean isComplete() {
+        return failures.isEmpty();
+    }
+
+    /**
+     * Throw if any path could not be deleted
+     *
+     * @param directory Deleted directory, for the message
+     * @throws StorageException with the first failure as cause
+     */
+    void throwIfIncomplete(String directory) throws StorageException {
+        if (!failures.isEmpty()) {
+            throw new StorageException("Could not delete " + failures.size() + " entries below: " + directory,
+                    failures.values().iterator().next());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DeleteReport[deleted=" + deleted + ", failed=" + failures.size() + "]";
+    }
+}
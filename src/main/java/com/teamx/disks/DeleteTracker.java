@@ -0,0 +1,71 @@
+package com.teamx.disks;
+
+import com.teamx.StorageException;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Counts the deletions of a tree delete running on several threads and reports
+ * the running total every {@value #PROGRESS_STEP} entries
+ */
+final class DeleteTracker {
+    static final int PROGRESS_STEP = 1000;
+
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong reported = new AtomicLong();
+    private final Map<String, StorageException> failures = new ConcurrentHashMap<>();
+    private final LongConsumer progress;
+
+    /**
+     * @param progress Called with the number of entries deleted so far, from
+     *                 worker threads; may be null
+     */
+    DeleteTracker(LongConsumer progress) {
+        this.progress = progress;
+    }
+
+    void deleted(long count) {
+        if (count <= 0) {
+            return;
+        }
+        long total = deleted.addAndGet(count);
+        if (progress != null && total / PROGRESS_STEP != (total - count) / PROGRESS_STEP) {
+            reported.accumulateAndGet(total, Math::max);
+            progress.accept(total);
+        }
+    }
+
+    void failed(String path, StorageException error) {
+        failures.put(path, error);
+    }
+
+    /**
+     * Record the per-path results of a batch delete
+     */
+    void record(Map<String, BatchResult<Boolean>> results) {
+        long count = 0;
+        for (Map.Entry<String, BatchResult<Boolean>> result : results.entrySet()) {
+            if (result.getValue().isSuccess()) {
+                count++;
+            } else {
+                failed(result.getKey(), result.getValue().getError());
+            }
+        }
+        deleted(count);
+    }
+
+    /**
+     * Report the final total and build the report, failures in path order
+     */
+    DeleteReport finish() {
+        long total = deleted.get();
+        if (progress != null && reported.get() != total) {
+            progress.accept(total);
+        }
+        return new DeleteReport(total, new TreeMap<>(failures));
+    }
+}
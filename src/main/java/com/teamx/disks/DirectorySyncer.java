@@ -0,0 +1,109 @@
+package com.teamx.disks;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Group commit of directory fsyncs.
+ * <p>
+ * A rename is durable once its directory has been synced, and one fsync covers
+ * every rename that completed before it started. Writers that rename into the same
+ * directory at the same time therefore share fsyncs: the first caller syncs, callers
+ * arriving meanwhile wait and the next of them syncs once more for all of them. Under
+ * load the number of directory fsyncs follows the fsync latency rather than the
+ * write rate. A failed fsync is thrown to its caller; the callers it would have
+ * covered sync again themselves.
+ */
+class DirectorySyncer {
+    private final ConcurrentMap<Path, Group> groups = new ConcurrentHashMap<>();
+
+    /**
+     * Make the renames into a directory that completed before this call durable
+     *
+     * @param directory Directory to sync
+     */
+    void sync(Path directory) throws IOException {
+        Group group = groups.computeIfAbsent(directory, key -> new Group());
+        try {
+            group.sync(directory);
+        } finally {
+            synchronized (group) {
+                if (group.waiting == 0 && !group.syncing) {
+                    groups.remove(directory, group);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fsync a directory. Platforms that cannot open directories, such as Windows,
+     * make renames durable on their own.
+     */
+    void force(Path directory) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (channel) {
+            channel.force(true);
+        }
+    }
+
+    private final class Group {
+        private long requested;
+        private long synced;
+        private boolean syncing;
+        private int waiting;
+
+        void sync(Path directory) throws IOException {
+            long ticket;
+            synchronized (this) {
+                ticket = ++requested;
+                waiting++;
+            }
+
+            try {
+                while (true) {
+                    long covered;
+                    synchronized (this) {
+                        while (syncing && synced < ticket) {
+                            wait();
+                        }
+                        if (synced >= ticket) {
+                            return;
+                        }
+                        syncing = true;
+                        covered = requested;
+                    }
+
+                    boolean done = false;
+                    try {
+                        force(directory);
+                        done = true;
+                    } finally {
+                        synchronized (this) {
+                            syncing = false;
+                            if (done) {
+                                synced = Math.max(synced, covered);
+                            }
+                            notifyAll();
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for directory sync: " + directory, e);
+            } finally {
+                synchronized (this) {
+                    waiting--;
+                }
+            }
+        }
+    }
+}
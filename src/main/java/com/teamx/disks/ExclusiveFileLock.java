@@ -0,0 +1,78 @@
+package com.teamx.disks;
+
+import com.teamx.StorageException;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Exclusive lock on a lock file, held by a driver for as long as it owns local
+ * state such as an index or segment files. The lock is taken with
+ * FileChannel.tryLock, so it excludes other processes as well as other disks
+ * of the same process.
+ */
+final class ExclusiveFileLock implements AutoCloseable {
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    private ExclusiveFileLock(FileChannel channel, FileLock lock) {
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /**
+     * Take the lock without waiting
+     *
+     * @param file  Lock file, created if missing
+     * @param owned What the lock protects, for the error message
+     * @throws StorageException if another disk holds the lock
+     */
+    static ExclusiveFileLock acquire(Path file, String owned) throws StorageException {
+        FileChannel channel = null;
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = channel.tryLock();
+            if (lock != null) {
+                return new ExclusiveFileLock(channel, lock);
+            }
+        } catch (OverlappingFileLockException e) {
+            // Held by another disk of this process
+        } catch (IOException e) {
+            closeQuietly(channel);
+            throw new StorageException("Could not lock " + owned + ": " + file, e);
+        }
+        closeQuietly(channel);
+        throw new StorageException(owned + " is in use by another disk: " + file);
+    }
+
+    /**
+     * Release the lock. The lock file stays, so it is never deleted under a waiting owner.
+     */
+    @Override
+    public void close() {
+        try {
+            lock.release();
+        } catch (IOException e) {
+            // Closing the channel releases it as well
+        } finally {
+            closeQuietly(channel);
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Nothing was written through it
+        }
+    }
+}
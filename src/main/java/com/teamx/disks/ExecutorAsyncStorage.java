@@ -0,0 +1,98 @@
+package com.teamx.disks;
+
+import com.teamx.StorageException;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * AsyncStorage view that runs the blocking operations of a Storage on an executor.
+ * Used for disks without a native non-blocking client.
+ */
+public class ExecutorAsyncStorage implements AsyncStorage {
+    private static final ExecutorService SHARED_EXECUTOR = Executors.newFixedThreadPool(
+            Math.max(4, Runtime.getRuntime().availableProcessors() * 2),
+            new DaemonThreadFactory("storage-async"));
+
+    private final Storage storage;
+    private final Executor executor;
+
+    /**
+     * Create an async view backed by the shared storage executor
+     *
+     * @param storage Blocking storage implementation
+     */
+    public ExecutorAsyncStorage(Storage storage) {
+        this(storage, SHARED_EXECUTOR);
+    }
+
+    /**
+     * Create an async view backed by the given executor
+     *
+     * @param storage  Blocking storage implementation
+     * @param executor Executor running the blocking calls
+     */
+    public ExecutorAsyncStorage(Storage storage, Executor executor) {
+        this.storage = storage;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<InputStream> get(String path) {
+        return run(() -> storage.get(path));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> put(String path, InputStream content, Map<String, String> metadata) {
+        return run(() -> storage.put(path, content, metadata));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> exists(String path) {
+        return run(() -> storage.exists(path));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> delete(String path) {
+        return run(() -> storage.delete(path));
+    }
+
+    @Override
+    public CompletableFuture<Long> size(String path) {
+        return run(() -> storage.size(path));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> copy(String source, String destination) {
+        return run(() -> storage.copy(source, destination));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> move(String source, String destination) {
+        return run(() -> storage.move(source, destination));
+    }
+
+    @Override
+    public CompletableFuture<List<String>> listContents(String directory) {
+        return run(() -> storage.listContents(directory));
+    }
+
+    private <T> CompletableFuture<T> run(Supplier<T> operation) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return operation.get();
+            } catch (StorageException e) {
+                throw new CompletionException(e);
+            } catch (RuntimeException e) {
+                throw new CompletionException(new StorageException(e.getMessage(), e));
+            }
+        }, executor);
+    }
+}
@@ -0,0 +1,99 @@
+package com.teamx.disks;
+
+import com.teamx.StorageException;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazy depth-first walk over a local directory tree producing StorageEntry objects.
+ * <p>
+ * Attributes are read once per file while the directory is listed, so no further
+ * stat call is needed per entry. Each directory is sorted as it is entered, with
+ * sub-directories ordered as if their name ended in '/', which makes file entries
+ * come out in the same lexicographic order as an S3 listing of the same keys.
+ * Memory is bounded by the width of the directories on the current path rather
+ * than the size of the tree. Symbolic links are reported but not followed, and the
+ * temporary files of writes in progress are skipped.
+ */
+class FileTreeIterator implements Iterator<StorageEntry> {
+    private static final Comparator<Child> ORDER = Comparator.comparing(child -> child.sortKey);
+
+    private final Path basePath;
+    private final Deque<Iterator<Child>> stack = new ArrayDeque<>();
+
+    FileTreeIterator(Path basePath, Path root) {
+        this.basePath = basePath;
+        stack.push(readDirectory(root));
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!stack.isEmpty()) {
+            if (stack.peek().hasNext()) {
+                return true;
+            }
+            stack.pop();
+        }
+        return false;
+    }
+
+    @Override
+    public StorageEntry next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        Child child = stack.peek().next();
+        if (child.attributes.isDirectory()) {
+            stack.push(readDirectory(child.path));
+            return StorageEntry.directory(child.relativePath, child.attributes.lastModifiedTime().toMillis());
+        }
+        return StorageEntry.file(child.relativePath, child.attributes.size(),
+                child.attributes.lastModifiedTime().toMillis());
+    }
+
+    private Iterator<Child> readDirectory(Path directory) {
+        List<Child> children = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                if (LocalStorage.isTemporary(path)) {
+                    continue;
+                }
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class,
+                        LinkOption.NOFOLLOW_LINKS);
+                children.add(new Child(path, basePath.relativize(path).toString().replace('\\', '/'), attributes));
+            }
+        } catch (IOException e) {
+            throw new StorageException("Could not list directory: " + directory, e);
+        }
+
+        children.sort(ORDER);
+        return children.iterator();
+    }
+
+    private static final class Child {
+        final Path path;
+        final String relativePath;
+        final String sortKey;
+        final BasicFileAttributes attributes;
+
+        Child(Path path, String relativePath, BasicFileAttributes attributes) {
+            this.path = path;
+            this.relativePath = relativePath;
+            this.sortKey = attributes.isDirectory() ? relativePath + "/" : relativePath;
+            this.attributes = attributes;
+        }
+    }
+}
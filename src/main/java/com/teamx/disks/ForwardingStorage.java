@@ -0,0 +1,198 @@
+package com.teamx.disks;
+
+import com.teamx.StorageException;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Base class for Storage decorators. Forwards every operation to the wrapped
+ * storage so a decorator only overrides the operations it changes.
+ * <p>
+ * {@link #async()} is deliberately not forwarded: the async view of a decorator
+ * runs through the decorator itself. {@link #close()} closes the wrapped storage,
+ * as a decorator owns the disk it wraps.
+ */
+public abstract class ForwardingStorage implements Storage {
+    protected final Storage delegate;
+
+    protected ForwardingStorage(Storage delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Get the wrapped storage
+     *
+     * @return Wrapped storage
+     */
+    public Storage getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Get the disk at the bottom of a chain of decorators. The walk stops at a
+     * decorator that changes the stored bytes, since the disk below it holds
+     * content that only reads correctly through that decorator.
+     *
+     * @param storage Storage, decorated or not
+     * @return Innermost wrapped storage, or the outermost decorator that changes content
+     */
+    public static Storage unwrap(Storage storage) {
+        while (storage instanceof ForwardingStorage && ((ForwardingStorage) storage).isTransparent()) {
+            storage = ((ForwardingStorage) storage).getDelegate();
+        }
+        return storage;
+    }
+
+    /**
+     * Check whether the wrapped storage holds the same bytes that are read and
+     * written through this decorator
+     *
+     * @return false for decorators that transform content, such as compression
+     */
+    protected boolean isTransparent() {
+        return true;
+    }
+
+    @Override
+    public InputStream get(String path) throws StorageException {
+        return delegate.get(path);
+    }
+
+    @Override
+    public InputStream get(String path, ReadOptions options) throws StorageException {
+        return delegate.get(path, options);
+    }
+
+    @Override
+    public ReadableByteChannel getChannel(String path) throws StorageException {
+        return delegate.getChannel(path);
+    }
+
+    @Override
+    public long writeTo(String path, WritableByteChannel target) throws StorageException {
+        return delegate.writeTo(path, target);
+    }
+
+    @Override
+    public ByteBuffer readRange(String path, long offset, int length) throws StorageException {
+        return delegate.readRange(path, offset, length);
+    }
+
+    @Override
+    public boolean put(String path, ReadableByteChannel content, long size) throws StorageException {
+        return delegate.put(path, content, size);
+    }
+
+    @Override
+    public boolean put(String path, InputStream content, Map<String, String> metadata) throws StorageException {
+        return delegate.put(path, content, metadata);
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return delegate.exists(path);
+    }
+
+    @Override
+    public StorageEntry stat(String path) throws StorageException {
+        return delegate.stat(path);
+    }
+
+    @Override
+    public boolean delete(String path) throws StorageException {
+        return delegate.delete(path);
+    }
+
+    @Override
+    public String url(String path) {
+        return delegate.url(path);
+    }
+
+    @Override
+    public List<String> listContents(String directory) {
+        return delegate.listContents(directory);
+    }
+
+    @Override
+    public Stream<StorageEntry> list(String directory) {
+        return delegate.list(directory);
+    }
+
+    @Override
+    public Stream<StorageEntry> listAll(String directory) {
+        return delegate.listAll(directory);
+    }
+
+    @Override
+    public long size(String path) throws StorageException {
+        return delegate.size(path);
+    }
+
+    @Override
+    public boolean makeDirectory(String path) {
+        return delegate.makeDirectory(path);
+    }
+
+    @Override
+    public boolean deleteDirectory(String path) {
+        return delegate.deleteDirectory(path);
+    }
+
+    @Override
+    public DeleteReport deleteDirectory(String path, LongConsumer progress) {
+        return delegate.deleteDirectory(path, progress);
+    }
+
+    @Override
+    public long lastModified(String path) {
+        return delegate.lastModified(path);
+    }
+
+    @Override
+    public boolean copy(String source, String destination) {
+        return delegate.copy(source, destination);
+    }
+
+    @Override
+    public boolean copyFrom(Storage source, String sourcePath, String destination) throws StorageException {
+        return delegate.copyFrom(source, sourcePath, destination);
+    }
+
+    @Override
+    public boolean move(String source, String destination) {
+        return delegate.move(source, destination);
+    }
+
+    @Override
+    public Map<String, BatchResult<Boolean>> deleteMany(Collection<String> paths) {
+        return delegate.deleteMany(paths);
+    }
+
+    @Override
+    public Map<String, BatchResult<Boolean>> existsMany(Collection<String> paths) {
+        return delegate.existsMany(paths);
+    }
+
+    @Override
+    public Map<String, BatchResult<Long>> sizeMany(Collection<String> paths) {
+        return delegate.sizeMany(paths);
+    }
+
+    @Override
+    public Map<String, BatchResult<Boolean>> copyMany(Map<String, String> copies) {
+        return delegate.copyMany(copies);
+    }
+
+    @Override
+    public void close() throws StorageException {
+        delegate.close();
+    }
+}
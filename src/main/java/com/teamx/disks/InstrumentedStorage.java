@@ -0,0 +1,536 @@
+package com.teamx.disks;
+
+import com.teamx.StorageException;
+import com.teamx.metrics.DiskMetrics;
+import com.teamx.metrics.StorageOperation;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Storage decorator that records call counts, errors, latencies and bytes
+ * transferred for every operation of a disk.
+ * <p>
+ * The latency of get is the time to open the stream; bytes are counted as the
+ * stream is read. Listings are timed until the stream is returned. Channels
+ * returned by getChannel are handed out unwrapped so zero-copy transfers keep
+ * working, which means their bytes are not counted.
+ * <p>
+ * The async view wraps the async view of the disk, so disks with native async
+ * I/O keep it and their calls are measured as well.
+ */
+public class InstrumentedStorage extends ForwardingStorage {
+    private final DiskMetrics metrics;
+    private volatile AsyncStorage asyncView;
+
+    /**
+     * @param delegate Storage to measure
+     * @param metrics  Metrics to record into
+     */
+    public InstrumentedStorage(Storage delegate, DiskMetrics metrics) {
+        super(delegate);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Get the metrics this decorator records into
+     *
+     * @return Metrics of the disk
+     */
+    public DiskMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public InputStream get(String path) throws StorageException {
+        metrics.recordKey(path);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            InputStream content = new CountingInputStream(delegate.get(path), metrics);
+            failed = false;
+            return content;
+        } finally {
+            metrics.record(StorageOperation.GET, start, failed);
+        }
+    }
+
+    @Override
+    public InputStream get(String path, ReadOptions options) throws StorageException {
+        metrics.recordKey(path);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            InputStream content = new CountingInputStream(delegate.get(path, options), metrics);
+            failed = false;
+            return content;
+        } finally {
+            metrics.record(StorageOperation.GET, start, failed);
+        }
+    }
+
+    @Override
+    public ReadableByteChannel getChannel(String path) throws StorageException {
+        metrics.recordKey(path);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            ReadableByteChannel channel = delegate.getChannel(path);
+            failed = false;
+            return channel;
+        } finally {
+            metrics.record(StorageOperation.GET_CHANNEL, start, failed);
+        }
+    }
+
+    @Override
+    public long writeTo(String path, WritableByteChannel target) throws StorageException {
+        metrics.recordKey(path);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            long written = delegate.writeTo(path, target);
+            metrics.addBytesRead(written);
+            failed = false;
+            return written;
+        } finally {
+            metrics.record(StorageOperation.WRITE_TO, start, failed);
+        }
+    }
+
+    @Override
+    public ByteBuffer readRange(String path, long offset, int length) throws StorageException {
+        metrics.recordKey(path);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            ByteBuffer range = delegate.readRange(path, offset, length);
+            metrics.addBytesRead(range.remaining());
+            failed = false;
+            return range;
+        } finally {
+            metrics.record(StorageOperation.READ_RANGE, start, failed);
+        }
+    }
+
+    @Override
+    public boolean put(String path, ReadableByteChannel content, long size) throws StorageException {
+        metrics.recordKey(path);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            // The channel is passed on unwrapped to keep zero-copy transfers, so
+            // only a declared size can be counted
+            boolean result = delegate.put(path, content, size);
+            if (size > 0) {
+                metrics.addBytesWritten(size);
+            }
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(StorageOperation.PUT, start, failed);
+        }
+    }
+
+    @Override
+    public boolean put(String path, InputStream content, Map<String, String> metadata) throws StorageException {
+        metrics.recordKey(path);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            CountingInputStream counted = new CountingInputStream(content, null);
+            boolean result = delegate.put(path, counted, metadata);
+            metrics.addBytesWritten(counted.count);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(StorageOperation.PUT, start, failed);
+        }
+    }
+
+    @Override
+    public boolean exists(String path) {
+        metrics.recordKey(path);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            boolean result = delegate.exists(path);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(StorageOperation.EXISTS, start, failed);
+        }
+    }
+
+    @Override
+    public StorageEntry stat(String path) throws StorageException {
+        metrics.recordKey(path);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            StorageEntry entry = delegate.stat(path);
+            failed = false;
+            return entry;
+        } finally {
+            metrics.record(StorageOperation.STAT, start, failed);
+        }
+    }
+
+    @Override
+    public boolean delete(String path) throws StorageException {
+        metrics.recordKey(path);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            boolean result = delegate.delete(path);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(StorageOperation.DELETE, start, failed);
+        }
+    }
+
+    @Override
+    public List<String> listContents(String directory) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            List<String> contents = delegate.listContents(directory);
+            failed = false;
+            return contents;
+        } finally {
+            metrics.record(StorageOperation.LIST, start, failed);
+        }
+    }
+
+    @Override
+    public Stream<StorageEntry> list(String directory) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Stream<StorageEntry> entries = delegate.list(directory);
+            failed = false;
+            return entries;
+        } finally {
+            metrics.record(StorageOperation.LIST, start, failed);
+        }
+    }
+
+    @Override
+    public Stream<StorageEntry> listAll(String directory) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Stream<StorageEntry> entries = delegate.listAll(directory);
+            failed = false;
+            return entries;
+        } finally {
+            metrics.record(StorageOperation.LIST, start, failed);
+        }
+    }
+
+    @Override
+    public long size(String path) throws StorageException {
+        metrics.recordKey(path);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            long size = delegate.size(path);
+            failed = false;
+            return size;
+        } finally {
+            metrics.record(StorageOperation.SIZE, start, failed);
+        }
+    }
+
+    @Override
+    public boolean makeDirectory(String path) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            boolean result = delegate.makeDirectory(path);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(StorageOperation.MAKE_DIRECTORY, start, failed);
+        }
+    }
+
+    @Override
+    public boolean deleteDirectory(String path) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            boolean result = delegate.deleteDirectory(path);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(StorageOperation.DELETE_DIRECTORY, start, failed);
+        }
+    }
+
+    @Override
+    public DeleteReport deleteDirectory(String path, LongConsumer progress) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            DeleteReport report = delegate.deleteDirectory(path, progress);
+            failed = !report.isComplete();
+            return report;
+        } finally {
+            metrics.record(StorageOperation.DELETE_DIRECTORY, start, failed);
+        }
+    }
+
+    @Override
+    public long lastModified(String path) {
+        metrics.recordKey(path);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            long lastModified = delegate.lastModified(path);
+            failed = false;
+            return lastModified;
+        } finally {
+            metrics.record(StorageOperation.LAST_MODIFIED, start, failed);
+        }
+    }
+
+    @Override
+    public boolean copy(String source, String destination) {
+        metrics.recordKey(source);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            boolean result = delegate.copy(source, destination);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(StorageOperation.COPY, start, failed);
+        }
+    }
+
+    @Override
+    public boolean copyFrom(Storage source, String sourcePath, String destination) throws StorageException {
+        metrics.recordKey(destination);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            boolean result = delegate.copyFrom(source, sourcePath, destination);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(StorageOperation.COPY, start, failed);
+        }
+    }
+
+    @Override
+    public boolean move(String source, String destination) {
+        metrics.recordKey(source);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            boolean result = delegate.move(source, destination);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(StorageOperation.MOVE, start, failed);
+        }
+    }
+
+    @Override
+    public Map<String, BatchResult<Boolean>> deleteMany(Collection<String> paths) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Map<String, BatchResult<Boolean>> results = delegate.deleteMany(paths);
+            failed = false;
+            return results;
+        } finally {
+            metrics.record(StorageOperation.DELETE_MANY, start, failed);
+        }
+    }
+
+    @Override
+    public Map<String, BatchResult<Boolean>> existsMany(Collection<String> paths) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Map<String, BatchResult<Boolean>> results = delegate.existsMany(paths);
+            failed = false;
+            return results;
+        } finally {
+            metrics.record(StorageOperation.EXISTS_MANY, start, failed);
+        }
+    }
+
+    @Override
+    public Map<String, BatchResult<Long>> sizeMany(Collection<String> paths) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Map<String, BatchResult<Long>> results = delegate.sizeMany(paths);
+            failed = false;
+            return results;
+        } finally {
+            metrics.record(StorageOperation.SIZE_MANY, start, failed);
+        }
+    }
+
+    @Override
+    public Map<String, BatchResult<Boolean>> copyMany(Map<String, String> copies) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Map<String, BatchResult<Boolean>> results = delegate.copyMany(copies);
+            failed = false;
+            return results;
+        } finally {
+            metrics.record(StorageOperation.COPY_MANY, start, failed);
+        }
+    }
+
+    @Override
+    public AsyncStorage async() {
+        AsyncStorage view = asyncView;
+        if (view == null) {
+            synchronized (this) {
+                view = asyncView;
+                if (view == null) {
+                    view = new InstrumentedAsyncStorage(delegate.async(), metrics);
+                    asyncView = view;
+                }
+            }
+        }
+        return view;
+    }
+
+    /**
+     * Counts the bytes read from a stream, into the metrics when given,
+     * otherwise into its own counter
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private final DiskMetrics metrics;
+        long count;
+
+        CountingInputStream(InputStream in, DiskMetrics metrics) {
+            super(in);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                counted(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                counted(n);
+            }
+            return n;
+        }
+
+        private void counted(long bytes) {
+            if (metrics != null) {
+                metrics.addBytesRead(bytes);
+            } else {
+                count += bytes;
+            }
+        }
+    }
+
+    /**
+     * Measures the async view of the disk. Latency runs until the future completes.
+     */
+    private static final class InstrumentedAsyncStorage implements AsyncStorage {
+        private final AsyncStorage delegate;
+        private final DiskMetrics metrics;
+
+        InstrumentedAsyncStorage(AsyncStorage delegate, DiskMetrics metrics) {
+            this.delegate = delegate;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public CompletableFuture<InputStream> get(String path) {
+            metrics.recordKey(path);
+            long start = System.nanoTime();
+            return measure(StorageOperation.GET, start, delegate.get(path))
+                    .thenApply(content -> new CountingInputStream(content, metrics));
+        }
+
+        @Override
+        public CompletableFuture<Boolean> put(String path, InputStream content, Map<String, String> metadata) {
+            metrics.recordKey(path);
+            long start = System.nanoTime();
+            CountingInputStream counted = new CountingInputStream(content, null);
+            return measure(StorageOperation.PUT, start, delegate.put(path, counted, metadata))
+                    .thenApply(result -> {
+                        metrics.addBytesWritten(counted.count);
+                        return result;
+                    });
+        }
+
+        @Override
+        public CompletableFuture<Boolean> exists(String path) {
+            metrics.recordKey(path);
+            long start = System.nanoTime();
+            return measure(StorageOperation.EXISTS, start, delegate.exists(path));
+        }
+
+        @Override
+        public CompletableFuture<Boolean> delete(String path) {
+            metrics.recordKey(path);
+            long start = System.nanoTime();
+            return measure(StorageOperation.DELETE, start, delegate.delete(path));
+        }
+
+        @Override
+        public CompletableFuture<Long> size(String path) {
+            metrics.recordKey(path);
+            long start = System.nanoTime();
+            return measure(StorageOperation.SIZE, start, delegate.size(path));
+        }
+
+        @Override
+        public CompletableFuture<Boolean> copy(String source, String destination) {
+            metrics.recordKey(source);
+            long start = System.nanoTime();
+            return measure(StorageOperation.COPY, start, delegate.copy(source, destination));
+        }
+
+        @Override
+        public CompletableFuture<Boolean> move(String source, String destination) {
+            metrics.recordKey(source);
+            long start = System.nanoTime();
+            return measure(StorageOperation.MOVE, start, delegate.move(source, destination));
+        }
+
+        @Override
+        public CompletableFuture<List<String>> listContents(String directory) {
+            long start = System.nanoTime();
+            return measure(StorageOperation.LIST, start, delegate.listContents(directory));
+        }
+
+        private <T> CompletableFuture<T> measure(StorageOperation operation, long start,
+                                                 CompletableFuture<T> future) {
+            return future.whenComplete((result, error) -> metrics.record(operation, start, error != null));
+        }
+    }
+}
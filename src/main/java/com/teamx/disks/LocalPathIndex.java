@@ -0,0 +1,574 @@
+package com.teamx.disks;
+
+import com.teamx.StorageException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sorted in-memory table of the paths below a {@link LocalStorage} root, kept in
+ * a snapshot file between runs, that answers existence, attribute and listing
+ * calls without touching the filesystem.
+ * <p>
+ * Directories are keyed with a trailing '/', so the table holds each directory
+ * right before its content and files in lexicographic path order, the order of
+ * {@link FileTreeIterator}. The storage updates the table after each of its own
+ * changes. Changes made by other processes are picked up by a WatchService when
+ * watching is enabled, and are invisible until the next start otherwise.
+ * <p>
+ * On startup the snapshot is checked against the tree. A directory whose
+ * modification time still matches the one recorded when it was last listed
+ * has the same entries, so only directories changed since are listed again.
+ * Rewriting a file in place does not touch its directory, so the recorded files
+ * of an unchanged directory are still read for their size and time.
+ * <p>
+ * Directories are listed outside the lock into a separate table, which then
+ * replaces their subtree, so lookups do not wait for a listing. A listing that
+ * overlaps a change below its directory is done again.
+ */
+final class LocalPathIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocalPathIndex.class);
+    private static final int MAGIC = 0x4C504958;
+    private static final int VERSION = 1;
+    // Modification times closer than this to the listing may hide a later change
+    private static final long RACY_WINDOW_MILLIS = 2_000;
+    // Listings overtaken by changes before the last one is made under the lock
+    private static final int SCAN_ATTEMPTS = 3;
+
+    private final Path basePath;
+    private final Path snapshotFile;
+    private final NavigableMap<String, Node> paths = new TreeMap<>();
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> watched = new ConcurrentHashMap<>();
+    private final Thread watcherThread;
+    private final List<Listing> listings = new ArrayList<>();
+    private volatile boolean registrationFailed;
+
+    /**
+     * Load the snapshot and bring it up to date with the tree
+     *
+     * @param basePath     Root of the storage
+     * @param snapshotFile File the table is kept in between runs
+     * @param watch        Whether to follow changes made by other processes
+     */
+    LocalPathIndex(Path basePath, Path snapshotFile, boolean watch) {
+        this.basePath = basePath;
+        this.snapshotFile = snapshotFile.toAbsolutePath().normalize();
+
+        try {
+            watcher = watch ? basePath.getFileSystem().newWatchService() : null;
+        } catch (IOException e) {
+            throw new StorageException("Could not watch directory: " + basePath, e);
+        }
+
+        NavigableMap<String, Node> scanned = scan(basePath, load());
+        synchronized (this) {
+            paths.putAll(scanned);
+        }
+        LOGGER.debug("Indexed {} paths below {}", paths.size(), basePath);
+
+        if (watcher != null) {
+            watcherThread = new DaemonThreadFactory("local-path-index").newThread(this::watch);
+            watcherThread.start();
+        } else {
+            watcherThread = null;
+        }
+    }
+
+    /**
+     * Check whether a file or directory exists
+     */
+    synchronized boolean exists(String key) {
+        return paths.containsKey(key) || paths.containsKey(directoryKey(key));
+    }
+
+    /**
+     * Get the entry of a file or directory
+     *
+     * @return The entry, or null if there is nothing at the path
+     */
+    synchronized StorageEntry stat(String key) {
+        Node file = paths.get(key);
+        if (file != null && !file.directory) {
+            return StorageEntry.file(key, file.size, file.lastModified);
+        }
+        Node directory = paths.get(directoryKey(key));
+        return directory == null ? null : StorageEntry.directory(key, directory.lastModified);
+    }
+
+    /**
+     * List the direct children of a directory
+     *
+     * @return The children, or null if the directory does not exist
+     */
+    synchronized List<StorageEntry> list(String key) {
+        String prefix = directoryKey(key);
+        if (!paths.containsKey(prefix)) {
+            return null;
+        }
+        List<StorageEntry> entries = new ArrayList<>();
+        for (Map.Entry<String, Node> child : children(paths, prefix)) {
+            entries.add(toEntry(child.getKey(), child.getValue()));
+        }
+        return entries;
+    }
+
+    /**
+     * List everything below a directory, in the order of {@link FileTreeIterator}
+     *
+     * @return The entries, or null if the directory does not exist
+     */
+    synchronized List<StorageEntry> listAll(String key) {
+        String prefix = directoryKey(key);
+        if (!paths.containsKey(prefix)) {
+            return null;
+        }
+        List<StorageEntry> entries = new ArrayList<>();
+        for (Map.Entry<String, Node> entry : subtree(paths, prefix).entrySet()) {
+            entries.add(toEntry(entry.getKey(), entry.getValue()));
+        }
+        return entries;
+    }
+
+    /**
+     * Update the table from the filesystem after a change to a path
+     *
+     * @param file   Changed file or directory
+     * @param rescan Whether to list a directory that is already indexed again
+     */
+    void refresh(Path file, boolean rescan) {
+        String key = keyOf(file);
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            remove(file);
+            return;
+        } catch (IOException e) {
+            throw new StorageException("Could not read attributes: " + key, e);
+        }
+
+        if (!attributes.isDirectory()) {
+            synchronized (this) {
+                addParents(file);
+                removeTree(key);
+                paths.put(key, new Node(false, attributes.size(), attributes.lastModifiedTime().toMillis(), -1));
+            }
+            return;
+        }
+
+        synchronized (this) {
+            Node indexed = paths.get(directoryKey(key));
+            if (!rescan && indexed != null) {
+                paths.put(directoryKey(key),
+                        new Node(true, 0, attributes.lastModifiedTime().toMillis(), indexed.scanned));
+                return;
+            }
+        }
+        rescan(file, key);
+    }
+
+    /**
+     * Remove a path and everything below it from the table
+     */
+    synchronized void remove(Path file) {
+        removeTree(keyOf(file));
+    }
+
+    /**
+     * List a directory outside the lock and replace its subtree with the result,
+     * unless a change below it came in meanwhile
+     */
+    private void rescan(Path directory, String key) {
+        Listing listing = new Listing(directoryKey(key));
+        for (int attempt = 1; attempt < SCAN_ATTEMPTS; attempt++) {
+            synchronized (this) {
+                listing.overtaken = false;
+                listings.add(listing);
+            }
+            NavigableMap<String, Node> scanned;
+            try {
+                scanned = scan(directory, Collections.emptyNavigableMap());
+            } finally {
+                synchronized (this) {
+                    listings.remove(listing);
+                }
+            }
+            synchronized (this) {
+                if (!listing.overtaken) {
+                    replaceTree(directory, key, scanned);
+                    return;
+                }
+            }
+        }
+
+        synchronized (this) {
+            replaceTree(directory, key, scan(directory, Collections.emptyNavigableMap()));
+        }
+    }
+
+    /**
+     * Stop watching and write the snapshot
+     */
+    void close() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                LOGGER.warn("Could not close watcher of {}", basePath, e);
+            }
+            try {
+                watcherThread.join(1_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (this) {
+            save();
+        }
+    }
+
+    /**
+     * List directories depth-first, reusing the recorded entries of those whose
+     * modification time has not changed since they were recorded and reading the
+     * attributes of their files again
+     *
+     * @return Table of the directory and everything below it
+     */
+    private NavigableMap<String, Node> scan(Path root, NavigableMap<String, Node> previous) {
+        NavigableMap<String, Node> table = new TreeMap<>();
+        Deque<Path> pending = new ArrayDeque<>();
+        pending.push(root);
+
+        while (!pending.isEmpty()) {
+            Path directory = pending.pop();
+            String prefix = directoryKey(keyOf(directory));
+            register(directory);
+
+            long modified;
+            try {
+                modified = Files.readAttributes(directory, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS)
+                        .lastModifiedTime().toMillis();
+            } catch (NoSuchFileException e) {
+                continue;
+            } catch (IOException e) {
+                throw new StorageException("Could not read attributes: " + directory, e);
+            }
+            boolean racy = System.currentTimeMillis() - modified < RACY_WINDOW_MILLIS;
+            table.put(prefix, new Node(true, 0, modified, racy ? -1 : modified));
+
+            Node recorded = previous.get(prefix);
+            if (recorded != null && recorded.scanned == modified) {
+                for (Map.Entry<String, Node> child : children(previous, prefix)) {
+                    if (child.getValue().directory) {
+                        pending.push(basePath.resolve(child.getKey()));
+                    } else {
+                        restat(table, child.getKey());
+                    }
+                }
+                continue;
+            }
+
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+                for (Path child : children) {
+                    if (isIgnored(child)) {
+                        continue;
+                    }
+                    BasicFileAttributes attributes = Files.readAttributes(child, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory()) {
+                        pending.push(child);
+                    } else {
+                        table.put(keyOf(child), new Node(false, attributes.size(),
+                                attributes.lastModifiedTime().toMillis(), -1));
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                table.remove(prefix);
+            } catch (IOException e) {
+                throw new StorageException("Could not list directory: " + directory, e);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Record the current size and time of a file whose directory was not listed again
+     */
+    private void restat(NavigableMap<String, Node> table, String key) {
+        Path file = basePath.resolve(key);
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class,
+                    LinkOption.NOFOLLOW_LINKS);
+            table.put(key, new Node(false, attributes.size(), attributes.lastModifiedTime().toMillis(), -1));
+        } catch (NoSuchFileException e) {
+            // Removed without changing the directory time, as a coarse clock allows
+        } catch (IOException e) {
+            throw new StorageException("Could not read attributes: " + file, e);
+        }
+    }
+
+    /**
+     * Follow the changes reported by the watch service until it is closed
+     */
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path directory = watched.get(key);
+            if (directory != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    try {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            // Events were lost, so the whole directory is listed again
+                            refresh(directory, true);
+                            continue;
+                        }
+                        Path child = directory.resolve((Path) event.context());
+                        if (!isIgnored(child)) {
+                            refresh(child, event.kind() == StandardWatchEventKinds.ENTRY_CREATE);
+                        }
+                    } catch (RuntimeException e) {
+                        LOGGER.warn("Could not update path index for a change in {}", directory, e);
+                    }
+                }
+            }
+            if (!key.reset()) {
+                watched.remove(key);
+            }
+        }
+    }
+
+    private void register(Path directory) {
+        if (watcher == null) {
+            return;
+        }
+        try {
+            watched.put(directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), directory);
+        } catch (ClosedWatchServiceException e) {
+            // Closing; nothing to watch any more
+        } catch (IOException e) {
+            if (!registrationFailed) {
+                registrationFailed = true;
+                LOGGER.warn("Could not watch {}, changes made by other processes below it are missed", directory, e);
+            }
+        }
+    }
+
+    /**
+     * Make sure the directories above a path are in the table. Must be called
+     * while holding the lock.
+     */
+    private void addParents(Path file) {
+        for (Path parent = file.getParent(); parent != null && parent.startsWith(basePath);
+             parent = parent.getParent()) {
+            String prefix = directoryKey(keyOf(parent));
+            if (paths.containsKey(prefix)) {
+                return;
+            }
+            try {
+                long modified = Files.getLastModifiedTime(parent, LinkOption.NOFOLLOW_LINKS).toMillis();
+                paths.put(prefix, new Node(true, 0, modified, -1));
+            } catch (IOException e) {
+                throw new StorageException("Could not read attributes: " + parent, e);
+            }
+        }
+    }
+
+    /**
+     * Replace a directory and everything below it with a listing of it. Must be
+     * called while holding the lock.
+     */
+    private void replaceTree(Path directory, String key, NavigableMap<String, Node> scanned) {
+        removeTree(key);
+        if (!scanned.isEmpty()) {
+            addParents(directory);
+            paths.putAll(scanned);
+        }
+    }
+
+    /**
+     * Remove a path and everything below it. Must be called while holding the lock.
+     */
+    private void removeTree(String key) {
+        for (Listing listing : listings) {
+            if (key.startsWith(listing.prefix) || listing.prefix.startsWith(directoryKey(key))) {
+                listing.overtaken = true;
+            }
+        }
+        paths.remove(key);
+        if (key.isEmpty()) {
+            paths.clear();
+        } else {
+            paths.remove(directoryKey(key));
+            subtree(paths, directoryKey(key)).clear();
+        }
+    }
+
+    private NavigableMap<String, Node> load() {
+        NavigableMap<String, Node> previous = new TreeMap<>();
+        if (!Files.exists(snapshotFile)) {
+            return previous;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOGGER.warn("Ignoring path index snapshot in unknown format: {}", snapshotFile);
+                return previous;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                boolean directory = in.readBoolean();
+                previous.put(key, new Node(directory, in.readLong(), in.readLong(), in.readLong()));
+            }
+            return previous;
+        } catch (IOException e) {
+            LOGGER.warn("Ignoring unreadable path index snapshot: {}", snapshotFile, e);
+            return new TreeMap<>();
+        }
+    }
+
+    /**
+     * Write the snapshot through a temporary file. Must be called while holding the lock.
+     */
+    private void save() {
+        Path temp = snapshotFile.resolveSibling(LocalStorage.TEMP_PREFIX + snapshotFile.getFileName());
+        try {
+            Files.createDirectories(snapshotFile.getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(paths.size());
+                for (Map.Entry<String, Node> entry : paths.entrySet()) {
+                    Node node = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeBoolean(node.directory);
+                    out.writeLong(node.size);
+                    out.writeLong(node.lastModified);
+                    out.writeLong(node.scanned);
+                }
+            }
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The tree is listed again on the next start
+            LOGGER.warn("Could not write path index snapshot: {}", snapshotFile, e);
+        }
+    }
+
+    private boolean isIgnored(Path file) {
+        return LocalStorage.isTemporary(file) || file.equals(snapshotFile);
+    }
+
+    private String keyOf(Path file) {
+        return basePath.relativize(file).toString().replace('\\', '/');
+    }
+
+    private static String directoryKey(String key) {
+        return key.isEmpty() ? "" : key + "/";
+    }
+
+    private static StorageEntry toEntry(String key, Node node) {
+        return node.directory
+                ? StorageEntry.directory(key.substring(0, key.length() - 1), node.lastModified)
+                : StorageEntry.file(key, node.size, node.lastModified);
+    }
+
+    /**
+     * Everything below a directory prefix, which all sorts before the prefix with
+     * its slash replaced by the next character
+     */
+    private static NavigableMap<String, Node> subtree(NavigableMap<String, Node> table, String prefix) {
+        if (prefix.isEmpty()) {
+            return table.tailMap("", false);
+        }
+        return table.subMap(prefix, false, prefix.substring(0, prefix.length() - 1) + '0', false);
+    }
+
+    /**
+     * Direct children of a directory prefix, skipping over the content of each
+     * child directory
+     */
+    private static List<Map.Entry<String, Node>> children(NavigableMap<String, Node> table, String prefix) {
+        List<Map.Entry<String, Node>> children = new ArrayList<>();
+        Map.Entry<String, Node> entry = table.higherEntry(prefix);
+        while (entry != null && entry.getKey().startsWith(prefix)) {
+            String key = entry.getKey();
+            int slash = key.indexOf('/', prefix.length());
+            if (slash < 0) {
+                children.add(entry);
+                entry = table.higherEntry(key);
+            } else {
+                if (slash == key.length() - 1) {
+                    children.add(entry);
+                }
+                entry = table.ceilingEntry(key.substring(0, slash) + '0');
+            }
+        }
+        return children;
+    }
+
+    /**
+     * A directory being listed outside the lock, overtaken once a path at or
+     * below it changes
+     */
+    private static final class Listing {
+        final String prefix;
+        boolean overtaken;
+
+        Listing(String prefix) {
+            this.prefix = prefix;
+        }
+    }
+
+    /**
+     * A file, or a directory with the modification time it had when it was last
+     * listed, -1 if it was not listed or changed too close to the listing
+     */
+    private static final class Node {
+        final boolean directory;
+        final long size;
+        final long lastModified;
+        final long scanned;
+
+        Node(boolean directory, long size, long lastModified, long scanned) {
+            this.directory = directory;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.scanned = scanned;
+        }
+    }
+}
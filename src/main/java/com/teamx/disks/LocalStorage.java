@@ -3,24 +3,91 @@ package com.teamx.disks;
 import com.teamx.StorageException;
 import com.teamx.config.DiskConfig;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
- * Implementation of Storage interface for local filesystem
+ * Implementation of Storage interface for local filesystem.
+ * <p>
+ * Writes go to a temporary file next to the target, which is renamed over the
+ * target once complete, so readers see either the old or the new file and a crash
+ * never leaves a truncated one. Temporary files are hidden from listings, and
+ * those left behind by a crash and untouched for {@code temp_grace} ms (default
+ * an hour) are deleted in the background once the disk writes to their directory,
+ * and again at most once per grace period. The
+ * {@code durability} option decides what is fsynced before a write returns:
+ * {@code none} (the default) leaves flushing to the operating system,
+ * {@code file} syncs the file content before the rename, and {@code directory}
+ * also syncs the directory after it so the rename itself survives a crash.
+ * Directory fsyncs are group-committed across concurrent writers.
+ * <p>
+ * With the {@code path_index} option set to a file, the paths below the root are
+ * kept in a sorted in-memory index that answers exists, stat, size,
+ * lastModified and listings without system calls, and that is saved to the file
+ * on close so the next start only lists the directories changed since. Changes
+ * made by other processes are followed with a WatchService unless
+ * {@code path_index_watch} is false.
  */
 public class LocalStorage implements Storage {
+    static final String TEMP_PREFIX = ".storage-tmp-";
+
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+    private static final int DRAIN_BUFFER_SIZE = 8 * 1024;
+    private static final int DEFAULT_ASYNC_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private static final long DEFAULT_MMAP_CHUNK_SIZE = 64L * 1024 * 1024;
+    private static final long DEFAULT_MMAP_MAX_BYTES = 1024L * 1024 * 1024;
+    private static final int DELETE_SLICE = 256;
+    private static final long DEFAULT_TEMP_GRACE = 60 * 60 * 1000L;
+    private static final int MAX_SWEPT_DIRECTORIES = 10_000;
+
     private final Path basePath;
     private final String baseUrl;
+    private final int asyncThreads;
+    private final MappedFileCache mappedFiles;
+    private final Durability durability;
+    private final DirectorySyncer directorySyncer = new DirectorySyncer();
+    private final long tempGrace;
+    private final Set<Path> sweptDirectories = ConcurrentHashMap.newKeySet();
+    private volatile long sweptSince = System.currentTimeMillis();
+    private final LocalPathIndex pathIndex;
+    private volatile ExecutorService ioExecutor;
+    private volatile ForkJoinPool deletePool;
+    private volatile AsyncStorage asyncView;
 
     /**
      * Create a LocalStorage instance with configuration
@@ -33,6 +100,11 @@ public class LocalStorage implements Storage {
 
         this.basePath = Paths.get(root).toAbsolutePath().normalize();
         this.baseUrl = url.endsWith("/") ? url : url + "/";
+        this.asyncThreads = config.getIntOption("async_threads", DEFAULT_ASYNC_THREADS);
+        this.mappedFiles = new MappedFileCache(config.getSizeOption("mmap_chunk_size", DEFAULT_MMAP_CHUNK_SIZE),
+                config.getSizeOption("mmap_max_bytes", DEFAULT_MMAP_MAX_BYTES));
+        this.durability = Durability.parse(config.getOption("durability", "none"));
+        this.tempGrace = config.getLongOption("temp_grace", DEFAULT_TEMP_GRACE);
 
         // Ensure base directory exists
         try {
@@ -40,6 +112,10 @@ public class LocalStorage implements Storage {
         } catch (IOException e) {
             throw new StorageException("Could not create base directory: " + basePath, e);
         }
+
+        String indexFile = config.getOption("path_index", "");
+        this.pathIndex = indexFile.isEmpty() ? null : new LocalPathIndex(basePath, Paths.get(indexFile),
+                Boolean.parseBoolean(config.getOption("path_index_watch", "true")));
     }
 
     /**
@@ -60,6 +136,11 @@ public class LocalStorage implements Storage {
     public LocalStorage(Path basePath, String baseUrl) {
         this.basePath = basePath.toAbsolutePath().normalize();
         this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        this.asyncThreads = DEFAULT_ASYNC_THREADS;
+        this.mappedFiles = new MappedFileCache(DEFAULT_MMAP_CHUNK_SIZE, DEFAULT_MMAP_MAX_BYTES);
+        this.durability = Durability.NONE;
+        this.tempGrace = DEFAULT_TEMP_GRACE;
+        this.pathIndex = null;
 
         // Ensure base directory exists
         try {
@@ -84,26 +165,149 @@ public class LocalStorage implements Storage {
     }
 
     @Override
-    public boolean put(String path, InputStream content, Map<String, String> metadata) throws StorageException {
+    public ReadableByteChannel getChannel(String path) throws StorageException {
+        Path filePath = resolveFullPath(path);
+
+        try {
+            return FileChannel.open(filePath, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new StorageException("File not found: " + path);
+        } catch (IOException e) {
+            throw new StorageException("Could not read file: " + path, e);
+        }
+    }
+
+    /**
+     * Transfers the file with FileChannel.transferTo, which lets the kernel copy
+     * straight to the target (sendfile to sockets, copy_file_range to files)
+     * without passing the bytes through a user-space buffer.
+     */
+    @Override
+    public long writeTo(String path, WritableByteChannel target) throws StorageException {
+        Path filePath = resolveFullPath(path);
+
+        try (FileChannel source = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            return transferFully(source, target);
+        } catch (NoSuchFileException e) {
+            throw new StorageException("File not found: " + path);
+        } catch (IOException e) {
+            throw new StorageException("Could not transfer file: " + path, e);
+        }
+    }
+
+    /**
+     * Serves the range from a cache of memory mappings (mmap_chunk_size,
+     * mmap_max_bytes options), so random reads into hot files cost a page
+     * lookup instead of opening the file and skipping forward. Ranges inside one
+     * mapped chunk are returned without copying. Files read this way must not be
+     * modified in place by other processes.
+     */
+    @Override
+    public ByteBuffer readRange(String path, long offset, int length) throws StorageException {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Offset and length must not be negative");
+        }
+
+        try {
+            return mappedFiles.read(resolveFullPath(path), offset, length);
+        } catch (NoSuchFileException e) {
+            throw new StorageException("File not found: " + path);
+        } catch (IOException e) {
+            throw new StorageException("Could not read range of file: " + path, e);
+        }
+    }
+
+    /**
+     * Stores the channel content with FileChannel.transferFrom. With a known size
+     * and a FileChannel source the copy stays in the kernel. A channel that ends
+     * before the given size fails the write and leaves the existing file alone.
+     */
+    @Override
+    public boolean put(String path, ReadableByteChannel content, long size) throws StorageException {
         Path filePath = resolveFullPath(path);
 
         try {
-            // Create parent directories if they don't exist
-            Files.createDirectories(filePath.getParent());
+            writeAtomically(filePath, target -> {
+                long position = 0;
+                while (position < size) {
+                    long transferred = target.transferFrom(content, position, size - position);
+                    if (transferred <= 0) {
+                        // Publishing what arrived would leave a truncated file behind
+                        throw new EOFException("Content ended after " + position + " of " + size + " bytes");
+                    }
+                    position += transferred;
+                }
+
+                // The content is read until end of stream, so whatever follows the expected size is kept
+                target.position(position);
+                ByteBuffer buffer = size >= 0 ? ByteBuffer.allocate(DRAIN_BUFFER_SIZE)
+                        : ByteBuffer.allocateDirect(TRANSFER_BUFFER_SIZE);
+                while (content.read(buffer) >= 0) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        target.write(buffer);
+                    }
+                    buffer.clear();
+                }
+            });
+            indexed(filePath);
+            return true;
+        } catch (IOException e) {
+            throw new StorageException("Could not write file: " + path, e);
+        } finally {
+            mappedFiles.invalidate(filePath);
+        }
+    }
 
-            // Write the file
-            Files.copy(content, filePath, StandardCopyOption.REPLACE_EXISTING);
+    @Override
+    public boolean put(String path, InputStream content, Map<String, String> metadata) throws StorageException {
+        Path filePath = resolveFullPath(path);
+
+        try {
+            writeAtomically(filePath, target -> {
+                byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+                int read;
+                while ((read = content.read(buffer)) >= 0) {
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                    while (chunk.hasRemaining()) {
+                        target.write(chunk);
+                    }
+                }
+            });
+            indexed(filePath);
 
             // Metadata is ignored for local storage
             return true;
         } catch (IOException e) {
             throw new StorageException("Could not write file: " + path, e);
+        } finally {
+            mappedFiles.invalidate(filePath);
         }
     }
 
     @Override
     public boolean exists(String path) {
-        return Files.exists(resolveFullPath(path));
+        Path filePath = resolveFullPath(path);
+        if (pathIndex != null) {
+            return pathIndex.exists(relativePath(filePath));
+        }
+        return Files.exists(filePath);
+    }
+
+    @Override
+    public StorageEntry stat(String path) throws StorageException {
+        Path filePath = resolveFullPath(path);
+        if (pathIndex != null) {
+            return pathIndex.stat(relativePath(filePath));
+        }
+
+        try {
+            return toEntry(filePath, Files.readAttributes(filePath, BasicFileAttributes.class));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new StorageException("Could not read attributes: " + path, e);
+        }
     }
 
     @Override
@@ -116,9 +320,14 @@ public class LocalStorage implements Storage {
             }
 
             Files.delete(filePath);
+            if (pathIndex != null) {
+                pathIndex.remove(filePath);
+            }
             return true;
         } catch (IOException e) {
             throw new StorageException("Could not delete file: " + path, e);
+        } finally {
+            mappedFiles.invalidate(filePath);
         }
     }
 
@@ -130,23 +339,98 @@ public class LocalStorage implements Storage {
     @Override
     public List<String> listContents(String directory) {
         Path dirPath = resolveFullPath(directory);
+        if (pathIndex != null) {
+            List<StorageEntry> children = pathIndex.list(relativePath(dirPath));
+            return children == null ? new ArrayList<>()
+                    : children.stream().map(StorageEntry::getPath).collect(Collectors.toList());
+        }
 
-        try {
-            if (!Files.exists(dirPath) || !Files.isDirectory(dirPath)) {
-                return new ArrayList<>();
-            }
+        if (!Files.exists(dirPath) || !Files.isDirectory(dirPath)) {
+            return new ArrayList<>();
+        }
 
-            return Files.list(dirPath)
-                    .map(p -> basePath.relativize(p).toString().replace('\\', '/'))
+        try (Stream<Path> children = Files.list(dirPath)) {
+            return children
+                    .filter(child -> !isTemporary(child))
+                    .map(this::relativePath)
                     .collect(Collectors.toList());
         } catch (IOException e) {
             throw new StorageException("Could not list directory: " + directory, e);
         }
     }
 
+    /**
+     * Lists the direct children of a directory through a DirectoryStream,
+     * reading each entry's attributes once. Closing the stream closes the
+     * directory handle.
+     */
+    @Override
+    public Stream<StorageEntry> list(String directory) {
+        Path dirPath = resolveFullPath(directory);
+        if (pathIndex != null) {
+            List<StorageEntry> children = pathIndex.list(relativePath(dirPath));
+            return children == null ? Stream.empty() : children.stream();
+        }
+
+        if (!Files.isDirectory(dirPath)) {
+            return Stream.empty();
+        }
+
+        DirectoryStream<Path> children;
+        try {
+            children = Files.newDirectoryStream(dirPath);
+        } catch (IOException e) {
+            throw new StorageException("Could not list directory: " + directory, e);
+        }
+
+        return StreamSupport.stream(children.spliterator(), false)
+                .onClose(() -> {
+                    try {
+                        children.close();
+                    } catch (IOException e) {
+                        throw new StorageException("Could not close directory: " + directory, e);
+                    }
+                })
+                .filter(child -> !isTemporary(child))
+                .map(child -> {
+                    try {
+                        return toEntry(child, Files.readAttributes(child, BasicFileAttributes.class));
+                    } catch (IOException e) {
+                        throw new StorageException("Could not read attributes: " + relativePath(child), e);
+                    }
+                });
+    }
+
+    /**
+     * Walks the tree below a directory lazily, reading BasicFileAttributes once
+     * per entry. File entries come out in lexicographic path order.
+     */
+    @Override
+    public Stream<StorageEntry> listAll(String directory) {
+        Path dirPath = resolveFullPath(directory);
+        if (pathIndex != null) {
+            List<StorageEntry> entries = pathIndex.listAll(relativePath(dirPath));
+            return entries == null ? Stream.empty() : entries.stream();
+        }
+
+        if (!Files.isDirectory(dirPath)) {
+            return Stream.empty();
+        }
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                new FileTreeIterator(basePath, dirPath), Spliterator.ORDERED), false);
+    }
+
     @Override
     public long size(String path) throws StorageException {
         Path filePath = resolveFullPath(path);
+        if (pathIndex != null) {
+            StorageEntry entry = pathIndex.stat(relativePath(filePath));
+            if (entry == null || entry.isDirectory()) {
+                throw new StorageException("Not a file: " + path);
+            }
+            return entry.getSize();
+        }
 
         try {
             if (!Files.exists(filePath) || Files.isDirectory(filePath)) {
@@ -165,6 +449,9 @@ public class LocalStorage implements Storage {
 
         try {
             Files.createDirectories(dirPath);
+            if (pathIndex != null) {
+                pathIndex.refresh(dirPath, false);
+            }
             return true;
         } catch (IOException e) {
             throw new StorageException("Could not create directory: " + path, e);
@@ -173,32 +460,58 @@ public class LocalStorage implements Storage {
 
     @Override
     public boolean deleteDirectory(String path) {
+        if (!isDirectoryOrLink(resolveFullPath(path))) {
+            return false;
+        }
+
+        deleteDirectory(path, null).throwIfIncomplete(path);
+        return true;
+    }
+
+    /**
+     * Delete a directory and everything below it with a fork-join walk on a pool
+     * of async_threads workers. Each directory is listed by a task of its own,
+     * its sub-directories are forked and its files deleted in slices, and the
+     * directory itself is removed once its content is gone. Paths that cannot be
+     * deleted are reported instead of stopping the walk. A symbolic link to a
+     * directory is deleted itself, never what it points to.
+     *
+     * @param path     Directory path
+     * @param progress Called with the number of entries deleted so far, every
+     *                 thousand entries and at the end, from worker threads; may be null
+     * @return Number of entries deleted and the paths that could not be deleted
+     */
+    @Override
+    public DeleteReport deleteDirectory(String path, LongConsumer progress) {
         Path dirPath = resolveFullPath(path);
+        DeleteTracker tracker = new DeleteTracker(progress);
 
         try {
-            if (!Files.exists(dirPath) || !Files.isDirectory(dirPath)) {
-                return false;
+            if (Files.isDirectory(dirPath, LinkOption.NOFOLLOW_LINKS)) {
+                deletePool().invoke(new DeleteTask(dirPath, tracker));
+            } else if (isDirectoryOrLink(dirPath)) {
+                deleteAll(List.of(dirPath), tracker);
+            }
+        } finally {
+            mappedFiles.invalidateDirectory(dirPath);
+            if (pathIndex != null) {
+                // Picks up whatever could not be deleted
+                pathIndex.refresh(dirPath, true);
             }
-
-            Files.walk(dirPath)
-                    .sorted((p1, p2) -> -p1.compareTo(p2))
-                    .forEach(p -> {
-                        try {
-                            Files.delete(p);
-                        } catch (IOException e) {
-                            throw new StorageException("Could not delete: " + p, e);
-                        }
-                    });
-
-            return true;
-        } catch (IOException e) {
-            throw new StorageException("Could not delete directory: " + path, e);
         }
+        return tracker.finish();
     }
 
     @Override
     public long lastModified(String path) {
         Path filePath = resolveFullPath(path);
+        if (pathIndex != null) {
+            StorageEntry entry = pathIndex.stat(relativePath(filePath));
+            if (entry == null) {
+                throw new StorageException("File not found: " + path);
+            }
+            return entry.getLastModified();
+        }
 
         try {
             if (!Files.exists(filePath)) {
@@ -222,13 +535,17 @@ public class LocalStorage implements Storage {
                 throw new StorageException("Source file not found: " + source);
             }
 
-            // Create parent directories if needed
-            Files.createDirectories(destPath.getParent());
-
-            Files.copy(sourcePath, destPath, StandardCopyOption.REPLACE_EXISTING);
+            writeAtomically(destPath, target -> {
+                try (FileChannel channel = FileChannel.open(sourcePath, StandardOpenOption.READ)) {
+                    transferFully(channel, target);
+                }
+            });
+            indexed(destPath);
             return true;
         } catch (IOException e) {
             throw new StorageException("Failed to copy file: " + e.getMessage(), e);
+        } finally {
+            mappedFiles.invalidate(destPath);
         }
     }
 
@@ -246,12 +563,257 @@ public class LocalStorage implements Storage {
             Files.createDirectories(destPath.getParent());
 
             Files.move(sourcePath, destPath, StandardCopyOption.REPLACE_EXISTING);
+            if (durability == Durability.DIRECTORY) {
+                directorySyncer.sync(destPath.getParent());
+                if (!sourcePath.getParent().equals(destPath.getParent())) {
+                    directorySyncer.sync(sourcePath.getParent());
+                }
+            }
+            if (pathIndex != null) {
+                pathIndex.remove(sourcePath);
+                pathIndex.refresh(destPath, true);
+            }
             return true;
         } catch (IOException e) {
             throw new StorageException("Failed to move file: " + e.getMessage(), e);
+        } finally {
+            mappedFiles.invalidate(sourcePath);
+            mappedFiles.invalidate(destPath);
+        }
+    }
+
+    @Override
+    public Map<String, BatchResult<Boolean>> deleteMany(Collection<String> paths) {
+        return Batches.parallel(paths, this::delete, ioExecutor(), asyncThreads);
+    }
+
+    @Override
+    public Map<String, BatchResult<Boolean>> existsMany(Collection<String> paths) {
+        return Batches.parallel(paths, this::exists, ioExecutor(), asyncThreads);
+    }
+
+    @Override
+    public Map<String, BatchResult<Long>> sizeMany(Collection<String> paths) {
+        return Batches.parallel(paths, this::size, ioExecutor(), asyncThreads);
+    }
+
+    @Override
+    public Map<String, BatchResult<Boolean>> copyMany(Map<String, String> copies) {
+        return Batches.parallel(copies.keySet(), source -> copy(source, copies.get(source)),
+                ioExecutor(), asyncThreads);
+    }
+
+    /**
+     * Non-blocking view of this disk. File I/O runs on a dedicated executor
+     * (async_threads option) so it never competes with the caller's threads.
+     */
+    @Override
+    public AsyncStorage async() {
+        AsyncStorage view = asyncView;
+        if (view == null) {
+            synchronized (this) {
+                view = asyncView;
+                if (view == null) {
+                    view = new ExecutorAsyncStorage(this, ioExecutor());
+                    asyncView = view;
+                }
+            }
+        }
+        return view;
+    }
+
+    /**
+     * Stops the async, batch and delete I/O threads and saves the path index. Running
+     * tasks are allowed to finish.
+     */
+    @Override
+    public void close() {
+        ExecutorService executor = ioExecutor;
+        if (executor != null) {
+            executor.shutdown();
+        }
+        ForkJoinPool pool = deletePool;
+        if (pool != null) {
+            pool.shutdown();
+        }
+        if (pathIndex != null) {
+            pathIndex.close();
+        }
+    }
+
+    /**
+     * Dedicated pool for async and batch file I/O, created on first use
+     */
+    private ExecutorService ioExecutor() {
+        ExecutorService executor = ioExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = ioExecutor;
+                if (executor == null) {
+                    executor = Executors.newFixedThreadPool(asyncThreads, new DaemonThreadFactory("local-storage-io"));
+                    ioExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Fork-join pool for tree deletes, created on first use. Sized like the I/O
+     * pool since its workers mostly wait on the filesystem.
+     */
+    private ForkJoinPool deletePool() {
+        ForkJoinPool pool = deletePool;
+        if (pool == null) {
+            synchronized (this) {
+                pool = deletePool;
+                if (pool == null) {
+                    pool = new ForkJoinPool(asyncThreads);
+                    deletePool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Write a file through a temporary file in the same directory that is renamed
+     * over the target, syncing as the durability mode asks
+     *
+     * @param target File to write
+     * @param writer Writes the content to the temporary file
+     */
+    private void writeAtomically(Path target, FileWriter writer) throws IOException {
+        Path directory = target.getParent();
+        Files.createDirectories(directory);
+        sweepInBackground(directory);
+        Path temp = directory.resolve(TEMP_PREFIX + Long.toHexString(ThreadLocalRandom.current().nextLong()));
+
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                writer.write(channel);
+                if (durability != Durability.NONE) {
+                    // Data and size; the timestamps are not worth a metadata flush
+                    channel.force(false);
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+
+        if (durability == Durability.DIRECTORY) {
+            directorySyncer.sync(directory);
+        }
+    }
+
+    /**
+     * Sweep a directory on the I/O pool unless it was swept within the grace period.
+     * The record of swept directories is cleared every grace period, when the
+     * temporary files of writes that crashed since are old enough to go, and when
+     * it grows too large.
+     */
+    private void sweepInBackground(Path directory) {
+        long now = System.currentTimeMillis();
+        if (now - sweptSince >= tempGrace || sweptDirectories.size() >= MAX_SWEPT_DIRECTORIES) {
+            sweptDirectories.clear();
+            sweptSince = now;
+        }
+        if (sweptDirectories.add(directory)) {
+            try {
+                ioExecutor().execute(() -> sweepTemporary(directory));
+            } catch (RejectedExecutionException e) {
+                // Closed, the next start sweeps
+            }
+        }
+    }
+
+    /**
+     * Delete the temporary files of writes that never finished, such as those of a
+     * crashed process. Files touched within the grace period may belong to a write
+     * in progress in another process and are kept.
+     *
+     * @param directory Directory to clean
+     */
+    private void sweepTemporary(Path directory) {
+        long cutoff = System.currentTimeMillis() - tempGrace;
+        try (DirectoryStream<Path> temps = Files.newDirectoryStream(directory, TEMP_PREFIX + "*")) {
+            for (Path temp : temps) {
+                try {
+                    if (Files.getLastModifiedTime(temp).toMillis() < cutoff) {
+                        Files.deleteIfExists(temp);
+                    }
+                } catch (IOException e) {
+                    // Finished or removed meanwhile
+                }
+            }
+        } catch (IOException e) {
+            // Cleaning up is best effort, the write goes on
+        }
+    }
+
+    /**
+     * Record a file written by this disk in the path index
+     */
+    private void indexed(Path file) {
+        if (pathIndex != null) {
+            pathIndex.refresh(file, false);
         }
     }
 
+    /**
+     * Check whether a file is an in-flight write
+     */
+    static boolean isTemporary(Path file) {
+        Path name = file.getFileName();
+        return name != null && name.toString().startsWith(TEMP_PREFIX);
+    }
+
+    /**
+     * Transfer a whole file to a channel with FileChannel.transferTo
+     *
+     * @param source File to read
+     * @param target Channel to write to
+     * @return Number of bytes transferred
+     */
+    static long transferFully(FileChannel source, WritableByteChannel target) throws IOException {
+        long size = source.size();
+        long position = 0;
+        while (position < size) {
+            long transferred = source.transferTo(position, size - position, target);
+            if (transferred <= 0) {
+                break;
+            }
+            position += transferred;
+        }
+        return position;
+    }
+
+    /**
+     * Build an entry from a file and its attributes
+     */
+    private StorageEntry toEntry(Path file, BasicFileAttributes attributes) {
+        String path = relativePath(file);
+        long lastModified = attributes.lastModifiedTime().toMillis();
+
+        return attributes.isDirectory()
+                ? StorageEntry.directory(path, lastModified)
+                : StorageEntry.file(path, attributes.size(), lastModified);
+    }
+
+    /**
+     * Path of a file relative to the base path, with forward slashes
+     */
+    private String relativePath(Path file) {
+        return basePath.relativize(file).toString().replace('\\', '/');
+    }
+
     /**
      * Resolve a path relative to the base path
      *
@@ -268,4 +830,102 @@ public class LocalStorage implements Storage {
 
         return basePath.resolve(normalized);
     }
+
+    /**
+     * Deletes the content of a directory, then the directory
+     */
+    private final class DeleteTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final DeleteTracker tracker;
+
+        DeleteTask(Path directory, DeleteTracker tracker) {
+            this.directory = directory;
+            this.tracker = tracker;
+        }
+
+        @Override
+        protected void compute() {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+                for (Path child : children) {
+                    if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                        tasks.add(new DeleteTask(child, tracker));
+                    } else {
+                        files.add(child);
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                return;
+            } catch (IOException e) {
+                tracker.failed(relativePath(directory),
+                        new StorageException("Could not list directory: " + relativePath(directory), e));
+                return;
+            }
+
+            for (int i = 0; i < files.size(); i += DELETE_SLICE) {
+                List<Path> slice = files.subList(i, Math.min(i + DELETE_SLICE, files.size()));
+                tasks.add(ForkJoinTask.adapt(() -> deleteAll(slice, tracker)));
+            }
+            invokeAll(tasks);
+            deleteAll(List.of(directory), tracker);
+        }
+    }
+
+    /**
+     * Delete files, empty directories or links, reporting those that cannot be deleted
+     */
+    private void deleteAll(List<Path> paths, DeleteTracker tracker) {
+        long deleted = 0;
+        for (Path file : paths) {
+            try {
+                Files.delete(file);
+                deleted++;
+            } catch (NoSuchFileException e) {
+                // Already gone
+            } catch (IOException e) {
+                String path = relativePath(file);
+                tracker.failed(path, new StorageException("Could not delete: " + path, e));
+            }
+        }
+        tracker.deleted(deleted);
+    }
+
+    /**
+     * A directory, or a symbolic link to one, which deleting a directory removes
+     * without following it
+     */
+    private static boolean isDirectoryOrLink(Path path) {
+        return Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)
+                || Files.isSymbolicLink(path) && Files.isDirectory(path);
+    }
+
+    @FunctionalInterface
+    private interface FileWriter {
+        void write(FileChannel target) throws IOException;
+    }
+
+    /**
+     * What a write syncs before it returns
+     */
+    private enum Durability {
+        NONE,
+        FILE,
+        DIRECTORY;
+
+        static Durability parse(String value) {
+            switch (value.trim().toLowerCase(Locale.ROOT)) {
+                case "none":
+                    return NONE;
+                case "file":
+                    return FILE;
+                case "directory":
+                    return DIRECTORY;
+                default:
+                    throw new StorageException("Unknown durability, expected none, file or directory: " + value);
+            }
+        }
+    }
 }
@@ -0,0 +1,200 @@
+package com.teamx.disks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Cache of read-only memory mappings of local files.
+ * <p>
+ * Files are mapped in fixed-size chunks, so files larger than 2 GB can be mapped
+ * and only the regions that are actually read occupy address space. The total
+ * size of the cached mappings is bounded; the least recently used chunks are
+ * dropped first. A dropped mapping is released by the garbage collector once no
+ * buffer handed out by {@link #read} refers to it any more.
+ * <p>
+ * Mappings are meant for files that are not modified in place. Callers must
+ * {@link #invalidate} a file when it is replaced so later reads map the new file.
+ * Each file has a generation, kept in a fixed set of stripes, that invalidation
+ * bumps; a mapping made while its file was invalidated is returned but not cached.
+ */
+class MappedFileCache {
+    private static final int GENERATION_STRIPES = 64;
+
+    private final long chunkSize;
+    private final long maxBytes;
+    private final Map<ChunkKey, MappedByteBuffer> chunks = new LinkedHashMap<>(16, 0.75f, true);
+    private final long[] generations = new long[GENERATION_STRIPES];
+    private long mappedBytes;
+
+    MappedFileCache(long chunkSize, long maxBytes) {
+        if (chunkSize <= 0 || chunkSize > Integer.MAX_VALUE || maxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid mapping chunk size or cache size");
+        }
+        this.chunkSize = chunkSize;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Read a range of a file. A range inside one chunk is returned as a slice
+     * of the mapping without copying; a range spanning chunks is copied into a
+     * heap buffer.
+     *
+     * @param file   File to read
+     * @param offset Position of the first byte
+     * @param length Maximum number of bytes
+     * @return Read-only buffer, shorter than length at the end of the file
+     */
+    ByteBuffer read(Path file, long offset, int length) throws IOException {
+        long index = offset / chunkSize;
+        int within = (int) (offset - index * chunkSize);
+        MappedByteBuffer chunk = chunk(file, index);
+
+        if (within >= chunk.capacity()) {
+            return ByteBuffer.allocate(0).asReadOnlyBuffer();
+        }
+        if (length <= chunk.capacity() - within || chunk.capacity() < chunkSize) {
+            return chunk.slice(within, Math.min(length, chunk.capacity() - within));
+        }
+
+        ByteBuffer result = ByteBuffer.allocate(length);
+        while (result.hasRemaining()) {
+            int count = Math.min(result.remaining(), chunk.capacity() - within);
+            result.put(chunk.slice(within, count));
+            if (chunk.capacity() < chunkSize) {
+                break;
+            }
+            chunk = chunk(file, ++index);
+            within = 0;
+            if (chunk.capacity() == 0) {
+                break;
+            }
+        }
+        return result.flip().asReadOnlyBuffer();
+    }
+
+    /**
+     * Drop all mappings of a file
+     *
+     * @param file File that was replaced or deleted
+     */
+    synchronized void invalidate(Path file) {
+        generations[stripe(file)]++;
+        removeIf(key -> key.file.equals(file));
+    }
+
+    /**
+     * Drop all mappings of files below a directory
+     *
+     * @param directory Directory that was deleted
+     */
+    synchronized void invalidateDirectory(Path directory) {
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            generations[i]++;
+        }
+        removeIf(key -> key.file.startsWith(directory));
+    }
+
+    synchronized long getMappedBytes() {
+        return mappedBytes;
+    }
+
+    private MappedByteBuffer chunk(Path file, long index) throws IOException {
+        ChunkKey key = new ChunkKey(file, index);
+        int stripe = stripe(file);
+        long generation;
+        synchronized (this) {
+            MappedByteBuffer cached = chunks.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            generation = generations[stripe];
+        }
+
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long start = index * chunkSize;
+            if (start >= channel.size()) {
+                // Past the end of the file: an empty mapping that is not worth caching
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, 0);
+            }
+            mapped = map(channel, start, Math.min(chunkSize, channel.size() - start));
+        }
+
+        synchronized (this) {
+            if (generations[stripe] != generation) {
+                // Invalidated while mapping: the mapping may be of the replaced file
+                return mapped;
+            }
+            MappedByteBuffer raced = chunks.putIfAbsent(key, mapped);
+            if (raced != null) {
+                return raced;
+            }
+            mappedBytes += mapped.capacity();
+
+            Iterator<Map.Entry<ChunkKey, MappedByteBuffer>> eldest = chunks.entrySet().iterator();
+            while (mappedBytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<ChunkKey, MappedByteBuffer> entry = eldest.next();
+                if (entry.getKey().equals(key)) {
+                    continue;
+                }
+                mappedBytes -= entry.getValue().capacity();
+                eldest.remove();
+            }
+        }
+        return mapped;
+    }
+
+    MappedByteBuffer map(FileChannel channel, long start, long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+    }
+
+    private static int stripe(Path file) {
+        return Math.floorMod(file.hashCode(), GENERATION_STRIPES);
+    }
+
+    private void removeIf(Predicate<ChunkKey> predicate) {
+        Iterator<Map.Entry<ChunkKey, MappedByteBuffer>> entries = chunks.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<ChunkKey, MappedByteBuffer> entry = entries.next();
+            if (predicate.test(entry.getKey())) {
+                mappedBytes -= entry.getValue().capacity();
+                entries.remove();
+            }
+        }
+    }
+
+    private static final class ChunkKey {
+        final Path file;
+        final long index;
+
+        ChunkKey(Path file, long index) {
+            this.file = file;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ChunkKey)) {
+                return false;
+            }
+            ChunkKey other = (ChunkKey) o;
+            return index == other.index && file.equals(other.file);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * file.hashCode() + Long.hashCode(index);
+        }
+    }
+}
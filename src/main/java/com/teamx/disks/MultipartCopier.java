@@ -0,0 +1,161 @@
+package com.teamx.disks;
+
+import com.teamx.StorageException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Copies a large object on the server side with a multipart upload whose parts
+ * are UploadPartCopy requests for byte ranges of the source.
+ * <p>
+ * No data passes through this process, and up to {@code concurrency} parts are
+ * copied at a time. Each part is pinned to the ETag of the source seen when the
+ * copy started, so a source overwritten during the copy fails it instead of
+ * producing a mix of both versions. Metadata and content type are carried over,
+ * as a multipart upload does not copy them by itself.
+ */
+class MultipartCopier {
+    private final S3Client s3Client;
+    private final long partSize;
+    private final int concurrency;
+    private final Executor executor;
+
+    MultipartCopier(S3Client s3Client, long partSize, int concurrency, Executor executor) {
+        this.s3Client = s3Client;
+        this.partSize = partSize;
+        this.concurrency = Math.max(1, concurrency);
+        this.executor = executor;
+    }
+
+    /**
+     * Copy an object
+     *
+     * @param sourceBucket Bucket of the source object
+     * @param sourceKey    Full key of the source object
+     * @param source       HEAD response of the source object
+     * @param bucket       Destination bucket
+     * @param key          Full destination key
+     */
+    void copy(String sourceBucket, String sourceKey, HeadObjectResponse source, String bucket, String key) {
+        long size = source.contentLength();
+        // Grow the parts when the object would need more than the S3 limit
+        long part = Math.max(partSize, (size + MultipartUploader.MAX_PARTS - 1) / MultipartUploader.MAX_PARTS);
+
+        CreateMultipartUploadRequest.Builder create = CreateMultipartUploadRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .metadata(source.metadata());
+        if (source.contentType() != null) {
+            create.contentType(source.contentType());
+        }
+        String uploadId = s3Client.createMultipartUpload(create.build()).uploadId();
+
+        Semaphore permits = new Semaphore(concurrency);
+        List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+
+        try {
+            int partNumber = 1;
+            for (long offset = 0; offset < size; offset += part, partNumber++) {
+                permits.acquire();
+                if (failed.isCompletedExceptionally()) {
+                    permits.release();
+                    break;
+                }
+
+                CompletableFuture<CompletedPart> future = copyPart(sourceBucket, sourceKey, source.eTag(),
+                        bucket, key, uploadId, partNumber, offset, Math.min(size, offset + part) - 1, permits);
+                future.whenComplete((result, error) -> {
+                    if (error != null) {
+                        failed.completeExceptionally(error);
+                    }
+                });
+                parts.add(future);
+            }
+
+            List<CompletedPart> completed = new ArrayList<>(parts.size());
+            for (CompletableFuture<CompletedPart> future : parts) {
+                completed.add(future.get());
+            }
+
+            s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completed).build())
+                    .build());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort(bucket, key, uploadId, parts);
+            throw new StorageException("Interrupted while copying: " + sourceKey, e);
+        } catch (ExecutionException e) {
+            abort(bucket, key, uploadId, parts);
+            Throwable cause = e.getCause() instanceof CompletionException && e.getCause().getCause() != null
+                    ? e.getCause().getCause()
+                    : e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new StorageException("Multipart copy failed: " + sourceKey, cause);
+        } catch (RuntimeException e) {
+            abort(bucket, key, uploadId, parts);
+            throw e;
+        }
+    }
+
+    private CompletableFuture<CompletedPart> copyPart(String sourceBucket, String sourceKey, String eTag,
+                                                      String bucket, String key, String uploadId, int partNumber,
+                                                      long first, long last, Semaphore permits) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                UploadPartCopyResponse response = s3Client.uploadPartCopy(UploadPartCopyRequest.builder()
+                        .sourceBucket(sourceBucket)
+                        .sourceKey(sourceKey)
+                        .copySourceIfMatch(eTag)
+                        .copySourceRange("bytes=" + first + "-" + last)
+                        .destinationBucket(bucket)
+                        .destinationKey(key)
+                        .uploadId(uploadId)
+                        .partNumber(partNumber)
+                        .build());
+
+                return CompletedPart.builder()
+                        .partNumber(partNumber)
+                        .eTag(response.copyPartResult().eTag())
+                        .build();
+            } finally {
+                permits.release();
+            }
+        }, executor);
+    }
+
+    private void abort(String bucket, String key, String uploadId, List<CompletableFuture<CompletedPart>> parts) {
+        // Let in-flight parts settle so that no part lands after the abort
+        for (CompletableFuture<CompletedPart> part : parts) {
+            try {
+                part.join();
+            } catch (CompletionException | CancellationException ignored) {
+                // Failure already reported through the caller
+            }
+        }
+
+        try {
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .build());
+        } catch (RuntimeException ignored) {
+            // Best effort, a bucket lifecycle rule cleans up anything left behind
+        }
+    }
+}
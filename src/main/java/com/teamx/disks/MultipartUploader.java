@@ -0,0 +1,248 @@
+package com.teamx.disks;
+
+import com.teamx.StorageException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Streams an InputStream to S3 without holding the whole object in memory.
+ * <p>
+ * Content is read into part-sized buffers taken from a shared pool. Objects
+ * that fit in a single part are sent with one PutObject call, larger ones go
+ * through a multipart upload with up to {@code concurrency} parts in flight.
+ * Heap use per upload is therefore bounded by part size × concurrency.
+ */
+class MultipartUploader {
+    /**
+     * S3 rejects parts smaller than 5 MB (except the last one)
+     */
+    static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    /**
+     * S3 allows at most 10,000 parts per upload
+     */
+    static final int MAX_PARTS = 10_000;
+
+    private final S3Client s3Client;
+    private final String bucket;
+    private final PartBufferPool bufferPool;
+    private final int concurrency;
+    private final Executor executor;
+
+    MultipartUploader(S3Client s3Client, String bucket, PartBufferPool bufferPool, int concurrency, Executor executor) {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.bufferPool = bufferPool;
+        this.concurrency = Math.max(1, concurrency);
+        this.executor = executor;
+    }
+
+    /**
+     * Upload the content under the given key
+     *
+     * @param key      Full object key
+     * @param content  Content to upload, read until end of stream
+     * @param metadata Optional user metadata
+     */
+    void upload(String key, InputStream content, Map<String, String> metadata) throws IOException {
+        int partSize = bufferPool.bufferSize();
+        byte[] first = bufferPool.acquire();
+        int length;
+        try {
+            length = content.readNBytes(first, 0, partSize);
+        } catch (IOException e) {
+            bufferPool.release(first);
+            throw e;
+        }
+
+        if (length < partSize) {
+            // Fast path: the whole object fits in one part
+            try {
+                putSingle(key, first, length, metadata);
+            } finally {
+                bufferPool.release(first);
+            }
+            return;
+        }
+
+        uploadMultipart(key, content, metadata, first, length);
+    }
+
+    private void putSingle(String key, byte[] buffer, int length, Map<String, String> metadata) {
+        PutObjectRequest.Builder requestBuilder = PutObjectRequest.builder()
+                .bucket(bucket)
+                .key(key);
+
+        if (metadata != null && !metadata.isEmpty()) {
+            requestBuilder.metadata(metadata);
+        }
+
+        s3Client.putObject(requestBuilder.build(), body(buffer, length));
+    }
+
+    private void uploadMultipart(String key, InputStream content, Map<String, String> metadata,
+                                 byte[] first, int firstLength) throws IOException {
+        CreateMultipartUploadRequest.Builder createBuilder = CreateMultipartUploadRequest.builder()
+                .bucket(bucket)
+                .key(key);
+
+        if (metadata != null && !metadata.isEmpty()) {
+            createBuilder.metadata(metadata);
+        }
+
+        String uploadId;
+        try {
+            uploadId = s3Client.createMultipartUpload(createBuilder.build()).uploadId();
+        } catch (RuntimeException e) {
+            bufferPool.release(first);
+            throw e;
+        }
+
+        Semaphore permits = new Semaphore(concurrency);
+        List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+
+        try {
+            permits.acquire();
+            byte[] buffer = first;
+            int length = firstLength;
+            int partNumber = 1;
+
+            while (true) {
+                CompletableFuture<CompletedPart> part = submitPart(key, uploadId, partNumber, buffer, length, permits);
+                part.whenComplete((result, error) -> {
+                    if (error != null) {
+                        failed.completeExceptionally(error);
+                    }
+                });
+                parts.add(part);
+
+                if (length < bufferPool.bufferSize()) {
+                    break;
+                }
+
+                permits.acquire();
+                if (failed.isCompletedExceptionally()) {
+                    permits.release();
+                    break;
+                }
+
+                buffer = bufferPool.acquire();
+                try {
+                    length = content.readNBytes(buffer, 0, bufferPool.bufferSize());
+                } catch (IOException e) {
+                    bufferPool.release(buffer);
+                    permits.release();
+                    throw e;
+                }
+
+                if (length == 0) {
+                    bufferPool.release(buffer);
+                    permits.release();
+                    break;
+                }
+
+                if (++partNumber > MAX_PARTS) {
+                    bufferPool.release(buffer);
+                    permits.release();
+                    throw new StorageException("Object exceeds " + MAX_PARTS + " parts, increase the part size: " + key);
+                }
+            }
+
+            List<CompletedPart> completed = new ArrayList<>(parts.size());
+            for (CompletableFuture<CompletedPart> part : parts) {
+                completed.add(part.get());
+            }
+
+            s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completed).build())
+                    .build());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort(key, uploadId, parts);
+            throw new StorageException("Interrupted while uploading: " + key, e);
+        } catch (ExecutionException e) {
+            abort(key, uploadId, parts);
+            throw unwrap(e.getCause());
+        } catch (IOException | RuntimeException e) {
+            abort(key, uploadId, parts);
+            throw e;
+        }
+    }
+
+    private CompletableFuture<CompletedPart> submitPart(String key, String uploadId, int partNumber,
+                                                        byte[] buffer, int length, Semaphore permits) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                UploadPartResponse response = s3Client.uploadPart(UploadPartRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .partNumber(partNumber)
+                        .contentLength((long) length)
+                        .build(), body(buffer, length));
+
+                return CompletedPart.builder()
+                        .partNumber(partNumber)
+                        .eTag(response.eTag())
+                        .build();
+            } finally {
+                bufferPool.release(buffer);
+                permits.release();
+            }
+        }, executor);
+    }
+
+    private void abort(String key, String uploadId, List<CompletableFuture<CompletedPart>> parts) {
+        // Let in-flight parts settle so that no part lands after the abort
+        for (CompletableFuture<CompletedPart> part : parts) {
+            try {
+                part.join();
+            } catch (CompletionException | CancellationException ignored) {
+                // Failure already reported through the caller
+            }
+        }
+
+        try {
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .build());
+        } catch (RuntimeException ignored) {
+            // Best effort, a bucket lifecycle rule cleans up anything left behind
+        }
+    }
+
+    private static RequestBody body(byte[] buffer, int length) {
+        // fromInputStream avoids the defensive copy made by RequestBody.fromBytes
+        return RequestBody.fromInputStream(new ByteArrayInputStream(buffer, 0, length), length);
+    }
+
+    private static RuntimeException unwrap(Throwable cause) {
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        return new StorageException("Multipart upload failed", cause);
+    }
+}
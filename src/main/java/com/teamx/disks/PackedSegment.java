@@ -0,0 +1,211 @@
+package com.teamx.disks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Segment file of a {@link PackedStorage} and the format of its records.
+ * <p>
+ * A segment is a sequence of records, each
+ * {@code type, path length (2), path (UTF-8), last modified (8), size (8),
+ * data length (4), data, CRC32 of all of the above (4)}. A PUT record holds a
+ * small file as its data, a LARGE record the version of a file stored on the
+ * backend, and a DELETE record is a tombstone. Records are only ever appended,
+ * so a crash can at most tear the last one, which the checksum detects.
+ * <p>
+ * A sealed segment is uploaded together with an index of its records, so the
+ * paths can be loaded without reading the data. Mutable fields are guarded by
+ * the lock of the owning storage.
+ */
+final class PackedSegment {
+    static final byte PUT = 1;
+    static final byte LARGE = 2;
+    static final byte DELETE = 3;
+
+    private static final int FIXED_HEADER_LENGTH = 1 + 2 + 8 + 8 + 4;
+    private static final int CHECKSUM_LENGTH = 4;
+    private static final int MAX_PATH_LENGTH = 0xFFFF;
+    private static final int MAX_DATA_LENGTH = 64 * 1024 * 1024;
+
+    final long id;
+    final long created = System.nanoTime();
+    Path file;
+    FileChannel channel;
+    long size;
+    long liveBytes;
+    boolean uploaded;
+    List<Record> records = new ArrayList<>();
+    // Paths of the records a later record replaced, which tombstones must keep hiding
+    final Set<String> shadowed = new HashSet<>();
+    // Record length of the tombstones, by path
+    final Map<String, Integer> tombstones = new HashMap<>();
+
+    PackedSegment(long id) {
+        this.id = id;
+    }
+
+    /**
+     * Encode a record
+     *
+     * @return Record bytes, checksum included
+     */
+    static byte[] encode(byte type, String path, long lastModified, long size, byte[] data) {
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        if (pathBytes.length > MAX_PATH_LENGTH) {
+            throw new IllegalArgumentException("Path is too long to pack: " + path);
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(FIXED_HEADER_LENGTH + pathBytes.length + data.length + CHECKSUM_LENGTH);
+        record.put(type);
+        record.putShort((short) pathBytes.length);
+        record.put(pathBytes);
+        record.putLong(lastModified);
+        record.putLong(size);
+        record.putInt(data.length);
+        record.put(data);
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        return record.array();
+    }
+
+    /**
+     * Position of the data of a record
+     */
+    static long dataOffset(long recordOffset, String path) {
+        return recordOffset + FIXED_HEADER_LENGTH + path.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Read the next record of a segment
+     *
+     * @param in           Segment content positioned at a record
+     * @param recordOffset Position of the record in the segment
+     * @return The record with its data, or null at the end of the segment
+     * @throws EOFException if the record is torn
+     * @throws IOException  if the record is corrupt
+     */
+    static Record read(InputStream in, long recordOffset) throws IOException {
+        int type = in.read();
+        if (type < 0) {
+            return null;
+        }
+
+        DataInputStream data = new DataInputStream(in);
+        byte[] lengthBytes = new byte[2];
+        data.readFully(lengthBytes);
+        byte[] pathBytes = new byte[((lengthBytes[0] & 0xFF) << 8) | (lengthBytes[1] & 0xFF)];
+        data.readFully(pathBytes);
+        byte[] fixed = new byte[20];
+        data.readFully(fixed);
+        ByteBuffer fields = ByteBuffer.wrap(fixed);
+        long lastModified = fields.getLong();
+        long size = fields.getLong();
+        int dataLength = fields.getInt();
+        if (type < PUT || type > DELETE || dataLength < 0 || dataLength > MAX_DATA_LENGTH) {
+            throw new IOException("Corrupt record at offset " + recordOffset);
+        }
+        byte[] content = new byte[dataLength];
+        data.readFully(content);
+        int checksum = data.readInt();
+
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(lengthBytes);
+        crc.update(pathBytes);
+        crc.update(fixed);
+        crc.update(content);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Checksum mismatch in record at offset " + recordOffset);
+        }
+
+        String path = new String(pathBytes, StandardCharsets.UTF_8);
+        int recordLength = FIXED_HEADER_LENGTH + pathBytes.length + dataLength + CHECKSUM_LENGTH;
+        long offset = type == PUT ? recordOffset + FIXED_HEADER_LENGTH + pathBytes.length
+                : type == LARGE ? ByteBuffer.wrap(content).getLong() : 0;
+        return new Record((byte) type, path, offset, recordOffset, recordLength, size, lastModified, content);
+    }
+
+    /**
+     * Encode the index uploaded next to a sealed segment
+     */
+    static byte[] encodeIndex(List<Record> records, long size) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(size);
+            out.writeInt(records.size());
+            for (Record record : records) {
+                out.writeByte(record.type);
+                out.writeUTF(record.path);
+                out.writeLong(record.offset);
+                out.writeLong(record.recordOffset);
+                out.writeInt(record.recordLength);
+                out.writeLong(record.size);
+                out.writeLong(record.lastModified);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read the index of a sealed segment into it
+     */
+    void readIndex(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        size = data.readLong();
+        int count = data.readInt();
+        records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            records.add(new Record(data.readByte(), data.readUTF(), data.readLong(), data.readLong(), data.readInt(),
+                    data.readLong(), data.readLong(), null));
+        }
+    }
+
+    /**
+     * Metadata of a record. The offset is the position of the data for PUT
+     * records and the version of the backend file for LARGE records.
+     */
+    static final class Record {
+        final byte type;
+        final String path;
+        final long offset;
+        final long recordOffset;
+        final int recordLength;
+        final long size;
+        final long lastModified;
+        final byte[] data;
+
+        Record(byte type, String path, long offset, long recordOffset, int recordLength, long size,
+               long lastModified, byte[] data) {
+            this.type = type;
+            this.path = path;
+            this.offset = offset;
+            this.recordOffset = recordOffset;
+            this.recordLength = recordLength;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.data = data;
+        }
+
+        Record withoutData() {
+            return data == null ? this
+                    : new Record(type, path, offset, recordOffset, recordLength, size, lastModified, null);
+        }
+    }
+}
@@ -0,0 +1,1018 @@
+package com.teamx.disks;
+
+import com.teamx.StorageException;
+import com.teamx.config.DiskConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Disk that packs small files into large append-only segments on a backend disk.
+ * <p>
+ * Files up to pack_threshold bytes are appended as records to the active segment,
+ * a local file in segment_dir, and read back with positional reads. Once the
+ * segment reaches segment_size, or has been open for seal_after, it is sealed and
+ * uploaded to {@code segments/<id>.seg} on the backend together with an index of
+ * its records, after which reads are ranged reads of the backend. Larger files go
+ * straight to {@code objects/<path>.<version>} on the backend, versioned so that
+ * an overwrite never races with the deletion of the file it replaces.
+ * <p>
+ * All paths are held in memory, so listings, metadata and existence checks never
+ * touch the backend, and deleting a directory appends tombstones instead of
+ * removing thousands of files. Segments whose live records fall below
+ * compact_threshold of their size are compacted in the background: their live
+ * records are appended again, sealed and uploaded, and only then is the segment
+ * deleted. Tombstones count as live, and are carried over, only while an older
+ * segment that stays holds a record they hide. On startup the paths are loaded
+ * from the segment indexes and the local segments, whose torn last record, if
+ * any, is cut off.
+ * <p>
+ * Until a segment is uploaded its only copy is the local file. A lock file in
+ * segment_dir keeps a second disk, in this process or another, from opening the
+ * same segments until this one is closed.
+ * <p>
+ * Options: backend (required, name of the disk holding segments and large files),
+ * segment_dir (required), pack_threshold (size, default 16KB), segment_size
+ * (size, default 64MB), seal_after (ms, default 60000), compact_threshold
+ * (default 0.5), maintenance_interval (ms, default 10000, 0 to seal, upload and
+ * compact only on {@link #flush()} and {@link #compact()}).
+ */
+public class PackedStorage implements Storage {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PackedStorage.class);
+    private static final String SEGMENTS = "segments";
+    private static final String OBJECTS = "objects";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String LOCK_FILE = ".lock";
+    private static final int DEFAULT_PACK_THRESHOLD = 16 * 1024;
+    private static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final long DEFAULT_SEAL_AFTER = 60_000;
+    private static final double DEFAULT_COMPACT_THRESHOLD = 0.5;
+    private static final long DEFAULT_MAINTENANCE_INTERVAL = 10_000;
+
+    private final Storage backend;
+    private final Path segmentDirectory;
+    private final int packThreshold;
+    private final long segmentSize;
+    private final long sealAfterNanos;
+    private final double compactThreshold;
+    private final ScheduledExecutorService maintainer;
+    private final ExclusiveFileLock directoryLock;
+
+    private final Object lock = new Object();
+    private final NavigableMap<String, Entry> index = new TreeMap<>();
+    private final NavigableMap<Long, PackedSegment> segments = new TreeMap<>();
+    private final Deque<PackedSegment> pendingUploads = new ArrayDeque<>();
+    private final Object maintenance = new Object();
+    private PackedSegment active;
+
+    /**
+     * Create a packed storage with configuration
+     *
+     * @param backend Disk holding segments and large files
+     * @param config  Disk configuration
+     */
+    public PackedStorage(Storage backend, DiskConfig config) {
+        this(backend, Paths.get(requireSegmentDir(config)),
+                (int) config.getSizeOption("pack_threshold", DEFAULT_PACK_THRESHOLD),
+                config.getSizeOption("segment_size", DEFAULT_SEGMENT_SIZE),
+                config.getLongOption("seal_after", DEFAULT_SEAL_AFTER),
+                Double.parseDouble(config.getOption("compact_threshold", String.valueOf(DEFAULT_COMPACT_THRESHOLD))),
+                config.getLongOption("maintenance_interval", DEFAULT_MAINTENANCE_INTERVAL));
+    }
+
+    /**
+     * Create a packed storage
+     *
+     * @param backend             Disk holding segments and large files
+     * @param segmentDirectory    Local directory of the segments not uploaded yet
+     * @param packThreshold       Largest file in bytes that is packed
+     * @param segmentSize         Size in bytes at which a segment is sealed
+     * @param sealAfter           Milliseconds after which a segment is sealed however small
+     * @param compactThreshold    Fraction of live bytes below which a segment is compacted
+     * @param maintenanceInterval Milliseconds between background maintenance runs, 0 for none
+     */
+    public PackedStorage(Storage backend, Path segmentDirectory, int packThreshold, long segmentSize,
+                         long sealAfter, double compactThreshold, long maintenanceInterval) {
+        this.backend = backend;
+        this.segmentDirectory = segmentDirectory.toAbsolutePath().normalize();
+        this.packThreshold = packThreshold;
+        this.segmentSize = segmentSize;
+        this.sealAfterNanos = TimeUnit.MILLISECONDS.toNanos(sealAfter);
+        this.compactThreshold = compactThreshold;
+
+        this.directoryLock = ExclusiveFileLock.acquire(this.segmentDirectory.resolve(LOCK_FILE), "Segment directory");
+        try {
+            load();
+        } catch (IOException | RuntimeException e) {
+            segments.values().forEach(PackedStorage::closeQuietly);
+            directoryLock.close();
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new StorageException("Could not load packed segments: " + segmentDirectory, e);
+        }
+
+        if (maintenanceInterval > 0) {
+            maintainer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("packed-storage"));
+            maintainer.scheduleWithFixedDelay(this::maintain, maintenanceInterval, maintenanceInterval,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            maintainer = null;
+        }
+    }
+
+    @Override
+    public InputStream get(String path) throws StorageException {
+        String key = PathListings.trimSlashes(path);
+        Entry entry = require(key, path);
+        if (entry.large) {
+            return backend.get(objectKey(key, entry.offset));
+        }
+        return new ByteArrayInputStream(readPacked(key, entry));
+    }
+
+    @Override
+    public ReadableByteChannel getChannel(String path) throws StorageException {
+        String key = PathListings.trimSlashes(path);
+        Entry entry = require(key, path);
+        if (entry.large) {
+            return backend.getChannel(objectKey(key, entry.offset));
+        }
+        return Channels.newChannel(new ByteArrayInputStream(readPacked(key, entry)));
+    }
+
+    @Override
+    public long writeTo(String path, WritableByteChannel target) throws StorageException {
+        String key = PathListings.trimSlashes(path);
+        Entry entry = require(key, path);
+        if (entry.large) {
+            return backend.writeTo(objectKey(key, entry.offset), target);
+        }
+
+        ByteBuffer content = ByteBuffer.wrap(readPacked(key, entry));
+        try {
+            while (content.hasRemaining()) {
+                target.write(content);
+            }
+            return content.limit();
+        } catch (IOException e) {
+            throw new StorageException("Could not transfer file: " + path, e);
+        }
+    }
+
+    @Override
+    public ByteBuffer readRange(String path, long offset, int length) throws StorageException {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Offset and length must not be negative");
+        }
+        String key = PathListings.trimSlashes(path);
+        Entry entry = require(key, path);
+        if (entry.large) {
+            return backend.readRange(objectKey(key, entry.offset), offset, length);
+        }
+
+        byte[] content = readPacked(key, entry);
+        int from = (int) Math.min(offset, content.length);
+        int to = (int) Math.min(content.length, from + (long) length);
+        return ByteBuffer.wrap(content, from, to - from).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Files of a known size above the pack threshold are passed to the backend as
+     * a channel, keeping its zero-copy path
+     */
+    @Override
+    public boolean put(String path, ReadableByteChannel content, long size) throws StorageException {
+        if (size <= packThreshold) {
+            return put(path, Channels.newInputStream(content), null);
+        }
+        String key = PathListings.trimSlashes(path);
+        long version = newVersion();
+        backend.put(objectKey(key, version), content, size);
+        record(key, PackedSegment.LARGE, size, versionBytes(version), version);
+        return true;
+    }
+
+    /**
+     * Packs the content if it ends within the pack threshold and stores it on the
+     * backend otherwise. Metadata is only kept for files stored on the backend.
+     */
+    @Override
+    public boolean put(String path, InputStream content, Map<String, String> metadata) throws StorageException {
+        String key = PathListings.trimSlashes(path);
+        byte[] head;
+        try {
+            head = content.readNBytes(packThreshold + 1);
+        } catch (IOException e) {
+            throw new StorageException("Could not read content for: " + path, e);
+        }
+
+        if (head.length <= packThreshold) {
+            record(key, PackedSegment.PUT, head.length, head, -1);
+            return true;
+        }
+
+        long version = newVersion();
+        CountingInputStream counted = new CountingInputStream(
+                new SequenceInputStream(new ByteArrayInputStream(head), content));
+        backend.put(objectKey(key, version), counted, metadata);
+        record(key, PackedSegment.LARGE, counted.count, versionBytes(version), version);
+        return true;
+    }
+
+    @Override
+    public boolean exists(String path) {
+        String key = PathListings.trimSlashes(path);
+        synchronized (lock) {
+            if (index.containsKey(key)) {
+                return true;
+            }
+            String prefix = PathListings.directoryPrefix(key);
+            String next = index.ceilingKey(prefix);
+            return next != null && next.startsWith(prefix);
+        }
+    }
+
+    @Override
+    public StorageEntry stat(String path) throws StorageException {
+        String key = PathListings.trimSlashes(path);
+        Entry entry;
+        synchronized (lock) {
+            entry = index.get(key);
+        }
+        if (entry != null) {
+            return toEntry(key, entry);
+        }
+        return exists(key) ? StorageEntry.directory(key, 0) : null;
+    }
+
+    @Override
+    public boolean delete(String path) throws StorageException {
+        String key = PathListings.trimSlashes(path);
+        Entry previous;
+        synchronized (lock) {
+            if (!index.containsKey(key)) {
+                return false;
+            }
+            previous = append(key, PackedSegment.DELETE, 0, new byte[0], 0);
+        }
+        dropObject(key, previous);
+        return true;
+    }
+
+    /**
+     * Packed files have no location of their own; only files stored on the backend have a URL
+     */
+    @Override
+    public String url(String path) {
+        String key = PathListings.trimSlashes(path);
+        Entry entry = require(key, path);
+        if (!entry.large) {
+            throw new StorageException("Packed file has no URL of its own: " + path);
+        }
+        return backend.url(objectKey(key, entry.offset));
+    }
+
+    @Override
+    public List<String> listContents(String directory) {
+        try (Stream<StorageEntry> entries = list(directory)) {
+            return entries.map(StorageEntry::getPath).collect(Collectors.toList());
+        }
+    }
+
+    @Override
+    public Stream<StorageEntry> list(String directory) {
+        String prefix = PathListings.directoryPrefix(directory);
+        return PathListings.children(prefix, below(prefix), PackedStorage::toEntry).stream();
+    }
+
+    /**
+     * Lists from a snapshot of the index. Each directory comes right before the
+     * first path below it, and files come in lexicographic path order.
+     */
+    @Override
+    public Stream<StorageEntry> listAll(String directory) {
+        String prefix = PathListings.directoryPrefix(directory);
+        return PathListings.tree(prefix, below(prefix), PackedStorage::toEntry).stream();
+    }
+
+    @Override
+    public long size(String path) throws StorageException {
+        return require(PathListings.trimSlashes(path), path).size;
+    }
+
+    /**
+     * Directories exist as long as a path lies below them, so there is nothing to create
+     */
+    @Override
+    public boolean makeDirectory(String path) {
+        return true;
+    }
+
+    /**
+     * Appends a tombstone per file; only files stored on the backend are deleted there
+     */
+    @Override
+    public boolean deleteDirectory(String path) {
+        for (Map.Entry<String, Entry> entry : below(PathListings.directoryPrefix(path))) {
+            delete(entry.getKey());
+        }
+        return true;
+    }
+
+    @Override
+    public long lastModified(String path) {
+        return require(PathListings.trimSlashes(path), path).lastModified;
+    }
+
+    @Override
+    public boolean copy(String source, String destination) {
+        String from = PathListings.trimSlashes(source);
+        String to = PathListings.trimSlashes(destination);
+        Entry entry;
+        synchronized (lock) {
+            entry = index.get(from);
+        }
+        if (entry == null) {
+            throw new StorageException("Source file not found: " + source);
+        }
+
+        if (entry.large) {
+            long version = newVersion();
+            backend.copy(objectKey(from, entry.offset), objectKey(to, version));
+            record(to, PackedSegment.LARGE, entry.size, versionBytes(version), version);
+        } else {
+            byte[] content = readPacked(from, entry);
+            record(to, PackedSegment.PUT, content.length, content, -1);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean move(String source, String destination) {
+        if (PathListings.trimSlashes(source).equals(PathListings.trimSlashes(destination))) {
+            return exists(source);
+        }
+        copy(source, destination);
+        delete(source);
+        return true;
+    }
+
+    /**
+     * Seal the active segment and upload every sealed segment, so that the
+     * backend holds all files written so far
+     */
+    public void flush() {
+        synchronized (lock) {
+            seal();
+        }
+        uploadPending();
+    }
+
+    /**
+     * Rewrite the live records of uploaded segments that are mostly dead and delete
+     * those segments. Runs in the background every maintenance_interval.
+     *
+     * @return Number of segments compacted
+     */
+    public int compact() {
+        synchronized (maintenance) {
+            List<PackedSegment> candidates = new ArrayList<>();
+            Set<Long> dropping = new HashSet<>();
+            synchronized (lock) {
+                // Oldest first, so a tombstone counts only while a kept segment needs it
+                for (PackedSegment segment : segments.values()) {
+                    if (segment.uploaded && segment.liveBytes + neededTombstoneBytes(segment, dropping)
+                            < segment.size * compactThreshold) {
+                        candidates.add(segment);
+                        dropping.add(segment.id);
+                    }
+                }
+            }
+
+            List<PackedSegment> rewritten = new ArrayList<>();
+            boolean moved = false;
+            for (PackedSegment segment : candidates) {
+                try {
+                    moved |= rewrite(segment, dropping);
+                    rewritten.add(segment);
+                } catch (IOException | StorageException e) {
+                    // Later tombstones may hide records of this segment, so they stay too
+                    LOGGER.warn("Could not compact segment {}", segmentName(segment.id), e);
+                    break;
+                }
+            }
+            if (rewritten.isEmpty()) {
+                return 0;
+            }
+
+            // The moved records must be on the backend before the segments holding them now go
+            if (moved) {
+                synchronized (lock) {
+                    seal();
+                }
+                try {
+                    uploadPending();
+                } catch (StorageException e) {
+                    LOGGER.warn("Could not upload compacted records, keeping the old segments", e);
+                    return 0;
+                }
+            }
+
+            int compacted = 0;
+            for (PackedSegment segment : rewritten) {
+                try {
+                    drop(segment);
+                    compacted++;
+                } catch (StorageException e) {
+                    LOGGER.warn("Could not delete compacted segment {}", segmentName(segment.id), e);
+                }
+            }
+            return compacted;
+        }
+    }
+
+    /**
+     * Get the number of segments, uploaded or local
+     *
+     * @return Segment count
+     */
+    public int getSegmentCount() {
+        synchronized (lock) {
+            return segments.size();
+        }
+    }
+
+    /**
+     * Stops the background maintenance, closes the local segments, which are
+     * picked up again on the next start, and unlocks segment_dir. The backend is
+     * usually a disk of its own and is left open for its owner to close.
+     */
+    @Override
+    public void close() {
+        if (maintainer != null) {
+            maintainer.shutdownNow();
+        }
+        synchronized (maintenance) {
+            synchronized (lock) {
+                for (PackedSegment segment : segments.values()) {
+                    closeQuietly(segment);
+                }
+            }
+        }
+        directoryLock.close();
+    }
+
+    /**
+     * Append a record for a path and point the path at it
+     *
+     * @param version Version of a LARGE record, ignored otherwise
+     */
+    private void record(String key, byte type, long size, byte[] data, long version) {
+        Entry previous;
+        synchronized (lock) {
+            previous = append(key, type, size, data, version);
+        }
+        dropObject(key, previous);
+    }
+
+    /**
+     * Append a record to the active segment and apply it to the index. Must be
+     * called while holding the lock.
+     *
+     * @return The entry the path had before
+     */
+    private Entry append(String key, byte type, long size, byte[] data, long version) {
+        return append(key, type, System.currentTimeMillis(), size, data, version);
+    }
+
+    private Entry append(String key, byte type, long lastModified, long size, byte[] data, long version) {
+        byte[] record = PackedSegment.encode(type, key, lastModified, size, data);
+        PackedSegment segment = active;
+        long recordOffset = segment.size;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            while (buffer.hasRemaining()) {
+                segment.channel.write(buffer, recordOffset + buffer.position());
+            }
+        } catch (IOException e) {
+            throw new StorageException("Could not append to segment: " + segment.file, e);
+        }
+        segment.size += record.length;
+
+        long offset = type == PackedSegment.PUT ? PackedSegment.dataOffset(recordOffset, key) : version;
+        PackedSegment.Record appended = new PackedSegment.Record(type, key, offset, recordOffset, record.length,
+                size, lastModified, null);
+        segment.records.add(appended);
+        Entry previous = apply(segment, appended);
+
+        if (segment.size >= segmentSize) {
+            seal();
+        }
+        return previous;
+    }
+
+    /**
+     * Apply a record to the index and the live byte counts. Must be called while
+     * holding the lock.
+     */
+    private Entry apply(PackedSegment segment, PackedSegment.Record record) {
+        Entry previous;
+        if (record.type == PackedSegment.DELETE) {
+            previous = index.remove(record.path);
+            segment.tombstones.put(record.path, record.recordLength);
+        } else {
+            previous = index.put(record.path, new Entry(segment.id, record.offset, record.size,
+                    record.recordLength, record.lastModified, record.type == PackedSegment.LARGE));
+            segment.liveBytes += record.recordLength;
+        }
+
+        if (previous != null) {
+            PackedSegment holder = segments.get(previous.segment);
+            if (holder != null) {
+                holder.liveBytes -= previous.recordLength;
+                holder.shadowed.add(record.path);
+            }
+        }
+        return previous;
+    }
+
+    /**
+     * Seal the active segment and start a new one. Must be called while holding the lock.
+     */
+    private void seal() {
+        if (active.size == 0) {
+            return;
+        }
+        pendingUploads.add(active);
+        active = openSegment(active.id + 1);
+        if (maintainer != null) {
+            maintainer.execute(this::uploadPending);
+        }
+    }
+
+    /**
+     * Upload the sealed segments, oldest first, and drop their local files
+     */
+    private void uploadPending() {
+        synchronized (maintenance) {
+            while (true) {
+                PackedSegment segment;
+                List<PackedSegment.Record> records;
+                long size;
+                synchronized (lock) {
+                    segment = pendingUploads.peek();
+                    if (segment == null) {
+                        return;
+                    }
+                    records = new ArrayList<>(segment.records);
+                    size = segment.size;
+                }
+
+                try (FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.READ)) {
+                    backend.put(segmentKey(segment.id, SEGMENT_SUFFIX), channel, size);
+                    backend.put(segmentKey(segment.id, INDEX_SUFFIX),
+                            new ByteArrayInputStream(PackedSegment.encodeIndex(records, size)));
+                } catch (IOException e) {
+                    throw new StorageException("Could not upload segment: " + segment.file, e);
+                }
+
+                Path file;
+                synchronized (lock) {
+                    pendingUploads.poll();
+                    file = segment.file;
+                    closeQuietly(segment);
+                    segment.uploaded = true;
+                    segment.records = null;
+                }
+                deleteQuietly(file);
+            }
+        }
+    }
+
+    /**
+     * Append the live records of a segment to the active segment again
+     *
+     * @return Whether any record was appended
+     */
+    private boolean rewrite(PackedSegment segment, Set<Long> dropping) throws IOException {
+        boolean moved = false;
+        try (InputStream in = new BufferedInputStream(backend.get(segmentKey(segment.id, SEGMENT_SUFFIX)))) {
+            long offset = 0;
+            PackedSegment.Record record;
+            while ((record = PackedSegment.read(in, offset)) != null) {
+                offset += record.recordLength;
+                synchronized (lock) {
+                    Entry current = index.get(record.path);
+                    if (record.type == PackedSegment.DELETE) {
+                        // Older segments may still hold records the tombstone hides
+                        if (current == null && shadowedInKeptSegment(record.path, segment.id, dropping)) {
+                            append(record.path, PackedSegment.DELETE, record.lastModified, 0, record.data, 0);
+                            moved = true;
+                        }
+                    } else if (current != null && current.segment == segment.id && current.offset == record.offset
+                            && current.large == (record.type == PackedSegment.LARGE)) {
+                        append(record.path, record.type, record.lastModified, record.size, record.data,
+                                record.offset);
+                        moved = true;
+                    }
+                }
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Count the bytes of the tombstones of a segment that compaction would have to
+     * keep. Must be called while holding the lock.
+     */
+    private long neededTombstoneBytes(PackedSegment segment, Set<Long> dropping) {
+        long bytes = 0;
+        for (Map.Entry<String, Integer> tombstone : segment.tombstones.entrySet()) {
+            if (!index.containsKey(tombstone.getKey())
+                    && shadowedInKeptSegment(tombstone.getKey(), segment.id, dropping)) {
+                bytes += tombstone.getValue();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Check whether a segment older than the given one stays after compaction and
+     * holds a replaced record of the path. Must be called while holding the lock.
+     */
+    private boolean shadowedInKeptSegment(String path, long id, Set<Long> dropping) {
+        for (PackedSegment older : segments.headMap(id, false).values()) {
+            if (!dropping.contains(older.id) && older.shadowed.contains(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Delete a compacted segment from the backend and forget it
+     */
+    private void drop(PackedSegment segment) {
+        // Without its index a leftover segment file is removed on the next start
+        backend.delete(segmentKey(segment.id, INDEX_SUFFIX));
+        backend.delete(segmentKey(segment.id, SEGMENT_SUFFIX));
+        synchronized (lock) {
+            segments.remove(segment.id);
+        }
+    }
+
+    private void maintain() {
+        try {
+            synchronized (lock) {
+                if (active.size > 0 && System.nanoTime() - active.created >= sealAfterNanos) {
+                    seal();
+                }
+            }
+            uploadPending();
+            compact();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Packed storage maintenance failed", e);
+        }
+    }
+
+    /**
+     * Load the paths from the uploaded segment indexes and the local segments, in segment order
+     */
+    private void load() throws IOException {
+        Files.createDirectories(segmentDirectory);
+
+        TreeSet<Long> uploaded = new TreeSet<>();
+        List<Long> stale = new ArrayList<>();
+        try (Stream<StorageEntry> entries = backend.listAll(SEGMENTS)) {
+            entries.filter(entry -> !entry.isDirectory()).forEach(entry -> {
+                String name = entry.getPath().substring(entry.getPath().lastIndexOf('/') + 1);
+                Long id = segmentId(name, INDEX_SUFFIX);
+                if (id != null) {
+                    uploaded.add(id);
+                } else if ((id = segmentId(name, SEGMENT_SUFFIX)) != null) {
+                    stale.add(id);
+                }
+            });
+        }
+
+        TreeMap<Long, Path> local = new TreeMap<>();
+        try (Stream<Path> files = Files.list(segmentDirectory)) {
+            files.forEach(file -> {
+                Long id = segmentId(file.getFileName().toString(), SEGMENT_SUFFIX);
+                if (id != null) {
+                    local.put(id, file);
+                }
+            });
+        }
+
+        TreeSet<Long> ids = new TreeSet<>(uploaded);
+        ids.addAll(local.keySet());
+        for (long id : ids) {
+            PackedSegment segment = new PackedSegment(id);
+            segments.put(id, segment);
+            if (uploaded.contains(id)) {
+                try (InputStream in = new BufferedInputStream(backend.get(segmentKey(id, INDEX_SUFFIX)))) {
+                    segment.readIndex(in);
+                }
+                segment.records.forEach(record -> apply(segment, record));
+                segment.records = null;
+                segment.uploaded = true;
+                if (local.containsKey(id)) {
+                    // Uploaded before the local file was removed
+                    deleteQuietly(local.get(id));
+                }
+            } else {
+                scan(segment, local.get(id));
+                if (id != local.lastKey()) {
+                    pendingUploads.add(segment);
+                }
+            }
+        }
+
+        // Segment files without an index are uploads that did not finish
+        stale.removeAll(uploaded);
+        stale.removeAll(local.keySet());
+        for (long id : stale) {
+            backend.delete(segmentKey(id, SEGMENT_SUFFIX));
+        }
+
+        if (!local.isEmpty() && local.lastKey().equals(ids.last())) {
+            active = segments.get(local.lastKey());
+        } else {
+            active = openSegment(ids.isEmpty() ? 1 : ids.last() + 1);
+        }
+    }
+
+    /**
+     * Read the records of a local segment, cutting off a torn last record
+     */
+    private void scan(PackedSegment segment, Path file) throws IOException {
+        segment.file = file;
+        segment.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        long offset = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            PackedSegment.Record record;
+            while ((record = PackedSegment.read(in, offset)) != null) {
+                offset += record.recordLength;
+                PackedSegment.Record kept = record.withoutData();
+                segment.records.add(kept);
+                apply(segment, kept);
+            }
+        } catch (EOFException e) {
+            LOGGER.warn("Cutting off torn record at offset {} of segment {}", offset, file);
+        } catch (IOException e) {
+            LOGGER.warn("Cutting off corrupt records from offset {} of segment {}", offset, file, e);
+        }
+
+        segment.size = offset;
+        if (segment.channel.size() > offset) {
+            segment.channel.truncate(offset);
+        }
+    }
+
+    private PackedSegment openSegment(long id) {
+        PackedSegment segment = new PackedSegment(id);
+        segment.file = segmentDirectory.resolve(segmentName(id) + SEGMENT_SUFFIX);
+        try {
+            segment.channel = FileChannel.open(segment.file, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new StorageException("Could not create segment: " + segment.file, e);
+        }
+        segments.put(id, segment);
+        return segment;
+    }
+
+    /**
+     * Read a packed file from its local segment, or from the backend once the
+     * segment is uploaded. A segment compacted in between is followed to the
+     * new location of the file.
+     */
+    private byte[] readPacked(String key, Entry entry) {
+        for (int attempt = 0; ; attempt++) {
+            FileChannel channel;
+            synchronized (lock) {
+                PackedSegment segment = segments.get(entry.segment);
+                channel = segment == null ? null : segment.channel;
+            }
+
+            if (channel != null) {
+                try {
+                    ByteBuffer buffer = ByteBuffer.allocate((int) entry.size);
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, entry.offset + buffer.position()) < 0) {
+                            throw new EOFException("Segment ends before the file: " + key);
+                        }
+                    }
+                    return buffer.array();
+                } catch (ClosedChannelException e) {
+                    // Uploaded meanwhile; read it from the backend
+                } catch (IOException e) {
+                    throw new StorageException("Could not read file: " + key, e);
+                }
+            }
+
+            try {
+                ByteBuffer range = backend.readRange(segmentKey(entry.segment, SEGMENT_SUFFIX), entry.offset,
+                        (int) entry.size);
+                byte[] content = new byte[range.remaining()];
+                range.get(content);
+                return content;
+            } catch (StorageException e) {
+                Entry current;
+                synchronized (lock) {
+                    current = index.get(key);
+                }
+                if (attempt > 0 || current == null || current == entry) {
+                    throw e;
+                }
+                entry = current;
+                if (entry.large) {
+                    try (InputStream in = backend.get(objectKey(key, entry.offset))) {
+                        return in.readAllBytes();
+                    } catch (IOException io) {
+                        throw new StorageException("Could not read file: " + key, io);
+                    }
+                }
+            }
+        }
+    }
+
+    private Entry require(String key, String path) {
+        Entry entry;
+        synchronized (lock) {
+            entry = index.get(key);
+        }
+        if (entry == null) {
+            throw new StorageException("File not found: " + path);
+        }
+        return entry;
+    }
+
+    private List<Map.Entry<String, Entry>> below(String prefix) {
+        synchronized (lock) {
+            return PathListings.below(index, prefix);
+        }
+    }
+
+    /**
+     * Delete the backend file a path pointed at before it was overwritten or deleted
+     */
+    private void dropObject(String key, Entry previous) {
+        if (previous == null || !previous.large) {
+            return;
+        }
+        try {
+            backend.delete(objectKey(key, previous.offset));
+        } catch (StorageException e) {
+            LOGGER.warn("Could not delete replaced file {}", objectKey(key, previous.offset), e);
+        }
+    }
+
+    private static StorageEntry toEntry(String path, Entry entry) {
+        return StorageEntry.file(path, entry.size, entry.lastModified);
+    }
+
+    private static String objectKey(String key, long version) {
+        return OBJECTS + "/" + key + "." + String.format("%016x", version);
+    }
+
+    private static String segmentKey(long id, String suffix) {
+        return SEGMENTS + "/" + segmentName(id) + suffix;
+    }
+
+    private static String segmentName(long id) {
+        return String.format("%016x", id);
+    }
+
+    private static Long segmentId(String name, String suffix) {
+        if (name.length() != 16 + suffix.length() || !name.endsWith(suffix)) {
+            return null;
+        }
+        try {
+            return Long.parseUnsignedLong(name.substring(0, 16), 16);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long newVersion() {
+        return ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+    }
+
+    private static byte[] versionBytes(long version) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(version).array();
+    }
+
+    private static void closeQuietly(PackedSegment segment) {
+        if (segment.channel == null) {
+            return;
+        }
+        try {
+            segment.channel.close();
+        } catch (IOException ignored) {
+            // Nothing was written through the handle that could be lost
+        } finally {
+            segment.channel = null;
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.warn("Could not delete uploaded segment {}", file, e);
+        }
+    }
+
+    private static String requireSegmentDir(DiskConfig config) {
+        String directory = config.getOption("segment_dir");
+        if (directory == null || directory.isEmpty()) {
+            throw new IllegalArgumentException("Packed storage segment_dir is required");
+        }
+        return directory;
+    }
+
+    /**
+     * Location of a file: the data of a PUT record, or the version of a file on the backend
+     */
+    private static final class Entry {
+        final long segment;
+        final long offset;
+        final long size;
+        final int recordLength;
+        final long lastModified;
+        final boolean large;
+
+        Entry(long segment, long offset, long size, int recordLength, long lastModified, boolean large) {
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+            this.recordLength = recordLength;
+            this.lastModified = lastModified;
+            this.large = large;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.teamx.disks;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool of fixed-size byte arrays used as part buffers for transfers.
+ * Released buffers are kept for reuse up to the configured capacity,
+ * anything beyond that is left to the garbage collector.
+ */
+class PartBufferPool {
+    private final int bufferSize;
+    private final BlockingQueue<byte[]> idle;
+
+    PartBufferPool(int bufferSize, int capacity) {
+        this.bufferSize = bufferSize;
+        this.idle = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    }
+
+    int bufferSize() {
+        return bufferSize;
+    }
+
+    byte[] acquire() {
+        byte[] buffer = idle.poll();
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    void release(byte[] buffer) {
+        if (buffer != null && buffer.length == bufferSize) {
+            idle.offer(buffer);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.teamx.disks;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+/**
+ * Listings of drivers that keep their paths in a sorted in-memory index rather
+ * than in directories. Directories are implied by the paths below them.
+ */
+final class PathListings {
+
+    private PathListings() {
+    }
+
+    /**
+     * List the direct children of a directory
+     *
+     * @param prefix  Directory prefix, empty or ending with '/'
+     * @param below   Index entries starting with the prefix, in path order
+     * @param toEntry Builds the entry of a file
+     * @return Files and implied directories
+     */
+    static <T> List<StorageEntry> children(String prefix, List<Map.Entry<String, T>> below,
+                                           BiFunction<String, T, StorageEntry> toEntry) {
+        List<StorageEntry> entries = new ArrayList<>();
+        Set<String> directories = new HashSet<>();
+
+        for (Map.Entry<String, T> entry : below) {
+            String path = entry.getKey();
+            int slash = path.indexOf('/', prefix.length());
+            if (slash < 0) {
+                entries.add(toEntry.apply(path, entry.getValue()));
+            } else if (directories.add(path.substring(0, slash))) {
+                entries.add(StorageEntry.directory(path.substring(0, slash), 0));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * List everything below a directory. Each directory comes right before the
+     * first path below it, and files come in lexicographic path order.
+     *
+     * @param prefix  Directory prefix, empty or ending with '/'
+     * @param below   Index entries starting with the prefix, in path order
+     * @param toEntry Builds the entry of a file
+     * @return Files and implied directories
+     */
+    static <T> List<StorageEntry> tree(String prefix, List<Map.Entry<String, T>> below,
+                                       BiFunction<String, T, StorageEntry> toEntry) {
+        List<StorageEntry> entries = new ArrayList<>();
+        Set<String> directories = new HashSet<>();
+
+        for (Map.Entry<String, T> entry : below) {
+            String path = entry.getKey();
+            int slash = path.indexOf('/', prefix.length());
+            while (slash >= 0) {
+                String parent = path.substring(0, slash);
+                if (directories.add(parent)) {
+                    entries.add(StorageEntry.directory(parent, 0));
+                }
+                slash = path.indexOf('/', slash + 1);
+            }
+            entries.add(toEntry.apply(path, entry.getValue()));
+        }
+        return entries;
+    }
+
+    /**
+     * Copy the entries of a sorted map that start with a prefix, in path order
+     */
+    static <T> List<Map.Entry<String, T>> below(NavigableMap<String, T> paths, String prefix) {
+        List<Map.Entry<String, T>> entries = new ArrayList<>();
+        for (Map.Entry<String, T> entry : paths.tailMap(prefix, true).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            entries.add(Map.entry(entry.getKey(), entry.getValue()));
+        }
+        return entries;
+    }
+
+    /**
+     * Get the prefix of the paths below a directory
+     */
+    static String directoryPrefix(String directory) {
+        String trimmed = trimSlashes(directory);
+        return trimmed.isEmpty() ? "" : trimmed + "/";
+    }
+
+    /**
+     * Strip leading and trailing slashes, so "/a/b/" and "a/b" name the same path
+     */
+    static String trimSlashes(String path) {
+        int start = 0;
+        int end = path == null ? 0 : path.length();
+        while (start < end && path.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        return start == end ? "" : path.substring(start, end);
+    }
+}
@@ -0,0 +1,171 @@
+package com.teamx.disks;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * InputStream over an S3 object that fetches consecutive byte ranges
+ * concurrently and hands them out in order.
+ * <p>
+ * At most {@code concurrency} ranges are fetched ahead of the reader, so
+ * memory stays bounded by part size × (concurrency + 1). Every range request
+ * is pinned to the ETag seen by the initial HEAD so a concurrent overwrite
+ * fails the read instead of mixing two versions.
+ */
+class RangedInputStream extends InputStream {
+    private final S3Client s3Client;
+    private final String bucket;
+    private final String key;
+    private final String eTag;
+    private final long length;
+    private final PartBufferPool bufferPool;
+    private final int concurrency;
+    private final Executor executor;
+    private final Deque<CompletableFuture<byte[]>> window = new ArrayDeque<>();
+
+    private long nextOffset;
+    private long readOffset;
+    private byte[] current;
+    private int position;
+    private int limit;
+    private boolean closed;
+
+    RangedInputStream(S3Client s3Client, String bucket, String key, String eTag, long length,
+                      PartBufferPool bufferPool, int concurrency, Executor executor) {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.key = key;
+        this.eTag = eTag;
+        this.length = length;
+        this.bufferPool = bufferPool;
+        this.concurrency = Math.max(1, concurrency);
+        this.executor = executor;
+
+        fillWindow();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        return current[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureAvailable()) {
+            return -1;
+        }
+
+        int count = Math.min(len, limit - position);
+        System.arraycopy(current, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : limit - position;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        bufferPool.release(current);
+        current = null;
+        for (CompletableFuture<byte[]> range : window) {
+            // Completed ranges go back to the pool, pending ones are cancelled and
+            // leave their buffer to the garbage collector
+            if (!range.cancel(false) && !range.isCompletedExceptionally()) {
+                bufferPool.release(range.join());
+            }
+        }
+        window.clear();
+    }
+
+    private boolean ensureAvailable() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (current != null && position < limit) {
+            return true;
+        }
+
+        bufferPool.release(current);
+        current = null;
+
+        CompletableFuture<byte[]> next = window.poll();
+        if (next == null) {
+            return false;
+        }
+
+        try {
+            current = next.join();
+        } catch (CompletionException | CancellationException e) {
+            close();
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new IOException("Could not read range of " + key + " at offset " + readOffset, cause);
+        }
+
+        position = 0;
+        limit = (int) Math.min(bufferPool.bufferSize(), length - readOffset);
+        readOffset += limit;
+        fillWindow();
+        return limit > 0;
+    }
+
+    private void fillWindow() {
+        while (window.size() < concurrency && nextOffset < length) {
+            long start = nextOffset;
+            long end = Math.min(length, start + bufferPool.bufferSize()) - 1;
+            nextOffset = end + 1;
+            window.add(CompletableFuture.supplyAsync(() -> fetch(start, end), executor));
+        }
+    }
+
+    private byte[] fetch(long start, long end) {
+        GetObjectRequest.Builder request = GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .range("bytes=" + start + "-" + end);
+
+        if (eTag != null) {
+            request.ifMatch(eTag);
+        }
+
+        byte[] buffer = bufferPool.acquire();
+        int expected = (int) (end - start + 1);
+        try (ResponseInputStream<GetObjectResponse> in = s3Client.getObject(request.build())) {
+            int read = in.readNBytes(buffer, 0, expected);
+            if (read != expected) {
+                throw new IOException("Short read for " + key + ": expected " + expected + " bytes, got " + read);
+            }
+            return buffer;
+        } catch (IOException e) {
+            bufferPool.release(buffer);
+            throw new CompletionException(e);
+        } catch (RuntimeException e) {
+            bufferPool.release(buffer);
+            throw e;
+        }
+    }
+}
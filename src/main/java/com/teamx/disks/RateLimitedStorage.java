@@ -0,0 +1,484 @@
+package com.teamx.disks;
+
+import com.teamx.StorageException;
+import com.teamx.config.DiskConfig;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Storage decorator that limits the request rate and the number of concurrent
+ * calls of a disk, so batch jobs cannot flood a bucket and get the whole disk
+ * throttled.
+ * <p>
+ * Every call takes one token from the disk's token bucket and one from the
+ * bucket of its prefix (the first prefix_depth directories of the path), and
+ * holds one of the max_in_flight slots until it returns. Streams returned by get
+ * and listAll are not counted while they are read. Batch calls count as one call
+ * against the disk limits.
+ * <p>
+ * Calls belong to a {@link Priority} class. Reads, writes of single files and
+ * listings are interactive; deleteDirectory, copy, move, listAll and batch calls
+ * are background work. When a limit is reached, background calls wait until no
+ * interactive call is waiting for the same limit: the disk's rate and in-flight
+ * limits are shared by every call, a prefix's rate limit only by the calls on
+ * that prefix, so a busy prefix does not hold up background work elsewhere.
+ * {@link #withPriority} changes the class of the calls made by a piece of code,
+ * e.g. to run a bulk download as background work.
+ * <p>
+ * Options: rate_limit (calls per second, default unlimited), rate_burst (default rate_limit),
+ * prefix_rate_limit (calls per second per prefix, default unlimited), prefix_rate_burst
+ * (default prefix_rate_limit), prefix_depth (default 1), max_in_flight (default unlimited),
+ * rate_limit_timeout (ms to wait before failing, default unlimited).
+ */
+public class RateLimitedStorage extends ForwardingStorage {
+    private static final int MAX_PREFIX_BUCKETS = 10_000;
+    private static final ThreadLocal<Priority> PRIORITY = new ThreadLocal<>();
+
+    /**
+     * Classes of calls. Interactive calls go first when a limit is reached.
+     */
+    public enum Priority {
+        INTERACTIVE,
+        BACKGROUND
+    }
+
+    private final TokenBucket diskBucket;
+    private final double prefixRate;
+    private final double prefixBurst;
+    private final int prefixDepth;
+    private final int maxInFlight;
+    private final long timeoutNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFreed = lock.newCondition();
+    private final Condition diskChanged = lock.newCondition();
+    private final Map<String, PrefixLimit> prefixLimits;
+    private final int[] waiting = new int[Priority.values().length];
+    private int interactiveOnDisk;
+    private int inFlight;
+    private long throttled;
+
+    /**
+     * Limits a waiting call can be held up by
+     */
+    private enum Limit {
+        SLOT,
+        DISK,
+        PREFIX
+    }
+
+    /**
+     * Create a rate limiting decorator with configuration
+     *
+     * @param delegate Storage to limit
+     * @param config   Disk configuration
+     */
+    public RateLimitedStorage(Storage delegate, DiskConfig config) {
+        super(delegate);
+        double rate = Double.parseDouble(config.getOption("rate_limit", "0"));
+        double burst = Double.parseDouble(config.getOption("rate_burst", String.valueOf(Math.max(1, rate))));
+        this.prefixRate = Double.parseDouble(config.getOption("prefix_rate_limit", "0"));
+        this.prefixBurst = Double.parseDouble(config.getOption("prefix_rate_burst",
+                String.valueOf(Math.max(1, prefixRate))));
+        this.prefixDepth = config.getIntOption("prefix_depth", 1);
+        this.maxInFlight = config.getIntOption("max_in_flight", 0);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getLongOption("rate_limit_timeout", 0));
+
+        if (rate < 0 || burst < 1 || prefixRate < 0 || prefixBurst < 1) {
+            throw new IllegalArgumentException("Invalid rate limit or burst");
+        }
+        if (prefixDepth <= 0 || maxInFlight < 0 || timeoutNanos < 0) {
+            throw new IllegalArgumentException("Invalid prefix depth, max in flight or timeout");
+        }
+
+        this.diskBucket = rate > 0 ? new TokenBucket(rate, burst) : null;
+        this.prefixLimits = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PrefixLimit> eldest) {
+                // An evicted prefix starts over with a full bucket; one with waiters is kept
+                return size() > MAX_PREFIX_BUCKETS && eldest.getValue().waiters == 0;
+            }
+        };
+    }
+
+    /**
+     * Run code with the calls it makes on this thread in a given priority class
+     *
+     * @param priority Priority class of the calls
+     * @param action   Code to run
+     * @return Result of the code
+     */
+    public static <T> T withPriority(Priority priority, Supplier<T> action) {
+        Priority previous = PRIORITY.get();
+        PRIORITY.set(priority);
+        try {
+            return action.get();
+        } finally {
+            if (previous == null) {
+                PRIORITY.remove();
+            } else {
+                PRIORITY.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Get the number of calls currently waiting for a limit
+     *
+     * @return Waiting calls of all priority classes
+     */
+    public int getWaiting() {
+        lock.lock();
+        try {
+            int total = 0;
+            for (int count : waiting) {
+                total += count;
+            }
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of calls that had to wait for a limit so far
+     *
+     * @return Throttled calls
+     */
+    public long getThrottled() {
+        lock.lock();
+        try {
+            return throttled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public InputStream get(String path) throws StorageException {
+        return call(Priority.INTERACTIVE, parentOf(path), () -> delegate.get(path));
+    }
+
+    @Override
+    public InputStream get(String path, ReadOptions options) throws StorageException {
+        return call(Priority.INTERACTIVE, parentOf(path), () -> delegate.get(path, options));
+    }
+
+    @Override
+    public ReadableByteChannel getChannel(String path) throws StorageException {
+        return call(Priority.INTERACTIVE, parentOf(path), () -> delegate.getChannel(path));
+    }
+
+    @Override
+    public long writeTo(String path, WritableByteChannel target) throws StorageException {
+        return call(Priority.INTERACTIVE, parentOf(path), () -> delegate.writeTo(path, target));
+    }
+
+    @Override
+    public ByteBuffer readRange(String path, long offset, int length) throws StorageException {
+        return call(Priority.INTERACTIVE, parentOf(path), () -> delegate.readRange(path, offset, length));
+    }
+
+    @Override
+    public boolean put(String path, ReadableByteChannel content, long size) throws StorageException {
+        return call(Priority.INTERACTIVE, parentOf(path), () -> delegate.put(path, content, size));
+    }
+
+    @Override
+    public boolean put(String path, InputStream content, Map<String, String> metadata) throws StorageException {
+        return call(Priority.INTERACTIVE, parentOf(path), () -> delegate.put(path, content, metadata));
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return call(Priority.INTERACTIVE, parentOf(path), () -> delegate.exists(path));
+    }
+
+    @Override
+    public StorageEntry stat(String path) throws StorageException {
+        return call(Priority.INTERACTIVE, parentOf(path), () -> delegate.stat(path));
+    }
+
+    @Override
+    public boolean delete(String path) throws StorageException {
+        return call(Priority.INTERACTIVE, parentOf(path), () -> delegate.delete(path));
+    }
+
+    @Override
+    public List<String> listContents(String directory) {
+        return call(Priority.INTERACTIVE, directory, () -> delegate.listContents(directory));
+    }
+
+    @Override
+    public Stream<StorageEntry> list(String directory) {
+        return call(Priority.INTERACTIVE, directory, () -> delegate.list(directory));
+    }
+
+    @Override
+    public Stream<StorageEntry> listAll(String directory) {
+        return call(Priority.BACKGROUND, directory, () -> delegate.listAll(directory));
+    }
+
+    @Override
+    public long size(String path) throws StorageException {
+        return call(Priority.INTERACTIVE, parentOf(path), () -> delegate.size(path));
+    }
+
+    @Override
+    public boolean makeDirectory(String path) {
+        return call(Priority.INTERACTIVE, path, () -> delegate.makeDirectory(path));
+    }
+
+    @Override
+    public boolean deleteDirectory(String path) {
+        return call(Priority.BACKGROUND, path, () -> delegate.deleteDirectory(path));
+    }
+
+    @Override
+    public DeleteReport deleteDirectory(String path, LongConsumer progress) {
+        return call(Priority.BACKGROUND, path, () -> delegate.deleteDirectory(path, progress));
+    }
+
+    @Override
+    public long lastModified(String path) {
+        return call(Priority.INTERACTIVE, parentOf(path), () -> delegate.lastModified(path));
+    }
+
+    @Override
+    public boolean copy(String source, String destination) {
+        return call(Priority.BACKGROUND, parentOf(source), () -> delegate.copy(source, destination));
+    }
+
+    @Override
+    public boolean copyFrom(Storage source, String sourcePath, String destination) throws StorageException {
+        return call(Priority.BACKGROUND, parentOf(destination),
+                () -> delegate.copyFrom(source, sourcePath, destination));
+    }
+
+    @Override
+    public boolean move(String source, String destination) {
+        return call(Priority.BACKGROUND, parentOf(source), () -> delegate.move(source, destination));
+    }
+
+    @Override
+    public Map<String, BatchResult<Boolean>> deleteMany(Collection<String> paths) {
+        return call(Priority.BACKGROUND, null, () -> delegate.deleteMany(paths));
+    }
+
+    @Override
+    public Map<String, BatchResult<Boolean>> existsMany(Collection<String> paths) {
+        return call(Priority.BACKGROUND, null, () -> delegate.existsMany(paths));
+    }
+
+    @Override
+    public Map<String, BatchResult<Long>> sizeMany(Collection<String> paths) {
+        return call(Priority.BACKGROUND, null, () -> delegate.sizeMany(paths));
+    }
+
+    @Override
+    public Map<String, BatchResult<Boolean>> copyMany(Map<String, String> copies) {
+        return call(Priority.BACKGROUND, null, () -> delegate.copyMany(copies));
+    }
+
+    private <T> T call(Priority defaultPriority, String directory, Supplier<T> operation) {
+        Priority priority = PRIORITY.get();
+        acquire(priority != null ? priority : defaultPriority, prefixOf(directory));
+        try {
+            return operation.get();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Wait until the call may run: a slot is free, both buckets have a token and,
+     * for background calls, no interactive call is waiting for the same limit
+     */
+    private void acquire(Priority priority, String prefix) {
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            PrefixLimit prefixLimit = prefixLimit(prefix);
+            if (prefixLimit != null) {
+                prefixLimit.waiters++;
+            }
+            waiting[priority.ordinal()]++;
+            Limit blocked = null;
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    long wait = Long.MAX_VALUE;
+                    Limit limit;
+                    if (priority == Priority.BACKGROUND && interactiveOnDisk > 0) {
+                        limit = Limit.DISK;
+                    } else if (priority == Priority.BACKGROUND && prefixLimit != null
+                            && prefixLimit.interactiveWaiting > 0) {
+                        limit = Limit.PREFIX;
+                    } else if (maxInFlight > 0 && inFlight >= maxInFlight) {
+                        limit = Limit.SLOT;
+                    } else {
+                        long diskWait = diskBucket == null ? 0 : diskBucket.nanosUntilToken(now);
+                        long prefixWait = prefixLimit == null ? 0 : prefixLimit.bucket.nanosUntilToken(now);
+                        if (diskWait == 0 && prefixWait == 0) {
+                            if (diskBucket != null) {
+                                diskBucket.take();
+                            }
+                            if (prefixLimit != null) {
+                                prefixLimit.bucket.take();
+                            }
+                            inFlight++;
+                            return;
+                        }
+                        limit = diskWait >= prefixWait ? Limit.DISK : Limit.PREFIX;
+                        wait = Math.max(diskWait, prefixWait);
+                    }
+
+                    if (blocked == null) {
+                        throttled++;
+                    }
+                    if (limit != blocked) {
+                        track(priority, prefixLimit, blocked, -1);
+                        track(priority, prefixLimit, limit, 1);
+                        blocked = limit;
+                    }
+                    if (timeoutNanos > 0) {
+                        long remaining = start + timeoutNanos - now;
+                        if (remaining <= 0) {
+                            throw new StorageException("Timed out waiting for the rate limit of the disk");
+                        }
+                        wait = Math.min(wait, remaining);
+                    }
+
+                    Condition condition = limit == Limit.SLOT ? slotFreed
+                            : limit == Limit.DISK ? diskChanged : prefixLimit.changed;
+                    if (wait == Long.MAX_VALUE) {
+                        condition.await();
+                    } else {
+                        condition.awaitNanos(wait);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new StorageException("Interrupted while waiting for the rate limit of the disk", e);
+            } finally {
+                track(priority, prefixLimit, blocked, -1);
+                waiting[priority.ordinal()]--;
+                if (prefixLimit != null) {
+                    prefixLimit.waiters--;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Count an interactive call waiting for a limit, and let the background calls
+     * held back by that limit go once no interactive call waits for it any more.
+     * Must be called while holding the lock.
+     */
+    private void track(Priority priority, PrefixLimit prefixLimit, Limit limit, int delta) {
+        if (priority != Priority.INTERACTIVE || limit == null) {
+            return;
+        }
+        if (limit == Limit.PREFIX) {
+            prefixLimit.interactiveWaiting += delta;
+            if (prefixLimit.interactiveWaiting == 0) {
+                prefixLimit.changed.signalAll();
+            }
+        } else {
+            interactiveOnDisk += delta;
+            if (interactiveOnDisk == 0) {
+                diskChanged.signalAll();
+            }
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            slotFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private PrefixLimit prefixLimit(String prefix) {
+        if (prefixRate <= 0 || prefix == null) {
+            return null;
+        }
+        return prefixLimits.computeIfAbsent(prefix, key -> new PrefixLimit());
+    }
+
+    private String prefixOf(String directory) {
+        if (directory == null) {
+            return null;
+        }
+
+        int depth = 0;
+        int start = directory.startsWith("/") ? 1 : 0;
+        for (int i = start; i < directory.length(); i++) {
+            if (directory.charAt(i) == '/' && ++depth == prefixDepth) {
+                return directory.substring(start, i);
+            }
+        }
+        return directory.substring(start);
+    }
+
+    private static String parentOf(String path) {
+        int index = path.lastIndexOf('/');
+        return index < 0 ? "" : path.substring(0, index);
+    }
+
+    /**
+     * Token bucket refilled continuously. Not thread safe, used under the lock.
+     */
+    private static final class TokenBucket {
+        private final double tokensPerNano;
+        private final double capacity;
+        private double tokens;
+        private long refilled = System.nanoTime();
+
+        TokenBucket(double perSecond, double capacity) {
+            this.tokensPerNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = capacity;
+            this.tokens = capacity;
+        }
+
+        long nanosUntilToken(long now) {
+            if (now > refilled) {
+                tokens = Math.min(capacity, tokens + (now - refilled) * tokensPerNano);
+                refilled = now;
+            }
+            return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+        }
+
+        void take() {
+            tokens -= 1;
+        }
+    }
+
+    /**
+     * Rate limit of one prefix and the calls waiting for it. Used under the lock.
+     */
+    private final class PrefixLimit {
+        final TokenBucket bucket = new TokenBucket(prefixRate, prefixBurst);
+        final Condition changed = lock.newCondition();
+        int interactiveWaiting;
+        int waiters;
+    }
+}
@@ -0,0 +1,51 @@
+package com.teamx.disks;
+
+/**
+ * Per-call options for reading a file from storage.
+ * Values left at zero fall back to the defaults configured on the disk.
+ */
+public class ReadOptions {
+    private boolean parallel;
+    private long partSize;
+    private int concurrency;
+
+    public ReadOptions() {
+        // Default constructor
+    }
+
+    /**
+     * Options for a parallel ranged read using the disk defaults
+     *
+     * @return New options instance
+     */
+    public static ReadOptions parallel() {
+        return new ReadOptions().setParallel(true);
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public ReadOptions setParallel(boolean parallel) {
+        this.parallel = parallel;
+        return this;
+    }
+
+    public long getPartSize() {
+        return partSize;
+    }
+
+    public ReadOptions setPartSize(long partSize) {
+        this.partSize = partSize;
+        return this;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public ReadOptions setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+        return this;
+    }
+}
@@ -0,0 +1,505 @@
+package com.teamx.disks;
+
+import com.teamx.StorageException;
+import com.teamx.config.DiskConfig;
+import com.teamx.metrics.LatencyHistogram;
+import com.teamx.metrics.StorageOperation;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.FileSystemException;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Storage decorator that retries transient failures and hedges slow reads.
+ * <p>
+ * Throttling (429, 503 SlowDown), server errors and network errors are retried
+ * with exponential backoff and full jitter; errors such as a missing file or a
+ * denied request are not. Only idempotent operations are retried: move, writeTo
+ * and channel puts run once, and stream puts are retried only when the stream
+ * supports mark and reset, for at most the first retry_put_limit bytes.
+ * <p>
+ * With hedging enabled, get, readRange and the metadata reads (the GET and HEAD
+ * requests on S3) send a second request when the first has not answered after
+ * the configured quantile of recent latencies, and return whichever answers
+ * first. The result of the slower request is discarded. Hedged reads run on at
+ * most hedge_threads threads; when all of them are busy, reads run unhedged on
+ * the calling thread.
+ * <p>
+ * list and listAll retry opening the listing only. A failure while paging
+ * through the returned stream is not retried, as the entries already handed
+ * out cannot be taken back; callers list again from the start.
+ * <p>
+ * A deadline bounds the total time of an operation including its retries.
+ * Hedged reads stop waiting when it passes; other operations stop retrying,
+ * while a single attempt in progress is bounded by the timeouts of the disk.
+ * S3 disks built with resilient enabled use clients that do not retry on their
+ * own, so each attempt is a single request.
+ * <p>
+ * Options: retry_attempts (default 3), retry_base_delay (ms, default 50),
+ * retry_max_delay (ms, default 5000), deadline (ms, default none), hedge (default false),
+ * hedge_delay (ms, used until enough latencies are known, default 50),
+ * hedge_quantile (default 0.95), hedge_threads (default 64), retry_put_limit (size, default 8MB).
+ */
+public class ResilientStorage extends ForwardingStorage {
+    private static final int HEDGE_MIN_SAMPLES = 64;
+    private static final int HEDGE_WINDOW = 1024;
+    private static final int DEFAULT_HEDGE_THREADS = 64;
+
+    private final int maxAttempts;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+    private final long deadlineNanos;
+    private final long hedgeDelayNanos;
+    private final double hedgeQuantile;
+    private final int putRetryLimit;
+    private final Map<StorageOperation, LatencyWindow> latencies;
+    private final ExecutorService hedgeExecutor;
+    private final Semaphore hedgeSlots;
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+
+    /**
+     * Create a resilience decorator with configuration
+     *
+     * @param delegate Storage to protect
+     * @param config   Disk configuration
+     */
+    public ResilientStorage(Storage delegate, DiskConfig config) {
+        super(delegate);
+        this.maxAttempts = config.getIntOption("retry_attempts", 3);
+        this.baseDelayNanos = TimeUnit.MILLISECONDS.toNanos(config.getLongOption("retry_base_delay", 50));
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(config.getLongOption("retry_max_delay", 5_000));
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(config.getLongOption("deadline", 0));
+        this.hedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(config.getLongOption("hedge_delay", 50));
+        this.hedgeQuantile = Double.parseDouble(config.getOption("hedge_quantile", "0.95"));
+        this.putRetryLimit = (int) Math.min(Integer.MAX_VALUE, config.getSizeOption("retry_put_limit", 8L * 1024 * 1024));
+
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("Invalid retry attempts: " + maxAttempts);
+        }
+        if (baseDelayNanos < 0 || maxDelayNanos < baseDelayNanos || deadlineNanos < 0 || hedgeDelayNanos < 0) {
+            throw new IllegalArgumentException("Invalid retry delays or deadline");
+        }
+        if (hedgeQuantile <= 0 || hedgeQuantile > 1) {
+            throw new IllegalArgumentException("Invalid hedge quantile: " + hedgeQuantile);
+        }
+
+        if (Boolean.parseBoolean(config.getOption("hedge", "false"))) {
+            this.latencies = new EnumMap<>(StorageOperation.class);
+            for (StorageOperation operation : List.of(StorageOperation.GET, StorageOperation.READ_RANGE,
+                    StorageOperation.EXISTS, StorageOperation.STAT, StorageOperation.SIZE,
+                    StorageOperation.LAST_MODIFIED)) {
+                latencies.put(operation, new LatencyWindow());
+            }
+            int hedgeThreads = config.getIntOption("hedge_threads", DEFAULT_HEDGE_THREADS);
+            if (hedgeThreads <= 0) {
+                throw new IllegalArgumentException("Invalid hedge threads: " + hedgeThreads);
+            }
+            // Slots are taken before submitting, so the queue never holds more than the pool runs
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(hedgeThreads, hedgeThreads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), new DaemonThreadFactory("storage-hedge"));
+            executor.allowCoreThreadTimeOut(true);
+            this.hedgeExecutor = executor;
+            this.hedgeSlots = new Semaphore(hedgeThreads);
+        } else {
+            this.latencies = Map.of();
+            this.hedgeExecutor = null;
+            this.hedgeSlots = null;
+        }
+    }
+
+    /**
+     * Get the number of retries made so far
+     *
+     * @return Retries, not counting first attempts
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * Get the number of hedged requests sent so far
+     *
+     * @return Second requests sent for slow reads
+     */
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    @Override
+    public InputStream get(String path) throws StorageException {
+        return read(StorageOperation.GET, () -> delegate.get(path), ResilientStorage::closeQuietly);
+    }
+
+    @Override
+    public InputStream get(String path, ReadOptions options) throws StorageException {
+        return read(StorageOperation.GET, () -> delegate.get(path, options), ResilientStorage::closeQuietly);
+    }
+
+    @Override
+    public ReadableByteChannel getChannel(String path) throws StorageException {
+        return retry(deadline -> delegate.getChannel(path));
+    }
+
+    @Override
+    public ByteBuffer readRange(String path, long offset, int length) throws StorageException {
+        return read(StorageOperation.READ_RANGE, () -> delegate.readRange(path, offset, length), null);
+    }
+
+    @Override
+    public boolean put(String path, InputStream content, Map<String, String> metadata) throws StorageException {
+        if (!content.markSupported()) {
+            return delegate.put(path, content, metadata);
+        }
+
+        content.mark(putRetryLimit);
+        RuntimeException[] failure = {null};
+        return retry(deadline -> {
+            if (failure[0] != null) {
+                try {
+                    content.reset();
+                } catch (IOException e) {
+                    // More than the retry limit was read, the upload cannot be replayed
+                    failure[0].addSuppressed(e);
+                    throw new Unreplayable(failure[0]);
+                }
+            }
+            try {
+                return delegate.put(path, content, metadata);
+            } catch (RuntimeException e) {
+                failure[0] = e;
+                throw e;
+            }
+        });
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return read(StorageOperation.EXISTS, () -> delegate.exists(path), null);
+    }
+
+    @Override
+    public StorageEntry stat(String path) throws StorageException {
+        return read(StorageOperation.STAT, () -> delegate.stat(path), null);
+    }
+
+    @Override
+    public boolean delete(String path) throws StorageException {
+        return retry(deadline -> delegate.delete(path));
+    }
+
+    @Override
+    public List<String> listContents(String directory) {
+        return retry(deadline -> delegate.listContents(directory));
+    }
+
+    @Override
+    public Stream<StorageEntry> list(String directory) {
+        return retry(deadline -> delegate.list(directory));
+    }
+
+    @Override
+    public Stream<StorageEntry> listAll(String directory) {
+        return retry(deadline -> delegate.listAll(directory));
+    }
+
+    @Override
+    public long size(String path) throws StorageException {
+        return read(StorageOperation.SIZE, () -> delegate.size(path), null);
+    }
+
+    @Override
+    public boolean makeDirectory(String path) {
+        return retry(deadline -> delegate.makeDirectory(path));
+    }
+
+    @Override
+    public boolean deleteDirectory(String path) {
+        return retry(deadline -> delegate.deleteDirectory(path));
+    }
+
+    /**
+     * Retries when the delete fails as a whole; paths reported as failed are not retried
+     */
+    @Override
+    public DeleteReport deleteDirectory(String path, LongConsumer progress) {
+        return retry(deadline -> delegate.deleteDirectory(path, progress));
+    }
+
+    @Override
+    public long lastModified(String path) {
+        return read(StorageOperation.LAST_MODIFIED, () -> delegate.lastModified(path), null);
+    }
+
+    @Override
+    public boolean copy(String source, String destination) {
+        return retry(deadline -> delegate.copy(source, destination));
+    }
+
+    @Override
+    public boolean copyFrom(Storage source, String sourcePath, String destination) throws StorageException {
+        return retry(deadline -> delegate.copyFrom(source, sourcePath, destination));
+    }
+
+    @Override
+    public Map<String, BatchResult<Boolean>> deleteMany(Collection<String> paths) {
+        return retry(deadline -> delegate.deleteMany(paths));
+    }
+
+    @Override
+    public Map<String, BatchResult<Boolean>> existsMany(Collection<String> paths) {
+        return retry(deadline -> delegate.existsMany(paths));
+    }
+
+    @Override
+    public Map<String, BatchResult<Long>> sizeMany(Collection<String> paths) {
+        return retry(deadline -> delegate.sizeMany(paths));
+    }
+
+    @Override
+    public Map<String, BatchResult<Boolean>> copyMany(Map<String, String> copies) {
+        return retry(deadline -> delegate.copyMany(copies));
+    }
+
+    @Override
+    public void close() throws StorageException {
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdown();
+        }
+        super.close();
+    }
+
+    /**
+     * Check whether a failure is worth another attempt
+     *
+     * @param error Failure of an attempt
+     * @return true for throttling, server and network errors
+     */
+    static boolean isRetryable(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SdkServiceException) {
+                SdkServiceException service = (SdkServiceException) cause;
+                return service.isThrottlingException() || service.statusCode() == 429 || service.statusCode() >= 500;
+            }
+            if (cause instanceof SdkClientException) {
+                return true;
+            }
+            if (cause instanceof FileSystemException) {
+                return false;
+            }
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private <T> T read(StorageOperation operation, Supplier<T> call, Consumer<T> discard) {
+        if (hedgeExecutor == null) {
+            return retry(deadline -> call.get());
+        }
+        return retry(deadline -> hedged(latencies.get(operation), call, discard, deadline));
+    }
+
+    private <T> T retry(Attempt<T> attempt) {
+        long start = System.nanoTime();
+        long deadline = deadlineNanos > 0 ? start + deadlineNanos : Long.MAX_VALUE;
+
+        for (int attempts = 1; ; attempts++) {
+            try {
+                return attempt.run(deadline);
+            } catch (Unreplayable e) {
+                throw e.failure;
+            } catch (RuntimeException e) {
+                if (attempts >= maxAttempts || !isRetryable(e)) {
+                    throw e;
+                }
+
+                long backoff = backoff(attempts);
+                if (remaining(deadline) <= backoff) {
+                    throw new StorageException("Deadline exceeded after " + attempts + " attempts", e);
+                }
+                retries.increment();
+                sleep(backoff);
+            }
+        }
+    }
+
+    /**
+     * Full jitter: a random delay between zero and the exponential backoff
+     */
+    private long backoff(int attempts) {
+        long cap = attempts >= 63 ? maxDelayNanos : Math.min(maxDelayNanos, baseDelayNanos << (attempts - 1));
+        if (cap < 0) {
+            cap = maxDelayNanos;
+        }
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    private <T> T hedged(LatencyWindow window, Supplier<T> call, Consumer<T> discard, long deadline) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger running = new AtomicInteger(1);
+        if (!launch(window, call, discard, result, running)) {
+            // Every hedge thread is busy
+            return call.get();
+        }
+
+        try {
+            try {
+                return result.get(Math.min(window.delay, remaining(deadline)), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (remaining(deadline) > 0 && !result.isDone() && hedgeSlots.tryAcquire()) {
+                    running.incrementAndGet();
+                    hedges.increment();
+                    submit(window, call, discard, result, running);
+                }
+            }
+            return result.get(remaining(deadline), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            StorageException error = new StorageException("Deadline exceeded");
+            result.completeExceptionally(error);
+            throw error;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new StorageException("Read failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while waiting for a read", e);
+        }
+    }
+
+    private <T> boolean launch(LatencyWindow window, Supplier<T> call, Consumer<T> discard,
+                               CompletableFuture<T> result, AtomicInteger running) {
+        if (!hedgeSlots.tryAcquire()) {
+            return false;
+        }
+        submit(window, call, discard, result, running);
+        return true;
+    }
+
+    /**
+     * Run a request on a hedge thread; the caller holds a slot, released when the request ends
+     */
+    private <T> void submit(LatencyWindow window, Supplier<T> call, Consumer<T> discard,
+                            CompletableFuture<T> result, AtomicInteger running) {
+        try {
+            hedgeExecutor.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    T value = call.get();
+                    window.record(System.nanoTime() - start);
+                    if (!result.complete(value) && discard != null) {
+                        discard.accept(value);
+                    }
+                } catch (RuntimeException e) {
+                    if (running.decrementAndGet() == 0) {
+                        result.completeExceptionally(e);
+                    }
+                } finally {
+                    hedgeSlots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            hedgeSlots.release();
+            throw new StorageException("Storage is closed", e);
+        }
+    }
+
+    private static long remaining(long deadline) {
+        if (deadline == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, deadline - System.nanoTime());
+    }
+
+    private static void sleep(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while waiting to retry", e);
+        }
+    }
+
+    private static void closeQuietly(InputStream content) {
+        try {
+            content.close();
+        } catch (IOException e) {
+            // The losing request of a hedge, nobody reads it
+        }
+    }
+
+    /**
+     * Failure of an attempt that cannot be retried, carrying the error to report
+     */
+    private static final class Unreplayable extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final RuntimeException failure;
+
+        Unreplayable(RuntimeException failure) {
+            super(null, null, false, false);
+            this.failure = failure;
+        }
+    }
+
+    /**
+     * One attempt of an operation, given the deadline of the whole operation in
+     * {@link System#nanoTime()} terms
+     */
+    @FunctionalInterface
+    private interface Attempt<T> {
+        T run(long deadline);
+    }
+
+    /**
+     * Recent latencies of successful reads of one operation. The hedge delay is
+     * recomputed every few samples, and the window starts over regularly so it
+     * follows changes in the latency of the disk.
+     */
+    private final class LatencyWindow {
+        private final AtomicInteger samples = new AtomicInteger();
+        private volatile LatencyHistogram histogram = new LatencyHistogram();
+        volatile long delay = hedgeDelayNanos;
+
+        void record(long nanos) {
+            LatencyHistogram current = histogram;
+            current.record(nanos);
+
+            int count = samples.incrementAndGet();
+            if (count % HEDGE_MIN_SAMPLES == 0) {
+                delay = current.snapshot().getValueAtQuantile(hedgeQuantile);
+                if (count >= HEDGE_WINDOW) {
+                    histogram = new LatencyHistogram();
+                    samples.set(0);
+                }
+            }
+        }
+    }
+}
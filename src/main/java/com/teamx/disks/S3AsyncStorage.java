@@ -0,0 +1,193 @@
+package com.teamx.disks;
+
+import com.teamx.StorageException;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+/**
+ * Native non-blocking view of an S3 disk built on S3AsyncClient.
+ * Requests are in flight on the Netty event loop, no thread is held per operation.
+ */
+class S3AsyncStorage implements AsyncStorage {
+    private final S3AsyncClient s3Client;
+    private final String bucket;
+    private final Function<String, String> prefixPath;
+    private final Function<String, String> removePrefix;
+    private final ExecutorService uploadExecutor;
+
+    /**
+     * @param s3Client       Async S3 client
+     * @param bucket         S3 bucket name
+     * @param prefixPath     Maps a disk path to an object key
+     * @param removePrefix   Maps an object key back to a disk path
+     * @param uploadExecutor Executor draining caller supplied InputStreams on put
+     */
+    S3AsyncStorage(S3AsyncClient s3Client, String bucket, Function<String, String> prefixPath,
+                   Function<String, String> removePrefix, ExecutorService uploadExecutor) {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.prefixPath = prefixPath;
+        this.removePrefix = removePrefix;
+        this.uploadExecutor = uploadExecutor;
+    }
+
+    @Override
+    public CompletableFuture<InputStream> get(String path) {
+        GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(prefixPath.apply(path))
+                .build();
+
+        return s3Client.getObject(request, AsyncResponseTransformer.<GetObjectResponse>toBlockingInputStream())
+                .<InputStream>thenApply(stream -> stream)
+                .exceptionally(e -> {
+                    throw translate(e, "Could not retrieve file from S3: " + path, path);
+                });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> put(String path, InputStream content, Map<String, String> metadata) {
+        PutObjectRequest.Builder requestBuilder = PutObjectRequest.builder()
+                .bucket(bucket)
+                .key(prefixPath.apply(path));
+
+        if (metadata != null && !metadata.isEmpty()) {
+            requestBuilder.metadata(metadata);
+        }
+
+        // Unknown length: the multipart-enabled client splits the stream into parts
+        AsyncRequestBody body = AsyncRequestBody.fromInputStream(content, null, uploadExecutor);
+
+        return s3Client.putObject(requestBuilder.build(), body)
+                .thenApply(response -> true)
+                .exceptionally(e -> {
+                    throw translate(e, "Could not upload file to S3: " + path, null);
+                });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> exists(String path) {
+        return s3Client.headObject(headRequest(path))
+                .thenApply(response -> true)
+                .exceptionally(e -> {
+                    if (unwrap(e) instanceof NoSuchKeyException) {
+                        return false;
+                    }
+                    throw translate(e, "Could not check if file exists on S3: " + path, null);
+                });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> delete(String path) {
+        DeleteObjectRequest request = DeleteObjectRequest.builder()
+                .bucket(bucket)
+                .key(prefixPath.apply(path))
+                .build();
+
+        return s3Client.deleteObject(request)
+                .thenApply(response -> true)
+                .exceptionally(e -> {
+                    throw translate(e, "Could not delete file from S3: " + path, null);
+                });
+    }
+
+    @Override
+    public CompletableFuture<Long> size(String path) {
+        return s3Client.headObject(headRequest(path))
+                .thenApply(HeadObjectResponse::contentLength)
+                .exceptionally(e -> {
+                    throw translate(e, "Could not get file size from S3: " + path, path);
+                });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> copy(String source, String destination) {
+        CopyObjectRequest request = CopyObjectRequest.builder()
+                .sourceBucket(bucket)
+                .sourceKey(prefixPath.apply(source))
+                .destinationBucket(bucket)
+                .destinationKey(prefixPath.apply(destination))
+                .build();
+
+        return s3Client.copyObject(request)
+                .thenApply(response -> true)
+                .exceptionally(e -> {
+                    if (unwrap(e) instanceof NoSuchKeyException) {
+                        throw new CompletionException(new StorageException("Source file not found: " + source));
+                    }
+                    throw translate(e, "Could not copy file in S3: " + source, null);
+                });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> move(String source, String destination) {
+        // Copy then delete
+        return copy(source, destination).thenCompose(copied -> delete(source));
+    }
+
+    @Override
+    public CompletableFuture<List<String>> listContents(String directory) {
+        String prefix = prefixPath.apply(directory);
+        if (!prefix.endsWith("/") && !prefix.isEmpty()) {
+            prefix += "/";
+        }
+
+        ListObjectsV2Request request = ListObjectsV2Request.builder()
+                .bucket(bucket)
+                .prefix(prefix)
+                .build();
+
+        List<String> paths = Collections.synchronizedList(new ArrayList<>());
+        return s3Client.listObjectsV2Paginator(request)
+                .contents()
+                .subscribe(object -> paths.add(removePrefix.apply(object.key())))
+                .thenApply(done -> (List<String>) new ArrayList<>(paths))
+                .exceptionally(e -> {
+                    throw translate(e, "Could not list objects in S3: " + directory, null);
+                });
+    }
+
+    private HeadObjectRequest headRequest(String path) {
+        return HeadObjectRequest.builder()
+                .bucket(bucket)
+                .key(prefixPath.apply(path))
+                .build();
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        while (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e;
+    }
+
+    /**
+     * Map an SDK failure to a StorageException wrapped for rethrowing from a stage
+     *
+     * @param e        Failure
+     * @param message  Message for unexpected failures
+     * @param notFound Path reported as missing on NoSuchKey, or null to treat it as any other error
+     */
+    private static CompletionException translate(Throwable e, String message, String notFound) {
+        Throwable cause = unwrap(e);
+        if (cause instanceof StorageException) {
+            return new CompletionException(cause);
+        }
+        if (notFound != null && cause instanceof NoSuchKeyException) {
+            return new CompletionException(new StorageException("File not found: " + notFound));
+        }
+        return new CompletionException(new StorageException(message, cause));
+    }
+}
@@ -0,0 +1,283 @@
+package com.teamx.disks;
+
+import com.teamx.config.DiskConfig;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.awscore.retry.AwsRetryStrategy;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reference-counted S3 clients shared by the disks of one process.
+ * <p>
+ * Disks with the same region, endpoint, credentials and HTTP settings get the
+ * same client and therefore the same connection pool, so warm connections and
+ * TLS sessions are reused across buckets and prefixes. A client is closed when
+ * the last disk using it releases its lease.
+ * <p>
+ * HTTP options: max_connections (default 50), connection_timeout (ms, default 2000),
+ * socket_timeout (ms, default 30000), connection_acquisition_timeout (ms, default 10000),
+ * connection_max_idle (ms, default 60000), connection_ttl (ms, default unlimited),
+ * tcp_keep_alive (default false). Connection options: region, endpoint, path_style, key, secret.
+ * Disks with resilient enabled get clients without SDK retries, so every retry is
+ * made, counted and bounded by the {@link ResilientStorage} decorator.
+ */
+final class S3ClientPool {
+    private static final S3ClientPool SHARED = new S3ClientPool();
+
+    private final Map<Settings, Shared> clients = new HashMap<>();
+
+    static S3ClientPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Get a lease on the client for a disk configuration, creating it if needed
+     *
+     * @param config Disk configuration
+     * @return Lease to release when the disk is closed
+     */
+    Lease acquire(DiskConfig config) {
+        Settings settings = new Settings(config);
+        synchronized (clients) {
+            Shared shared = clients.get(settings);
+            if (shared == null) {
+                shared = new Shared(settings, buildClient(settings));
+                clients.put(settings, shared);
+            }
+            shared.references++;
+            return new Lease(shared);
+        }
+    }
+
+    /**
+     * Get the number of distinct clients currently open
+     */
+    int size() {
+        synchronized (clients) {
+            return clients.size();
+        }
+    }
+
+    private void release(Shared shared) {
+        synchronized (clients) {
+            if (--shared.references > 0) {
+                return;
+            }
+            clients.remove(shared.settings);
+        }
+        shared.close();
+    }
+
+    private static S3Client buildClient(Settings settings) {
+        ApacheHttpClient.Builder http = ApacheHttpClient.builder()
+                .maxConnections(settings.maxConnections)
+                .connectionTimeout(Duration.ofMillis(settings.connectionTimeout))
+                .socketTimeout(Duration.ofMillis(settings.socketTimeout))
+                .connectionAcquisitionTimeout(Duration.ofMillis(settings.acquisitionTimeout))
+                .connectionMaxIdleTime(Duration.ofMillis(settings.maxIdle))
+                .tcpKeepAlive(settings.tcpKeepAlive);
+        if (settings.ttl > 0) {
+            http.connectionTimeToLive(Duration.ofMillis(settings.ttl));
+        }
+
+        S3ClientBuilder builder = S3Client.builder()
+                .region(Region.of(settings.region))
+                .httpClientBuilder(http)
+                .forcePathStyle(settings.pathStyle);
+        if (!settings.sdkRetries) {
+            builder.overrideConfiguration(override -> override.retryStrategy(AwsRetryStrategy.doNotRetry()));
+        }
+        if (!settings.endpoint.isEmpty()) {
+            builder.endpointOverride(URI.create(settings.endpoint));
+        }
+
+        AwsCredentialsProvider credentials = settings.credentialsProvider();
+        if (credentials != null) {
+            builder.credentialsProvider(credentials);
+        }
+        return builder.build();
+    }
+
+    private static S3AsyncClient buildAsyncClient(Settings settings) {
+        NettyNioAsyncHttpClient.Builder http = NettyNioAsyncHttpClient.builder()
+                .maxConcurrency(settings.maxConnections)
+                .connectionTimeout(Duration.ofMillis(settings.connectionTimeout))
+                .readTimeout(Duration.ofMillis(settings.socketTimeout))
+                .writeTimeout(Duration.ofMillis(settings.socketTimeout))
+                .connectionAcquisitionTimeout(Duration.ofMillis(settings.acquisitionTimeout))
+                .connectionMaxIdleTime(Duration.ofMillis(settings.maxIdle))
+                .tcpKeepAlive(settings.tcpKeepAlive);
+        if (settings.ttl > 0) {
+            http.connectionTimeToLive(Duration.ofMillis(settings.ttl));
+        }
+
+        S3AsyncClientBuilder builder = S3AsyncClient.builder()
+                .region(Region.of(settings.region))
+                .httpClientBuilder(http)
+                .forcePathStyle(settings.pathStyle)
+                .multipartEnabled(true);
+        if (!settings.sdkRetries) {
+            builder.overrideConfiguration(override -> override.retryStrategy(AwsRetryStrategy.doNotRetry()));
+        }
+        if (!settings.endpoint.isEmpty()) {
+            builder.endpointOverride(URI.create(settings.endpoint));
+        }
+
+        AwsCredentialsProvider credentials = settings.credentialsProvider();
+        if (credentials != null) {
+            builder.credentialsProvider(credentials);
+        }
+        return builder.build();
+    }
+
+    /**
+     * A disk's hold on a shared client. Releasing twice has no effect.
+     */
+    final class Lease {
+        private final Shared shared;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(Shared shared) {
+            this.shared = shared;
+        }
+
+        S3Client client() {
+            return shared.client;
+        }
+
+        /**
+         * Get the shared async client, created on first use
+         */
+        S3AsyncClient asyncClient() {
+            return shared.asyncClient();
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                S3ClientPool.this.release(shared);
+            }
+        }
+    }
+
+    private static final class Shared {
+        final Settings settings;
+        final S3Client client;
+        S3AsyncClient asyncClient;
+        int references;
+        private boolean closed;
+
+        Shared(Settings settings, S3Client client) {
+            this.settings = settings;
+            this.client = client;
+        }
+
+        synchronized S3AsyncClient asyncClient() {
+            if (closed) {
+                // Reached through a lease kept after its release
+                throw new IllegalStateException("S3 client is closed");
+            }
+            if (asyncClient == null) {
+                asyncClient = buildAsyncClient(settings);
+            }
+            return asyncClient;
+        }
+
+        synchronized void close() {
+            closed = true;
+            client.close();
+            if (asyncClient != null) {
+                asyncClient.close();
+            }
+        }
+    }
+
+    /**
+     * Everything that goes into building a client; equal settings share a client
+     */
+    private static final class Settings {
+        final String region;
+        final String endpoint;
+        final boolean pathStyle;
+        final String accessKey;
+        final String secretKey;
+        final int maxConnections;
+        final long connectionTimeout;
+        final long socketTimeout;
+        final long acquisitionTimeout;
+        final long maxIdle;
+        final long ttl;
+        final boolean tcpKeepAlive;
+        final boolean sdkRetries;
+
+        Settings(DiskConfig config) {
+            this.region = config.getOption("region", "us-east-1");
+            this.endpoint = config.getOption("endpoint", "");
+            this.pathStyle = Boolean.parseBoolean(config.getOption("path_style", "false"));
+            this.accessKey = config.getOption("key");
+            this.secretKey = config.getOption("secret");
+            this.maxConnections = config.getIntOption("max_connections", 50);
+            this.connectionTimeout = config.getLongOption("connection_timeout", 2_000);
+            this.socketTimeout = config.getLongOption("socket_timeout", 30_000);
+            this.acquisitionTimeout = config.getLongOption("connection_acquisition_timeout", 10_000);
+            this.maxIdle = config.getLongOption("connection_max_idle", 60_000);
+            this.ttl = config.getLongOption("connection_ttl", -1);
+            this.tcpKeepAlive = Boolean.parseBoolean(config.getOption("tcp_keep_alive", "false"));
+            this.sdkRetries = !Boolean.parseBoolean(config.getOption("resilient", "false"));
+
+            if (maxConnections <= 0) {
+                throw new IllegalArgumentException("Invalid S3 max connections: " + maxConnections);
+            }
+        }
+
+        AwsCredentialsProvider credentialsProvider() {
+            if (accessKey == null || secretKey == null) {
+                return null;
+            }
+            return StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Settings)) {
+                return false;
+            }
+            Settings other = (Settings) o;
+            return pathStyle == other.pathStyle
+                    && maxConnections == other.maxConnections
+                    && connectionTimeout == other.connectionTimeout
+                    && socketTimeout == other.socketTimeout
+                    && acquisitionTimeout == other.acquisitionTimeout
+                    && maxIdle == other.maxIdle
+                    && ttl == other.ttl
+                    && tcpKeepAlive == other.tcpKeepAlive
+                    && sdkRetries == other.sdkRetries
+                    && region.equals(other.region)
+                    && endpoint.equals(other.endpoint)
+                    && Objects.equals(accessKey, other.accessKey)
+                    && Objects.equals(secretKey, other.secretKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(region, endpoint, pathStyle, accessKey, secretKey, maxConnections,
+                    connectionTimeout, socketTimeout, acquisitionTimeout, maxIdle, ttl, tcpKeepAlive, sdkRetries);
+        }
+    }
+}
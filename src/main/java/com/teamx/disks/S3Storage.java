@@ -1,70 +1,183 @@
 package com.teamx.disks;
 
+import com.teamx.StorageDisk;
 import com.teamx.StorageException;
 import com.teamx.config.DiskConfig;
-import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
-import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.S3ClientBuilder;
 import software.amazon.awssdk.services.s3.model.*;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Implementation of Storage interface for Amazon S3
  */
 public class S3Storage implements Storage {
+    private static final int DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+    private static final int DEFAULT_UPLOAD_CONCURRENCY = 4;
+    private static final int DEFAULT_DOWNLOAD_CONCURRENCY = 4;
+    private static final int DEFAULT_BATCH_CONCURRENCY = 8;
+    private static final int DELETE_BATCH_SIZE = 1000;
+    private static final long DEFAULT_COPY_PART_SIZE = 64L * 1024 * 1024;
+    private static final int DEFAULT_COPY_CONCURRENCY = 8;
+    /**
+     * S3 rejects a single CopyObject request above 5 GB
+     */
+    private static final long MAX_SINGLE_COPY_SIZE = 5L * 1024 * 1024 * 1024;
+
     private final S3Client s3Client;
     private final String bucket;
     private final String baseUrl;
     private final String prefix;
+    private final ExecutorService executor = Executors.newCachedThreadPool(new DaemonThreadFactory("s3-transfer"));
+    private final MultipartUploader uploader;
+    private final MultipartCopier copier;
+    private final long copyThreshold;
+    private final boolean serverSideCopy;
+    private final PartBufferPool downloadPool;
+    private final int downloadConcurrency;
+    private final boolean parallelDownload;
+    private final int batchConcurrency;
+    private final Supplier<S3AsyncClient> asyncClientFactory;
+    private final S3ClientPool.Lease lease;
+    private volatile AsyncStorage asyncView;
 
     /**
-     * Create an S3Storage instance with configuration
+     * Create an S3Storage instance with configuration. The S3 client comes from
+     * a pool shared by all disks with the same connection settings.
      *
      * @param config Disk configuration
      */
     public S3Storage(DiskConfig config) {
-        String accessKey = config.getOption("key");
-        String secretKey = config.getOption("secret");
-        String regionName = config.getOption("region", "us-east-1");
-        this.bucket = config.getOption("bucket");
-        this.prefix = config.getOption("prefix", "");
-        String url = config.getOption("url", "");
-
-        if (bucket == null || bucket.isEmpty()) {
-            throw new IllegalArgumentException("S3 bucket is required");
-        }
-
-        // Build the S3 client
-        S3ClientBuilder builder = S3Client.builder()
-                .region(Region.of(regionName));
-
-        if (accessKey != null && secretKey != null) {
-            AwsBasicCredentials credentials = AwsBasicCredentials.create(accessKey, secretKey);
-            builder.credentialsProvider(StaticCredentialsProvider.create(credentials));
-        }
-
-        this.s3Client = builder.build();
+        this(S3ClientPool.shared().acquire(config), config);
 
         // Verify bucket exists
         try {
             s3Client.headBucket(HeadBucketRequest.builder().bucket(bucket).build());
         } catch (NoSuchBucketException e) {
+            close();
             throw new IllegalArgumentException("S3 bucket does not exist: " + bucket);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
         }
+    }
+
+    /**
+     * Create an S3Storage instance with an existing client and configuration.
+     * Client related options (key, secret) are ignored. The client stays owned
+     * by the caller and is not closed by {@link #close()}.
+     *
+     * @param s3Client AWS S3 client
+     * @param config   Disk configuration
+     */
+    public S3Storage(S3Client s3Client, DiskConfig config) {
+        this(s3Client, null, null, config);
+    }
+
+    /**
+     * Create an S3Storage instance with existing sync and async clients and configuration.
+     * The async client backs {@link #async()}; it should be built with multipart support
+     * enabled so uploads of unknown length work. Both clients stay owned by the caller.
+     *
+     * @param s3Client      AWS S3 client
+     * @param s3AsyncClient AWS S3 async client
+     * @param config        Disk configuration
+     */
+    public S3Storage(S3Client s3Client, S3AsyncClient s3AsyncClient, DiskConfig config) {
+        this(s3Client, () -> s3AsyncClient, null, config);
+    }
+
+    private S3Storage(S3ClientPool.Lease lease, DiskConfig config) {
+        this(lease.client(), lease::asyncClient, lease, config);
+    }
+
+    private S3Storage(S3Client s3Client, Supplier<S3AsyncClient> asyncClientFactory, S3ClientPool.Lease lease,
+                      DiskConfig config) {
+        // A disk that fails to configure never gets closed, so it gives its lease back here
+        try {
+            String bucket = config.getOption("bucket");
+            if (bucket == null || bucket.isEmpty()) {
+                throw new IllegalArgumentException("S3 bucket is required");
+            }
+
+            String prefix = config.getOption("prefix", "");
+            String regionName = config.getOption("region", "");
+            String url = config.getOption("url", "");
+
+            this.s3Client = s3Client;
+            this.asyncClientFactory = asyncClientFactory;
+            this.lease = lease;
+            this.bucket = bucket;
+            this.prefix = prefix.endsWith("/") ? prefix : (prefix.isEmpty() ? "" : prefix + "/");
+
+            if (!url.isEmpty()) {
+                this.baseUrl = url.endsWith("/") ? url : url + "/";
+            } else if (!regionName.isEmpty()) {
+                this.baseUrl = "https://" + bucket + ".s3." + regionName + ".amazonaws.com/";
+            } else {
+                this.baseUrl = "https://" + bucket + ".s3.amazonaws.com/";
+            }
 
-        this.baseUrl = url.isEmpty()
-                ? "https://" + bucket + ".s3." + regionName + ".amazonaws.com/"
-                : (url.endsWith("/") ? url : url + "/");
+            long partSize = config.getSizeOption("part_size", DEFAULT_PART_SIZE);
+            if (partSize < MultipartUploader.MIN_PART_SIZE || partSize > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Invalid S3 part size: " + partSize);
+            }
+            int concurrency = config.getIntOption("upload_concurrency", DEFAULT_UPLOAD_CONCURRENCY);
+
+            this.uploader = new MultipartUploader(s3Client, bucket,
+                    new PartBufferPool((int) partSize, concurrency), concurrency, executor);
+
+            long downloadPartSize = config.getSizeOption("download_part_size", DEFAULT_PART_SIZE);
+            if (downloadPartSize <= 0 || downloadPartSize > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Invalid S3 download part size: " + downloadPartSize);
+            }
+            this.downloadConcurrency = config.getIntOption("download_concurrency", DEFAULT_DOWNLOAD_CONCURRENCY);
+            this.downloadPool = new PartBufferPool((int) downloadPartSize, downloadConcurrency + 1);
+            this.parallelDownload = Boolean.parseBoolean(config.getOption("parallel_download", "false"));
+            this.batchConcurrency = config.getIntOption("batch_concurrency", DEFAULT_BATCH_CONCURRENCY);
+
+            this.copyThreshold = Math.min(config.getSizeOption("copy_threshold", MAX_SINGLE_COPY_SIZE),
+                    MAX_SINGLE_COPY_SIZE);
+            long copyPartSize = config.getSizeOption("copy_part_size", DEFAULT_COPY_PART_SIZE);
+            if (copyPartSize < MultipartUploader.MIN_PART_SIZE || copyPartSize > MAX_SINGLE_COPY_SIZE) {
+                throw new IllegalArgumentException("Invalid S3 copy part size: " + copyPartSize);
+            }
+            this.copier = new MultipartCopier(s3Client, copyPartSize,
+                    config.getIntOption("copy_concurrency", DEFAULT_COPY_CONCURRENCY), executor);
+            this.serverSideCopy = Boolean.parseBoolean(config.getOption("server_side_copy", "true"));
+        } catch (RuntimeException e) {
+            executor.shutdown();
+            if (lease != null) {
+                lease.release();
+            }
+            throw e;
+        }
     }
 
     /**
@@ -86,16 +199,16 @@ public class S3Storage implements Storage {
      * @param baseUrl  Base URL for files
      */
     public S3Storage(S3Client s3Client, String bucket, String prefix, String baseUrl) {
-        this.s3Client = s3Client;
-        this.bucket = bucket;
-        this.prefix = prefix.endsWith("/") ? prefix : (prefix.isEmpty() ? "" : prefix + "/");
-        this.baseUrl = baseUrl.isEmpty()
-                ? "https://" + bucket + ".s3.amazonaws.com/"
-                : (baseUrl.endsWith("/") ? baseUrl : baseUrl + "/");
+        this(s3Client, new DiskConfig(StorageDisk.AWS_S3.value())
+                .setOptions(new HashMap<>(Map.of("bucket", bucket, "prefix", prefix, "url", baseUrl))));
     }
 
     @Override
     public InputStream get(String path) throws StorageException {
+        return parallelDownload ? get(path, ReadOptions.parallel()) : getSingle(path);
+    }
+
+    private InputStream getSingle(String path) {
         try {
             GetObjectRequest request = GetObjectRequest.builder()
                     .bucket(bucket)
@@ -111,22 +224,77 @@ public class S3Storage implements Storage {
         }
     }
 
+    /**
+     * Retrieves a file, optionally as concurrent ranged GETs.
+     * <p>
+     * A parallel read first sends a HEAD to learn the size and ETag. Objects no
+     * larger than one part are then fetched with a single GET, larger objects are
+     * fetched as byte ranges with a bounded read-ahead window.
+     */
     @Override
-    public boolean put(String path, InputStream content, Map<String, String> metadata) throws StorageException {
+    public InputStream get(String path, ReadOptions options) throws StorageException {
+        if (options == null || !options.isParallel()) {
+            return getSingle(path);
+        }
+
+        PartBufferPool pool = options.getPartSize() > 0 && options.getPartSize() != downloadPool.bufferSize()
+                ? new PartBufferPool((int) Math.min(options.getPartSize(), Integer.MAX_VALUE - 8), 0)
+                : downloadPool;
+        int concurrency = options.getConcurrency() > 0 ? options.getConcurrency() : downloadConcurrency;
+
         try {
-            // Build request with metadata if provided
-            PutObjectRequest.Builder requestBuilder = PutObjectRequest.builder()
+            HeadObjectResponse head = s3Client.headObject(HeadObjectRequest.builder()
                     .bucket(bucket)
-                    .key(prefixPath(path));
+                    .key(prefixPath(path))
+                    .build());
 
-            if (metadata != null && !metadata.isEmpty()) {
-                requestBuilder.metadata(metadata);
+            if (head.contentLength() <= pool.bufferSize()) {
+                return getSingle(path);
             }
 
-            // Convert InputStream to bytes for RequestBody
-            byte[] bytes = content.readAllBytes();
+            return new RangedInputStream(s3Client, bucket, prefixPath(path), head.eTag(),
+                    head.contentLength(), pool, concurrency, executor);
+        } catch (NoSuchKeyException e) {
+            throw new StorageException("File not found: " + path);
+        } catch (S3Exception e) {
+            throw new StorageException("Could not retrieve file from S3: " + path, e);
+        }
+    }
+
+    /**
+     * Reads the range with a single ranged GET
+     */
+    @Override
+    public ByteBuffer readRange(String path, long offset, int length) throws StorageException {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Offset and length must not be negative");
+        }
+        if (length == 0) {
+            return ByteBuffer.allocate(0).asReadOnlyBuffer();
+        }
+
+        try {
+            return s3Client.getObjectAsBytes(GetObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(prefixPath(path))
+                    .range("bytes=" + offset + "-" + (offset + length - 1))
+                    .build()).asByteBuffer();
+        } catch (NoSuchKeyException e) {
+            throw new StorageException("File not found: " + path);
+        } catch (S3Exception e) {
+            if (e.statusCode() == 416) {
+                // The offset lies at or beyond the end of the object
+                return ByteBuffer.allocate(0).asReadOnlyBuffer();
+            }
+            throw new StorageException("Could not read range of file from S3: " + path, e);
+        }
+    }
 
-            s3Client.putObject(requestBuilder.build(), RequestBody.fromBytes(bytes));
+    @Override
+    public boolean put(String path, InputStream content, Map<String, String> metadata) throws StorageException {
+        try {
+            // Small objects go out in a single PUT, large ones as a parallel multipart upload
+            uploader.upload(prefixPath(path), content, metadata);
             return true;
         } catch (S3Exception | IOException e) {
             throw new StorageException("Could not upload file to S3: " + path, e);
@@ -150,6 +318,26 @@ public class S3Storage implements Storage {
         }
     }
 
+    /**
+     * Reads size, last modified time and ETag with a single HEAD request
+     */
+    @Override
+    public StorageEntry stat(String path) throws StorageException {
+        try {
+            HeadObjectResponse response = s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(prefixPath(path))
+                    .build());
+
+            return new StorageEntry(path, response.contentLength(), response.lastModified().toEpochMilli(),
+                    false, response.eTag());
+        } catch (NoSuchKeyException e) {
+            return null;
+        } catch (S3Exception e) {
+            throw new StorageException("Could not get file metadata from S3: " + path, e);
+        }
+    }
+
     @Override
     public boolean delete(String path) throws StorageException {
         try {
@@ -173,27 +361,73 @@ public class S3Storage implements Storage {
     @Override
     public List<String> listContents(String directory) {
         try {
-            String prefix = prefixPath(directory);
-            if (!prefix.endsWith("/") && !prefix.isEmpty()) {
-                prefix += "/";
-            }
+            String prefix = directoryPrefix(directory);
+
+            ListObjectsV2Request request = ListObjectsV2Request.builder()
+                    .bucket(bucket)
+                    .prefix(prefix)
+                    .build();
 
-            ListObjectsV2Response response = s3Client.listObjectsV2(
-                    ListObjectsV2Request.builder()
-                            .bucket(bucket)
-                            .prefix(prefix)
-                            .build()
-            );
-
-            return response.contents().stream()
-                    .map(S3Object::key)
-                    .map(this::removePrefixFromPath)
-                    .collect(Collectors.toList());
+            // The paginator follows continuation tokens past the 1000 key page limit
+            List<String> paths = new ArrayList<>();
+            for (S3Object object : s3Client.listObjectsV2Paginator(request).contents()) {
+                paths.add(removePrefixFromPath(object.key()));
+            }
+            return paths;
         } catch (S3Exception e) {
             throw new StorageException("Could not list objects in S3: " + directory, e);
         }
     }
 
+    /**
+     * Lists the direct children of a directory, one ListObjectsV2 page at a time.
+     * Sub-directories are reported from the common prefixes of each page.
+     */
+    @Override
+    public Stream<StorageEntry> list(String directory) {
+        String prefix = directoryPrefix(directory);
+
+        ListObjectsV2Request request = ListObjectsV2Request.builder()
+                .bucket(bucket)
+                .prefix(prefix)
+                .delimiter("/")
+                .build();
+
+        Iterator<ListObjectsV2Response> pages = guard(s3Client.listObjectsV2Paginator(request).iterator(),
+                "Could not list objects in S3: " + directory);
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pages, Spliterator.ORDERED), false)
+                .flatMap(page -> Stream.concat(
+                        page.commonPrefixes().stream()
+                                .map(common -> StorageEntry.directory(trimSlash(removePrefixFromPath(common.prefix())), 0)),
+                        page.contents().stream()
+                                // Skip the directory marker of the listed directory itself
+                                .filter(object -> !object.key().equals(prefix))
+                                .map(this::toEntry)));
+    }
+
+    /**
+     * Lists every object below a directory from paginated ListObjectsV2 results.
+     * Size, last modified time and ETag come straight from the listing, and entries
+     * are returned in key order. Directory markers are reported as directories.
+     */
+    @Override
+    public Stream<StorageEntry> listAll(String directory) {
+        String prefix = directoryPrefix(directory);
+
+        ListObjectsV2Request request = ListObjectsV2Request.builder()
+                .bucket(bucket)
+                .prefix(prefix)
+                .build();
+
+        Iterator<S3Object> objects = guard(s3Client.listObjectsV2Paginator(request).contents().iterator(),
+                "Could not list objects in S3: " + directory);
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(objects, Spliterator.ORDERED), false)
+                .filter(object -> !object.key().equals(prefix))
+                .map(this::toEntry);
+    }
+
     @Override
     public long size(String path) throws StorageException {
         try {
@@ -232,54 +466,74 @@ public class S3Storage implements Storage {
 
     @Override
     public boolean deleteDirectory(String path) {
-        try {
-            String prefix = prefixPath(path);
-            if (!prefix.endsWith("/") && !prefix.isEmpty()) {
-                prefix += "/";
-            }
-
-            ListObjectsV2Request listRequest = ListObjectsV2Request.builder()
-                    .bucket(bucket)
-                    .prefix(prefix)
-                    .build();
-
-            ListObjectsV2Response listResponse;
-            do {
-                listResponse = s3Client.listObjectsV2(listRequest);
-
-                if (!listResponse.contents().isEmpty()) {
-                    List<ObjectIdentifier> objectIds = listResponse.contents().stream()
-                            .map(object -> ObjectIdentifier.builder().key(object.key()).build())
-                            .collect(Collectors.toList());
+        deleteDirectory(path, null).throwIfIncomplete(path);
+        return true;
+    }
 
-                    // Delete objects in batches of 1000 (S3 limit)
-                    for (int i = 0; i < objectIds.size(); i += 1000) {
-                        int end = Math.min(i + 1000, objectIds.size());
-                        List<ObjectIdentifier> batch = objectIds.subList(i, end);
+    /**
+     * Delete every object below a directory. Listing is pipelined with deletion:
+     * each page of up to 1000 keys becomes a DeleteObjects request on the
+     * transfer executor while the next page is listed, with up to
+     * batch_concurrency requests in flight. Keys that fail are reported instead
+     * of stopping the delete; a failed listing ends it with an exception once
+     * the requests already sent are done.
+     *
+     * @param path     Directory path
+     * @param progress Called with the number of objects deleted so far, every
+     *                 thousand objects and at the end, from worker threads; may be null
+     * @return Number of objects deleted and the paths that could not be deleted
+     */
+    @Override
+    public DeleteReport deleteDirectory(String path, LongConsumer progress) {
+        String prefix = prefixPath(path);
+        if (!prefix.endsWith("/") && !prefix.isEmpty()) {
+            prefix += "/";
+        }
 
-                        DeleteObjectsRequest deleteRequest = DeleteObjectsRequest.builder()
-                                .bucket(bucket)
-                                .delete(Delete.builder().objects(batch).build())
-                                .build();
+        ListObjectsV2Request request = ListObjectsV2Request.builder()
+                .bucket(bucket)
+                .prefix(prefix)
+                .build();
+        Iterator<ListObjectsV2Response> pages = guard(s3Client.listObjectsV2Paginator(request).iterator(),
+                "Could not list objects in S3: " + path);
 
-                        s3Client.deleteObjects(deleteRequest);
+        DeleteTracker tracker = new DeleteTracker(progress);
+        int concurrency = Math.max(1, batchConcurrency);
+        Semaphore inFlight = new Semaphore(concurrency);
+        try {
+            while (pages.hasNext()) {
+                List<String> paths = pages.next().contents().stream()
+                        .map(object -> removePrefixFromPath(object.key()))
+                        .collect(Collectors.toList());
+                for (int i = 0; i < paths.size(); i += DELETE_BATCH_SIZE) {
+                    List<String> chunk = paths.subList(i, Math.min(i + DELETE_BATCH_SIZE, paths.size()));
+                    inFlight.acquire();
+                    try {
+                        executor.execute(() -> {
+                            try {
+                                tracker.record(deleteChunk(chunk));
+                            } catch (RuntimeException e) {
+                                StorageException error = e instanceof StorageException ? (StorageException) e
+                                        : new StorageException("Could not delete files from S3", e);
+                                chunk.forEach(failed -> tracker.failed(failed, error));
+                            } finally {
+                                inFlight.release();
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        inFlight.release();
+                        throw new StorageException("Could not schedule delete: " + path, e);
                     }
                 }
-
-                // Continue if there are more objects
-                String continuationToken = listResponse.nextContinuationToken();
-                if (continuationToken != null) {
-                    listRequest = listRequest.toBuilder()
-                            .continuationToken(continuationToken)
-                            .build();
-                }
-
-            } while (listResponse.isTruncated());
-
-            return true;
-        } catch (S3Exception e) {
-            throw new StorageException("Could not delete directory from S3: " + path, e);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while deleting directory: " + path, e);
+        } finally {
+            // Wait for the requests already sent
+            inFlight.acquireUninterruptibly(concurrency);
         }
+        return tracker.finish();
     }
 
     @Override
@@ -300,17 +554,68 @@ public class S3Storage implements Storage {
         }
     }
 
+    /**
+     * Copies on the server side with a single CopyObject request. Objects over
+     * the 5 GB limit of CopyObject are rejected by S3 and then copied as a
+     * multipart upload of parallel UploadPartCopy requests. A copy_threshold below
+     * 5 GB sends a HEAD first to copy objects above it in parallel as well.
+     */
     @Override
     public boolean copy(String source, String destination) {
+        return copyObject(bucket, prefixPath(source), source, destination);
+    }
+
+    /**
+     * Copies from another S3 disk on the server side, also across buckets, when
+     * server_side_copy is enabled and both disks use the same client, so they
+     * reach the same service with the same credentials. Pooled disks share a
+     * client when their connection settings are equal. The copy runs on this
+     * disk only and bypasses the decorators of the source disk. Other disks,
+     * including S3 disks on another endpoint or account, are streamed.
+     */
+    @Override
+    public boolean copyFrom(Storage source, String sourcePath, String destination) throws StorageException {
+        Storage origin = ForwardingStorage.unwrap(source);
+        if (origin == this) {
+            return copy(sourcePath, destination);
+        }
+        if (serverSideCopy && origin instanceof S3Storage && ((S3Storage) origin).s3Client == s3Client) {
+            S3Storage other = (S3Storage) origin;
+            return copyObject(other.bucket, other.prefixPath(sourcePath), sourcePath, destination);
+        }
+        return Storage.super.copyFrom(source, sourcePath, destination);
+    }
+
+    private boolean copyObject(String sourceBucket, String sourceKey, String source, String destination) {
         try {
-            CopyObjectRequest request = CopyObjectRequest.builder()
-                    .sourceBucket(bucket)
-                    .sourceKey(prefixPath(source))
-                    .destinationBucket(bucket)
-                    .destinationKey(prefixPath(destination))
-                    .build();
+            if (copyThreshold < MAX_SINGLE_COPY_SIZE) {
+                HeadObjectResponse head = s3Client.headObject(HeadObjectRequest.builder()
+                        .bucket(sourceBucket)
+                        .key(sourceKey)
+                        .build());
+                if (head.contentLength() > copyThreshold) {
+                    copier.copy(sourceBucket, sourceKey, head, bucket, prefixPath(destination));
+                    return true;
+                }
+            }
 
-            s3Client.copyObject(request);
+            try {
+                s3Client.copyObject(CopyObjectRequest.builder()
+                        .sourceBucket(sourceBucket)
+                        .sourceKey(sourceKey)
+                        .destinationBucket(bucket)
+                        .destinationKey(prefixPath(destination))
+                        .build());
+            } catch (S3Exception e) {
+                if (!isCopySourceTooLarge(e)) {
+                    throw e;
+                }
+                HeadObjectResponse head = s3Client.headObject(HeadObjectRequest.builder()
+                        .bucket(sourceBucket)
+                        .key(sourceKey)
+                        .build());
+                copier.copy(sourceBucket, sourceKey, head, bucket, prefixPath(destination));
+            }
             return true;
         } catch (NoSuchKeyException e) {
             throw new StorageException("Source file not found: " + source);
@@ -319,16 +624,214 @@ public class S3Storage implements Storage {
         }
     }
 
+    /**
+     * S3 answers a CopyObject over 5 GB with EntityTooLarge, or with InvalidRequest
+     * naming the maximum size of a copy source
+     */
+    private static boolean isCopySourceTooLarge(S3Exception e) {
+        if (e.statusCode() != 400 || e.awsErrorDetails() == null) {
+            return false;
+        }
+        String code = e.awsErrorDetails().errorCode();
+        String message = e.awsErrorDetails().errorMessage();
+        return "EntityTooLarge".equals(code)
+                || "InvalidRequest".equals(code) && message != null && message.contains("maximum allowable size");
+    }
+
+    /**
+     * S3 has no rename, so a move is a copy followed by a delete of the source.
+     * If the copy fails nothing changed; if the delete fails both objects exist
+     * and the error says so.
+     */
     @Override
     public boolean move(String source, String destination) {
         try {
-            // Copy then delete
             copy(source, destination);
-            delete(source);
-            return true;
         } catch (StorageException e) {
             throw new StorageException("Could not move file in S3: " + e.getMessage(), e);
         }
+
+        try {
+            delete(source);
+        } catch (StorageException e) {
+            throw new StorageException("Copied " + source + " to " + destination
+                    + " but could not delete the source: " + e.getMessage(), e);
+        }
+        return true;
+    }
+
+    /**
+     * Deletes many objects with DeleteObjects requests of up to 1000 keys each,
+     * sending up to batch_concurrency requests at a time.
+     */
+    @Override
+    public Map<String, BatchResult<Boolean>> deleteMany(Collection<String> paths) {
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(paths));
+        List<List<String>> chunks = new ArrayList<>();
+        for (int i = 0; i < distinct.size(); i += DELETE_BATCH_SIZE) {
+            chunks.add(distinct.subList(i, Math.min(i + DELETE_BATCH_SIZE, distinct.size())));
+        }
+
+        Map<String, BatchResult<Boolean>> completed = new ConcurrentHashMap<>();
+        Map<List<String>, BatchResult<Void>> chunkResults = Batches.parallel(chunks, chunk -> {
+            completed.putAll(deleteChunk(chunk));
+            return null;
+        }, executor, batchConcurrency);
+
+        // A failed request fails every key it carried
+        chunkResults.forEach((chunk, result) -> {
+            if (!result.isSuccess()) {
+                chunk.forEach(path -> completed.put(path, BatchResult.failure(result.getError())));
+            }
+        });
+
+        Map<String, BatchResult<Boolean>> results = new LinkedHashMap<>();
+        for (String path : paths) {
+            results.put(path, completed.get(path));
+        }
+        return results;
+    }
+
+    @Override
+    public Map<String, BatchResult<Boolean>> existsMany(Collection<String> paths) {
+        return Batches.parallel(paths, this::exists, executor, batchConcurrency);
+    }
+
+    @Override
+    public Map<String, BatchResult<Long>> sizeMany(Collection<String> paths) {
+        return Batches.parallel(paths, this::size, executor, batchConcurrency);
+    }
+
+    @Override
+    public Map<String, BatchResult<Boolean>> copyMany(Map<String, String> copies) {
+        return Batches.parallel(copies.keySet(), source -> copy(source, copies.get(source)),
+                executor, batchConcurrency);
+    }
+
+    /**
+     * Delete up to 1000 paths with a single DeleteObjects request
+     *
+     * @param paths Paths to delete
+     * @return Result per path
+     */
+    private Map<String, BatchResult<Boolean>> deleteChunk(List<String> paths) {
+        Map<String, String> pathsByKey = new HashMap<>();
+        List<ObjectIdentifier> objectIds = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            String key = prefixPath(path);
+            pathsByKey.put(key, path);
+            objectIds.add(ObjectIdentifier.builder().key(key).build());
+        }
+
+        DeleteObjectsResponse response;
+        try {
+            response = s3Client.deleteObjects(DeleteObjectsRequest.builder()
+                    .bucket(bucket)
+                    .delete(Delete.builder().objects(objectIds).quiet(true).build())
+                    .build());
+        } catch (S3Exception e) {
+            throw new StorageException("Could not delete files from S3", e);
+        }
+
+        Map<String, BatchResult<Boolean>> results = new HashMap<>();
+        for (String path : paths) {
+            results.put(path, BatchResult.success(true));
+        }
+        // Quiet mode only reports the keys that failed
+        for (S3Error error : response.errors()) {
+            String path = pathsByKey.getOrDefault(error.key(), error.key());
+            results.put(path, BatchResult.failure(new StorageException(
+                    "Could not delete file from S3: " + path + " (" + error.code() + ": " + error.message() + ")")));
+        }
+        return results;
+    }
+
+    /**
+     * Non-blocking view of this disk. Backed by S3AsyncClient when one is available,
+     * otherwise the blocking calls run on the shared storage executor.
+     */
+    @Override
+    public AsyncStorage async() {
+        AsyncStorage view = asyncView;
+        if (view == null) {
+            synchronized (this) {
+                view = asyncView;
+                if (view == null) {
+                    view = asyncClientFactory != null
+                            ? new S3AsyncStorage(asyncClientFactory.get(), bucket, this::prefixPath,
+                                    this::removePrefixFromPath, executor)
+                            : Storage.super.async();
+                    asyncView = view;
+                }
+            }
+        }
+        return view;
+    }
+
+    /**
+     * Stops the transfer threads and releases the pooled S3 clients, which are
+     * closed once no other disk uses them. Clients passed in by the caller are
+     * left open.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        if (lease != null) {
+            lease.release();
+        }
+    }
+
+    /**
+     * Build an entry from a listed object
+     */
+    private StorageEntry toEntry(S3Object object) {
+        String path = removePrefixFromPath(object.key());
+        long lastModified = object.lastModified() != null ? object.lastModified().toEpochMilli() : 0;
+
+        if (path.endsWith("/")) {
+            return StorageEntry.directory(trimSlash(path), lastModified);
+        }
+        return new StorageEntry(path, object.size() != null ? object.size() : 0, lastModified, false, object.eTag());
+    }
+
+    /**
+     * Full key prefix of a directory, always ending with a slash unless it is the bucket root
+     */
+    private String directoryPrefix(String directory) {
+        String prefix = prefixPath(directory);
+        if (!prefix.endsWith("/") && !prefix.isEmpty()) {
+            prefix += "/";
+        }
+        return prefix;
+    }
+
+    private static String trimSlash(String path) {
+        return path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    /**
+     * Wrap a lazily paging iterator so S3 failures surface as StorageException
+     */
+    private static <T> Iterator<T> guard(Iterator<T> iterator, String message) {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                try {
+                    return iterator.hasNext();
+                } catch (S3Exception e) {
+                    throw new StorageException(message, e);
+                }
+            }
+
+            @Override
+            public T next() {
+                try {
+                    return iterator.next();
+                } catch (S3Exception e) {
+                    throw new StorageException(message, e);
+                }
+            }
+        };
     }
 
     /**
@@ -2,15 +2,24 @@ package com.teamx.disks;
 
 import com.teamx.StorageException;
 
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
 
 /**
  * Main interface for all storage implementations.
  * Provides abstraction for common storage operations.
  */
-public interface Storage {
+public interface Storage extends AutoCloseable {
     /**
      * Retrieves a file from storage as an InputStream
      *
@@ -20,6 +29,85 @@ public interface Storage {
      */
     InputStream get(String path) throws StorageException;
 
+    /**
+     * Retrieves a file from storage using per-call read options.
+     * Disks that have no special read modes ignore the options.
+     *
+     * @param path    Path to the file
+     * @param options Read options
+     * @return InputStream containing the file content
+     * @throws StorageException if file cannot be retrieved
+     */
+    default InputStream get(String path, ReadOptions options) throws StorageException {
+        return get(path);
+    }
+
+    /**
+     * Opens a file as a channel. Local disks hand out a FileChannel, which lets
+     * callers use zero-copy transfers.
+     *
+     * @param path Path to the file
+     * @return Channel reading the file content
+     * @throws StorageException if file cannot be retrieved
+     */
+    default ReadableByteChannel getChannel(String path) throws StorageException {
+        return Channels.newChannel(get(path));
+    }
+
+    /**
+     * Writes the content of a file to a channel, e.g. a socket or another file
+     *
+     * @param path   Path to the file
+     * @param target Channel to write to, left open
+     * @return Number of bytes written
+     * @throws StorageException if file cannot be read or written
+     */
+    default long writeTo(String path, WritableByteChannel target) throws StorageException {
+        try (InputStream content = get(path)) {
+            return content.transferTo(Channels.newOutputStream(target));
+        } catch (IOException e) {
+            throw new StorageException("Could not transfer file: " + path, e);
+        }
+    }
+
+    /**
+     * Reads a byte range of a file. The returned buffer holds at most
+     * {@code length} bytes; it is shorter when the range runs past the end of
+     * the file, and empty when the offset is at or beyond the end.
+     *
+     * @param path   Path to the file
+     * @param offset Position of the first byte to read
+     * @param length Maximum number of bytes to read
+     * @return Read-only buffer positioned at the first byte of the range
+     * @throws StorageException if file cannot be read
+     */
+    default ByteBuffer readRange(String path, long offset, int length) throws StorageException {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Offset and length must not be negative");
+        }
+        try (InputStream content = get(path)) {
+            content.skipNBytes(offset);
+            return ByteBuffer.wrap(content.readNBytes(length)).asReadOnlyBuffer();
+        } catch (EOFException e) {
+            return ByteBuffer.allocate(0).asReadOnlyBuffer();
+        } catch (IOException e) {
+            throw new StorageException("Could not read range of file: " + path, e);
+        }
+    }
+
+    /**
+     * Stores the content of a channel
+     *
+     * @param path    Path where to store the file
+     * @param content Channel to read from until end of stream, left open
+     * @param size    Expected number of bytes, or -1 if unknown
+     * @return true if successful
+     * @throws StorageException if file cannot be stored
+     */
+    default boolean put(String path, ReadableByteChannel content, long size) throws StorageException {
+        return put(path, Channels.newInputStream(content), null);
+    }
+
     /**
      * Stores a file in the storage
      *
@@ -46,6 +134,25 @@ public interface Storage {
      */
     boolean exists(String path);
 
+    /**
+     * Gets the metadata of a single file or directory in one call
+     *
+     * @param path Path to the file
+     * @return Entry with size and last modified time, or null if nothing exists at the path
+     * @throws StorageException if the metadata cannot be read
+     */
+    default StorageEntry stat(String path) throws StorageException {
+        if (!exists(path)) {
+            return null;
+        }
+        try {
+            return StorageEntry.file(path, size(path), lastModified(path));
+        } catch (StorageException e) {
+            // size() refuses directories
+            return StorageEntry.directory(path, 0);
+        }
+    }
+
     /**
      * Deletes a file from storage
      *
@@ -71,6 +178,40 @@ public interface Storage {
      */
     List<String> listContents(String directory);
 
+    /**
+     * Lists the entries of a directory lazily, including size and last modified time.
+     * Only direct children are returned. The stream may hold an open directory
+     * handle or a pending page request, so close it when done
+     * (e.g. with try-with-resources).
+     *
+     * @param directory Directory path
+     * @return Stream of entries
+     */
+    default Stream<StorageEntry> list(String directory) {
+        return listContents(directory).stream().map(path -> {
+            try {
+                return StorageEntry.file(path, size(path), lastModified(path));
+            } catch (StorageException e) {
+                // size() refuses directories
+                return StorageEntry.directory(path, 0);
+            }
+        });
+    }
+
+    /**
+     * Lists every file and directory below a directory, recursively, in one pass.
+     * Entries carry size and last modified time so no per-file metadata call is
+     * needed. The stream is lazy; close it when done.
+     *
+     * @param directory Directory path
+     * @return Stream of entries
+     */
+    default Stream<StorageEntry> listAll(String directory) {
+        return list(directory).flatMap(entry -> entry.isDirectory()
+                ? Stream.concat(Stream.of(entry), listAll(entry.getPath()))
+                : Stream.of(entry));
+    }
+
     /**
      * Gets the size of a file in bytes
      *
@@ -96,6 +237,30 @@ public interface Storage {
      */
     boolean deleteDirectory(String path);
 
+    /**
+     * Deletes a directory and everything below it, reporting the paths that could
+     * not be deleted instead of failing on the first of them. Disks that delete
+     * entry by entry count every entry; by default the directory is deleted with
+     * {@link #deleteDirectory(String)} and reported as a single entry.
+     *
+     * @param path     Directory path
+     * @param progress Called with the number of entries deleted so far, possibly
+     *                 from other threads; may be null
+     * @return Number of entries deleted and the paths that could not be deleted
+     */
+    default DeleteReport deleteDirectory(String path, LongConsumer progress) {
+        long deleted;
+        try {
+            deleted = deleteDirectory(path) ? 1 : 0;
+        } catch (StorageException e) {
+            return new DeleteReport(0, Map.of(path, e));
+        }
+        if (progress != null) {
+            progress.accept(deleted);
+        }
+        return new DeleteReport(deleted, Map.of());
+    }
+
     /**
      * Gets the last modified time of a file
      *
@@ -113,6 +278,33 @@ public interface Storage {
      */
     boolean copy(String source, String destination);
 
+    /**
+     * Copies a file from another disk into this one. The content is streamed
+     * through a channel, so the file is never held in memory as a whole. Disks
+     * that can copy from each other without moving the data, like two S3 disks,
+     * do so.
+     *
+     * @param source      Disk to copy from
+     * @param sourcePath  Path on the source disk
+     * @param destination Path on this disk
+     * @return true if successful
+     * @throws StorageException if the file cannot be read or stored
+     */
+    default boolean copyFrom(Storage source, String sourcePath, String destination) throws StorageException {
+        Storage origin = ForwardingStorage.unwrap(source);
+        if (origin == this) {
+            return copy(sourcePath, destination);
+        }
+
+        // A decorator that transforms content reports the size of what it stores
+        long size = origin instanceof ForwardingStorage ? -1 : source.size(sourcePath);
+        try (ReadableByteChannel content = source.getChannel(sourcePath)) {
+            return put(destination, content, size);
+        } catch (IOException e) {
+            throw new StorageException("Could not close source file: " + sourcePath, e);
+        }
+    }
+
     /**
      * Moves a file from one location to another
      *
@@ -121,4 +313,65 @@ public interface Storage {
      * @return true if successful
      */
     boolean move(String source, String destination);
+
+    /**
+     * Deletes many files. A failure for one path does not stop the others.
+     *
+     * @param paths Paths to delete
+     * @return Result per path, in iteration order of the paths
+     */
+    default Map<String, BatchResult<Boolean>> deleteMany(Collection<String> paths) {
+        return Batches.sequential(paths, this::delete);
+    }
+
+    /**
+     * Checks existence of many files
+     *
+     * @param paths Paths to check
+     * @return Result per path, in iteration order of the paths
+     */
+    default Map<String, BatchResult<Boolean>> existsMany(Collection<String> paths) {
+        return Batches.sequential(paths, this::exists);
+    }
+
+    /**
+     * Gets the size of many files
+     *
+     * @param paths Paths to the files
+     * @return Result per path, in iteration order of the paths
+     */
+    default Map<String, BatchResult<Long>> sizeMany(Collection<String> paths) {
+        return Batches.sequential(paths, this::size);
+    }
+
+    /**
+     * Copies many files. A failure for one file does not stop the others.
+     *
+     * @param copies Map of source path to destination path
+     * @return Result per source path, in iteration order of the map
+     */
+    default Map<String, BatchResult<Boolean>> copyMany(Map<String, String> copies) {
+        return Batches.sequential(copies.keySet(), source -> copy(source, copies.get(source)));
+    }
+
+    /**
+     * Gets a non-blocking view of this storage.
+     * By default the blocking operations run on a shared executor; disks with a
+     * native async client override this.
+     *
+     * @return Async view of this storage
+     */
+    default AsyncStorage async() {
+        return new ExecutorAsyncStorage(this);
+    }
+
+    /**
+     * Releases the clients, threads and handles held by this disk. The disk must
+     * not be used afterwards. Disks that hold nothing do nothing.
+     *
+     * @throws StorageException if a resource cannot be released
+     */
+    @Override
+    default void close() throws StorageException {
+    }
 }
@@ -0,0 +1,84 @@
+package com.teamx.disks;
+
+import java.util.Objects;
+
+/**
+ * A file or directory returned by a storage listing, together with the
+ * metadata the listing already provided
+ */
+public final class StorageEntry {
+    private final String path;
+    private final long size;
+    private final long lastModified;
+    private final boolean directory;
+    private final String eTag;
+
+    /**
+     * @param path         Path relative to the disk root
+     * @param size         Size in bytes, 0 for directories
+     * @param lastModified Last modified time in milliseconds, 0 when unknown
+     * @param directory    Whether the entry is a directory
+     * @param eTag         Entity tag reported by the disk, or null when the disk has none
+     */
+    public StorageEntry(String path, long size, long lastModified, boolean directory, String eTag) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.directory = directory;
+        this.eTag = eTag;
+    }
+
+    public static StorageEntry file(String path, long size, long lastModified) {
+        return new StorageEntry(path, size, lastModified, false, null);
+    }
+
+    public static StorageEntry directory(String path, long lastModified) {
+        return new StorageEntry(path, 0, lastModified, true, null);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof StorageEntry)) {
+            return false;
+        }
+        StorageEntry that = (StorageEntry) o;
+        return size == that.size
+                && lastModified == that.lastModified
+                && directory == that.directory
+                && path.equals(that.path)
+                && Objects.equals(eTag, that.eTag);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(path, size, lastModified, directory, eTag);
+    }
+
+    @Override
+    public String toString() {
+        return (directory ? "Directory[" : "File[") + path + ", size=" + size + ", lastModified=" + lastModified + "]";
+    }
+}
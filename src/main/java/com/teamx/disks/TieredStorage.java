@@ -0,0 +1,559 @@
+package com.teamx.disks;
+
+import com.teamx.StorageException;
+import com.teamx.config.DiskConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Read-through cache that serves get() from a local directory and fills it from
+ * a remote disk on a miss.
+ * <p>
+ * The cache is bounded by bytes and evicts the least recently used (or, with
+ * cache_eviction=lfu, the least frequently used) files. Concurrent misses for the
+ * same path share a single download. On a hit the cached copy is validated against
+ * the remote ETag, or size and last modified time when the remote has no ETag,
+ * unless cache_validate=false. Writes through this disk go to the remote and drop
+ * the cached copy; a download that overlaps such a write is not cached. A file
+ * the cache directory cannot take, for a full disk or a path clash, is read from
+ * the remote instead.
+ * <p>
+ * Options: cache_root (required), cache_max_bytes (default 1GB),
+ * cache_eviction (lru or lfu, default lru), cache_validate (default true).
+ */
+public class TieredStorage extends ForwardingStorage {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TieredStorage.class);
+    private static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+    private static final String TEMP_DIRECTORY = ".tmp";
+
+    private final LocalStorage cache;
+    private final Path cacheRoot;
+    private final long maxBytes;
+    private final boolean lfu;
+    private final boolean validate;
+
+    private final LinkedHashMap<String, Cached> index = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Download> inflight = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private long totalBytes;
+
+    /**
+     * Create a tiered storage with configuration
+     *
+     * @param remote Disk holding the authoritative copy
+     * @param config Disk configuration
+     */
+    public TieredStorage(Storage remote, DiskConfig config) {
+        this(remote, Paths.get(requireRoot(config)),
+                config.getSizeOption("cache_max_bytes", DEFAULT_MAX_BYTES),
+                "lfu".equalsIgnoreCase(config.getOption("cache_eviction", "lru")),
+                Boolean.parseBoolean(config.getOption("cache_validate", "true")));
+    }
+
+    /**
+     * Create a tiered storage
+     *
+     * @param remote    Disk holding the authoritative copy
+     * @param cacheRoot Local directory for cached files
+     * @param maxBytes  Maximum bytes kept in the cache directory
+     * @param lfu       Evict least frequently used files instead of least recently used
+     * @param validate  Check cached files against the remote on every hit
+     */
+    public TieredStorage(Storage remote, Path cacheRoot, long maxBytes, boolean lfu, boolean validate) {
+        super(remote);
+        this.cache = new LocalStorage(cacheRoot);
+        this.cacheRoot = cacheRoot.toAbsolutePath().normalize();
+        this.maxBytes = maxBytes;
+        this.lfu = lfu;
+        this.validate = validate;
+
+        // Leftovers from an interrupted download are never valid
+        cache.deleteDirectory(TEMP_DIRECTORY);
+        loadIndex();
+    }
+
+    @Override
+    public InputStream get(String path) throws StorageException {
+        if (ensureCached(path)) {
+            try {
+                return cache.get(path);
+            } catch (StorageException e) {
+                // Evicted before we got to it
+            }
+        }
+        return delegate.get(path);
+    }
+
+    @Override
+    public ReadableByteChannel getChannel(String path) throws StorageException {
+        if (ensureCached(path)) {
+            try {
+                return cache.getChannel(path);
+            } catch (StorageException e) {
+                // Evicted before we got to it
+            }
+        }
+        return delegate.getChannel(path);
+    }
+
+    /**
+     * Serves cached files with the zero-copy transfer of the local cache
+     */
+    @Override
+    public long writeTo(String path, WritableByteChannel target) throws StorageException {
+        ReadableByteChannel channel = getChannel(path);
+        if (channel instanceof FileChannel) {
+            try (FileChannel source = (FileChannel) channel) {
+                return LocalStorage.transferFully(source, target);
+            } catch (IOException e) {
+                throw new StorageException("Could not transfer file: " + path, e);
+            }
+        }
+
+        try (InputStream content = Channels.newInputStream(channel)) {
+            return content.transferTo(Channels.newOutputStream(target));
+        } catch (IOException e) {
+            throw new StorageException("Could not transfer file: " + path, e);
+        }
+    }
+
+    /**
+     * Serves ranges from the memory mappings of the local cache
+     */
+    @Override
+    public ByteBuffer readRange(String path, long offset, int length) throws StorageException {
+        if (ensureCached(path)) {
+            try {
+                return cache.readRange(path, offset, length);
+            } catch (StorageException e) {
+                // Evicted before we got to it
+            }
+        }
+        return delegate.readRange(path, offset, length);
+    }
+
+    /**
+     * Closes the local cache. The remote disk is usually a disk of its own and
+     * is left open for its owner to close.
+     */
+    @Override
+    public void close() {
+        cache.close();
+    }
+
+    /**
+     * Make sure a current copy of the path is in the cache, downloading it on a miss
+     *
+     * @param path Path to look up
+     * @return true if the path is cached, false if it is too large or could not be cached
+     */
+    private boolean ensureCached(String path) {
+        Cached cached;
+        synchronized (index) {
+            cached = index.get(path);
+            if (cached != null) {
+                cached.hits++;
+            }
+        }
+
+        if (cached != null) {
+            if (!validate || isCurrent(path, cached)) {
+                hits.increment();
+                return true;
+            }
+            invalidate(path);
+        }
+
+        misses.increment();
+        return fill(path);
+    }
+
+    @Override
+    public InputStream get(String path, ReadOptions options) throws StorageException {
+        return get(path);
+    }
+
+    @Override
+    public boolean put(String path, InputStream content, Map<String, String> metadata) throws StorageException {
+        try {
+            return delegate.put(path, content, metadata);
+        } finally {
+            invalidate(path);
+        }
+    }
+
+    @Override
+    public boolean put(String path, ReadableByteChannel content, long size) throws StorageException {
+        try {
+            return delegate.put(path, content, size);
+        } finally {
+            invalidate(path);
+        }
+    }
+
+    @Override
+    public boolean delete(String path) throws StorageException {
+        try {
+            return delegate.delete(path);
+        } finally {
+            invalidate(path);
+        }
+    }
+
+    @Override
+    public boolean deleteDirectory(String path) {
+        try {
+            return delegate.deleteDirectory(path);
+        } finally {
+            invalidateDirectory(path);
+        }
+    }
+
+    @Override
+    public DeleteReport deleteDirectory(String path, LongConsumer progress) {
+        try {
+            return delegate.deleteDirectory(path, progress);
+        } finally {
+            invalidateDirectory(path);
+        }
+    }
+
+    @Override
+    public boolean copy(String source, String destination) {
+        try {
+            return delegate.copy(source, destination);
+        } finally {
+            invalidate(destination);
+        }
+    }
+
+    @Override
+    public boolean copyFrom(Storage source, String sourcePath, String destination) throws StorageException {
+        try {
+            return delegate.copyFrom(source, sourcePath, destination);
+        } finally {
+            invalidate(destination);
+        }
+    }
+
+    @Override
+    public boolean move(String source, String destination) {
+        try {
+            return delegate.move(source, destination);
+        } finally {
+            invalidate(source);
+            invalidate(destination);
+        }
+    }
+
+    @Override
+    public Map<String, BatchResult<Boolean>> deleteMany(Collection<String> paths) {
+        try {
+            return delegate.deleteMany(paths);
+        } finally {
+            paths.forEach(this::invalidate);
+        }
+    }
+
+    @Override
+    public Map<String, BatchResult<Boolean>> copyMany(Map<String, String> copies) {
+        try {
+            return delegate.copyMany(copies);
+        } finally {
+            copies.values().forEach(this::invalidate);
+        }
+    }
+
+    /**
+     * Drop the cached copy of a path
+     *
+     * @param path Path to forget
+     */
+    public void invalidate(String path) {
+        Cached removed;
+        synchronized (index) {
+            removed = index.remove(path);
+            if (removed != null) {
+                totalBytes -= removed.size;
+            }
+            Download running = inflight.get(path);
+            if (running != null) {
+                running.generation++;
+            }
+        }
+        if (removed != null) {
+            deleteQuietly(path);
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Get the number of bytes currently held in the cache directory
+     *
+     * @return Cached bytes
+     */
+    public long getCachedBytes() {
+        synchronized (index) {
+            return totalBytes;
+        }
+    }
+
+    /**
+     * Download a path into the cache, sharing the download with concurrent callers
+     *
+     * @param path Path to fetch
+     * @return true if the file is now cached, false if it is too large or could not be cached
+     */
+    private boolean fill(String path) {
+        Download mine = new Download();
+        Download running;
+        synchronized (index) {
+            running = inflight.putIfAbsent(path, mine);
+        }
+
+        if (running != null) {
+            try {
+                running.done.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof StorageException
+                        ? (StorageException) e.getCause()
+                        : new StorageException("Could not cache file: " + path, e.getCause());
+            }
+            synchronized (index) {
+                return index.containsKey(path);
+            }
+        }
+
+        try {
+            boolean cached;
+            synchronized (index) {
+                // Filled by a download that finished after our lookup
+                cached = index.containsKey(path);
+            }
+            if (!cached) {
+                cached = download(path, mine);
+            }
+            mine.done.complete(null);
+            return cached;
+        } catch (RuntimeException e) {
+            mine.done.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflight.remove(path, mine);
+        }
+    }
+
+    private boolean download(String path, Download download) {
+        long generation;
+        synchronized (index) {
+            generation = download.generation;
+        }
+        StorageEntry remote = delegate.stat(path);
+        if (remote == null) {
+            throw new StorageException("File not found: " + path);
+        }
+        if (remote.getSize() > maxBytes) {
+            return false;
+        }
+
+        // A copy the cache cannot take is a miss; the caller reads the remote, which reports its own errors
+        String temp = TEMP_DIRECTORY + "/" + UUID.randomUUID();
+        try (InputStream content = delegate.get(path)) {
+            cache.put(temp, content);
+            cache.move(temp, path);
+        } catch (IOException | StorageException e) {
+            LOGGER.warn("Could not cache {}, reading it from the remote", path, e);
+            deleteQuietly(temp);
+            return false;
+        }
+
+        // The remote timestamp doubles as validation token after a restart
+        Path file = cacheRoot.resolve(path);
+        long size;
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(remote.getLastModified()));
+            size = Files.size(file);
+        } catch (IOException e) {
+            LOGGER.warn("Could not cache {}, reading it from the remote", path, e);
+            deleteQuietly(path);
+            return false;
+        }
+
+        List<String> evicted = new ArrayList<>();
+        boolean current;
+        synchronized (index) {
+            // Written while downloading, the copy may hold the old content
+            current = download.generation == generation;
+            if (current) {
+                Cached previous = index.put(path, new Cached(size, remote.getLastModified(), remote.getETag()));
+                if (previous != null) {
+                    totalBytes -= previous.size;
+                }
+                totalBytes += size;
+                evict(path, evicted);
+            }
+        }
+        if (!current) {
+            deleteQuietly(path);
+            return false;
+        }
+        evicted.forEach(this::deleteQuietly);
+        return true;
+    }
+
+    /**
+     * Pick files to drop until the cache fits, never the file just added.
+     * Must be called while holding the index lock.
+     */
+    private void evict(String keep, List<String> evicted) {
+        while (totalBytes > maxBytes && index.size() > 1) {
+            String victim = lfu ? leastFrequentlyUsed(keep) : leastRecentlyUsed(keep);
+            if (victim == null) {
+                return;
+            }
+            totalBytes -= index.remove(victim).size;
+            evicted.add(victim);
+        }
+    }
+
+    private String leastRecentlyUsed(String keep) {
+        for (String path : index.keySet()) {
+            if (!path.equals(keep)) {
+                return path;
+            }
+        }
+        return null;
+    }
+
+    private String leastFrequentlyUsed(String keep) {
+        String victim = null;
+        long fewest = Long.MAX_VALUE;
+        // Ties go to the least recently used since iteration runs in access order
+        for (Map.Entry<String, Cached> entry : index.entrySet()) {
+            if (!entry.getKey().equals(keep) && entry.getValue().hits < fewest) {
+                victim = entry.getKey();
+                fewest = entry.getValue().hits;
+            }
+        }
+        return victim;
+    }
+
+    private boolean isCurrent(String path, Cached cached) {
+        StorageEntry remote = delegate.stat(path);
+        if (remote == null) {
+            return false;
+        }
+        if (cached.eTag != null && remote.getETag() != null) {
+            return cached.eTag.equals(remote.getETag());
+        }
+        return cached.lastModified == remote.getLastModified() && cached.size == remote.getSize();
+    }
+
+    private void invalidateDirectory(String path) {
+        String prefix = path.isEmpty() || path.endsWith("/") ? path : path + "/";
+        List<String> removed = new ArrayList<>();
+        synchronized (index) {
+            Iterator<Map.Entry<String, Cached>> entries = index.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, Cached> entry = entries.next();
+                if (entry.getKey().startsWith(prefix)) {
+                    totalBytes -= entry.getValue().size;
+                    removed.add(entry.getKey());
+                    entries.remove();
+                }
+            }
+            inflight.forEach((running, download) -> {
+                if (running.startsWith(prefix)) {
+                    download.generation++;
+                }
+            });
+        }
+        removed.forEach(this::deleteQuietly);
+    }
+
+    private void loadIndex() {
+        try (Stream<StorageEntry> entries = cache.listAll("")) {
+            entries.filter(entry -> !entry.isDirectory()).forEach(entry -> {
+                index.put(entry.getPath(), new Cached(entry.getSize(), entry.getLastModified(), null));
+                totalBytes += entry.getSize();
+            });
+        }
+
+        List<String> evicted = new ArrayList<>();
+        synchronized (index) {
+            evict(null, evicted);
+        }
+        evicted.forEach(this::deleteQuietly);
+    }
+
+    private void deleteQuietly(String path) {
+        try {
+            cache.delete(path);
+        } catch (StorageException ignored) {
+            // Nothing left to clean up
+        }
+    }
+
+    private static String requireRoot(DiskConfig config) {
+        String root = config.getOption("cache_root");
+        if (root == null || root.isEmpty()) {
+            throw new IllegalArgumentException("Tiered storage cache_root is required");
+        }
+        return root;
+    }
+
+    private static final class Cached {
+        final long size;
+        final long lastModified;
+        final String eTag;
+        long hits;
+
+        Cached(long size, long lastModified, String eTag) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.eTag = eTag;
+        }
+    }
+
+    /**
+     * A download in progress. The generation counts writes of the path since the
+     * download started and is guarded by the index lock.
+     */
+    private static final class Download {
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        long generation;
+    }
+}
@@ -0,0 +1,33 @@
+package com.teamx.disks;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.github.luben.zstd.util.Native;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The only class that refers to zstd-jni, so that the library stays optional:
+ * it is loaded when zstd is used, and {@link #load()} fails with a LinkageError
+ * when the jar or its native library is missing.
+ */
+final class ZstdStreams {
+
+    private ZstdStreams() {
+    }
+
+    static boolean load() {
+        Native.load();
+        return true;
+    }
+
+    static OutputStream compress(OutputStream out, int level) throws IOException {
+        return new ZstdOutputStream(out, level);
+    }
+
+    static InputStream decompress(InputStream in) throws IOException {
+        return new ZstdInputStream(in);
+    }
+}
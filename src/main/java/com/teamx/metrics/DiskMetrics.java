@@ -0,0 +1,161 @@
+package com.teamx.metrics;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Metrics of one disk: per-operation call and error counts, latency histograms,
+ * bytes read and written, and optionally the most accessed paths.
+ * <p>
+ * The recording methods only touch pre-allocated counters and never allocate.
+ */
+public final class DiskMetrics implements DiskMetricsMXBean {
+    private static final StorageOperation[] OPERATIONS = StorageOperation.values();
+
+    private final String disk;
+    private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+    private final LongAdder[] errors = new LongAdder[OPERATIONS.length];
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final HotKeys hotKeys;
+
+    /**
+     * @param disk        Disk name
+     * @param hotKeyCount Number of paths to track as hot keys, 0 to disable tracking
+     */
+    public DiskMetrics(String disk, int hotKeyCount) {
+        if (hotKeyCount < 0) {
+            throw new IllegalArgumentException("Hot key count must not be negative");
+        }
+
+        this.disk = disk;
+        this.hotKeys = hotKeyCount > 0 ? new HotKeys(hotKeyCount) : null;
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            latencies[i] = new LatencyHistogram();
+            errors[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record a finished call
+     *
+     * @param operation  Operation that was called
+     * @param startNanos {@link System#nanoTime()} when the call started
+     * @param failed     Whether the call threw
+     */
+    public void record(StorageOperation operation, long startNanos, boolean failed) {
+        latencies[operation.ordinal()].record(System.nanoTime() - startNanos);
+        if (failed) {
+            errors[operation.ordinal()].increment();
+        }
+    }
+
+    /**
+     * Count an access to a path for hot key tracking
+     *
+     * @param path Accessed path
+     */
+    public void recordKey(String path) {
+        if (hotKeys != null) {
+            hotKeys.record(path);
+        }
+    }
+
+    public void addBytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    public void addBytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    /**
+     * Take a point-in-time copy of the metrics
+     *
+     * @return Snapshot with the operations that were called at least once
+     */
+    public DiskMetricsSnapshot snapshot() {
+        Map<StorageOperation, OperationSnapshot> operations = new EnumMap<>(StorageOperation.class);
+        for (StorageOperation operation : OPERATIONS) {
+            HistogramSnapshot latency = latencies[operation.ordinal()].snapshot();
+            if (latency.getCount() > 0) {
+                operations.put(operation, new OperationSnapshot(operation, errors[operation.ordinal()].sum(), latency));
+            }
+        }
+
+        return new DiskMetricsSnapshot(disk, Collections.unmodifiableMap(operations),
+                bytesRead.sum(), bytesWritten.sum(),
+                hotKeys == null ? Map.of() : Collections.unmodifiableMap(hotKeys.snapshot()));
+    }
+
+    @Override
+    public String getDisk() {
+        return disk;
+    }
+
+    @Override
+    public Map<String, Long> getCalls() {
+        return byOperation(OperationSnapshot::getCalls);
+    }
+
+    @Override
+    public Map<String, Long> getErrors() {
+        return byOperation(OperationSnapshot::getErrors);
+    }
+
+    @Override
+    public Map<String, Long> getMeanMicros() {
+        return byOperation(operation -> micros((long) operation.getLatency().getMean()));
+    }
+
+    @Override
+    public Map<String, Long> getP50Micros() {
+        return byOperation(operation -> micros(operation.getLatency().getP50()));
+    }
+
+    @Override
+    public Map<String, Long> getP99Micros() {
+        return byOperation(operation -> micros(operation.getLatency().getP99()));
+    }
+
+    @Override
+    public Map<String, Long> getP999Micros() {
+        return byOperation(operation -> micros(operation.getLatency().getP999()));
+    }
+
+    @Override
+    public Map<String, Long> getMaxMicros() {
+        return byOperation(operation -> micros(operation.getLatency().getMax()));
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public Map<String, Long> getHotKeys() {
+        return hotKeys == null ? Map.of() : hotKeys.snapshot();
+    }
+
+    private Map<String, Long> byOperation(ToLongFunction<OperationSnapshot> value) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        snapshot().getOperations().forEach((operation, snapshot) ->
+                values.put(operation.value(), value.applyAsLong(snapshot)));
+        return values;
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,31 @@
+package com.teamx.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics of one disk. Maps are keyed by operation name;
+ * latencies are in microseconds.
+ */
+public interface DiskMetricsMXBean {
+    String getDisk();
+
+    Map<String, Long> getCalls();
+
+    Map<String, Long> getErrors();
+
+    Map<String, Long> getMeanMicros();
+
+    Map<String, Long> getP50Micros();
+
+    Map<String, Long> getP99Micros();
+
+    Map<String, Long> getP999Micros();
+
+    Map<String, Long> getMaxMicros();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    Map<String, Long> getHotKeys();
+}
@@ -0,0 +1,72 @@
+package com.teamx.metrics;
+
+import java.util.Map;
+
+/**
+ * Point-in-time copy of the metrics of one disk
+ */
+public final class DiskMetricsSnapshot {
+    private final String disk;
+    private final Map<StorageOperation, OperationSnapshot> operations;
+    private final long bytesRead;
+    private final long bytesWritten;
+    private final Map<String, Long> hotKeys;
+
+    DiskMetricsSnapshot(String disk, Map<StorageOperation, OperationSnapshot> operations,
+                        long bytesRead, long bytesWritten, Map<String, Long> hotKeys) {
+        this.disk = disk;
+        this.operations = operations;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+        this.hotKeys = hotKeys;
+    }
+
+    public String getDisk() {
+        return disk;
+    }
+
+    /**
+     * Get the operations that were called at least once
+     *
+     * @return Snapshots by operation
+     */
+    public Map<StorageOperation, OperationSnapshot> getOperations() {
+        return operations;
+    }
+
+    /**
+     * Get the snapshot of one operation
+     *
+     * @param operation Operation
+     * @return Snapshot, or null if the operation was never called
+     */
+    public OperationSnapshot getOperation(StorageOperation operation) {
+        return operations.get(operation);
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Get the most frequently accessed paths with their estimated access counts,
+     * most frequent first. Empty unless hot key tracking is enabled.
+     *
+     * @return Estimated access counts by path
+     */
+    public Map<String, Long> getHotKeys() {
+        return hotKeys;
+    }
+
+    @Override
+    public String toString() {
+        return "DiskMetricsSnapshot{disk=" + disk
+                + ", bytesRead=" + bytesRead
+                + ", bytesWritten=" + bytesWritten
+                + ", operations=" + operations.values() + '}';
+    }
+}
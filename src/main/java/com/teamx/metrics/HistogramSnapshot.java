@@ -0,0 +1,87 @@
+package com.teamx.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable copy of a {@link LatencyHistogram}. All values are in nanoseconds.
+ */
+public final class HistogramSnapshot {
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    HistogramSnapshot(long[] counts, long count, long sum, long max) {
+        this.counts = counts;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Get the latency below which the given fraction of the recorded values fall
+     *
+     * @param quantile Fraction between 0 and 1, e.g. 0.99
+     * @return Latency in nanoseconds, 0 when nothing was recorded
+     */
+    public long getValueAtQuantile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1: " + quantile);
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.highestValueOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    public long getP50() {
+        return getValueAtQuantile(0.5);
+    }
+
+    public long getP90() {
+        return getValueAtQuantile(0.9);
+    }
+
+    public long getP99() {
+        return getValueAtQuantile(0.99);
+    }
+
+    public long getP999() {
+        return getValueAtQuantile(0.999);
+    }
+
+    @Override
+    public String toString() {
+        return "HistogramSnapshot{count=" + count
+                + ", mean=" + micros((long) getMean())
+                + ", p50=" + micros(getP50())
+                + ", p99=" + micros(getP99())
+                + ", p999=" + micros(getP999())
+                + ", max=" + micros(max) + '}';
+    }
+
+    private static String micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos) + "us";
+    }
+}
@@ -0,0 +1,120 @@
+package com.teamx.metrics;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Approximate top-k of the accessed paths.
+ * <p>
+ * Only one access in {@value #SAMPLE_RATE} is looked at, which keeps the cost
+ * of unsampled calls to a random number. Sampled accesses are counted in a
+ * Count-Min sketch of atomic counters, so counting takes no lock and allocates
+ * nothing. A path becomes a candidate once its estimate passes the least counted
+ * candidate, which then makes room for it. Only that replacement locks, and it is
+ * rare once the frequent paths hold the slots.
+ */
+final class HotKeys {
+    static final int SAMPLE_RATE = 16;
+
+    private static final int DEPTH = 4;
+    private static final int MIN_WIDTH = 1024;
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicLongArray sketch;
+    private final Map<String, Boolean> candidates;
+    // Estimate a path must pass to replace a candidate, 0 while there are free slots
+    private volatile long threshold;
+
+    HotKeys(int capacity) {
+        this.capacity = capacity;
+        int width = Integer.highestOneBit(Math.max(MIN_WIDTH, capacity * 64) - 1) << 1;
+        this.mask = width - 1;
+        this.sketch = new AtomicLongArray(DEPTH * width);
+        this.candidates = new ConcurrentHashMap<>(capacity * 2);
+    }
+
+    void record(String path) {
+        if (ThreadLocalRandom.current().nextInt(SAMPLE_RATE) != 0) {
+            return;
+        }
+
+        int hash = path.hashCode();
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, sketch.incrementAndGet(slot(hash, row)));
+        }
+        if (estimate <= threshold || candidates.containsKey(path)) {
+            return;
+        }
+
+        synchronized (candidates) {
+            if (candidates.containsKey(path)) {
+                return;
+            }
+            candidates.put(path, Boolean.TRUE);
+            if (candidates.size() <= capacity) {
+                return;
+            }
+
+            String least = null;
+            long leastCount = Long.MAX_VALUE;
+            long next = Long.MAX_VALUE;
+            for (String candidate : candidates.keySet()) {
+                long count = estimate(candidate);
+                if (count < leastCount) {
+                    next = leastCount;
+                    least = candidate;
+                    leastCount = count;
+                } else if (count < next) {
+                    next = count;
+                }
+            }
+            candidates.remove(least);
+            threshold = next;
+        }
+    }
+
+    /**
+     * Get the tracked paths with estimated access counts, most frequent first
+     */
+    Map<String, Long> snapshot() {
+        Map<String, Long> copy = new HashMap<>();
+        for (String path : candidates.keySet()) {
+            copy.put(path, estimate(path) * SAMPLE_RATE);
+        }
+
+        Map<String, Long> sorted = new LinkedHashMap<>();
+        copy.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()))
+                .forEach(entry -> sorted.put(entry.getKey(), entry.getValue()));
+        return sorted;
+    }
+
+    private long estimate(String path) {
+        int hash = path.hashCode();
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, sketch.get(slot(hash, row)));
+        }
+        return estimate;
+    }
+
+    /**
+     * Counter of a path in one row, from an independent mix of its hash per row
+     */
+    private int slot(int hash, int row) {
+        int mixed = hash + row * 0x9E3779B9;
+        mixed ^= mixed >>> 16;
+        mixed *= 0x85EBCA6B;
+        mixed ^= mixed >>> 13;
+        mixed *= 0xC2B2AE35;
+        mixed ^= mixed >>> 16;
+        return row * (mask + 1) + (mixed & mask);
+    }
+}
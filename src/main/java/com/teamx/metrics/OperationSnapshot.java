@@ -0,0 +1,42 @@
+package com.teamx.metrics;
+
+/**
+ * Counters and latencies of one operation on one disk
+ */
+public final class OperationSnapshot {
+    private final StorageOperation operation;
+    private final long errors;
+    private final HistogramSnapshot latency;
+
+    OperationSnapshot(StorageOperation operation, long errors, HistogramSnapshot latency) {
+        this.operation = operation;
+        this.errors = errors;
+        this.latency = latency;
+    }
+
+    public StorageOperation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Get the number of calls, failed calls included
+     *
+     * @return Call count
+     */
+    public long getCalls() {
+        return latency.getCount();
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public HistogramSnapshot getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String toString() {
+        return operation.value() + "{calls=" + getCalls() + ", errors=" + errors + ", latency=" + latency + '}';
+    }
+}
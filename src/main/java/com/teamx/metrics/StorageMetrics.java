@@ -0,0 +1,106 @@
+package com.teamx.metrics;
+
+import com.teamx.StorageException;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the metrics of all disks, keyed by disk name.
+ * <p>
+ * Once {@link #registerMBeans()} is called, every disk is also published as a
+ * {@link DiskMetricsMXBean} named {@code com.teamx.storage:type=Disk,name=<disk>},
+ * including disks added later.
+ */
+public class StorageMetrics {
+    private static final String DOMAIN = "com.teamx.storage";
+
+    private final Map<String, DiskMetrics> disks = new ConcurrentHashMap<>();
+    private volatile boolean jmx;
+
+    /**
+     * Get the metrics of a disk, creating them on first use
+     *
+     * @param name        Disk name
+     * @param hotKeyCount Number of paths to track as hot keys when the metrics are created
+     * @return Metrics of the disk
+     */
+    public DiskMetrics disk(String name, int hotKeyCount) {
+        return disks.computeIfAbsent(name, key -> {
+            DiskMetrics metrics = new DiskMetrics(key, hotKeyCount);
+            if (jmx) {
+                register(metrics);
+            }
+            return metrics;
+        });
+    }
+
+    /**
+     * Get the metrics of a disk
+     *
+     * @param name Disk name
+     * @return Metrics of the disk, or null if nothing was recorded for it
+     */
+    public DiskMetrics disk(String name) {
+        return disks.get(name);
+    }
+
+    /**
+     * Take a snapshot of every disk
+     *
+     * @return Snapshots by disk name, in name order
+     */
+    public Map<String, DiskMetricsSnapshot> snapshot() {
+        Map<String, DiskMetricsSnapshot> snapshots = new LinkedHashMap<>();
+        new TreeMap<>(disks).forEach((name, metrics) -> snapshots.put(name, metrics.snapshot()));
+        return Collections.unmodifiableMap(snapshots);
+    }
+
+    /**
+     * Publish the metrics of every disk on the platform MBean server
+     */
+    public synchronized void registerMBeans() {
+        jmx = true;
+        disks.values().forEach(this::register);
+    }
+
+    /**
+     * Remove the MBeans published by {@link #registerMBeans()}
+     */
+    public synchronized void unregisterMBeans() {
+        jmx = false;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (String name : disks.keySet()) {
+            try {
+                server.unregisterMBean(objectName(name));
+            } catch (InstanceNotFoundException e) {
+                // Not registered
+            } catch (JMException e) {
+                throw new StorageException("Could not unregister metrics of disk: " + name, e);
+            }
+        }
+    }
+
+    private void register(DiskMetrics metrics) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName(metrics.getDisk()));
+        } catch (InstanceAlreadyExistsException e) {
+            // Another registry already publishes a disk of this name
+        } catch (JMException e) {
+            throw new StorageException("Could not register metrics of disk: " + metrics.getDisk(), e);
+        }
+    }
+
+    private static ObjectName objectName(String disk) throws JMException {
+        return new ObjectName(DOMAIN + ":type=Disk,name=" + ObjectName.quote(disk));
+    }
+}
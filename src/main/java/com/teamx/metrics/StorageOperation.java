@@ -0,0 +1,36 @@
+package com.teamx.metrics;
+
+/**
+ * Storage operations that are measured separately
+ */
+public enum StorageOperation {
+    GET("get"),
+    GET_CHANNEL("get_channel"),
+    READ_RANGE("read_range"),
+    WRITE_TO("write_to"),
+    PUT("put"),
+    EXISTS("exists"),
+    STAT("stat"),
+    DELETE("delete"),
+    LIST("list"),
+    SIZE("size"),
+    LAST_MODIFIED("last_modified"),
+    MAKE_DIRECTORY("make_directory"),
+    DELETE_DIRECTORY("delete_directory"),
+    COPY("copy"),
+    MOVE("move"),
+    DELETE_MANY("delete_many"),
+    EXISTS_MANY("exists_many"),
+    SIZE_MANY("size_many"),
+    COPY_MANY("copy_many");
+
+    private final String value;
+
+    StorageOperation(String value) {
+        this.value = value;
+    }
+
+    public String value() {
+        return value;
+    }
+}
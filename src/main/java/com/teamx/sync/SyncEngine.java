@@ -0,0 +1,325 @@
+package com.teamx.sync;
+
+import com.teamx.StorageException;
+import com.teamx.StorageManager;
+import com.teamx.disks.BatchResult;
+import com.teamx.disks.Storage;
+import com.teamx.disks.StorageEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Mirrors a directory of one disk into a directory of another, or of the same disk.
+ * <p>
+ * Both trees are read with {@link Storage#listAll(String)}, whose entries come in
+ * lexicographic path order on every disk, and joined like two sorted files: a path
+ * only in the source is copied, a path in both is copied when it changed, and a
+ * path only in the destination is extraneous. Memory therefore does not grow with
+ * the number of files. A listing that turns out not to be sorted stops the sync
+ * rather than risk deleting files that were merely listed out of order.
+ * <p>
+ * A file changed when its size differs, when both disks report ETags and they
+ * differ, or when the source is newer than the destination. Transfers go through
+ * {@link StorageManager#copy(String, String, String, String)}, so copies between
+ * S3 disks stay on the server side, and up to the configured concurrency run at a
+ * time while the listings are read ahead by a bounded amount. Extraneous files are
+ * deleted in batches. Empty directories are neither created nor deleted.
+ */
+public class SyncEngine {
+    private static final int MAX_FAILURES = 1000;
+    private static final int DELETE_BATCH_SIZE = 1000;
+
+    private final StorageManager manager;
+
+    /**
+     * @param manager Storage manager providing the disks
+     */
+    public SyncEngine(StorageManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Make a destination directory mirror a source directory
+     *
+     * @param sourceDisk           Disk to read from
+     * @param sourceDirectory      Directory on the source disk, empty for the root
+     * @param destinationDisk      Disk to write to
+     * @param destinationDirectory Directory on the destination disk, empty for the root
+     * @param options              Sync options
+     * @return Report of what was done; failures of single files are reported, not thrown
+     * @throws StorageException if a listing fails
+     */
+    public SyncReport sync(String sourceDisk, String sourceDirectory, String destinationDisk,
+                           String destinationDirectory, SyncOptions options) {
+        Storage source = manager.disk(sourceDisk);
+        Storage destination = manager.disk(destinationDisk);
+        String sourceRoot = normalize(sourceDirectory);
+        String destinationRoot = normalize(destinationDirectory);
+
+        Run run = new Run(options);
+        int concurrency = options.getConcurrency();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "storage-sync-" + run.threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Read ahead of the transfers by at most one batch of work per thread
+        Semaphore permits = new Semaphore(concurrency * 2);
+
+        try (Stream<StorageEntry> sourceEntries = source.listAll(sourceRoot);
+             Stream<StorageEntry> destinationEntries = destination.listAll(destinationRoot)) {
+            Cursor from = new Cursor(sourceEntries.iterator(), sourceRoot, sourceDisk);
+            Cursor to = new Cursor(destinationEntries.iterator(), destinationRoot, destinationDisk);
+            List<String> extraneous = new ArrayList<>();
+
+            while (from.current != null || to.current != null) {
+                int order = from.current == null ? 1 : to.current == null ? -1 : from.key.compareTo(to.key);
+
+                if (order < 0) {
+                    run.scanned.increment();
+                    copy(run, executor, permits, sourceDisk, destinationDisk, from.current,
+                            join(destinationRoot, from.key));
+                    from.advance();
+                } else if (order > 0) {
+                    if (options.isDelete()) {
+                        extraneous.add(to.current.getPath());
+                        if (extraneous.size() == DELETE_BATCH_SIZE) {
+                            delete(run, executor, permits, destination, extraneous);
+                            extraneous = new ArrayList<>();
+                        }
+                    }
+                    to.advance();
+                } else {
+                    run.scanned.increment();
+                    if (changed(from.current, to.current, options)) {
+                        copy(run, executor, permits, sourceDisk, destinationDisk, from.current,
+                                to.current.getPath());
+                    } else {
+                        run.unchanged.increment();
+                    }
+                    from.advance();
+                    to.advance();
+                }
+                run.progress(false);
+            }
+
+            if (!extraneous.isEmpty()) {
+                delete(run, executor, permits, destination, extraneous);
+            }
+        } finally {
+            executor.shutdown();
+            awaitTermination(executor);
+        }
+
+        run.progress(true);
+        return run.report();
+    }
+
+    /**
+     * Check whether a file differs between source and destination
+     */
+    private static boolean changed(StorageEntry source, StorageEntry destination, SyncOptions options) {
+        if (source.getSize() != destination.getSize()) {
+            return true;
+        }
+        if (options.isCompareETags() && source.getETag() != null && destination.getETag() != null) {
+            return !source.getETag().equals(destination.getETag());
+        }
+        return source.getLastModified() > destination.getLastModified();
+    }
+
+    private void copy(Run run, ExecutorService executor, Semaphore permits, String sourceDisk,
+                      String destinationDisk, StorageEntry entry, String destinationPath) {
+        if (run.dryRun) {
+            run.copied.increment();
+            run.bytesCopied.add(entry.getSize());
+            return;
+        }
+
+        submit(executor, permits, () -> {
+            try {
+                manager.copy(sourceDisk, entry.getPath(), destinationDisk, destinationPath);
+                run.copied.increment();
+                run.bytesCopied.add(entry.getSize());
+            } catch (RuntimeException e) {
+                run.fail(entry.getPath(), e);
+            }
+            run.progress(false);
+        });
+    }
+
+    private static void delete(Run run, ExecutorService executor, Semaphore permits, Storage destination,
+                               List<String> paths) {
+        if (run.dryRun) {
+            run.deleted.add(paths.size());
+            return;
+        }
+
+        submit(executor, permits, () -> {
+            try {
+                for (Map.Entry<String, BatchResult<Boolean>> result : destination.deleteMany(paths).entrySet()) {
+                    if (result.getValue().isSuccess()) {
+                        run.deleted.increment();
+                    } else {
+                        run.fail(result.getKey(), result.getValue().getError());
+                    }
+                }
+            } catch (RuntimeException e) {
+                paths.forEach(path -> run.fail(path, e));
+            }
+            run.progress(false);
+        });
+    }
+
+    private static void submit(ExecutorService executor, Semaphore permits, Runnable task) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while syncing", e);
+        }
+
+        executor.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // Large transfers may take a while
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while waiting for transfers", e);
+        }
+    }
+
+    private static String normalize(String directory) {
+        String normalized = directory == null ? "" : directory;
+        while (normalized.startsWith("/")) {
+            normalized = normalized.substring(1);
+        }
+        while (normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+
+    private static String join(String directory, String key) {
+        return directory.isEmpty() ? key : directory + "/" + key;
+    }
+
+    /**
+     * Position in the files of a listing, with the path relative to the synced directory
+     */
+    private static final class Cursor {
+        private final Iterator<StorageEntry> entries;
+        private final String prefix;
+        private final String disk;
+        StorageEntry current;
+        String key;
+
+        Cursor(Iterator<StorageEntry> entries, String root, String disk) {
+            this.entries = entries;
+            this.prefix = root.isEmpty() ? "" : root + "/";
+            this.disk = disk;
+            advance();
+        }
+
+        void advance() {
+            String previous = key;
+            current = null;
+            key = null;
+
+            while (entries.hasNext()) {
+                StorageEntry entry = entries.next();
+                String path = entry.getPath().startsWith("/") ? entry.getPath().substring(1) : entry.getPath();
+                if (entry.isDirectory() || !path.startsWith(prefix)) {
+                    continue;
+                }
+
+                String relative = path.substring(prefix.length());
+                if (previous != null && relative.compareTo(previous) <= 0) {
+                    throw new StorageException("Listing of disk " + disk + " is not sorted at: " + entry.getPath());
+                }
+                current = entry;
+                key = relative;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Counters of a running sync, shared with the transfer threads
+     */
+    private static final class Run {
+        final boolean dryRun;
+        final Consumer<SyncReport> listener;
+        final long intervalNanos;
+        final long start = System.nanoTime();
+        final AtomicLong lastProgress = new AtomicLong(start);
+        final AtomicInteger threads = new AtomicInteger();
+        final LongAdder scanned = new LongAdder();
+        final LongAdder copied = new LongAdder();
+        final LongAdder deleted = new LongAdder();
+        final LongAdder unchanged = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder bytesCopied = new LongAdder();
+        final Map<String, String> failures = new LinkedHashMap<>();
+
+        Run(SyncOptions options) {
+            this.dryRun = options.isDryRun();
+            this.listener = options.getProgressListener();
+            this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(options.getProgressInterval());
+        }
+
+        void fail(String path, Throwable error) {
+            failed.increment();
+            synchronized (failures) {
+                if (failures.size() < MAX_FAILURES) {
+                    failures.put(path, String.valueOf(error.getMessage()));
+                }
+            }
+        }
+
+        void progress(boolean last) {
+            if (listener == null) {
+                return;
+            }
+            long now = System.nanoTime();
+            long previous = lastProgress.get();
+            if (last || (now - previous >= intervalNanos && lastProgress.compareAndSet(previous, now))) {
+                listener.accept(report());
+            }
+        }
+
+        SyncReport report() {
+            Map<String, String> failed;
+            synchronized (failures) {
+                failed = Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+            }
+            return new SyncReport(scanned.sum(), copied.sum(), deleted.sum(), unchanged.sum(), this.failed.sum(),
+                    bytesCopied.sum(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), dryRun, failed);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.teamx.sync;
+
+import java.util.function.Consumer;
+
+/**
+ * Options of a {@link SyncEngine} run
+ */
+public class SyncOptions {
+    private boolean delete;
+    private boolean dryRun;
+    private boolean compareETags = true;
+    private int concurrency = 8;
+    private Consumer<SyncReport> progressListener;
+    private long progressInterval = 1_000;
+
+    public SyncOptions() {
+        // Default constructor
+    }
+
+    public boolean isDelete() {
+        return delete;
+    }
+
+    /**
+     * Delete destination files that do not exist in the source
+     *
+     * @param delete true to delete extraneous files
+     * @return This instance for chaining
+     */
+    public SyncOptions setDelete(boolean delete) {
+        this.delete = delete;
+        return this;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    /**
+     * Only report what would be copied and deleted
+     *
+     * @param dryRun true to leave the destination untouched
+     * @return This instance for chaining
+     */
+    public SyncOptions setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+        return this;
+    }
+
+    public boolean isCompareETags() {
+        return compareETags;
+    }
+
+    /**
+     * Treat files as changed when both disks report an ETag and they differ.
+     * Turn this off between S3 disks with different part sizes, where the ETags
+     * of identical multipart objects differ.
+     *
+     * @param compareETags true to compare ETags
+     * @return This instance for chaining
+     */
+    public SyncOptions setCompareETags(boolean compareETags) {
+        this.compareETags = compareETags;
+        return this;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Set the number of transfers running at the same time
+     *
+     * @param concurrency Parallel transfers, at least 1
+     * @return This instance for chaining
+     */
+    public SyncOptions setConcurrency(int concurrency) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Sync concurrency must be positive: " + concurrency);
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    public Consumer<SyncReport> getProgressListener() {
+        return progressListener;
+    }
+
+    public long getProgressInterval() {
+        return progressInterval;
+    }
+
+    /**
+     * Receive progress while the sync runs, at most once per interval and once at the end
+     *
+     * @param listener       Called with a snapshot of the progress, from worker threads
+     * @param intervalMillis Minimum time between two calls in milliseconds
+     * @return This instance for chaining
+     */
+    public SyncOptions setProgressListener(Consumer<SyncReport> listener, long intervalMillis) {
+        if (intervalMillis < 0) {
+            throw new IllegalArgumentException("Progress interval must not be negative: " + intervalMillis);
+        }
+        this.progressListener = listener;
+        this.progressInterval = intervalMillis;
+        return this;
+    }
+}
@@ -0,0 +1,95 @@
+package com.teamx.sync;
+
+import java.util.Map;
+
+/**
+ * Outcome of a sync, or its progress so far. In a dry run the copy and delete
+ * counts are what would have been done.
+ */
+public final class SyncReport {
+    private final long scanned;
+    private final long copied;
+    private final long deleted;
+    private final long unchanged;
+    private final long failed;
+    private final long bytesCopied;
+    private final long elapsedMillis;
+    private final boolean dryRun;
+    private final Map<String, String> failures;
+
+    SyncReport(long scanned, long copied, long deleted, long unchanged, long failed, long bytesCopied,
+               long elapsedMillis, boolean dryRun, Map<String, String> failures) {
+        this.scanned = scanned;
+        this.copied = copied;
+        this.deleted = deleted;
+        this.unchanged = unchanged;
+        this.failed = failed;
+        this.bytesCopied = bytesCopied;
+        this.elapsedMillis = elapsedMillis;
+        this.dryRun = dryRun;
+        this.failures = failures;
+    }
+
+    /**
+     * Get the number of source files looked at
+     */
+    public long getScanned() {
+        return scanned;
+    }
+
+    public long getCopied() {
+        return copied;
+    }
+
+    public long getDeleted() {
+        return deleted;
+    }
+
+    public long getUnchanged() {
+        return unchanged;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public long getBytesCopied() {
+        return bytesCopied;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    /**
+     * Get the copied bytes per second over the whole run
+     */
+    public double getThroughput() {
+        return elapsedMillis == 0 ? 0 : bytesCopied * 1000.0 / elapsedMillis;
+    }
+
+    /**
+     * Get the error message per failed path. Only the first failures are kept so
+     * a broken destination cannot exhaust memory; {@link #getFailed()} counts all.
+     */
+    public Map<String, String> getFailures() {
+        return failures;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncReport{scanned=" + scanned
+                + ", copied=" + copied
+                + ", deleted=" + deleted
+                + ", unchanged=" + unchanged
+                + ", failed=" + failed
+                + ", bytesCopied=" + bytesCopied
+                + ", elapsedMillis=" + elapsedMillis
+                + (dryRun ? ", dryRun" : "")
+                + "}";
+    }
+}
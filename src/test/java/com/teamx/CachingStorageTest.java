@@ -0,0 +1,76 @@
+package com.teamx;
+
+import com.teamx.config.DiskConfig;
+import com.teamx.disks.CachingStorage;
+import com.teamx.disks.S3Storage;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CachingStorageTest {
+
+    private final FakeS3Client client;
+    private final CachingStorage storage;
+
+    public CachingStorageTest() {
+        DiskConfig diskConfig = new DiskConfig(StorageDisk.AWS_S3.value());
+        diskConfig.addOption("bucket", "test-bucket");
+        diskConfig.addOption("cache_size", "2");
+        diskConfig.addOption("cache_ttl", "60000");
+
+        this.client = new FakeS3Client("test-bucket");
+        this.storage = new CachingStorage(new S3Storage(client, diskConfig), diskConfig);
+    }
+
+    @Test
+    public void metadataIsServedFromOneHead() {
+        this.storage.put("test.txt", new ByteArrayInputStream("Hello World".getBytes()));
+
+        boolean exist = this.storage.exists("test.txt");
+        long size = this.storage.size("test.txt");
+        long lastModified = this.storage.lastModified("test.txt");
+        System.out.println("Exist: " + exist + ", size: " + size + ", last modified: " + lastModified);
+
+        assertEquals(1, client.calls("headObject"));
+        assertEquals(2, storage.getHits());
+        assertEquals(1, storage.getMisses());
+    }
+
+    @Test
+    public void missingPathsAreCached() {
+        assertFalse(this.storage.exists("missing.txt"));
+        assertFalse(this.storage.exists("missing.txt"));
+        assertThrows(StorageException.class, () -> this.storage.size("missing.txt"));
+        assertEquals(1, client.calls("headObject"));
+    }
+
+    @Test
+    public void writesInvalidateEntries() {
+        assertFalse(this.storage.exists("test.txt"));
+        this.storage.put("test.txt", new ByteArrayInputStream("Hello".getBytes()));
+        assertTrue(this.storage.exists("test.txt"));
+
+        this.storage.copy("test.txt", "copy.txt");
+        assertEquals(5, this.storage.size("copy.txt"));
+
+        this.storage.delete("test.txt");
+        assertFalse(this.storage.exists("test.txt"));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() {
+        this.storage.exists("a.txt");
+        this.storage.exists("b.txt");
+        this.storage.exists("a.txt");
+        this.storage.exists("c.txt");
+
+        assertEquals(2, storage.getEntryCount());
+        assertEquals(1, storage.getEvictions());
+
+        // "b.txt" was the least recently used entry
+        this.storage.exists("b.txt");
+        assertEquals(4, client.calls("headObject"));
+    }
+}
@@ -0,0 +1,145 @@
+package com.teamx;
+
+import com.teamx.config.DiskConfig;
+import com.teamx.config.StorageConfig;
+import com.teamx.disks.CompressedStorage;
+import com.teamx.disks.LocalStorage;
+import com.teamx.disks.ResilientStorage;
+import com.teamx.disks.S3Storage;
+import com.teamx.disks.Storage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompressedStorageTest {
+
+    @TempDir
+    Path root;
+
+    private static byte[] json(int records) {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < records; i++) {
+            builder.append("{\"id\":").append(i).append(",\"level\":\"INFO\",\"message\":\"request served\"},\n");
+        }
+        return builder.append("]").toString().getBytes();
+    }
+
+    private static byte[] read(Storage storage, String path) throws IOException {
+        return storage.get(path).readAllBytes();
+    }
+
+    @Test
+    public void compressesAndRestoresContent() throws IOException {
+        byte[] content = json(5_000);
+        for (String codec : new String[]{"zstd", "gzip"}) {
+            Storage storage = new CompressedStorage(new LocalStorage(root.resolve(codec)), codec);
+            storage.put("logs/app.json", new ByteArrayInputStream(content));
+
+            long stored = Files.size(root.resolve(codec).resolve("logs/app.json"));
+            System.out.println(codec + ": " + content.length + " -> " + stored + " bytes");
+            assertTrue(stored < content.length / 5);
+            assertEquals(stored, storage.size("logs/app.json"));
+            assertArrayEquals(content, read(storage, "logs/app.json"));
+
+            ByteBuffer range = storage.readRange("logs/app.json", 100_000, 10);
+            assertArrayEquals(Arrays.copyOfRange(content, 100_000, 100_010), bytes(range));
+        }
+    }
+
+    @Test
+    public void storesCompressedDataAsIs() throws IOException {
+        Storage storage = new CompressedStorage(new LocalStorage(root), "zstd");
+
+        byte[] random = new byte[200_000];
+        new Random(7).nextBytes(random);
+        storage.put("random.bin", new ByteArrayInputStream(random));
+        assertArrayEquals(random, Files.readAllBytes(root.resolve("random.bin")));
+
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(json(100));
+        }
+        storage.put("logs.json.gz", new ByteArrayInputStream(gzipped.toByteArray()));
+        assertArrayEquals(gzipped.toByteArray(), Files.readAllBytes(root.resolve("logs.json.gz")));
+        assertEquals(0, ((CompressedStorage) storage).getCompressed());
+
+        // Content that looks like a header is stored with a header of its own
+        byte[] lookalike = {(byte) 0x89, 'C', 'Z', 0x1A, 2, 1, 2, 3};
+        storage.put("lookalike.bin", new ByteArrayInputStream(lookalike));
+        assertArrayEquals(lookalike, read(storage, "lookalike.bin"));
+
+        // Files written without the decorator read as they are
+        Files.write(root.resolve("plain.txt"), "plain".getBytes());
+        assertArrayEquals("plain".getBytes(), read(storage, "plain.txt"));
+    }
+
+    @Test
+    public void copiesToOtherDisksDecompressed() throws IOException {
+        FakeS3Client client = new FakeS3Client("test-bucket");
+        Storage compressed = new CompressedStorage(new S3Storage(client, "test-bucket", "", ""), "gzip");
+        Storage plain = new LocalStorage(root);
+        byte[] content = json(1_000);
+
+        compressed.put("data.json", new ByteArrayInputStream(content));
+        assertEquals("gzip", client.object("data.json").metadata().get("compression"));
+
+        plain.copyFrom(compressed, "data.json", "copy.json");
+        assertArrayEquals(content, Files.readAllBytes(root.resolve("copy.json")));
+        compressed.copyFrom(plain, "copy.json", "again.json");
+        compressed.copy("again.json", "third.json");
+        assertArrayEquals(content, read(compressed, "third.json"));
+    }
+
+    @Test
+    public void retriedPutsCompressTheContentAgain() throws IOException {
+        FakeS3Client client = new FakeS3Client("test-bucket");
+        DiskConfig diskConfig = new DiskConfig(StorageDisk.AWS_S3.value());
+        diskConfig.addOption("bucket", "test-bucket");
+        diskConfig.addOption("retry_base_delay", "1");
+        diskConfig.addOption("retry_max_delay", "10");
+        ResilientStorage storage = new ResilientStorage(
+                new CompressedStorage(new S3Storage(client, diskConfig), "zstd"), diskConfig);
+        byte[] content = json(1_000);
+        client.failNext("putObject", 1, 503);
+
+        assertTrue(storage.put("data.json", new BufferedInputStream(new ByteArrayInputStream(content))));
+        assertEquals(2, client.calls("putObject"));
+        assertEquals(1, storage.getRetries());
+        assertArrayEquals(content, read(storage, "data.json"));
+    }
+
+    @Test
+    public void enabledThroughConfiguration() throws IOException {
+        StorageConfig config = new StorageConfig();
+        DiskConfig disk = new DiskConfig(StorageDisk.LOCAL.value());
+        disk.addOption("root", root.toString());
+        disk.addOption("compression", "gzip");
+        disk.addOption("compression_level", "1");
+        config.addDisk("logs", disk);
+
+        try (StorageManager manager = new StorageManager(config)) {
+            byte[] content = json(1_000);
+            manager.disk("logs").put("day.json", new ByteArrayInputStream(content));
+            assertTrue(Files.size(root.resolve("day.json")) < content.length);
+            assertArrayEquals(content, read(manager.disk("logs"), "day.json"));
+        }
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
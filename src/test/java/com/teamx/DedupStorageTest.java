@@ -0,0 +1,181 @@
+package com.teamx;
+
+import com.teamx.config.DiskConfig;
+import com.teamx.config.StorageConfig;
+import com.teamx.disks.DedupStorage;
+import com.teamx.disks.LocalStorage;
+import com.teamx.disks.Storage;
+import com.teamx.disks.StorageEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DedupStorageTest {
+
+    @TempDir
+    Path root;
+
+    private DedupStorage open(LocalStorage backend) {
+        return new DedupStorage(backend, root.resolve("index/paths.idx"), "blobs", 16, root.resolve("spool"), 0, 0);
+    }
+
+    private static void put(Storage storage, String path, String content) {
+        storage.put(path, new ByteArrayInputStream(content.getBytes()));
+    }
+
+    private static String read(Storage storage, String path) throws IOException {
+        return new String(storage.get(path).readAllBytes());
+    }
+
+    private long blobCount() throws IOException {
+        try (Stream<Path> files = Files.walk(root.resolve("backend/blobs"))) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    @Test
+    public void storesEachContentOnce() throws IOException {
+        Files.createDirectories(root.resolve("spool"));
+        LocalStorage backend = new LocalStorage(root.resolve("backend"));
+        DedupStorage storage = open(backend);
+        String attachment = "the same attachment, larger than the in-memory spool";
+
+        put(storage, "tenants/a/report.pdf", attachment);
+        put(storage, "tenants/b/report.pdf", attachment);
+        put(storage, "tenants/b/notes.txt", "notes");
+        storage.copy("tenants/a/report.pdf", "tenants/c/report.pdf");
+
+        assertEquals(2, blobCount());
+        assertEquals(2L * attachment.length(), storage.getDedupedBytes() + storage.size("tenants/c/report.pdf"));
+        assertEquals(attachment, read(storage, "tenants/c/report.pdf"));
+        assertEquals(storage.stat("tenants/a/report.pdf").getETag(), storage.stat("tenants/b/report.pdf").getETag());
+        try (Stream<Path> spooled = Files.list(root.resolve("spool"))) {
+            assertEquals(0, spooled.count());
+        }
+
+        try (Stream<StorageEntry> entries = storage.listAll("tenants")) {
+            assertEquals(List.of("tenants/a", "tenants/a/report.pdf", "tenants/b", "tenants/b/notes.txt",
+                            "tenants/b/report.pdf", "tenants/c", "tenants/c/report.pdf"),
+                    entries.map(StorageEntry::getPath).collect(Collectors.toList()));
+        }
+        assertEquals(List.of("tenants/a", "tenants/b", "tenants/c"), storage.listContents("tenants"));
+        assertTrue(storage.exists("tenants/b"));
+    }
+
+    @Test
+    public void collectsUnreferencedBlobs() throws IOException {
+        LocalStorage backend = new LocalStorage(root.resolve("backend"));
+        DedupStorage storage = open(backend);
+        put(storage, "a.txt", "shared");
+        storage.copy("a.txt", "b.txt");
+        put(storage, "c.txt", "only here");
+        backend.put("blobs/00/" + "0".repeat(64), new ByteArrayInputStream("orphan".getBytes()));
+        Files.setLastModifiedTime(root.resolve("backend/blobs/00/" + "0".repeat(64)), FileTime.fromMillis(0));
+
+        storage.delete("a.txt");
+        storage.move("c.txt", "d.txt");
+        // The orphan goes on the first run; the shared blob is still used by b.txt
+        assertEquals(1, storage.collectGarbage());
+        assertEquals(2, blobCount());
+
+        storage.deleteDirectory("");
+        assertEquals(2, storage.collectGarbage());
+        assertEquals(0, blobCount());
+        assertFalse(storage.exists("b.txt"));
+    }
+
+    @Test
+    public void lostIndexKeepsTheBlobs() throws IOException {
+        LocalStorage backend = new LocalStorage(root.resolve("backend"));
+        DedupStorage storage = open(backend);
+        put(storage, "a.txt", "kept");
+        storage.close();
+        Files.delete(root.resolve("index/paths.idx"));
+        try (Stream<Path> files = Files.walk(root.resolve("backend/blobs"))) {
+            for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+            }
+        }
+
+        DedupStorage reopened = open(backend);
+        assertEquals(0, reopened.collectGarbage());
+        assertEquals(1, blobCount());
+        reopened.close();
+    }
+
+    @Test
+    public void indexSurvivesRestart() throws IOException {
+        LocalStorage backend = new LocalStorage(root.resolve("backend"));
+        DedupStorage storage = open(backend);
+        put(storage, "docs/one.txt", "one");
+        put(storage, "docs/two.txt", "two");
+        storage.copy("docs/one.txt", "docs/three.txt");
+        storage.delete("docs/two.txt");
+        storage.close();
+
+        DedupStorage reopened = open(backend);
+        assertEquals(List.of("docs/one.txt", "docs/three.txt"), reopened.listContents("docs"));
+        assertEquals("one", read(reopened, "docs/three.txt"));
+        assertEquals(1, reopened.collectGarbage());
+        assertThrows(StorageException.class, () -> reopened.get("docs/two.txt"));
+        reopened.close();
+    }
+
+    @Test
+    public void builtFromConfiguration() throws IOException {
+        StorageConfig config = new StorageConfig();
+        DiskConfig blobs = new DiskConfig(StorageDisk.LOCAL.value());
+        blobs.addOption("root", root.resolve("backend").toString());
+        config.addDisk("blobs", blobs);
+        DiskConfig dedup = new DiskConfig(StorageDisk.DEDUP.value());
+        dedup.addOption("backend", "blobs");
+        dedup.addOption("index_file", root.resolve("index/paths.idx").toString());
+        config.addDisk("attachments", dedup);
+
+        try (StorageManager manager = new StorageManager(config)) {
+            Storage attachments = manager.disk("attachments");
+            put(attachments, "x.bin", "content");
+            put(attachments, "y.bin", "content");
+            assertEquals("content", read(attachments, "y.bin"));
+            assertEquals(1, blobCount());
+        }
+    }
+
+    @Test
+    public void indexBelongsToOneDisk() throws IOException {
+        LocalStorage backend = new LocalStorage(root.resolve("backend"));
+        DedupStorage storage = open(backend);
+        assertThrows(StorageException.class, () -> open(backend));
+        storage.close();
+        open(backend).close();
+
+        StorageConfig config = new StorageConfig().setCloseGracePeriod(60_000);
+        DiskConfig blobs = new DiskConfig(StorageDisk.LOCAL.value());
+        blobs.addOption("root", root.resolve("backend").toString());
+        config.addDisk("blobs", blobs);
+        DiskConfig dedup = new DiskConfig(StorageDisk.DEDUP.value());
+        dedup.addOption("backend", "blobs");
+        dedup.addOption("index_file", root.resolve("index/paths.idx").toString());
+        dedup.addOption("gc_interval", "0");
+        config.addDisk("attachments", dedup);
+
+        try (StorageManager manager = new StorageManager(config)) {
+            put(manager.disk("attachments"), "x.bin", "content");
+
+            // The replaced disk is closed before its replacement opens the index
+            dedup.addOption("gc_grace", "1000");
+            manager.reload(config);
+            assertEquals("content", read(manager.disk("attachments"), "x.bin"));
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package com.teamx;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory S3Client for tests. Supports the subset of the API used by S3Storage
+ * and counts calls per operation.
+ */
+public class FakeS3Client implements S3Client {
+
+    public static class StoredObject {
+        final byte[] data;
+        final Map<String, String> metadata;
+        final Instant lastModified;
+        final String eTag;
+
+        StoredObject(byte[] data, Map<String, String> metadata) {
+            this.data = data;
+            this.metadata = metadata == null ? Map.of() : Map.copyOf(metadata);
+            this.lastModified = Instant.now();
+            this.eTag = "\"" + md5(data) + "\"";
+        }
+
+        public byte[] data() {
+            return data;
+        }
+
+        public Map<String, String> metadata() {
+            return metadata;
+        }
+    }
+
+    private final ConcurrentSkipListMap<String, StoredObject> objects = new ConcurrentSkipListMap<>();
+    private final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> uploadMetadata = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+    private final Map<String, Fault> faults = new ConcurrentHashMap<>();
+    private final AtomicInteger uploadIds = new AtomicInteger();
+    private final String bucket;
+    private volatile long copyLimit = Long.MAX_VALUE;
+
+    public FakeS3Client(String bucket) {
+        this.bucket = bucket;
+    }
+
+    public StoredObject object(String key) {
+        return objects.get(key);
+    }
+
+    public Set<String> keys() {
+        return objects.keySet();
+    }
+
+    public int calls(String operation) {
+        AtomicInteger counter = calls.get(operation);
+        return counter == null ? 0 : counter.get();
+    }
+
+    public int openUploads() {
+        return uploads.size();
+    }
+
+    /**
+     * Make the next calls of an operation fail with an S3 error
+     */
+    public void failNext(String operation, int times, int statusCode) {
+        faults.put(operation, new Fault(times, statusCode, 0));
+    }
+
+    /**
+     * Make the next calls of an operation answer after a delay
+     */
+    public void delayNext(String operation, int times, long millis) {
+        faults.put(operation, new Fault(times, 0, millis));
+    }
+
+    /**
+     * Make CopyObject reject sources larger than a limit, as S3 does above 5 GB
+     */
+    public void copyLimit(long bytes) {
+        this.copyLimit = bytes;
+    }
+
+    private void record(String operation) {
+        calls.computeIfAbsent(operation, k -> new AtomicInteger()).incrementAndGet();
+
+        Fault fault = faults.get(operation);
+        if (fault == null || fault.remaining.getAndDecrement() <= 0) {
+            return;
+        }
+        if (fault.delayMillis > 0) {
+            try {
+                Thread.sleep(fault.delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (fault.statusCode > 0) {
+            throw S3Exception.builder().message(fault.statusCode == 503 ? "SlowDown" : "Injected failure")
+                    .statusCode(fault.statusCode).build();
+        }
+    }
+
+    private static final class Fault {
+        final AtomicInteger remaining;
+        final int statusCode;
+        final long delayMillis;
+
+        Fault(int times, int statusCode, long delayMillis) {
+            this.remaining = new AtomicInteger(times);
+            this.statusCode = statusCode;
+            this.delayMillis = delayMillis;
+        }
+    }
+
+    private void checkBucket(String requested) {
+        if (!bucket.equals(requested)) {
+            throw NoSuchBucketException.builder().message("No such bucket: " + requested).statusCode(404).build();
+        }
+    }
+
+    private StoredObject require(String key) {
+        StoredObject object = objects.get(key);
+        if (object == null) {
+            throw NoSuchKeyException.builder().message("No such key: " + key).statusCode(404).build();
+        }
+        return object;
+    }
+
+    @Override
+    public String serviceName() {
+        return "s3";
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public HeadBucketResponse headBucket(HeadBucketRequest request) {
+        record("headBucket");
+        checkBucket(request.bucket());
+        return HeadBucketResponse.builder().build();
+    }
+
+    @Override
+    public PutObjectResponse putObject(PutObjectRequest request, RequestBody body) {
+        record("putObject");
+        checkBucket(request.bucket());
+        StoredObject object = new StoredObject(read(body), request.metadata());
+        objects.put(request.key(), object);
+        return PutObjectResponse.builder().eTag(object.eTag).build();
+    }
+
+    @Override
+    public HeadObjectResponse headObject(HeadObjectRequest request) {
+        record("headObject");
+        checkBucket(request.bucket());
+        StoredObject object = require(request.key());
+        return HeadObjectResponse.builder()
+                .contentLength((long) object.data.length)
+                .lastModified(object.lastModified)
+                .eTag(object.eTag)
+                .metadata(object.metadata)
+                .build();
+    }
+
+    @Override
+    public <ReturnT> ReturnT getObject(GetObjectRequest request,
+                                       ResponseTransformer<GetObjectResponse, ReturnT> transformer) {
+        record("getObject");
+        checkBucket(request.bucket());
+        StoredObject object = require(request.key());
+
+        int from = 0;
+        int to = object.data.length;
+        String range = request.range();
+        if (range != null) {
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            from = Integer.parseInt(bounds[0]);
+            if (from >= object.data.length) {
+                throw S3Exception.builder().message("Requested range not satisfiable").statusCode(416).build();
+            }
+            if (bounds.length > 1 && !bounds[1].isEmpty()) {
+                to = Math.min(to, Integer.parseInt(bounds[1]) + 1);
+            }
+        }
+        if (request.ifMatch() != null && !request.ifMatch().equals(object.eTag)) {
+            throw S3Exception.builder().message("Precondition failed").statusCode(412).build();
+        }
+
+        byte[] slice = Arrays.copyOfRange(object.data, from, to);
+        GetObjectResponse response = GetObjectResponse.builder()
+                .contentLength((long) slice.length)
+                .lastModified(object.lastModified)
+                .eTag(object.eTag)
+                .metadata(object.metadata)
+                .build();
+
+        try {
+            return transformer.transform(response, AbortableInputStream.create(new ByteArrayInputStream(slice)));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest request) {
+        return getObject(request, ResponseTransformer.toInputStream());
+    }
+
+    @Override
+    public DeleteObjectResponse deleteObject(DeleteObjectRequest request) {
+        record("deleteObject");
+        checkBucket(request.bucket());
+        objects.remove(request.key());
+        return DeleteObjectResponse.builder().build();
+    }
+
+    @Override
+    public DeleteObjectsResponse deleteObjects(DeleteObjectsRequest request) {
+        record("deleteObjects");
+        checkBucket(request.bucket());
+        if (request.delete().objects().size() > 1000) {
+            throw S3Exception.builder().message("Too many keys").statusCode(400).build();
+        }
+
+        List<DeletedObject> deleted = new ArrayList<>();
+        for (ObjectIdentifier id : request.delete().objects()) {
+            objects.remove(id.key());
+            deleted.add(DeletedObject.builder().key(id.key()).build());
+        }
+        return DeleteObjectsResponse.builder().deleted(deleted).build();
+    }
+
+    @Override
+    public CopyObjectResponse copyObject(CopyObjectRequest request) {
+        record("copyObject");
+        checkBucket(request.sourceBucket());
+        checkBucket(request.destinationBucket());
+        StoredObject source = require(request.sourceKey());
+        if (source.data.length > copyLimit) {
+            throw S3Exception.builder()
+                    .awsErrorDetails(AwsErrorDetails.builder()
+                            .errorCode("InvalidRequest")
+                            .errorMessage("The specified copy source is larger than the maximum allowable size"
+                                    + " for a copy source: " + copyLimit)
+                            .build())
+                    .statusCode(400)
+                    .build();
+        }
+        objects.put(request.destinationKey(), new StoredObject(source.data, source.metadata));
+        return CopyObjectResponse.builder().build();
+    }
+
+    @Override
+    public ListObjectsV2Response listObjectsV2(ListObjectsV2Request request) {
+        record("listObjectsV2");
+        checkBucket(request.bucket());
+        String prefix = request.prefix() == null ? "" : request.prefix();
+        String delimiter = request.delimiter();
+        int maxKeys = request.maxKeys() == null ? 1000 : Math.min(1000, request.maxKeys());
+        String start = request.continuationToken() != null ? request.continuationToken() : request.startAfter();
+
+        NavigableMap<String, StoredObject> view = start == null
+                ? objects.tailMap(prefix, true)
+                : objects.tailMap(start, false);
+
+        List<S3Object> contents = new ArrayList<>();
+        Set<String> commonPrefixes = new LinkedHashSet<>();
+        String lastKey = null;
+        boolean truncated = false;
+
+        for (Map.Entry<String, StoredObject> entry : view.entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+            if (contents.size() + commonPrefixes.size() >= maxKeys) {
+                truncated = true;
+                break;
+            }
+
+            lastKey = key;
+            if (delimiter != null) {
+                int index = key.indexOf(delimiter, prefix.length());
+                if (index >= 0) {
+                    commonPrefixes.add(key.substring(0, index + delimiter.length()));
+                    continue;
+                }
+            }
+
+            StoredObject object = entry.getValue();
+            contents.add(S3Object.builder()
+                    .key(key)
+                    .size((long) object.data.length)
+                    .lastModified(object.lastModified)
+                    .eTag(object.eTag)
+                    .build());
+        }
+
+        List<CommonPrefix> prefixes = new ArrayList<>();
+        commonPrefixes.forEach(p -> prefixes.add(CommonPrefix.builder().prefix(p).build()));
+
+        return ListObjectsV2Response.builder()
+                .contents(contents)
+                .commonPrefixes(prefixes)
+                .isTruncated(truncated)
+                .nextContinuationToken(truncated ? lastKey : null)
+                .keyCount(contents.size() + prefixes.size())
+                .build();
+    }
+
+    @Override
+    public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+        record("createMultipartUpload");
+        checkBucket(request.bucket());
+        String uploadId = "upload-" + uploadIds.incrementAndGet();
+        uploads.put(uploadId, new ConcurrentSkipListMap<>());
+        uploadMetadata.put(uploadId, request.metadata() == null ? Map.of() : request.metadata());
+        return CreateMultipartUploadResponse.builder().uploadId(uploadId).key(request.key()).build();
+    }
+
+    @Override
+    public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody body) {
+        record("uploadPart");
+        Map<Integer, byte[]> parts = requireUpload(request.uploadId());
+        byte[] data = read(body);
+        parts.put(request.partNumber(), data);
+        return UploadPartResponse.builder().eTag("\"" + md5(data) + "\"").build();
+    }
+
+    @Override
+    public UploadPartCopyResponse uploadPartCopy(UploadPartCopyRequest request) {
+        record("uploadPartCopy");
+        checkBucket(request.sourceBucket());
+        Map<Integer, byte[]> parts = requireUpload(request.uploadId());
+        StoredObject source = require(request.sourceKey());
+
+        byte[] data = source.data;
+        String range = request.copySourceRange();
+        if (range != null) {
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            data = Arrays.copyOfRange(source.data, Integer.parseInt(bounds[0]), Integer.parseInt(bounds[1]) + 1);
+        }
+        parts.put(request.partNumber(), data);
+        return UploadPartCopyResponse.builder()
+                .copyPartResult(CopyPartResult.builder().eTag("\"" + md5(data) + "\"").build())
+                .build();
+    }
+
+    @Override
+    public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+        record("completeMultipartUpload");
+        Map<Integer, byte[]> parts = requireUpload(request.uploadId());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (CompletedPart part : request.multipartUpload().parts()) {
+            byte[] data = parts.get(part.partNumber());
+            if (data == null) {
+                throw S3Exception.builder().message("Missing part " + part.partNumber()).statusCode(400).build();
+            }
+            out.writeBytes(data);
+        }
+
+        objects.put(request.key(), new StoredObject(out.toByteArray(), uploadMetadata.remove(request.uploadId())));
+        uploads.remove(request.uploadId());
+        return CompleteMultipartUploadResponse.builder().key(request.key()).build();
+    }
+
+    @Override
+    public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+        record("abortMultipartUpload");
+        uploads.remove(request.uploadId());
+        uploadMetadata.remove(request.uploadId());
+        return AbortMultipartUploadResponse.builder().build();
+    }
+
+    private Map<Integer, byte[]> requireUpload(String uploadId) {
+        Map<Integer, byte[]> parts = uploads.get(uploadId);
+        if (parts == null) {
+            throw NoSuchUploadException.builder().message("No such upload: " + uploadId).statusCode(404).build();
+        }
+        return parts;
+    }
+
+    private static byte[] read(RequestBody body) {
+        try (InputStream in = body.contentStreamProvider().newStream()) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String md5(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
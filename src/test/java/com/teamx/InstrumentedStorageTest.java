@@ -0,0 +1,125 @@
+package com.teamx;
+
+import com.teamx.config.DiskConfig;
+import com.teamx.config.StorageConfig;
+import com.teamx.disks.DeleteReport;
+import com.teamx.disks.Storage;
+import com.teamx.metrics.DiskMetricsSnapshot;
+import com.teamx.metrics.HistogramSnapshot;
+import com.teamx.metrics.LatencyHistogram;
+import com.teamx.metrics.StorageOperation;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InstrumentedStorageTest {
+
+    @TempDir
+    Path root;
+
+    private StorageManager manager(String hotKeys) {
+        DiskConfig diskConfig = new DiskConfig(StorageDisk.LOCAL.value());
+        diskConfig.addOption("root", root.toString());
+        diskConfig.addOption("metrics_hot_keys", hotKeys);
+
+        StorageConfig storageConfig = new StorageConfig();
+        storageConfig.addDisk("files", diskConfig);
+        return new StorageManager(storageConfig);
+    }
+
+    @Test
+    public void histogramQuantilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 100_000; i++) {
+            histogram.record(i * 1000);
+        }
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(100_000, snapshot.getCount());
+        assertEquals(100_000_000, snapshot.getMax());
+        assertEquals(50_000_000, snapshot.getP50(), 50_000_000 * 0.0625);
+        assertEquals(99_000_000, snapshot.getP99(), 99_000_000 * 0.0625);
+        assertEquals(0, new LatencyHistogram().snapshot().getP99());
+    }
+
+    @Test
+    public void managerRecordsCallsBytesAndErrors() throws IOException {
+        StorageManager manager = manager("0");
+        Storage storage = manager.disk("files");
+
+        storage.put("a.txt", new ByteArrayInputStream(new byte[100]));
+        try (InputStream in = storage.get("a.txt")) {
+            in.readAllBytes();
+        }
+        storage.exists("a.txt");
+        storage.exists("b.txt");
+        assertThrows(StorageException.class, () -> storage.get("b.txt"));
+
+        DiskMetricsSnapshot snapshot = manager.getMetrics().snapshot().get("files");
+        assertEquals(100, snapshot.getBytesWritten());
+        assertEquals(100, snapshot.getBytesRead());
+        assertEquals(1, snapshot.getOperation(StorageOperation.PUT).getCalls());
+        assertEquals(2, snapshot.getOperation(StorageOperation.EXISTS).getCalls());
+        assertEquals(2, snapshot.getOperation(StorageOperation.GET).getCalls());
+        assertEquals(1, snapshot.getOperation(StorageOperation.GET).getErrors());
+        assertNull(snapshot.getOperation(StorageOperation.COPY));
+        assertTrue(snapshot.getHotKeys().isEmpty());
+    }
+
+    @Test
+    public void deleteReportsReachTheDriverThroughDecorators() {
+        StorageManager manager = manager("0");
+        Storage storage = manager.disk("files");
+        for (int i = 0; i < 10; i++) {
+            storage.put("tree/" + i + ".txt", new ByteArrayInputStream(new byte[1]));
+        }
+
+        List<Long> progress = new CopyOnWriteArrayList<>();
+        DeleteReport report = storage.deleteDirectory("tree", progress::add);
+        assertEquals(11, report.getDeleted());
+        assertTrue(report.isComplete());
+        assertEquals(11L, progress.get(progress.size() - 1));
+        assertFalse(storage.exists("tree/0.txt"));
+
+        DiskMetricsSnapshot snapshot = manager.getMetrics().snapshot().get("files");
+        assertEquals(1, snapshot.getOperation(StorageOperation.DELETE_DIRECTORY).getCalls());
+    }
+
+    @Test
+    public void hotKeysFindFrequentPaths() {
+        StorageManager manager = manager("4");
+        Storage storage = manager.disk("files");
+
+        for (int i = 0; i < 5000; i++) {
+            storage.exists("hot.txt");
+            storage.exists("cold-" + i + ".txt");
+        }
+
+        DiskMetricsSnapshot snapshot = manager.getMetrics().snapshot().get("files");
+        assertEquals("hot.txt", snapshot.getHotKeys().keySet().iterator().next());
+    }
+
+    @Test
+    public void metricsArePublishedOverJmx() throws Exception {
+        StorageManager manager = manager("0");
+        manager.disk("files").exists("a.txt");
+        manager.getMetrics().registerMBeans();
+
+        try {
+            ObjectName name = new ObjectName("com.teamx.storage:type=Disk,name=\"files\"");
+            assertEquals("files", ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Disk"));
+        } finally {
+            manager.getMetrics().unregisterMBeans();
+        }
+    }
+}
@@ -2,14 +2,39 @@ package com.teamx;
 
 import com.teamx.config.DiskConfig;
 import com.teamx.config.StorageConfig;
+import com.teamx.disks.AsyncStorage;
+import com.teamx.disks.DeleteReport;
+import com.teamx.disks.LocalStorage;
 import com.teamx.disks.Storage;
+import com.teamx.disks.StorageEntry;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class LocalStorageTest {
 
@@ -76,6 +101,20 @@ public class LocalStorageTest {
         System.out.println("List Content: " + listContents);
     }
 
+    @Test
+    public void list() {
+        try (Stream<StorageEntry> entries = this.storage.list("")) {
+            entries.forEach(entry -> System.out.println("Entry: " + entry));
+        }
+    }
+
+    @Test
+    public void listAll() {
+        try (Stream<StorageEntry> entries = this.storage.listAll("")) {
+            entries.forEach(entry -> System.out.println("Entry (recursive): " + entry));
+        }
+    }
+
     @Test
     public void deleteDirectory() {
         boolean dirDeleted = this.storage.deleteDirectory("move");
@@ -94,4 +133,223 @@ public class LocalStorageTest {
         long size = this.storage.size("test.txt");
         System.out.println(filename + " File size: " + size);
     }
+
+    @Test
+    public void async() throws Exception {
+        AsyncStorage asyncStorage = this.storage.async();
+        CompletableFuture<Boolean> exists = asyncStorage.exists("test.txt");
+        CompletableFuture<Long> size = asyncStorage.size("test.txt");
+
+        System.out.println("Async Exist: " + exists.get() + ", Async size: " + size.get());
+        try (InputStream inputStream = asyncStorage.get("test.txt").get()) {
+            System.out.println("Async content: " + new String(inputStream.readAllBytes()));
+        }
+    }
+
+    @Test
+    public void channels() throws IOException {
+        Path copy = Path.of(this.root, "channel-copy.txt");
+        try (FileChannel target = FileChannel.open(copy, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long written = this.storage.writeTo("test.txt", target);
+            System.out.println("Bytes transferred: " + written);
+        }
+
+        try (FileChannel source = FileChannel.open(copy)) {
+            boolean filePutted = this.storage.put("channel-put.txt", source, source.size());
+            System.out.println("Channel putted: " + filePutted);
+        }
+        this.storage.delete("channel-put.txt");
+        Files.delete(copy);
+    }
+
+    @Test
+    public void channelShorterThanSize(@TempDir Path root) throws IOException {
+        LocalStorage local = new LocalStorage(root);
+        local.put("a.txt", new ByteArrayInputStream("old".getBytes()));
+
+        assertThrows(StorageException.class, () -> local.put("a.txt",
+                Channels.newChannel(new ByteArrayInputStream("abc".getBytes())), 10));
+        assertEquals("old", Files.readString(root.resolve("a.txt")));
+        try (Stream<Path> files = Files.list(root)) {
+            assertEquals(1, files.count());
+        }
+
+        // Content beyond the expected size is read to the end of the stream as well
+        local.put("b.txt", Channels.newChannel(new ByteArrayInputStream("abcdef".getBytes())), 3);
+        assertEquals("abcdef", Files.readString(root.resolve("b.txt")));
+    }
+
+    @Test
+    public void readRange(@TempDir Path root) {
+        DiskConfig diskConfig = new DiskConfig(StorageDisk.LOCAL.value());
+        diskConfig.addOption("root", root.toString());
+        diskConfig.addOption("mmap_chunk_size", "4");
+        Storage mapped = new LocalStorage(diskConfig);
+        mapped.put("index.bin", new ByteArrayInputStream("0123456789".getBytes()));
+
+        assertEquals("234", text(mapped.readRange("index.bin", 2, 3)));
+        // Spans three mapped chunks
+        assertEquals("345678", text(mapped.readRange("index.bin", 3, 6)));
+        assertEquals("89", text(mapped.readRange("index.bin", 8, 10)));
+        assertEquals("", text(mapped.readRange("index.bin", 12, 4)));
+
+        mapped.put("index.bin", new ByteArrayInputStream("abcdefghij".getBytes()));
+        assertEquals("cde", text(mapped.readRange("index.bin", 2, 3)));
+        assertThrows(StorageException.class, () -> mapped.readRange("missing.bin", 0, 1));
+    }
+
+    @Test
+    public void durableWrites(@TempDir Path root) throws Exception {
+        DiskConfig diskConfig = new DiskConfig(StorageDisk.LOCAL.value());
+        diskConfig.addOption("root", root.toString());
+        diskConfig.addOption("durability", "directory");
+        Storage durable = new LocalStorage(diskConfig);
+
+        List<CompletableFuture<Void>> writers = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            String path = "logs/entry-" + i + ".txt";
+            writers.add(CompletableFuture.runAsync(() -> durable.put(path, new ByteArrayInputStream(path.getBytes()))));
+        }
+        CompletableFuture.allOf(writers.toArray(new CompletableFuture<?>[0])).get();
+        durable.copy("logs/entry-1.txt", "logs/entry-2.txt");
+
+        assertEquals(64, durable.listContents("logs").size());
+        assertEquals("logs/entry-1.txt", new String(durable.get("logs/entry-2.txt").readAllBytes()));
+
+        // A failed write leaves the old content and no temporary file behind
+        InputStream broken = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Broken source");
+            }
+        };
+        assertThrows(StorageException.class, () -> durable.put("logs/entry-3.txt", broken));
+        assertEquals("logs/entry-3.txt", new String(durable.get("logs/entry-3.txt").readAllBytes()));
+        try (Stream<Path> files = Files.list(root.resolve("logs"))) {
+            assertEquals(64, files.count());
+        }
+
+        diskConfig.addOption("durability", "always");
+        assertThrows(StorageException.class, () -> new LocalStorage(diskConfig));
+    }
+
+    @Test
+    public void staleTemporaryFilesAreSwept(@TempDir Path root) throws Exception {
+        Files.createDirectories(root.resolve("logs"));
+        Path stale = Files.write(root.resolve("logs/.storage-tmp-crashed"), new byte[10]);
+        Files.setLastModifiedTime(stale, FileTime.fromMillis(System.currentTimeMillis() - 2 * 60 * 60 * 1000L));
+        Path recent = Files.write(root.resolve("logs/.storage-tmp-running"), new byte[10]);
+
+        Storage storage = new LocalStorage(root);
+        assertTrue(Files.exists(stale));
+        storage.put("logs/a.txt", new ByteArrayInputStream("a".getBytes()));
+
+        // Swept in the background
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (Files.exists(stale) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(Files.exists(stale));
+        assertTrue(Files.exists(recent));
+        assertEquals(List.of("logs/a.txt"), storage.listContents("logs"));
+    }
+
+    @Test
+    public void pathIndex(@TempDir Path root) throws Exception {
+        Path data = root.resolve("data");
+        Files.createDirectories(data.resolve("a/b"));
+        Files.write(data.resolve("a/1.txt"), "one".getBytes());
+        Files.write(data.resolve("a/b/2.txt"), "two".getBytes());
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 60_000);
+        Files.setLastModifiedTime(data.resolve("a/b"), old);
+
+        DiskConfig diskConfig = new DiskConfig(StorageDisk.LOCAL.value());
+        diskConfig.addOption("root", data.toString());
+        diskConfig.addOption("path_index", root.resolve("index/paths.idx").toString());
+        LocalStorage indexed = new LocalStorage(diskConfig);
+
+        indexed.put("a/b.txt", new ByteArrayInputStream("three".getBytes()));
+        indexed.makeDirectory("empty");
+        indexed.move("a/1.txt", "moved/1.txt");
+        try (Stream<StorageEntry> entries = indexed.listAll("")) {
+            assertEquals(List.of("a", "a/b.txt", "a/b", "a/b/2.txt", "empty", "moved", "moved/1.txt"),
+                    entries.map(StorageEntry::getPath).collect(Collectors.toList()));
+        }
+        assertEquals(List.of("a/b.txt", "a/b"), indexed.listContents("a"));
+        assertEquals(5, indexed.size("a/b.txt"));
+        assertTrue(indexed.exists("moved"));
+        assertFalse(indexed.exists("a/1.txt"));
+        assertEquals(null, indexed.stat("missing.txt"));
+
+        // Changes made by other processes are picked up by the watcher
+        Files.write(data.resolve("a/b/external.txt"), "external".getBytes());
+        long deadline = System.currentTimeMillis() + 10_000;
+        while ((indexed.stat("a/b/external.txt") == null || indexed.size("a/b/external.txt") != 8)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(8, indexed.size("a/b/external.txt"));
+        indexed.deleteDirectory("moved");
+        assertFalse(Files.exists(data.resolve("moved")));
+        indexed.close();
+
+        // Restarting lists only the directories changed since the snapshot, but
+        // files rewritten in place in an unchanged directory get their new size
+        Files.setLastModifiedTime(data.resolve("a/b"), old);
+        Files.write(data.resolve("a/b/2.txt"), "two, rewritten".getBytes());
+        Files.setLastModifiedTime(data.resolve("a/b"), old);
+        Files.write(data.resolve("a/new.txt"), "new".getBytes());
+        diskConfig.addOption("path_index_watch", "false");
+        LocalStorage reopened = new LocalStorage(diskConfig);
+        assertEquals(List.of("a/b/2.txt", "a/b/external.txt"), reopened.listContents("a/b"));
+        assertEquals(14, reopened.size("a/b/2.txt"));
+        assertTrue(reopened.exists("a/new.txt"));
+        assertEquals(List.of("a", "empty"), reopened.listContents(""));
+        reopened.close();
+    }
+
+    @Test
+    public void parallelDeleteDirectory(@TempDir Path root) throws IOException {
+        LocalStorage local = new LocalStorage(root);
+        for (int i = 0; i < 30; i++) {
+            for (int j = 0; j < 50; j++) {
+                Files.createDirectories(root.resolve("tree/dir-" + i + "/sub"));
+                Files.write(root.resolve("tree/dir-" + i + (j % 2 == 0 ? "/" : "/sub/") + j + ".txt"), new byte[]{1});
+            }
+        }
+        Files.write(root.resolve("kept.txt"), new byte[]{1});
+
+        List<Long> progress = new CopyOnWriteArrayList<>();
+        DeleteReport report = local.deleteDirectory("tree", progress::add);
+        System.out.println("Deleted: " + report + ", progress: " + progress);
+
+        // 1500 files, 60 directories below tree and tree itself
+        assertEquals(1561, report.getDeleted());
+        assertTrue(report.isComplete());
+        assertEquals(1561L, progress.get(progress.size() - 1));
+        assertFalse(Files.exists(root.resolve("tree")));
+        assertTrue(Files.exists(root.resolve("kept.txt")));
+        assertFalse(local.deleteDirectory("tree"));
+        local.close();
+    }
+
+    @Test
+    public void deleteDirectoryRemovesALinkNotItsTarget(@TempDir Path root, @TempDir Path outside) throws IOException {
+        LocalStorage local = new LocalStorage(root);
+        Files.write(outside.resolve("target.txt"), new byte[]{1});
+        Files.createSymbolicLink(root.resolve("link"), outside);
+
+        assertTrue(local.deleteDirectory("link"));
+        assertFalse(Files.exists(root.resolve("link"), LinkOption.NOFOLLOW_LINKS));
+        assertTrue(Files.exists(outside.resolve("target.txt")));
+        assertFalse(local.deleteDirectory("link"));
+        local.close();
+    }
+
+    private static String text(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes);
+    }
 }
@@ -0,0 +1,270 @@
+package com.teamx;
+
+import com.teamx.config.DiskConfig;
+import com.teamx.config.StorageConfig;
+import com.teamx.disks.LocalStorage;
+import com.teamx.disks.PackedStorage;
+import com.teamx.disks.Storage;
+import com.teamx.disks.StorageEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PackedStorageTest {
+
+    @TempDir
+    Path root;
+
+    private PackedStorage open(LocalStorage backend) {
+        return new PackedStorage(backend, root.resolve("segments"), 16, 1024 * 1024, 60_000, 0.5, 0);
+    }
+
+    private static void put(Storage storage, String path, String content) {
+        storage.put(path, new ByteArrayInputStream(content.getBytes()));
+    }
+
+    private static String read(Storage storage, String path) throws IOException {
+        return new String(storage.get(path).readAllBytes());
+    }
+
+    private List<String> files(String directory) throws IOException {
+        try (Stream<Path> files = Files.walk(root.resolve(directory))) {
+            return files.filter(Files::isRegularFile).map(file -> root.resolve(directory).relativize(file).toString())
+                    .filter(name -> !name.equals(".lock")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void packsSmallFilesIntoSegments() throws IOException {
+        LocalStorage backend = new LocalStorage(root.resolve("backend"));
+        PackedStorage storage = open(backend);
+        String large = "larger than the pack threshold";
+
+        put(storage, "thumbs/a/1.png", "one");
+        put(storage, "thumbs/a/2.png", "two");
+        put(storage, "thumbs/b/3.png", "three");
+        put(storage, "originals/a.png", large);
+        assertEquals("two", read(storage, "thumbs/a/2.png"));
+        assertEquals(List.of("objects"), backend.listContents(""));
+
+        storage.flush();
+        assertEquals(List.of("0000000000000001.idx", "0000000000000001.seg"), files("backend/segments"));
+        assertEquals(List.of("0000000000000002.seg"), files("segments"));
+
+        assertEquals("one", read(storage, "thumbs/a/1.png"));
+        assertEquals("hre", new String(bytes(storage.readRange("thumbs/b/3.png", 1, 3))));
+        assertEquals(large, read(storage, "originals/a.png"));
+        assertEquals(large.length(), storage.size("originals/a.png"));
+        assertThrows(StorageException.class, () -> storage.url("thumbs/a/1.png"));
+
+        try (Stream<StorageEntry> entries = storage.listAll("thumbs")) {
+            assertEquals(List.of("thumbs/a", "thumbs/a/1.png", "thumbs/a/2.png", "thumbs/b", "thumbs/b/3.png"),
+                    entries.map(StorageEntry::getPath).collect(Collectors.toList()));
+        }
+        assertEquals(List.of("originals", "thumbs"), storage.listContents(""));
+        assertTrue(storage.exists("thumbs/b"));
+        assertFalse(storage.exists("thumbs/c"));
+        storage.close();
+    }
+
+    @Test
+    public void compactsMostlyDeadSegments() throws IOException {
+        LocalStorage backend = new LocalStorage(root.resolve("backend"));
+        PackedStorage storage = open(backend);
+        put(storage, "keep.txt", "kept");
+        for (int i = 0; i < 10; i++) {
+            put(storage, "tmp/" + i + ".txt", "temporary " + i);
+        }
+        put(storage, "replaced.bin", "larger than the pack threshold");
+        storage.flush();
+
+        storage.deleteDirectory("tmp");
+        put(storage, "replaced.bin", "small now");
+        storage.flush();
+        assertEquals(List.of(), backend.listContents("objects"));
+        assertEquals(3, storage.getSegmentCount());
+
+        // The tombstones of the second segment are dropped along with the first segment
+        assertEquals(2, storage.compact());
+        storage.flush();
+        assertEquals(0, storage.compact());
+        assertEquals("kept", read(storage, "keep.txt"));
+        assertEquals("small now", read(storage, "replaced.bin"));
+        assertEquals(List.of("keep.txt", "replaced.bin"), storage.listContents(""));
+        assertEquals(List.of("0000000000000003.idx", "0000000000000003.seg"), files("backend/segments"));
+        storage.close();
+
+        PackedStorage reopened = open(backend);
+        assertEquals(List.of("keep.txt", "replaced.bin"), reopened.listContents(""));
+        assertFalse(reopened.exists("tmp/3.txt"));
+        reopened.close();
+    }
+
+    @Test
+    public void tombstonesAreCompactedOnce() throws IOException {
+        LocalStorage backend = new LocalStorage(root.resolve("backend"));
+        PackedStorage storage = open(backend);
+        put(storage, "keep.txt", "kept");
+        storage.flush();
+        put(storage, "gone.txt", "gone");
+        storage.flush();
+        storage.delete("gone.txt");
+        storage.flush();
+
+        // The tombstone hides nothing once the segment of gone.txt goes with it
+        assertEquals(2, storage.compact());
+        assertEquals(0, storage.compact());
+        assertEquals(List.of("0000000000000001.idx", "0000000000000001.seg"), files("backend/segments"));
+        storage.close();
+
+        PackedStorage reopened = open(backend);
+        assertEquals(List.of("keep.txt"), reopened.listContents(""));
+        reopened.close();
+    }
+
+    @Test
+    public void neededTombstonesDoNotMakeASegmentCompactable() throws IOException {
+        LocalStorage backend = new LocalStorage(root.resolve("backend"));
+        PackedStorage storage = open(backend);
+        put(storage, "keep.txt", "kept, and large enough to keep the segment");
+        put(storage, "gone.txt", "gone");
+        storage.flush();
+        storage.delete("gone.txt");
+        storage.flush();
+
+        // The first segment stays, so the tombstone must too, and it is not moved again and again
+        assertEquals(0, storage.compact());
+        assertEquals(0, storage.compact());
+        storage.close();
+
+        PackedStorage reopened = open(backend);
+        assertEquals(List.of("keep.txt"), reopened.listContents(""));
+        reopened.close();
+    }
+
+    @Test
+    public void compactedRecordsAreOnTheBackend() throws IOException {
+        LocalStorage backend = new LocalStorage(root.resolve("backend"));
+        PackedStorage storage = open(backend);
+        put(storage, "keep.txt", "kept");
+        for (int i = 0; i < 10; i++) {
+            put(storage, "tmp/" + i + ".txt", "temporary " + i);
+        }
+        storage.flush();
+        storage.deleteDirectory("tmp");
+        assertEquals(1, storage.compact());
+        storage.close();
+
+        // Losing segment_dir after a compaction loses only records never uploaded
+        try (Stream<Path> files = Files.list(root.resolve("segments"))) {
+            for (Path file : files.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+        PackedStorage reopened = open(backend);
+        assertEquals("kept", read(reopened, "keep.txt"));
+        assertEquals(List.of("keep.txt"), reopened.listContents(""));
+        reopened.close();
+    }
+
+    @Test
+    public void reloadsAfterRestart() throws IOException {
+        LocalStorage backend = new LocalStorage(root.resolve("backend"));
+        PackedStorage storage = open(backend);
+        put(storage, "docs/uploaded.txt", "uploaded");
+        storage.flush();
+        put(storage, "docs/local.txt", "local");
+        put(storage, "docs/uploaded.txt", "overwritten");
+        storage.delete("docs/local.txt");
+        put(storage, "docs/last.txt", "last");
+        storage.close();
+
+        // A crash in the middle of an append leaves a torn record behind
+        Path active = root.resolve("segments/0000000000000002.seg");
+        long intact = Files.size(active);
+        Files.write(active, new byte[]{1, 0, 9, 'd', 'o'}, StandardOpenOption.APPEND);
+
+        PackedStorage reopened = open(backend);
+        assertEquals(intact, Files.size(active));
+        assertEquals(List.of("docs/last.txt", "docs/uploaded.txt"), reopened.listContents("docs"));
+        assertEquals("overwritten", read(reopened, "docs/uploaded.txt"));
+        assertEquals("last", read(reopened, "docs/last.txt"));
+        put(reopened, "docs/after.txt", "after");
+        reopened.flush();
+        assertEquals("after", read(reopened, "docs/after.txt"));
+        reopened.close();
+    }
+
+    @Test
+    public void builtFromConfiguration() throws IOException {
+        StorageConfig config = new StorageConfig();
+        DiskConfig objects = new DiskConfig(StorageDisk.LOCAL.value());
+        objects.addOption("root", root.resolve("backend").toString());
+        config.addDisk("objects", objects);
+        DiskConfig packed = new DiskConfig(StorageDisk.PACKED.value());
+        packed.addOption("backend", "objects");
+        packed.addOption("segment_dir", root.resolve("segments").toString());
+        packed.addOption("maintenance_interval", "0");
+        config.addDisk("thumbnails", packed);
+
+        try (StorageManager manager = new StorageManager(config)) {
+            Storage thumbnails = manager.disk("thumbnails");
+            put(thumbnails, "x.png", "x");
+            assertEquals("x", read(thumbnails, "x.png"));
+            assertEquals(List.of("0000000000000001.seg"), files("segments"));
+        }
+    }
+
+    @Test
+    public void segmentDirectoryBelongsToOneDisk() throws IOException {
+        LocalStorage backend = new LocalStorage(root.resolve("backend"));
+        PackedStorage storage = open(backend);
+        assertThrows(StorageException.class, () -> open(backend));
+        storage.close();
+        open(backend).close();
+
+        StorageConfig config = new StorageConfig().setCloseGracePeriod(60_000);
+        DiskConfig objects = new DiskConfig(StorageDisk.LOCAL.value());
+        objects.addOption("root", root.resolve("backend").toString());
+        config.addDisk("objects", objects);
+        DiskConfig packed = new DiskConfig(StorageDisk.PACKED.value());
+        packed.addOption("backend", "objects");
+        packed.addOption("segment_dir", root.resolve("segments").toString());
+        packed.addOption("maintenance_interval", "0");
+        config.addDisk("thumbnails", packed);
+
+        try (StorageManager manager = new StorageManager(config)) {
+            Storage first = manager.disk("thumbnails");
+            put(first, "x.png", "x");
+
+            // The replaced disk serves until its replacement is used, which closes it before opening the segments
+            packed.addOption("pack_threshold", "1KB");
+            manager.reload(config);
+            assertEquals("x", read(first, "x.png"));
+            Storage second = manager.disk("thumbnails");
+            assertEquals("x", read(second, "x.png"));
+
+            // A removed disk opens nothing in its place, so it stays for the grace period
+            config.getDisks().remove("thumbnails");
+            manager.reload(config);
+            assertEquals("x", read(second, "x.png"));
+        }
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
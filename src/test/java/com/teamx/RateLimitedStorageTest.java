@@ -0,0 +1,155 @@
+package com.teamx;
+
+import com.teamx.config.DiskConfig;
+import com.teamx.disks.ForwardingStorage;
+import com.teamx.disks.LocalStorage;
+import com.teamx.disks.RateLimitedStorage;
+import com.teamx.disks.Storage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RateLimitedStorageTest {
+
+    @TempDir
+    Path root;
+
+    private RateLimitedStorage storage(Storage delegate, Map<String, String> options) {
+        DiskConfig diskConfig = new DiskConfig(StorageDisk.LOCAL.value());
+        options.forEach(diskConfig::addOption);
+        return new RateLimitedStorage(delegate, diskConfig);
+    }
+
+    private static long millisSince(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @Test
+    public void diskRateLimitSpacesCalls() {
+        RateLimitedStorage storage = storage(new LocalStorage(root), Map.of("rate_limit", "20", "rate_burst", "1"));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 11; i++) {
+            storage.exists("a.txt");
+        }
+        assertTrue(millisSince(start) >= 450);
+        assertEquals(10, storage.getThrottled());
+    }
+
+    @Test
+    public void prefixRateLimitIsPerPrefix() {
+        RateLimitedStorage storage = storage(new LocalStorage(root),
+                Map.of("prefix_rate_limit", "2", "prefix_rate_burst", "1"));
+
+        long start = System.nanoTime();
+        storage.exists("users/1/a.txt");
+        storage.exists("images/b.png");
+        storage.exists("c.txt");
+        assertEquals(0, storage.getThrottled());
+
+        storage.exists("users/2/d.txt");
+        assertTrue(millisSince(start) >= 400);
+        assertEquals(1, storage.getThrottled());
+    }
+
+    @Test
+    public void interactiveCallsGoAheadOfBackgroundWork() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = new CopyOnWriteArrayList<>();
+        Storage recording = new ForwardingStorage(new LocalStorage(root)) {
+            @Override
+            public InputStream get(String path) {
+                if (path.equals("slow.txt")) {
+                    blocked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                order.add("get " + path);
+                return super.get(path);
+            }
+
+            @Override
+            public boolean copy(String source, String destination) {
+                order.add("copy " + source);
+                return super.copy(source, destination);
+            }
+        };
+        recording.put("slow.txt", new ByteArrayInputStream(new byte[1]));
+        recording.put("fast.txt", new ByteArrayInputStream(new byte[1]));
+        RateLimitedStorage storage = storage(recording, Map.of("max_in_flight", "1"));
+
+        CompletableFuture<InputStream> slow = CompletableFuture.supplyAsync(() -> storage.get("slow.txt"));
+        blocked.await();
+        CompletableFuture<Boolean> copy = CompletableFuture.supplyAsync(() -> storage.copy("fast.txt", "copy.txt"));
+        waitForWaiting(storage, 1);
+        CompletableFuture<InputStream> fast = CompletableFuture.supplyAsync(() -> storage.get("fast.txt"));
+        waitForWaiting(storage, 2);
+
+        release.countDown();
+        slow.get().close();
+        fast.get().close();
+        assertTrue(copy.get());
+        assertEquals(List.of("get slow.txt", "get fast.txt", "copy fast.txt"), order);
+    }
+
+    @Test
+    public void busyPrefixDoesNotHoldUpBackgroundWorkElsewhere() throws Exception {
+        List<String> order = new CopyOnWriteArrayList<>();
+        Storage recording = new ForwardingStorage(new LocalStorage(root)) {
+            @Override
+            public boolean exists(String path) {
+                order.add("exists " + path);
+                return super.exists(path);
+            }
+
+            @Override
+            public boolean copy(String source, String destination) {
+                order.add("copy " + source);
+                return super.copy(source, destination);
+            }
+        };
+        recording.put("cold/a.txt", new ByteArrayInputStream(new byte[1]));
+        RateLimitedStorage storage = storage(recording,
+                Map.of("prefix_rate_limit", "1", "prefix_rate_burst", "1"));
+
+        storage.exists("hot/a.txt");
+        CompletableFuture<Boolean> hot = CompletableFuture.supplyAsync(() -> storage.exists("hot/b.txt"));
+        waitForWaiting(storage, 1);
+
+        assertTrue(storage.copy("cold/a.txt", "cold/b.txt"));
+        assertFalse(hot.get());
+        assertEquals(List.of("exists hot/a.txt", "copy cold/a.txt", "exists hot/b.txt"), order);
+    }
+
+    private static void waitForWaiting(RateLimitedStorage storage, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (storage.getWaiting() < count) {
+            assertTrue(System.nanoTime() < deadline, "Calls did not start waiting");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void waitingTimesOut() {
+        RateLimitedStorage storage = storage(new LocalStorage(root),
+                Map.of("rate_limit", "1", "rate_burst", "1", "rate_limit_timeout", "50"));
+
+        storage.exists("a.txt");
+        assertThrows(StorageException.class, () -> storage.exists("a.txt"));
+    }
+}
@@ -0,0 +1,146 @@
+package com.teamx;
+
+import com.sun.net.httpserver.HttpServer;
+import com.teamx.config.DiskConfig;
+import com.teamx.config.StorageConfig;
+import com.teamx.disks.ResilientStorage;
+import com.teamx.disks.S3Storage;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResilientStorageTest {
+
+    private static final String BUCKET = "test-bucket";
+
+    private final FakeS3Client client = new FakeS3Client(BUCKET);
+
+    private ResilientStorage storage(Map<String, String> options) {
+        DiskConfig diskConfig = new DiskConfig(StorageDisk.AWS_S3.value());
+        diskConfig.addOption("bucket", BUCKET);
+        diskConfig.addOption("retry_base_delay", "1");
+        diskConfig.addOption("retry_max_delay", "10");
+        options.forEach(diskConfig::addOption);
+        return new ResilientStorage(new S3Storage(client, diskConfig), diskConfig);
+    }
+
+    @Test
+    public void throttledRequestsAreRetried() {
+        ResilientStorage storage = storage(Map.of());
+        client.failNext("putObject", 2, 503);
+
+        assertTrue(storage.put("a.txt", new ByteArrayInputStream("Hello".getBytes())));
+        assertEquals(3, client.calls("putObject"));
+        assertEquals(2, storage.getRetries());
+        assertArrayEquals("Hello".getBytes(), client.object("a.txt").data());
+    }
+
+    @Test
+    public void unreplayablePutsReportTheUploadFailure() {
+        ResilientStorage storage = storage(Map.of("retry_put_limit", "1KB"));
+        client.failNext("putObject", 1, 503);
+
+        InputStream content = new BufferedInputStream(new ByteArrayInputStream(new byte[64 * 1024]), 1024);
+        StorageException error = assertThrows(StorageException.class, () -> storage.put("a.txt", content));
+        assertEquals(503, ((S3Exception) error.getCause()).statusCode());
+        assertInstanceOf(IOException.class, error.getSuppressed()[0]);
+        assertEquals(1, client.calls("putObject"));
+    }
+
+    @Test
+    public void permanentErrorsAreNotRetried() {
+        ResilientStorage storage = storage(Map.of());
+
+        assertThrows(StorageException.class, () -> storage.get("missing.txt"));
+        assertEquals(1, client.calls("getObject"));
+
+        client.failNext("headObject", 1, 403);
+        assertThrows(StorageException.class, () -> storage.size("missing.txt"));
+        assertEquals(1, client.calls("headObject"));
+        assertEquals(0, storage.getRetries());
+    }
+
+    @Test
+    public void retriesStopAfterMaxAttempts() {
+        ResilientStorage storage = storage(Map.of("retry_attempts", "4"));
+        client.failNext("listObjectsV2", 10, 500);
+
+        assertThrows(StorageException.class, () -> storage.listContents(""));
+        assertEquals(4, client.calls("listObjectsV2"));
+    }
+
+    @Test
+    public void deadlineBoundsRetries() {
+        ResilientStorage storage = storage(Map.of("retry_attempts", "100", "retry_base_delay", "50",
+                "retry_max_delay", "50", "deadline", "200"));
+        client.failNext("deleteObject", 1000, 503);
+
+        long start = System.nanoTime();
+        StorageException error = assertThrows(StorageException.class, () -> storage.delete("a.txt"));
+        assertTrue(error.getMessage().startsWith("Deadline exceeded"));
+        assertTrue(System.nanoTime() - start < 2_000_000_000L);
+    }
+
+    @Test
+    public void slowReadsAreHedged() throws IOException {
+        ResilientStorage storage = storage(Map.of("hedge", "true", "hedge_delay", "20"));
+        storage.put("a.txt", new ByteArrayInputStream("Hello".getBytes()));
+        client.delayNext("getObject", 1, 5_000);
+
+        long start = System.nanoTime();
+        try (InputStream in = storage.get("a.txt")) {
+            assertArrayEquals("Hello".getBytes(), in.readAllBytes());
+        }
+        assertTrue(System.nanoTime() - start < 2_000_000_000L);
+        assertEquals(1, storage.getHedges());
+        assertEquals(2, client.calls("getObject"));
+
+        assertTrue(storage.exists("a.txt"));
+        assertEquals(1, storage.getHedges());
+        storage.close();
+    }
+
+    @Test
+    public void sdkDoesNotRetryUnderTheDecorator() throws IOException {
+        AtomicInteger objectRequests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            boolean bucket = exchange.getRequestURI().getPath().equals("/" + BUCKET);
+            if (!bucket) {
+                objectRequests.incrementAndGet();
+            }
+            exchange.getResponseHeaders().add("Connection", "close");
+            exchange.sendResponseHeaders(bucket ? 200 : 500, -1);
+            exchange.close();
+        });
+        server.start();
+
+        StorageConfig config = new StorageConfig();
+        DiskConfig diskConfig = new DiskConfig(StorageDisk.AWS_S3.value());
+        diskConfig.addOption("bucket", BUCKET);
+        diskConfig.addOption("endpoint", "http://localhost:" + server.getAddress().getPort());
+        diskConfig.addOption("path_style", "true");
+        diskConfig.addOption("key", "key");
+        diskConfig.addOption("secret", "secret");
+        diskConfig.addOption("resilient", "true");
+        diskConfig.addOption("retry_base_delay", "1");
+        diskConfig.addOption("retry_max_delay", "10");
+        config.addDisk("s3", diskConfig);
+
+        try (StorageManager manager = new StorageManager(config)) {
+            assertThrows(StorageException.class, () -> manager.disk("s3").size("a.txt"));
+            assertEquals(3, objectRequests.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.teamx;
+
+import com.teamx.config.DiskConfig;
+import com.teamx.disks.BatchResult;
+import com.teamx.disks.DeleteReport;
+import com.teamx.disks.LocalStorage;
+import com.teamx.disks.ReadOptions;
+import com.teamx.disks.S3Storage;
+import com.teamx.disks.Storage;
+import com.teamx.disks.StorageEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class S3StorageTest {
+
+    private static final String BUCKET = "test-bucket";
+
+    private final FakeS3Client client;
+    private final Storage storage;
+
+    public S3StorageTest() {
+        this.client = new FakeS3Client(BUCKET);
+        this.storage = new S3Storage(client, diskConfig());
+    }
+
+    private static DiskConfig diskConfig() {
+        DiskConfig diskConfig = new DiskConfig(StorageDisk.AWS_S3.value());
+        diskConfig.addOption("bucket", BUCKET);
+        diskConfig.addOption("prefix", "files");
+        diskConfig.addOption("part_size", "5MB");
+        diskConfig.addOption("upload_concurrency", "3");
+        return diskConfig;
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void putSmallObjectUsesSinglePut() {
+        byte[] data = "Hello World".getBytes();
+
+        boolean filePutted = this.storage.put("small.txt", new ByteArrayInputStream(data), Map.of("owner", "test"));
+        System.out.println("File putted: " + filePutted);
+
+        assertEquals(1, client.calls("putObject"));
+        assertEquals(0, client.calls("createMultipartUpload"));
+        assertArrayEquals(data, client.object("files/small.txt").data());
+        assertEquals("test", client.object("files/small.txt").metadata().get("owner"));
+    }
+
+    @Test
+    public void putLargeObjectUsesMultipartUpload() {
+        byte[] data = randomBytes(17 * 1024 * 1024);
+
+        boolean filePutted = this.storage.put("large.bin", new ByteArrayInputStream(data), Map.of("owner", "test"));
+        System.out.println("File putted: " + filePutted + ", parts: " + client.calls("uploadPart"));
+
+        assertEquals(0, client.calls("putObject"));
+        assertEquals(4, client.calls("uploadPart"));
+        assertEquals(1, client.calls("completeMultipartUpload"));
+        assertArrayEquals(data, client.object("files/large.bin").data());
+        assertEquals("test", client.object("files/large.bin").metadata().get("owner"));
+    }
+
+    @Test
+    public void failedPartAbortsUpload() {
+        FakeS3Client failing = new FakeS3Client(BUCKET) {
+            @Override
+            public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody body) {
+                if (request.partNumber() == 2) {
+                    throw S3Exception.builder().message("SlowDown").statusCode(503).build();
+                }
+                return super.uploadPart(request, body);
+            }
+        };
+        Storage failingStorage = new S3Storage(failing, diskConfig());
+
+        assertThrows(StorageException.class,
+                () -> failingStorage.put("large.bin", new ByteArrayInputStream(randomBytes(12 * 1024 * 1024))));
+        assertEquals(1, failing.calls("abortMultipartUpload"));
+        assertEquals(0, failing.openUploads());
+        assertNull(failing.object("files/large.bin"));
+    }
+
+    @Test
+    public void parallelGetReadsRangesInOrder() throws IOException {
+        byte[] data = randomBytes(10 * 1024 * 1024 + 123);
+        this.storage.put("large.bin", new ByteArrayInputStream(data));
+
+        ReadOptions options = ReadOptions.parallel().setPartSize(1024 * 1024).setConcurrency(4);
+        try (InputStream inputStream = this.storage.get("large.bin", options)) {
+            assertArrayEquals(data, inputStream.readAllBytes());
+        }
+
+        System.out.println("Ranged GETs: " + client.calls("getObject"));
+        assertEquals(1, client.calls("headObject"));
+        assertEquals(11, client.calls("getObject"));
+    }
+
+    @Test
+    public void parallelGetOfSmallObjectUsesSingleGet() throws IOException {
+        this.storage.put("small.txt", new ByteArrayInputStream("Hello World".getBytes()));
+
+        try (InputStream inputStream = this.storage.get("small.txt", ReadOptions.parallel())) {
+            assertEquals("Hello World", new String(inputStream.readAllBytes()));
+        }
+        assertEquals(1, client.calls("getObject"));
+    }
+
+    @Test
+    public void deleteManyPacksKeysIntoBatches() {
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            String path = "batch/file-" + i + ".txt";
+            this.storage.put(path, new ByteArrayInputStream(new byte[]{1}));
+            paths.add(path);
+        }
+
+        Map<String, BatchResult<Boolean>> results = this.storage.deleteMany(paths);
+        System.out.println("DeleteObjects calls: " + client.calls("deleteObjects"));
+
+        assertEquals(3, client.calls("deleteObjects"));
+        assertEquals(2500, results.size());
+        assertTrue(results.values().stream().allMatch(BatchResult::isSuccess));
+        assertTrue(client.keys().isEmpty());
+    }
+
+    @Test
+    public void deleteDirectoryPipelinesPages() {
+        S3Storage s3 = (S3Storage) this.storage;
+        for (int i = 0; i < 2500; i++) {
+            s3.put("tree/dir-" + (i % 7) + "/file-" + i + ".txt", new ByteArrayInputStream(new byte[]{1}));
+        }
+        s3.put("kept.txt", new ByteArrayInputStream(new byte[]{1}));
+        client.failNext("deleteObjects", 1, 500);
+
+        List<Long> progress = new CopyOnWriteArrayList<>();
+        DeleteReport report = s3.deleteDirectory("tree", progress::add);
+        System.out.println("Deleted: " + report + ", progress: " + progress);
+
+        // The failed request fails every key it carried, which stay in place
+        assertFalse(report.isComplete());
+        assertEquals(2500, report.getDeleted() + report.getFailures().size());
+        assertEquals(report.getDeleted(), progress.get(progress.size() - 1));
+        assertTrue(report.getFailures().keySet().stream().allMatch(path -> path.startsWith("tree/")));
+        assertEquals(report.getFailures().size() + 1, client.keys().size());
+
+        assertTrue(s3.deleteDirectory("tree"));
+        assertEquals(1, client.keys().size());
+        assertEquals(4, client.calls("deleteObjects"));
+    }
+
+    @Test
+    public void existsManyReportsPerKeyResults() {
+        this.storage.put("a.txt", new ByteArrayInputStream(new byte[]{1}));
+
+        Map<String, BatchResult<Boolean>> results = this.storage.existsMany(List.of("a.txt", "b.txt"));
+        Map<String, BatchResult<Long>> sizes = this.storage.sizeMany(List.of("a.txt", "b.txt"));
+        System.out.println("Exists: " + results + ", sizes: " + sizes);
+
+        assertTrue(results.get("a.txt").getValue());
+        assertFalse(results.get("b.txt").getValue());
+        assertEquals(1L, sizes.get("a.txt").getValue());
+        assertFalse(sizes.get("b.txt").isSuccess());
+    }
+
+    @Test
+    public void listingFollowsContinuationTokens() {
+        for (int i = 0; i < 1500; i++) {
+            this.storage.put("logs/file-" + i + ".txt", new ByteArrayInputStream(new byte[]{1, 2}));
+        }
+        this.storage.put("logs/archive/old.txt", new ByteArrayInputStream(new byte[]{1}));
+
+        List<String> listContents = this.storage.listContents("logs");
+        System.out.println("List Content size: " + listContents.size());
+        assertEquals(1501, listContents.size());
+
+        try (Stream<StorageEntry> entries = this.storage.list("logs")) {
+            List<StorageEntry> children = entries.collect(Collectors.toList());
+            assertEquals(1501, children.size());
+            assertTrue(children.contains(StorageEntry.directory("logs/archive", 0)));
+            assertTrue(children.stream().filter(e -> !e.isDirectory()).allMatch(e -> e.getSize() == 2));
+        }
+    }
+
+    @Test
+    public void listAllReturnsMetadataWithoutHeadRequests() {
+        this.storage.put("tree/a.txt", new ByteArrayInputStream(new byte[3]));
+        this.storage.put("tree/sub/b.txt", new ByteArrayInputStream(new byte[5]));
+        this.storage.makeDirectory("tree/empty");
+
+        try (Stream<StorageEntry> entries = this.storage.listAll("tree")) {
+            List<StorageEntry> all = entries.collect(Collectors.toList());
+            System.out.println("List All: " + all);
+
+            assertEquals(List.of("tree/a.txt", "tree/empty", "tree/sub/b.txt"),
+                    all.stream().map(StorageEntry::getPath).collect(Collectors.toList()));
+            assertEquals(5, all.get(2).getSize());
+            assertTrue(all.get(1).isDirectory());
+        }
+        assertEquals(0, client.calls("headObject"));
+    }
+
+    @Test
+    public void readRangeUsesRangedGet() {
+        this.storage.put("index.bin", new ByteArrayInputStream("0123456789".getBytes()));
+
+        ByteBuffer range = this.storage.readRange("index.bin", 4, 3);
+        byte[] bytes = new byte[range.remaining()];
+        range.get(bytes);
+
+        assertEquals("456", new String(bytes));
+        assertEquals(2, this.storage.readRange("index.bin", 8, 10).remaining());
+        assertEquals(0, this.storage.readRange("index.bin", 10, 1).remaining());
+        assertEquals(0, client.calls("headObject"));
+    }
+
+    @Test
+    public void largeCopyUsesParallelPartCopies() {
+        DiskConfig diskConfig = diskConfig();
+        diskConfig.addOption("copy_threshold", "5MB");
+        diskConfig.addOption("copy_part_size", "5MB");
+        Storage copying = new S3Storage(client, diskConfig);
+        byte[] data = randomBytes(12 * 1024 * 1024);
+        copying.put("large.bin", new ByteArrayInputStream(data), Map.of("owner", "test"));
+
+        assertTrue(copying.copy("large.bin", "copy.bin"));
+        assertTrue(copying.copy("large.bin", "copy.bin"));
+        copying.put("small.txt", new ByteArrayInputStream(new byte[10]));
+        assertTrue(copying.copy("small.txt", "small-copy.txt"));
+
+        assertEquals(6, client.calls("uploadPartCopy"));
+        assertEquals(1, client.calls("copyObject"));
+        assertArrayEquals(data, client.object("files/copy.bin").data());
+        assertEquals("test", client.object("files/copy.bin").metadata().get("owner"));
+        assertEquals(0, client.openUploads());
+        assertThrows(StorageException.class, () -> copying.copy("missing.bin", "copy.bin"));
+    }
+
+    @Test
+    public void copyTriesCopyObjectBeforeHead() {
+        DiskConfig diskConfig = diskConfig();
+        diskConfig.addOption("copy_part_size", "5MB");
+        Storage copying = new S3Storage(client, diskConfig);
+        byte[] data = randomBytes(12 * 1024 * 1024);
+        copying.put("large.bin", new ByteArrayInputStream(data));
+        copying.put("small.txt", new ByteArrayInputStream(new byte[10]));
+
+        assertTrue(copying.copy("small.txt", "small-copy.txt"));
+        assertEquals(1, client.calls("copyObject"));
+        assertEquals(0, client.calls("headObject"));
+
+        // Stands in for the 5 GB limit of CopyObject
+        client.copyLimit(1024 * 1024);
+        assertTrue(copying.copy("large.bin", "copy.bin"));
+        assertEquals(2, client.calls("copyObject"));
+        assertEquals(1, client.calls("headObject"));
+        assertEquals(3, client.calls("uploadPartCopy"));
+        assertArrayEquals(data, client.object("files/copy.bin").data());
+        assertEquals(0, client.openUploads());
+    }
+
+    @Test
+    public void copyBetweenDisks(@TempDir Path root) throws IOException {
+        DiskConfig otherConfig = diskConfig();
+        otherConfig.addOption("prefix", "other");
+        StorageManager manager = new StorageManager();
+        manager.addDisk("s3", this.storage);
+        manager.addDisk("other", new S3Storage(client, otherConfig));
+        manager.addDisk("local", new LocalStorage(root));
+
+        this.storage.put("a.txt", new ByteArrayInputStream("Hello".getBytes()));
+        assertTrue(manager.copy("s3", "a.txt", "other", "b.txt"));
+        assertEquals(1, client.calls("copyObject"));
+        assertEquals(0, client.calls("getObject"));
+        assertArrayEquals("Hello".getBytes(), client.object("other/b.txt").data());
+
+        Files.writeString(root.resolve("local.txt"), "World");
+        assertTrue(manager.move("local", "local.txt", "s3", "moved.txt"));
+        assertArrayEquals("World".getBytes(), client.object("files/moved.txt").data());
+        assertFalse(Files.exists(root.resolve("local.txt")));
+
+        assertTrue(manager.copy("other", "b.txt", "local", "back/b.txt"));
+        assertEquals("Hello", Files.readString(root.resolve("back/b.txt")));
+    }
+
+    @Test
+    public void copyBetweenEndpointsIsStreamed() {
+        // A bucket with the same name on another service
+        FakeS3Client otherClient = new FakeS3Client(BUCKET);
+        Storage other = new S3Storage(otherClient, diskConfig());
+
+        this.storage.put("a.txt", new ByteArrayInputStream("Hello".getBytes()));
+        assertTrue(other.copyFrom(this.storage, "a.txt", "b.txt"));
+        assertEquals(0, otherClient.calls("copyObject"));
+        assertEquals(0, client.calls("copyObject"));
+        assertEquals(1, client.calls("getObject"));
+        assertArrayEquals("Hello".getBytes(), otherClient.object("files/b.txt").data());
+        assertNull(client.object("files/b.txt"));
+    }
+}
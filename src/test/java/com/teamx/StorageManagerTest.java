@@ -0,0 +1,190 @@
+package com.teamx;
+
+import com.teamx.config.DiskConfig;
+import com.teamx.config.StorageConfig;
+import com.teamx.disks.LocalStorage;
+import com.teamx.disks.Storage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StorageManagerTest {
+
+    @TempDir
+    Path root;
+
+    private StorageConfig config(String... names) {
+        StorageConfig storageConfig = new StorageConfig().setCloseGracePeriod(0);
+        for (String name : names) {
+            DiskConfig diskConfig = new DiskConfig(StorageDisk.LOCAL.value());
+            diskConfig.addOption("root", root.resolve(name).toString());
+            storageConfig.addDisk(name, diskConfig);
+        }
+        storageConfig.setDefaultDisk(names[0]);
+        return storageConfig;
+    }
+
+    private static boolean isClosed(Storage storage) {
+        try {
+            storage.async().exists("probe").join();
+            return false;
+        } catch (RuntimeException e) {
+            return true;
+        }
+    }
+
+    @Test
+    public void reloadKeepsUnchangedDisks() {
+        StorageManager manager = new StorageManager(config("a", "b"));
+        Storage a = manager.disk("a");
+        Storage b = manager.disk("b");
+        assertFalse(isClosed(b));
+
+        StorageConfig next = config("a", "c");
+        manager.reload(next);
+
+        assertSame(a, manager.disk("a"));
+        assertNotNull(manager.disk("c"));
+        assertThrows(IllegalArgumentException.class, () -> manager.disk("b"));
+        assertTrue(isClosed(b));
+        assertFalse(isClosed(a));
+    }
+
+    @Test
+    public void reloadRebuildsChangedDisksAndTheirDependents() {
+        StorageConfig first = config("origin");
+        DiskConfig tiered = new DiskConfig(StorageDisk.TIERED.value());
+        tiered.addOption("remote", "origin");
+        tiered.addOption("cache_root", root.resolve("cache").toString());
+        first.addDisk("cached", tiered);
+
+        StorageManager manager = new StorageManager(first);
+        Storage cached = manager.disk("cached");
+        manager.reload(first);
+        assertSame(cached, manager.disk("cached"));
+
+        StorageConfig second = config("origin");
+        second.getDisks().get("origin").addOption("root", root.resolve("moved").toString());
+        second.addDisk("cached", tiered);
+        manager.reload(second);
+
+        assertNotSame(cached, manager.disk("cached"));
+    }
+
+    @Test
+    public void failedReloadKeepsCurrentDisks() {
+        StorageManager manager = new StorageManager(config("a"));
+        Storage a = manager.disk("a");
+
+        StorageConfig broken = config("a");
+        broken.addDisk("broken", new DiskConfig("unknown"));
+        assertThrows(IllegalArgumentException.class, () -> manager.reload(broken));
+
+        assertSame(a, manager.disk("a"));
+        assertThrows(IllegalArgumentException.class, () -> manager.disk("broken"));
+    }
+
+    @Test
+    public void readersNeverSeeAMissingDisk() throws Exception {
+        StorageManager manager = new StorageManager(config("a", "b"));
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(readers.submit(() -> {
+                while (running.get()) {
+                    assertNotNull(manager.disk());
+                    assertNotNull(manager.disk("a"));
+                }
+            }));
+        }
+        for (int i = 0; i < 50; i++) {
+            manager.reload(config("a", i % 2 == 0 ? "c" : "b"));
+        }
+
+        running.set(false);
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        readers.shutdown();
+        manager.close();
+    }
+
+    @Test
+    public void closeClosesConfiguredDisksOnly() {
+        StorageManager manager = new StorageManager(config("a"));
+        Storage a = manager.disk("a");
+        Storage added = new LocalStorage(root.resolve("added"));
+        manager.addDisk("added", added);
+        assertFalse(isClosed(a));
+        assertFalse(isClosed(added));
+
+        manager.close();
+
+        assertTrue(isClosed(a));
+        assertFalse(isClosed(added));
+        assertThrows(IllegalStateException.class, () -> manager.reload(config("a")));
+    }
+
+    @Test
+    public void closeClosesDisksInTheirGracePeriod() {
+        StorageManager manager = new StorageManager(config("a"));
+        Storage first = manager.disk("a");
+
+        StorageConfig moved = new StorageConfig().setCloseGracePeriod(60_000);
+        DiskConfig diskConfig = new DiskConfig(StorageDisk.LOCAL.value());
+        diskConfig.addOption("root", root.resolve("moved").toString());
+        moved.addDisk("a", diskConfig);
+        moved.setDefaultDisk("a");
+        manager.reload(moved);
+        assertNotSame(first, manager.disk("a"));
+        assertFalse(isClosed(first));
+
+        manager.close();
+        assertTrue(isClosed(first));
+    }
+
+    private StorageConfig withBrokenDisk(StorageConfig storageConfig) throws Exception {
+        Path file = Files.createFile(root.resolve("file"));
+        DiskConfig broken = new DiskConfig(StorageDisk.LOCAL.value());
+        broken.addOption("root", file.resolve("bad").toString());
+        storageConfig.addDisk("bad", broken);
+        return storageConfig;
+    }
+
+    @Test
+    public void disksAreBuiltOnFirstUse() throws Exception {
+        StorageManager manager = new StorageManager(withBrokenDisk(config("a")));
+        assertFalse(Files.exists(root.resolve("a")));
+
+        assertThrows(StorageException.class, () -> manager.disk("bad"));
+        assertThrows(StorageException.class, () -> manager.disk("bad"));
+        assertNotNull(manager.disk("a"));
+        assertTrue(Files.exists(root.resolve("a")));
+        manager.close();
+    }
+
+    @Test
+    public void warmUpBuildsDisksInTheBackground() throws Exception {
+        StorageManager manager = new StorageManager(withBrokenDisk(config("a", "b")).setWarmUp(true));
+
+        CompletionException error = assertThrows(CompletionException.class, () -> manager.ready().join());
+        assertInstanceOf(StorageException.class, error.getCause());
+        assertTrue(Files.exists(root.resolve("a")));
+        assertTrue(Files.exists(root.resolve("b")));
+        assertFalse(isClosed(manager.disk("a")));
+        manager.close();
+    }
+}
@@ -0,0 +1,101 @@
+package com.teamx;
+
+import com.teamx.disks.LocalStorage;
+import com.teamx.disks.S3Storage;
+import com.teamx.sync.SyncEngine;
+import com.teamx.sync.SyncOptions;
+import com.teamx.sync.SyncReport;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SyncEngineTest {
+
+    @TempDir
+    Path root;
+
+    private final FakeS3Client client = new FakeS3Client("test-bucket");
+
+    private StorageManager manager() {
+        StorageManager manager = new StorageManager();
+        manager.addDisk("local", new LocalStorage(root));
+        manager.addDisk("s3", new S3Storage(client, "test-bucket", "mirror", ""));
+        return manager;
+    }
+
+    private void write(String path, String content) throws IOException {
+        Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+
+    @Test
+    public void copiesOnlyWhatChanged() throws IOException {
+        for (int i = 0; i < 50; i++) {
+            write("photos/" + (i % 5) + "/img-" + i + ".jpg", "image " + i);
+        }
+        write("photos/a-b.txt", "dash sorts before slash");
+        SyncEngine engine = new SyncEngine(manager());
+
+        List<SyncReport> progress = new ArrayList<>();
+        SyncReport first = engine.sync("local", "photos", "s3", "backup",
+                new SyncOptions().setConcurrency(4).setProgressListener(progress::add, 0));
+        System.out.println("First sync: " + first);
+        assertEquals(51, first.getCopied());
+        assertEquals(0, first.getFailed());
+        assertTrue(first.getBytesCopied() > 0);
+        assertEquals(51, progress.get(progress.size() - 1).getCopied());
+        assertArrayEquals("image 7".getBytes(), client.object("mirror/backup/2/img-7.jpg").data());
+
+        write("photos/2/img-7.jpg", "image 7, edited");
+        SyncReport second = engine.sync("local", "photos", "s3", "backup", new SyncOptions());
+        assertEquals(1, second.getCopied());
+        assertEquals(50, second.getUnchanged());
+        assertArrayEquals("image 7, edited".getBytes(), client.object("mirror/backup/2/img-7.jpg").data());
+    }
+
+    @Test
+    public void deletesExtraneousFiles() throws IOException {
+        write("src/keep.txt", "keep");
+        write("dst/keep.txt", "keep");
+        write("dst/old/stale.txt", "stale");
+        write("dst/zzz.txt", "stale");
+        StorageManager manager = manager();
+        SyncEngine engine = new SyncEngine(manager);
+
+        SyncReport dryRun = engine.sync("local", "src", "local", "dst",
+                new SyncOptions().setDelete(true).setDryRun(true));
+        assertEquals(2, dryRun.getDeleted());
+        assertTrue(dryRun.isDryRun());
+        assertTrue(Files.exists(root.resolve("dst/zzz.txt")));
+
+        SyncReport report = engine.sync("local", "src", "local", "dst", new SyncOptions().setDelete(true));
+        assertEquals(2, report.getDeleted());
+        assertEquals(1, report.getUnchanged());
+        assertFalse(Files.exists(root.resolve("dst/old/stale.txt")));
+        assertFalse(Files.exists(root.resolve("dst/zzz.txt")));
+    }
+
+    @Test
+    public void mirrorsBackFromS3() throws IOException {
+        write("up/a.txt", "a");
+        write("up/sub/b.txt", "bb");
+        SyncEngine engine = new SyncEngine(manager());
+        engine.sync("local", "up", "s3", "", new SyncOptions());
+
+        SyncReport report = engine.sync("s3", "", "local", "down", new SyncOptions());
+        assertEquals(2, report.getCopied());
+        assertEquals("bb", Files.readString(root.resolve("down/sub/b.txt")));
+        assertEquals(Set.of("mirror/a.txt", "mirror/sub/b.txt"), client.keys());
+
+        assertEquals(0, engine.sync("s3", "", "local", "down", new SyncOptions()).getCopied());
+    }
+}
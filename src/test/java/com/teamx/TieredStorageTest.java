@@ -0,0 +1,196 @@
+package com.teamx;
+
+import com.teamx.config.DiskConfig;
+import com.teamx.config.StorageConfig;
+import com.teamx.disks.ForwardingStorage;
+import com.teamx.disks.InstrumentedStorage;
+import com.teamx.disks.LocalStorage;
+import com.teamx.disks.S3Storage;
+import com.teamx.disks.Storage;
+import com.teamx.disks.TieredStorage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TieredStorageTest {
+
+    @TempDir
+    Path cacheRoot;
+
+    private final FakeS3Client client = new FakeS3Client("test-bucket");
+
+    private TieredStorage tiered(long maxBytes) {
+        DiskConfig diskConfig = new DiskConfig(StorageDisk.AWS_S3.value());
+        diskConfig.addOption("bucket", "test-bucket");
+        return new TieredStorage(new S3Storage(client, diskConfig), cacheRoot, maxBytes, false, true);
+    }
+
+    private static String read(Storage storage, String path) throws IOException {
+        try (InputStream inputStream = storage.get(path)) {
+            return new String(inputStream.readAllBytes());
+        }
+    }
+
+    @Test
+    public void secondReadIsServedLocally() throws IOException {
+        TieredStorage storage = tiered(1024);
+        storage.put("test.txt", new ByteArrayInputStream("Hello World".getBytes()));
+
+        assertEquals("Hello World", read(storage, "test.txt"));
+        assertEquals("Hello World", read(storage, "test.txt"));
+        System.out.println("Hits: " + storage.getHits() + ", misses: " + storage.getMisses());
+
+        assertEquals(1, client.calls("getObject"));
+        assertEquals(1, storage.getHits());
+        assertEquals(11, storage.getCachedBytes());
+    }
+
+    @Test
+    public void concurrentMissesShareOneDownload() throws Exception {
+        TieredStorage storage = tiered(1024 * 1024);
+        storage.put("test.txt", new ByteArrayInputStream(new byte[64 * 1024]));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> reads = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                reads.add(executor.submit(() -> read(storage, "test.txt")));
+            }
+            for (Future<String> read : reads) {
+                assertEquals(64 * 1024, read.get().length());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1, client.calls("getObject"));
+    }
+
+    @Test
+    public void downloadOverlappingAWriteIsNotCached(@TempDir Path remoteRoot) throws Exception {
+        CountDownLatch downloading = new CountDownLatch(1);
+        CountDownLatch written = new CountDownLatch(1);
+        Storage remote = new ForwardingStorage(new LocalStorage(remoteRoot)) {
+            @Override
+            public InputStream get(String path) throws StorageException {
+                byte[] content;
+                try (InputStream inputStream = delegate.get(path)) {
+                    content = inputStream.readAllBytes();
+                } catch (IOException e) {
+                    throw new StorageException("Could not read file: " + path, e);
+                }
+                if (downloading.getCount() > 0) {
+                    downloading.countDown();
+                    try {
+                        written.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return new ByteArrayInputStream(content);
+            }
+        };
+        TieredStorage storage = new TieredStorage(remote, cacheRoot, 1024, false, false);
+        storage.put("test.txt", new ByteArrayInputStream("first".getBytes()));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> read = executor.submit(() -> read(storage, "test.txt"));
+            downloading.await();
+            storage.put("test.txt", new ByteArrayInputStream("second".getBytes()));
+            written.countDown();
+            // Either content is a valid answer for a read racing the write
+            assertTrue(List.of("first", "second").contains(read.get()));
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(0, storage.getCachedBytes());
+        assertEquals("second", read(storage, "test.txt"));
+    }
+
+    @Test
+    public void pathsTheCacheCannotHoldAreReadFromTheRemote() throws IOException {
+        TieredStorage storage = tiered(1024);
+        storage.put("a", new ByteArrayInputStream("file".getBytes()));
+        storage.put("a/b", new ByteArrayInputStream("below a file".getBytes()));
+
+        assertEquals("file", read(storage, "a"));
+        // The cached file a leaves no room for a directory a
+        assertEquals("below a file", read(storage, "a/b"));
+        ByteBuffer range = storage.readRange("a/b", 0, 5);
+        byte[] bytes = new byte[range.remaining()];
+        range.get(bytes);
+        assertEquals("below", new String(bytes));
+        assertEquals(4, storage.getCachedBytes());
+    }
+
+    @Test
+    public void putInvalidatesCachedCopy() throws IOException {
+        TieredStorage storage = tiered(1024);
+        storage.put("test.txt", new ByteArrayInputStream("first".getBytes()));
+        assertEquals("first", read(storage, "test.txt"));
+
+        storage.put("test.txt", new ByteArrayInputStream("second".getBytes()));
+        assertEquals("second", read(storage, "test.txt"));
+    }
+
+    @Test
+    public void remoteChangesAreDetected() throws IOException {
+        TieredStorage storage = tiered(1024);
+        storage.put("test.txt", new ByteArrayInputStream("first".getBytes()));
+        assertEquals("first", read(storage, "test.txt"));
+
+        // Written by another client, bypassing the cache
+        storage.getDelegate().put("test.txt", new ByteArrayInputStream("changed".getBytes()));
+        assertEquals("changed", read(storage, "test.txt"));
+    }
+
+    @Test
+    public void cacheIsBoundedByBytes() throws IOException {
+        TieredStorage storage = tiered(20);
+        storage.put("a.txt", new ByteArrayInputStream(new byte[8]));
+        storage.put("b.txt", new ByteArrayInputStream(new byte[8]));
+        storage.put("c.txt", new ByteArrayInputStream(new byte[8]));
+
+        read(storage, "a.txt");
+        read(storage, "b.txt");
+        read(storage, "c.txt");
+
+        assertEquals(16, storage.getCachedBytes());
+        read(storage, "a.txt");
+        assertEquals(4, client.calls("getObject"));
+    }
+
+    @Test
+    public void registeredAsDriver(@TempDir Path remoteRoot) throws IOException {
+        StorageConfig storageConfig = new StorageConfig();
+        DiskConfig remote = new DiskConfig(StorageDisk.LOCAL.value());
+        remote.addOption("root", remoteRoot.toString());
+        DiskConfig tiered = new DiskConfig(StorageDisk.TIERED.value());
+        tiered.addOption("remote", "origin");
+        tiered.addOption("cache_root", cacheRoot.toString());
+
+        storageConfig.addDisk("cached", tiered);
+        storageConfig.addDisk("origin", remote);
+        Storage storage = new StorageManager(storageConfig).disk("cached");
+
+        storage.put("test.txt", new ByteArrayInputStream("Hello World".getBytes()));
+        assertEquals("Hello World", read(storage, "test.txt"));
+        assertInstanceOf(InstrumentedStorage.class, storage);
+        assertInstanceOf(TieredStorage.class, ((InstrumentedStorage) storage).getDelegate());
+    }
+}
@@ -0,0 +1,68 @@
+package com.teamx.benchmarks;
+
+import com.teamx.StorageDisk;
+import com.teamx.config.DiskConfig;
+import com.teamx.disks.ForwardingStorage;
+import com.teamx.disks.LocalStorage;
+import com.teamx.disks.S3Storage;
+import com.teamx.disks.Storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Disks under benchmark. "local" is a LocalStorage in a temporary directory.
+ * "s3" is an S3Storage built from configuration, talking HTTP to a
+ * {@link FakeS3Endpoint} on localhost: it measures the driver, the SDK, request
+ * signing and the connection pool over loopback, but not S3 itself. Closing the
+ * disk stops the endpoint.
+ */
+final class BenchmarkDisks {
+    static final String LOCAL = "local";
+    static final String S3 = "s3";
+
+    private BenchmarkDisks() {
+    }
+
+    static Storage create(String disk, Path root) {
+        switch (disk) {
+            case LOCAL:
+                return new LocalStorage(root);
+            case S3:
+                FakeS3Endpoint endpoint;
+                try {
+                    endpoint = new FakeS3Endpoint("benchmark", root.resolve("endpoint"));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                DiskConfig diskConfig = new DiskConfig(StorageDisk.AWS_S3.value());
+                diskConfig.addOption("bucket", "benchmark");
+                diskConfig.addOption("endpoint", endpoint.url());
+                diskConfig.addOption("path_style", "true");
+                diskConfig.addOption("key", "benchmark");
+                diskConfig.addOption("secret", "benchmark");
+                return new ForwardingStorage(new S3Storage(diskConfig)) {
+                    @Override
+                    public void close() {
+                        try {
+                            super.close();
+                        } finally {
+                            endpoint.close();
+                        }
+                    }
+                };
+            default:
+                throw new IllegalArgumentException("Unknown benchmark disk: " + disk);
+        }
+    }
+
+    static void deleteTree(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
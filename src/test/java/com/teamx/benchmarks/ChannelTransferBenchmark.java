@@ -0,0 +1,81 @@
+package com.teamx.benchmarks;
+
+import com.teamx.disks.LocalStorage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares the InputStream path of LocalStorage with the channel path
+ * (FileChannel.transferTo/transferFrom) for file-to-file transfers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ChannelTransferBenchmark {
+
+    @Param({"1048576", "67108864"})
+    public int size;
+
+    private Path root;
+    private Path target;
+    private LocalStorage storage;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("channel-bench");
+        target = root.resolve("target.bin");
+        storage = new LocalStorage(root.resolve("disk"));
+
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        Files.write(root.resolve("disk").resolve("source.bin"), data);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long streamGet() throws IOException {
+        try (InputStream in = storage.get("source.bin");
+             OutputStream out = Files.newOutputStream(target)) {
+            return in.transferTo(out);
+        }
+    }
+
+    @Benchmark
+    public long channelWriteTo() throws IOException {
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return storage.writeTo("source.bin", out);
+        }
+    }
+
+    @Benchmark
+    public boolean streamPut() throws IOException {
+        try (InputStream in = Files.newInputStream(root.resolve("disk").resolve("source.bin"))) {
+            return storage.put("copy.bin", in);
+        }
+    }
+
+    @Benchmark
+    public boolean channelPut() throws IOException {
+        try (FileChannel in = FileChannel.open(root.resolve("disk").resolve("source.bin"))) {
+            return storage.put("copy.bin", in, in.size());
+        }
+    }
+}
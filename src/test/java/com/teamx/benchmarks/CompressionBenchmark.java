@@ -0,0 +1,95 @@
+package com.teamx.benchmarks;
+
+import com.teamx.disks.CompressedStorage;
+import com.teamx.disks.LocalStorage;
+import com.teamx.disks.Storage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Put and get throughput of CompressedStorage against the plain local disk, on
+ * compressible JSON logs and on random bytes, which the sampling should store
+ * as they are. The compression ratio of each codec is printed at the end of a
+ * trial, e.g. {@code -Djmh.args="CompressionBenchmark -p content=json"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CompressionBenchmark {
+
+    @Param({"plain", "gzip", "zstd"})
+    public String codec;
+
+    @Param({"json", "random"})
+    public String content;
+
+    @Param({"65536", "16777216"})
+    public int size;
+
+    private Path root;
+    private Storage storage;
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("compression-bench");
+        LocalStorage local = new LocalStorage(root);
+        storage = "plain".equals(codec) ? local : new CompressedStorage(local, codec);
+
+        payload = "json".equals(content) ? logs(size) : random(size);
+        storage.put("source.bin", new ByteArrayInputStream(payload));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        long stored = Files.size(root.resolve("source.bin"));
+        System.out.printf("%n%s on %s: %d -> %d bytes, ratio %.2f%n", codec, content, payload.length, stored,
+                (double) payload.length / stored);
+        BenchmarkDisks.deleteTree(root);
+    }
+
+    @Benchmark
+    public boolean put() {
+        return storage.put("put.bin", new ByteArrayInputStream(payload));
+    }
+
+    @Benchmark
+    public long get() throws IOException {
+        try (InputStream in = storage.get("source.bin")) {
+            return in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    private static byte[] logs(int size) {
+        Random random = new Random(42);
+        String[] levels = {"INFO", "INFO", "INFO", "WARN", "ERROR"};
+        StringBuilder builder = new StringBuilder(size + 256);
+        while (builder.length() < size) {
+            builder.append("{\"ts\":").append(1_700_000_000_000L + random.nextInt(1_000_000))
+                    .append(",\"level\":\"").append(levels[random.nextInt(levels.length)])
+                    .append("\",\"user\":").append(random.nextInt(10_000))
+                    .append(",\"path\":\"/api/items/").append(random.nextInt(500))
+                    .append("\",\"status\":200,\"millis\":").append(random.nextInt(300)).append("}\n");
+        }
+        byte[] bytes = builder.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] exact = new byte[size];
+        System.arraycopy(bytes, 0, exact, 0, size);
+        return exact;
+    }
+
+    private static byte[] random(int size) {
+        byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,566 @@
+package com.teamx.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * S3 endpoint on localhost for benchmarks, so an S3Storage built from
+ * configuration runs its whole stack: SDK marshalling, request signing, the HTTP
+ * client and its connection pool. Objects are kept in files below a directory,
+ * so large objects do not need heap.
+ * <p>
+ * One bucket, path-style requests, and the operations S3Storage uses: object
+ * PUT, GET with ranges, HEAD, DELETE and copy, ListObjectsV2, DeleteObjects and
+ * multipart uploads, part copies included. Signatures are not checked.
+ */
+final class FakeS3Endpoint implements AutoCloseable {
+    private static final String NAMESPACE = "http://s3.amazonaws.com/doc/2006-03-01/";
+    private static final int MAX_KEYS = 1000;
+    private static final Pattern KEY = Pattern.compile("<Key>(.*?)</Key>", Pattern.DOTALL);
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    static {
+        // Without it small responses wait for delayed ACKs and the endpoint dominates every call
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final String bucket;
+    private final Path directory;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "fake-s3-endpoint");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final NavigableMap<String, StoredObject> objects = new ConcurrentSkipListMap<>();
+    private final Map<String, Map<Integer, StoredObject>> uploads = new ConcurrentHashMap<>();
+
+    FakeS3Endpoint(String bucket, Path directory) throws IOException {
+        this.bucket = bucket;
+        this.directory = Files.createDirectories(directory);
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String url() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+            if (!path.equals("/" + bucket) && !path.startsWith("/" + bucket + "/")) {
+                error(exchange, 404, "NoSuchBucket");
+                return;
+            }
+            String key = path.length() > bucket.length() + 2 ? path.substring(bucket.length() + 2) : "";
+            String method = exchange.getRequestMethod();
+
+            if (key.isEmpty()) {
+                if (method.equals("HEAD")) {
+                    exchange.sendResponseHeaders(200, -1);
+                } else if (method.equals("GET")) {
+                    list(exchange, query);
+                } else if (method.equals("POST") && query.containsKey("delete")) {
+                    deleteObjects(exchange);
+                } else {
+                    error(exchange, 405, "MethodNotAllowed");
+                }
+                return;
+            }
+
+            switch (method) {
+                case "PUT":
+                    if (query.containsKey("uploadId")) {
+                        uploadPart(exchange, query);
+                    } else if (exchange.getRequestHeaders().containsKey("x-amz-copy-source")) {
+                        copy(exchange, key);
+                    } else {
+                        replace(key, store(exchange));
+                        exchange.getResponseHeaders().add("ETag", objects.get(key).etag);
+                        exchange.sendResponseHeaders(200, -1);
+                    }
+                    break;
+                case "POST":
+                    if (query.containsKey("uploads")) {
+                        String uploadId = UUID.randomUUID().toString();
+                        uploads.put(uploadId, new ConcurrentHashMap<>());
+                        xml(exchange, 200, "<InitiateMultipartUploadResult xmlns=\"" + NAMESPACE + "\"><Bucket>"
+                                + bucket + "</Bucket><Key>" + escape(key) + "</Key><UploadId>" + uploadId
+                                + "</UploadId></InitiateMultipartUploadResult>");
+                    } else if (query.containsKey("uploadId")) {
+                        complete(exchange, key, query.get("uploadId"));
+                    } else {
+                        error(exchange, 405, "MethodNotAllowed");
+                    }
+                    break;
+                case "DELETE":
+                    if (query.containsKey("uploadId")) {
+                        Map<Integer, StoredObject> parts = uploads.remove(query.get("uploadId"));
+                        if (parts != null) {
+                            parts.values().forEach(StoredObject::delete);
+                        }
+                    } else {
+                        replace(key, null);
+                    }
+                    exchange.sendResponseHeaders(204, -1);
+                    break;
+                case "HEAD":
+                case "GET":
+                    read(exchange, key, method.equals("HEAD"));
+                    break;
+                default:
+                    error(exchange, 405, "MethodNotAllowed");
+            }
+        } catch (IOException | RuntimeException e) {
+            // The client sees a dropped connection or a 500
+            try {
+                error(exchange, 500, "InternalError");
+            } catch (IOException | RuntimeException ignored) {
+                // Response already started
+            }
+        }
+    }
+
+    private void read(HttpExchange exchange, String key, boolean head) throws IOException {
+        StoredObject object = objects.get(key);
+        if (object == null) {
+            if (head) {
+                exchange.sendResponseHeaders(404, -1);
+            } else {
+                error(exchange, 404, "NoSuchKey");
+            }
+            return;
+        }
+
+        long start = 0;
+        long end = object.size - 1;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        Matcher matcher = range == null ? null : RANGE.matcher(range);
+        if (matcher != null && matcher.matches() && object.size > 0) {
+            start = Long.parseLong(matcher.group(1));
+            if (!matcher.group(2).isEmpty()) {
+                end = Math.min(end, Long.parseLong(matcher.group(2)));
+            }
+            if (start > end) {
+                error(exchange, 416, "InvalidRange");
+                return;
+            }
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + object.size);
+            status = 206;
+        }
+
+        long length = end - start + 1;
+        exchange.getResponseHeaders().add("ETag", object.etag);
+        exchange.getResponseHeaders().add("Last-Modified", HTTP_DATE.format(Instant.ofEpochMilli(object.lastModified)));
+        exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+        if (head) {
+            // The JDK server drops the connection after a HEAD with a Content-Length,
+            // so say so instead of leaving the client to retry on a dead connection
+            exchange.getResponseHeaders().add("Content-Length", Long.toString(object.size));
+            exchange.getResponseHeaders().add("Connection", "close");
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        if (length > 0) {
+            try (FileChannel channel = FileChannel.open(object.file, StandardOpenOption.READ)) {
+                OutputStream out = exchange.getResponseBody();
+                channel.transferTo(start, length, Channels.newChannel(out));
+                out.flush();
+            }
+        }
+    }
+
+    private void copy(HttpExchange exchange, String key) throws IOException {
+        drain(exchange);
+        StoredObject source = copySource(exchange);
+        if (source == null) {
+            error(exchange, 404, "NoSuchKey");
+            return;
+        }
+        StoredObject copy = write(Files.newInputStream(source.file), Long.MAX_VALUE);
+        replace(key, copy);
+        xml(exchange, 200, "<CopyObjectResult xmlns=\"" + NAMESPACE + "\"><LastModified>"
+                + Instant.ofEpochMilli(copy.lastModified) + "</LastModified><ETag>" + escape(copy.etag)
+                + "</ETag></CopyObjectResult>");
+    }
+
+    private void uploadPart(HttpExchange exchange, Map<String, String> query) throws IOException {
+        Map<Integer, StoredObject> parts = uploads.get(query.get("uploadId"));
+        if (parts == null) {
+            drain(exchange);
+            error(exchange, 404, "NoSuchUpload");
+            return;
+        }
+        int partNumber = Integer.parseInt(query.get("partNumber"));
+
+        StoredObject part;
+        boolean copied = exchange.getRequestHeaders().containsKey("x-amz-copy-source");
+        if (copied) {
+            drain(exchange);
+            StoredObject source = copySource(exchange);
+            if (source == null) {
+                error(exchange, 404, "NoSuchKey");
+                return;
+            }
+            long start = 0;
+            long end = source.size - 1;
+            String range = exchange.getRequestHeaders().getFirst("x-amz-copy-source-range");
+            Matcher matcher = range == null ? null : RANGE.matcher(range);
+            if (matcher != null && matcher.matches()) {
+                start = Long.parseLong(matcher.group(1));
+                end = Long.parseLong(matcher.group(2));
+            }
+            InputStream in = Files.newInputStream(source.file);
+            in.skipNBytes(start);
+            part = write(in, end - start + 1);
+        } else {
+            part = store(exchange);
+        }
+        StoredObject previous = parts.put(partNumber, part);
+        if (previous != null) {
+            previous.delete();
+        }
+
+        if (copied) {
+            xml(exchange, 200, "<CopyPartResult xmlns=\"" + NAMESPACE + "\"><LastModified>"
+                    + Instant.ofEpochMilli(part.lastModified) + "</LastModified><ETag>" + escape(part.etag)
+                    + "</ETag></CopyPartResult>");
+        } else {
+            exchange.getResponseHeaders().add("ETag", part.etag);
+            exchange.sendResponseHeaders(200, -1);
+        }
+    }
+
+    private void complete(HttpExchange exchange, String key, String uploadId) throws IOException {
+        drain(exchange);
+        Map<Integer, StoredObject> parts = uploads.remove(uploadId);
+        if (parts == null) {
+            error(exchange, 404, "NoSuchUpload");
+            return;
+        }
+
+        Path file = directory.resolve(UUID.randomUUID().toString());
+        MessageDigest etags = md5();
+        long size = 0;
+        try (FileChannel target = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            for (StoredObject part : new TreeMap<>(parts).values()) {
+                try (FileChannel source = FileChannel.open(part.file, StandardOpenOption.READ)) {
+                    long position = 0;
+                    while (position < part.size) {
+                        position += source.transferTo(position, part.size - position, target);
+                    }
+                }
+                size += part.size;
+                etags.update(HexFormat.of().parseHex(part.etag.substring(1, part.etag.length() - 1)));
+                part.delete();
+            }
+        }
+        String etag = "\"" + HexFormat.of().formatHex(etags.digest()) + "-" + parts.size() + "\"";
+        replace(key, new StoredObject(file, size, etag));
+        xml(exchange, 200, "<CompleteMultipartUploadResult xmlns=\"" + NAMESPACE + "\"><Location>" + url() + "/"
+                + bucket + "/" + escape(key) + "</Location><Bucket>" + bucket + "</Bucket><Key>" + escape(key)
+                + "</Key><ETag>" + escape(etag) + "</ETag></CompleteMultipartUploadResult>");
+    }
+
+    private void list(HttpExchange exchange, Map<String, String> query) throws IOException {
+        String prefix = query.getOrDefault("prefix", "");
+        String delimiter = query.getOrDefault("delimiter", "");
+        int maxKeys = Math.min(MAX_KEYS, Integer.parseInt(query.getOrDefault("max-keys", "1000")));
+        String after = query.getOrDefault("continuation-token", query.getOrDefault("start-after", ""));
+
+        StringBuilder contents = new StringBuilder();
+        SortedMap<String, StoredObject> candidates = prefix.isEmpty() ? objects : objects.tailMap(prefix);
+        String lastPrefix = null;
+        String last = null;
+        int count = 0;
+        boolean truncated = false;
+        for (Map.Entry<String, StoredObject> entry : candidates.entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+            if (key.compareTo(after) <= 0) {
+                continue;
+            }
+            int split = delimiter.isEmpty() ? -1 : key.indexOf(delimiter, prefix.length());
+            String commonPrefix = split < 0 ? null : key.substring(0, split + delimiter.length());
+            if (commonPrefix != null && commonPrefix.equals(lastPrefix)) {
+                last = key;
+                continue;
+            }
+            if (count == maxKeys) {
+                truncated = true;
+                break;
+            }
+            if (commonPrefix != null) {
+                contents.append("<CommonPrefixes><Prefix>").append(escape(commonPrefix))
+                        .append("</Prefix></CommonPrefixes>");
+                lastPrefix = commonPrefix;
+            } else {
+                StoredObject object = entry.getValue();
+                contents.append("<Contents><Key>").append(escape(key)).append("</Key><LastModified>")
+                        .append(Instant.ofEpochMilli(object.lastModified)).append("</LastModified><ETag>")
+                        .append(escape(object.etag)).append("</ETag><Size>").append(object.size)
+                        .append("</Size><StorageClass>STANDARD</StorageClass></Contents>");
+            }
+            last = key;
+            count++;
+        }
+
+        xml(exchange, 200, "<ListBucketResult xmlns=\"" + NAMESPACE + "\"><Name>" + bucket + "</Name><Prefix>"
+                + escape(prefix) + "</Prefix><KeyCount>" + count + "</KeyCount><MaxKeys>" + maxKeys
+                + "</MaxKeys>" + (delimiter.isEmpty() ? "" : "<Delimiter>" + escape(delimiter) + "</Delimiter>")
+                + "<IsTruncated>" + truncated + "</IsTruncated>"
+                + (truncated ? "<NextContinuationToken>" + escape(last) + "</NextContinuationToken>" : "")
+                + contents + "</ListBucketResult>");
+    }
+
+    private void deleteObjects(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        decodedBody(exchange).transferTo(body);
+        Matcher matcher = KEY.matcher(body.toString(StandardCharsets.UTF_8));
+        while (matcher.find()) {
+            replace(unescape(matcher.group(1)), null);
+        }
+        xml(exchange, 200, "<DeleteResult xmlns=\"" + NAMESPACE + "\"></DeleteResult>");
+    }
+
+    private StoredObject copySource(HttpExchange exchange) {
+        String source = URLDecoder.decode(exchange.getRequestHeaders().getFirst("x-amz-copy-source"),
+                StandardCharsets.UTF_8);
+        source = source.startsWith("/") ? source.substring(1) : source;
+        int query = source.indexOf('?');
+        source = query < 0 ? source : source.substring(0, query);
+        return source.startsWith(bucket + "/") ? objects.get(source.substring(bucket.length() + 1)) : null;
+    }
+
+    private void replace(String key, StoredObject object) {
+        StoredObject previous = object == null ? objects.remove(key) : objects.put(key, object);
+        if (previous != null) {
+            previous.delete();
+        }
+    }
+
+    private StoredObject store(HttpExchange exchange) throws IOException {
+        return write(decodedBody(exchange), Long.MAX_VALUE);
+    }
+
+    /**
+     * Write at most limit bytes of a stream to a new file, closing the stream
+     */
+    private StoredObject write(InputStream content, long limit) throws IOException {
+        Path file = directory.resolve(UUID.randomUUID().toString());
+        MessageDigest md5 = md5();
+        long size;
+        try (InputStream in = new DigestInputStream(content, md5);
+             OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE_NEW)) {
+            size = limit == Long.MAX_VALUE ? in.transferTo(out) : copyExactly(in, out, limit);
+        }
+        return new StoredObject(file, size, "\"" + HexFormat.of().formatHex(md5.digest()) + "\"");
+    }
+
+    private static long copyExactly(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long remaining = length;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                break;
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+        return length - remaining;
+    }
+
+    /**
+     * Request body without the aws-chunked framing the SDK uses for signed and checksummed uploads
+     */
+    private static InputStream decodedBody(HttpExchange exchange) {
+        InputStream body = new BufferedInputStream(exchange.getRequestBody(), 64 * 1024);
+        String sha256 = exchange.getRequestHeaders().getFirst("x-amz-content-sha256");
+        String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        boolean chunked = (sha256 != null && sha256.startsWith("STREAMING-"))
+                || (encoding != null && encoding.contains("aws-chunked"));
+        return chunked ? new AwsChunkedInputStream(body) : body;
+    }
+
+    private static void drain(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+    }
+
+    private static void xml(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static void error(HttpExchange exchange, int status, String code) throws IOException {
+        xml(exchange, status, "<Error><Code>" + code + "</Code><Message>" + code + "</Message></Error>");
+    }
+
+    private static Map<String, String> query(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int equals = parameter.indexOf('=');
+            String name = equals < 0 ? parameter : parameter.substring(0, equals);
+            String value = equals < 0 ? "" : parameter.substring(equals + 1);
+            query.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static String unescape(String text) {
+        return text.replace("&quot;", "\"").replace("&gt;", ">").replace("&lt;", "<").replace("&amp;", "&");
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class StoredObject {
+        final Path file;
+        final long size;
+        final String etag;
+        final long lastModified = System.currentTimeMillis();
+
+        StoredObject(Path file, long size, String etag) {
+            this.file = file;
+            this.size = size;
+            this.etag = etag;
+        }
+
+        void delete() {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Data of an aws-chunked body: hex size lines, each followed by that many
+     * bytes, up to a zero-size chunk and the trailers, which are skipped
+     */
+    private static final class AwsChunkedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+        private boolean finished;
+
+        AwsChunkedInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (remaining == 0 && !nextChunk()) {
+                return -1;
+            }
+            int read = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read < 0) {
+                throw new IOException("Truncated aws-chunked body");
+            }
+            remaining -= read;
+            if (remaining == 0) {
+                line();
+            }
+            return read;
+        }
+
+        private boolean nextChunk() throws IOException {
+            if (finished) {
+                return false;
+            }
+            String header = line();
+            int semicolon = header.indexOf(';');
+            remaining = Long.parseLong((semicolon < 0 ? header : header.substring(0, semicolon)).trim(), 16);
+            if (remaining == 0) {
+                finished = true;
+                in.transferTo(OutputStream.nullOutputStream());
+                return false;
+            }
+            return true;
+        }
+
+        private String line() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) >= 0 && c != '\n') {
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            return line.toString();
+        }
+    }
+}
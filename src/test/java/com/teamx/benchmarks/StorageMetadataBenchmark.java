@@ -0,0 +1,87 @@
+package com.teamx.benchmarks;
+
+import com.teamx.disks.Storage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput and latency percentiles of the metadata operations: exists,
+ * listContents and deleteDirectory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StorageMetadataBenchmark {
+    private static final byte[] SMALL = new byte[16];
+
+    @Param({BenchmarkDisks.LOCAL, BenchmarkDisks.S3})
+    public String disk;
+
+    @Param({"100", "1000"})
+    public int files;
+
+    private Path root;
+    private Storage storage;
+
+    /**
+     * A fresh directory for every deleteDirectory call. Filling it is excluded
+     * from the measurement.
+     */
+    @State(Scope.Thread)
+    public static class DeletableDirectory {
+        private static final AtomicInteger DIRECTORIES = new AtomicInteger();
+
+        String path;
+
+        @Setup(Level.Invocation)
+        public void fill(StorageMetadataBenchmark benchmark) {
+            path = "delete/" + DIRECTORIES.incrementAndGet();
+            for (int i = 0; i < benchmark.files; i++) {
+                benchmark.storage.put(path + "/" + i + ".bin", new ByteArrayInputStream(SMALL));
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("metadata-bench");
+        storage = BenchmarkDisks.create(disk, root);
+
+        for (int i = 0; i < files; i++) {
+            storage.put("tree/" + i + ".bin", new ByteArrayInputStream(SMALL));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        storage.close();
+        BenchmarkDisks.deleteTree(root);
+    }
+
+    @Benchmark
+    public boolean existsHit() {
+        return storage.exists("tree/0.bin");
+    }
+
+    @Benchmark
+    public boolean existsMiss() {
+        return storage.exists("tree/missing.bin");
+    }
+
+    @Benchmark
+    public List<String> listContents() {
+        return storage.listContents("tree");
+    }
+
+    @Benchmark
+    public boolean deleteDirectory(DeletableDirectory directory) {
+        return storage.deleteDirectory(directory.path);
+    }
+}
@@ -0,0 +1,119 @@
+package com.teamx.benchmarks;
+
+import com.teamx.disks.Storage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput and latency percentiles of put, get and copy across object sizes.
+ * Payloads are generated as they are streamed and both disks keep objects in
+ * files, so the 1GB size needs disk space rather than heap. Run with more threads
+ * to measure contention, e.g.
+ * {@code -Djmh.args="StorageTransferBenchmark -t 8 -p size=1024"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class StorageTransferBenchmark {
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    @Param({BenchmarkDisks.LOCAL, BenchmarkDisks.S3})
+    public String disk;
+
+    @Param({"1024", "1048576", "67108864", "1073741824"})
+    public long size;
+
+    private Path root;
+    private Storage storage;
+    private byte[] block;
+
+    @State(Scope.Thread)
+    public static class ThreadKeys {
+        private static final AtomicInteger THREADS = new AtomicInteger();
+
+        String putKey;
+        String copyKey;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            int thread = THREADS.incrementAndGet();
+            putKey = "put/" + thread + ".bin";
+            copyKey = "copy/" + thread + ".bin";
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("transfer-bench");
+        storage = BenchmarkDisks.create(disk, root);
+
+        block = new byte[BLOCK_SIZE];
+        new Random(42).nextBytes(block);
+        storage.put("source.bin", new GeneratedInputStream(block, size));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        storage.close();
+        BenchmarkDisks.deleteTree(root);
+    }
+
+    @Benchmark
+    public boolean put(ThreadKeys keys) {
+        return storage.put(keys.putKey, new GeneratedInputStream(block, size));
+    }
+
+    @Benchmark
+    public long get() throws IOException {
+        try (InputStream in = storage.get("source.bin")) {
+            return in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    @Benchmark
+    public boolean copy(ThreadKeys keys) {
+        return storage.copy("source.bin", keys.copyKey);
+    }
+
+    /**
+     * Stream of a given length that repeats a random block, so no payload is held in memory
+     */
+    static final class GeneratedInputStream extends InputStream {
+        private final byte[] block;
+        private long remaining;
+
+        GeneratedInputStream(byte[] block, long size) {
+            this.block = block;
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() {
+            if (remaining == 0) {
+                return -1;
+            }
+            return block[(int) (--remaining % block.length)] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (remaining == 0) {
+                return -1;
+            }
+            int start = (int) (remaining % block.length);
+            int count = (int) Math.min(Math.min(length, remaining), block.length - start);
+            System.arraycopy(block, start, buffer, offset, count);
+            remaining -= count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.teamx.disks;
+
+import com.teamx.StorageException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DedupIndexTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    public void failedLinkGivesBackItsReference() {
+        DedupIndex index = new DedupIndex(root.resolve("paths.idx"));
+        DedupIndex.Blob blob = index.reserve("a".repeat(64), 4);
+        index.stored(blob);
+        index.bind("a.txt", blob, 1);
+        index.close();
+
+        assertThrows(StorageException.class, () -> index.link("a.txt", "b.txt", 2));
+        assertEquals(1, blob.refs);
+        assertNull(index.get("b.txt"));
+    }
+}
@@ -0,0 +1,91 @@
+package com.teamx.disks;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DirectorySyncerTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void concurrentSyncsShareFsyncs() throws Exception {
+        AtomicInteger fsyncs = new AtomicInteger();
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch othersWaiting = new CountDownLatch(1);
+        DirectorySyncer syncer = new DirectorySyncer() {
+            @Override
+            void force(Path path) throws IOException {
+                if (fsyncs.incrementAndGet() == 1) {
+                    firstStarted.countDown();
+                    try {
+                        othersWaiting.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.force(path);
+            }
+        };
+
+        int writers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try {
+            List<Future<?>> syncs = new ArrayList<>();
+            syncs.add(executor.submit(() -> {
+                syncer.sync(directory);
+                return null;
+            }));
+            firstStarted.await();
+
+            // Renamed while the first fsync runs, so it does not cover them
+            for (int i = 1; i < writers; i++) {
+                syncs.add(executor.submit(() -> {
+                    syncer.sync(directory);
+                    return null;
+                }));
+            }
+            Thread.sleep(100);
+            othersWaiting.countDown();
+
+            for (Future<?> sync : syncs) {
+                sync.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // The first fsync, then usually a single one for everyone who waited behind it
+        assertTrue(fsyncs.get() < writers, "fsyncs: " + fsyncs.get());
+    }
+
+    @Test
+    public void failedFsyncIsThrownAndRetriedByTheNextCaller() throws Exception {
+        AtomicInteger fsyncs = new AtomicInteger();
+        DirectorySyncer syncer = new DirectorySyncer() {
+            @Override
+            void force(Path path) throws IOException {
+                if (fsyncs.incrementAndGet() == 1) {
+                    throw new IOException("Injected fsync failure");
+                }
+                super.force(path);
+            }
+        };
+
+        assertThrows(IOException.class, () -> syncer.sync(directory));
+        syncer.sync(directory);
+        assertEquals(2, fsyncs.get());
+    }
+}
@@ -0,0 +1,50 @@
+package com.teamx.disks;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LocalPathIndexTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    public void rescanReplacesOnlyTheSubtree() throws IOException {
+        Files.createDirectories(root.resolve("a/old"));
+        Files.writeString(root.resolve("a/old/1.txt"), "1");
+        Files.writeString(root.resolve("b.txt"), "b");
+        LocalPathIndex index = new LocalPathIndex(root, root.resolve(".index"), false);
+
+        // Changed behind the index's back
+        Files.delete(root.resolve("a/old/1.txt"));
+        Files.delete(root.resolve("a/old"));
+        Files.createDirectories(root.resolve("a/new"));
+        Files.writeString(root.resolve("a/new/2.txt"), "22");
+        index.refresh(root.resolve("a"), true);
+
+        assertEquals(List.of("a", "a/new", "a/new/2.txt", "b.txt"), paths(index.listAll("")));
+        assertEquals(2, index.stat("a/new/2.txt").getSize());
+        assertNull(index.stat("a/old"));
+
+        index.remove(root.resolve("a"));
+        index.refresh(root.resolve("a/new/2.txt"), false);
+        assertTrue(index.exists("a"));
+        assertTrue(index.exists("a/new"));
+        assertEquals(List.of("2.txt"), paths(index.list("a/new")).stream()
+                .map(path -> path.substring("a/new/".length()))
+                .collect(Collectors.toList()));
+        index.close();
+    }
+
+    private static List<String> paths(List<StorageEntry> entries) {
+        return entries.stream().map(StorageEntry::getPath).collect(Collectors.toList());
+    }
+}
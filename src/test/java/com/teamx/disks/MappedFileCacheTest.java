@@ -0,0 +1,55 @@
+package com.teamx.disks;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedFileCacheTest {
+
+    @TempDir
+    Path directory;
+
+    private static String string(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+    @Test
+    public void mappingOfAFileReplacedWhileMappingIsNotCached() throws IOException {
+        Path file = Files.writeString(directory.resolve("a.txt"), "old");
+        AtomicBoolean replaceOnce = new AtomicBoolean(true);
+        MappedFileCache cache = new MappedFileCache(1024, 1024 * 1024) {
+            @Override
+            MappedByteBuffer map(FileChannel channel, long start, long size) throws IOException {
+                MappedByteBuffer mapped = super.map(channel, start, size);
+                if (replaceOnce.getAndSet(false)) {
+                    // A put renames a new file into place and invalidates the old one
+                    try {
+                        Path temp = Files.writeString(directory.resolve("a.tmp"), "new");
+                        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    invalidate(file);
+                }
+                return mapped;
+            }
+        };
+
+        assertEquals("old", string(cache.read(file, 0, 3)));
+        assertEquals(0, cache.getMappedBytes());
+        assertEquals("new", string(cache.read(file, 0, 3)));
+        assertEquals(3, cache.getMappedBytes());
+    }
+}
@@ -0,0 +1,80 @@
+package com.teamx.disks;
+
+import com.teamx.StorageDisk;
+import com.teamx.config.DiskConfig;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class S3ClientPoolTest {
+
+    private final S3ClientPool pool = new S3ClientPool();
+
+    private static DiskConfig diskConfig(String bucket) {
+        DiskConfig diskConfig = new DiskConfig(StorageDisk.AWS_S3.value());
+        diskConfig.addOption("bucket", bucket);
+        diskConfig.addOption("region", "eu-west-1");
+        diskConfig.addOption("key", "key");
+        diskConfig.addOption("secret", "secret");
+        return diskConfig;
+    }
+
+    @Test
+    public void disksWithEqualSettingsShareAClient() {
+        S3ClientPool.Lease first = pool.acquire(diskConfig("first"));
+        S3ClientPool.Lease second = pool.acquire(diskConfig("second"));
+
+        assertSame(first.client(), second.client());
+        assertSame(first.asyncClient(), second.asyncClient());
+        assertEquals(1, pool.size());
+
+        first.release();
+        second.release();
+    }
+
+    @Test
+    public void differentSettingsGetTheirOwnClient() {
+        DiskConfig otherEndpoint = diskConfig("bucket");
+        otherEndpoint.addOption("endpoint", "http://localhost:9000");
+        DiskConfig otherKey = diskConfig("bucket");
+        otherKey.addOption("key", "other");
+        DiskConfig resilient = diskConfig("bucket");
+        resilient.addOption("resilient", "true");
+
+        S3ClientPool.Lease plain = pool.acquire(diskConfig("bucket"));
+        S3ClientPool.Lease endpoint = pool.acquire(otherEndpoint);
+        S3ClientPool.Lease key = pool.acquire(otherKey);
+        S3ClientPool.Lease retrying = pool.acquire(resilient);
+
+        assertNotSame(plain.client(), endpoint.client());
+        assertNotSame(plain.client(), key.client());
+        assertNotSame(plain.client(), retrying.client());
+        assertEquals(4, pool.size());
+
+        plain.release();
+        endpoint.release();
+        key.release();
+        retrying.release();
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void lastReleaseClosesTheClient() {
+        S3ClientPool.Lease first = pool.acquire(diskConfig("first"));
+        S3ClientPool.Lease second = pool.acquire(diskConfig("second"));
+
+        first.release();
+        first.release();
+        assertEquals(1, pool.size());
+        assertNotNull(second.asyncClient());
+
+        second.release();
+        assertEquals(0, pool.size());
+        assertThrows(IllegalStateException.class, second::asyncClient);
+
+        // A new disk gets a new client
+        S3ClientPool.Lease third = pool.acquire(diskConfig("third"));
+        assertNotSame(second.client(), third.client());
+        third.release();
+    }
+}